@@ -0,0 +1,190 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how many bytes of heap memory the test allocates, using the
+ * HotSpot-specific {@code com.sun.management.ThreadMXBean}.
+ * <p>
+ * Unlike the change in heap usage, this isn't thrown off by garbage collections
+ * that happen during the measurement. It counts the thread that took the
+ * {@link Snapshot}, plus whatever the threads that PerfRunner starts for a
+ * concurrent run add to that thread's {@link #helperAllocation()} as they
+ * finish. Other threads in the JVM (the JIT compiler, GC notifications, fork
+ * connections, and threads the test method starts on its own) aren't counted.
+ */
+class AllocationMeter {
+
+  /**
+   * A reading of the measuring thread's allocation counter and of what its
+   * helper threads had added up to then.
+   */
+  static class Snapshot {
+    private final long threadId;
+    private final AtomicLong helpers;
+    private final long helperBytes;
+
+    /**
+     * Set after construction, so creating the snapshot isn't counted.
+     */
+    private long threadBytes;
+
+    private Snapshot(long threadId, AtomicLong helpers) {
+      this.threadId = threadId;
+      this.helpers = helpers;
+      this.helperBytes = helpers.get();
+    }
+  }
+
+  private static final ThreadLocal<AtomicLong> HELPER_ALLOCATION = new ThreadLocal<AtomicLong>() {
+    @Override
+    protected AtomicLong initialValue() {
+      return new AtomicLong();
+    }
+  };
+
+  private static final com.sun.management.ThreadMXBean THREADS;
+
+  /**
+   * Reads the current thread's counter without allocating, on JVMs that have
+   * {@code getCurrentThreadAllocatedBytes()} (Java 14 and later); null on
+   * older ones.
+   */
+  private static final MethodHandle CURRENT_THREAD_BYTES;
+
+  /**
+   * What one reading of the counter allocates itself, which is taken off every
+   * measurement.
+   */
+  private static final long READING_BYTES;
+
+  static {
+    com.sun.management.ThreadMXBean threads = null;
+    try {
+      java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      if (bean instanceof com.sun.management.ThreadMXBean) {
+        threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported()) {
+          threads = null;
+        } else if (!threads.isThreadAllocatedMemoryEnabled()) {
+          threads.setThreadAllocatedMemoryEnabled(true);
+        }
+      }
+    } catch (Throwable t) {
+      // no com.sun.management, or not allowed to enable it
+      threads = null;
+    }
+    MethodHandle current = null;
+    if (threads != null) {
+      try {
+        current = MethodHandles.publicLookup()
+            .findVirtual(com.sun.management.ThreadMXBean.class, "getCurrentThreadAllocatedBytes",
+                MethodType.methodType(long.class))
+            .bindTo(threads);
+      } catch (Exception e) {
+        // older JVM; fall back to looking the thread up by ID
+        current = null;
+      }
+    }
+    THREADS = threads;
+    CURRENT_THREAD_BYTES = current;
+
+    long readingBytes = 0;
+    if (threads != null) {
+      readingBytes = Long.MAX_VALUE;
+      for (int i = 0; i < 10; i++) {
+        long before = currentThreadAllocatedBytes();
+        readingBytes = Math.min(readingBytes, currentThreadAllocatedBytes() - before);
+      }
+    }
+    READING_BYTES = Math.max(0, readingBytes);
+  }
+
+  private AllocationMeter() {
+    // static utility class
+  }
+
+  /**
+   * Returns true if this JVM can measure allocated bytes.
+   */
+  public static boolean isSupported() {
+    return THREADS != null;
+  }
+
+  /**
+   * Returns how many bytes the current thread has allocated in its life, or -1
+   * if allocation can't be measured in this JVM.
+   */
+  public static long currentThreadAllocatedBytes() {
+    if (THREADS == null) {
+      return -1;
+    }
+    if (CURRENT_THREAD_BYTES != null) {
+      try {
+        return (long) CURRENT_THREAD_BYTES.invokeExact();
+      } catch (Throwable e) {
+        throw new RuntimeException("Failed to read allocated bytes", e);
+      }
+    }
+    return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /**
+   * Returns the total that threads working on the current thread's behalf add
+   * their allocation to, so that the current thread's measurements include it.
+   * Each helper thread adds the difference between two
+   * {@link #currentThreadAllocatedBytes()} readings before it finishes.
+   */
+  public static AtomicLong helperAllocation() {
+    return HELPER_ALLOCATION.get();
+  }
+
+  /**
+   * Reads the current thread's allocation counter, or returns null if
+   * allocation can't be measured in this JVM.
+   */
+  public static Snapshot snapshot() {
+    if (THREADS == null) {
+      return null;
+    }
+    Snapshot snapshot = new Snapshot(Thread.currentThread().getId(), HELPER_ALLOCATION.get());
+    snapshot.threadBytes = currentThreadAllocatedBytes();
+    return snapshot;
+  }
+
+  /**
+   * Returns the number of bytes allocated between the given snapshot and now
+   * by the thread that took it and its helper threads, or -1 if allocation
+   * can't be measured in this JVM.
+   */
+  public static long allocatedSince(Snapshot start) {
+    if (start == null) {
+      return -1;
+    }
+    long now = Thread.currentThread().getId() == start.threadId
+        ? currentThreadAllocatedBytes()
+        : THREADS.getThreadAllocatedBytes(start.threadId);
+    long allocated = now < 0 ? 0 : Math.max(0, now - start.threadBytes - READING_BYTES);
+    return allocated + start.helpers.get() - start.helperBytes;
+  }
+}
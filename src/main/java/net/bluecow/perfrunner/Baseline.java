@@ -0,0 +1,403 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The results of a previous run of a test class, loaded from the CSV file
+ * written by {@link CsvResultSink}, for comparison with the current run.
+ * <p>
+ * Each point (a test method with one combination of parameter values) is
+ * compared using a one-sided Mann-Whitney U test over the trials of the two
+ * runs. A point is a regression when the test says, at the significance level
+ * given by {@value #ALPHA_PROPERTY}, that the current trials are slower than
+ * the baseline's. Run with enough {@link Trials} for that to be possible: with
+ * 5 trials on each side, the smallest achievable p-value is 1/252.
+ * <p>
+ * Single-shot tests are compared by run time; throughput tests by nanoseconds
+ * per operation.
+ */
+class Baseline {
+
+  /**
+   * The system property that gives the baseline: a CSV file, or a directory
+   * containing <code>perfrunner-<i>fully-qualified-class-name</i>.csv</code>.
+   */
+  static final String BASELINE_PROPERTY = "perfrunner.baseline";
+
+  /**
+   * The system property that gives the significance level below which a
+   * slowdown counts as a regression. Defaults to 0.05.
+   */
+  static final String ALPHA_PROPERTY = "perfrunner.baseline.alpha";
+
+  /**
+   * The system property that, when true, makes the last trial of each
+   * regressed point fail.
+   */
+  static final String FAIL_PROPERTY = "perfrunner.baseline.fail";
+
+  /**
+   * The largest sample size for which p-values are computed exactly. Bigger
+   * samples use the normal approximation.
+   */
+  private static final int MAX_EXACT_SAMPLES = 50;
+
+  /**
+   * The outcome of comparing one point with the baseline.
+   */
+  static class Comparison {
+    private final SampleSummary baseline;
+    private final SampleSummary current;
+    private final double pValue;
+    private final boolean regression;
+
+    Comparison(SampleSummary baseline, SampleSummary current, double pValue, boolean regression) {
+      this.baseline = baseline;
+      this.current = current;
+      this.pValue = pValue;
+      this.regression = regression;
+    }
+
+    /**
+     * Returns the baseline's trials for the compared point.
+     */
+    public SampleSummary getBaseline() {
+      return baseline;
+    }
+
+    /**
+     * Returns the current run's trials for the compared point.
+     */
+    public SampleSummary getCurrent() {
+      return current;
+    }
+
+    /**
+     * Returns the probability of the current trials being at least this much
+     * slower than the baseline's if there were no real difference.
+     */
+    public double getPValue() {
+      return pValue;
+    }
+
+    /**
+     * Returns true if the current trials are significantly slower.
+     */
+    public boolean isRegression() {
+      return regression;
+    }
+
+    @Override
+    public String toString() {
+      return "median " + current.median() + " vs baseline " + baseline.median() +
+          " (" + current.count() + " vs " + baseline.count() + " trials, p=" + pValue + ")";
+    }
+  }
+
+  /**
+   * The baseline's measurements for each point, by point ID.
+   */
+  private final Map<String, List<Double>> samples = new HashMap<String, List<Double>>();
+
+  /**
+   * The metric each point was measured in, by point ID.
+   */
+  private final Map<String, Metric> metrics = new HashMap<String, Metric>();
+
+  private final double alpha;
+  private final boolean failOnRegression;
+
+  Baseline(double alpha, boolean failOnRegression) {
+    this.alpha = alpha;
+    this.failOnRegression = failOnRegression;
+  }
+
+  /**
+   * Loads the baseline for the given test class as configured by the
+   * {@value #BASELINE_PROPERTY} system property.
+   *
+   * @return the baseline, or null if no baseline is configured.
+   */
+  public static Baseline fromSystemProperties(String className) {
+    String path = System.getProperty(BASELINE_PROPERTY);
+    if (path == null || path.length() == 0) {
+      return null;
+    }
+    File file = new File(path);
+    if (file.isDirectory()) {
+      file = new File(file, "perfrunner-" + className + ".csv");
+    }
+    Baseline baseline = new Baseline(
+        Double.parseDouble(System.getProperty(ALPHA_PROPERTY, "0.05")),
+        Boolean.getBoolean(FAIL_PROPERTY));
+    try {
+      baseline.load(file, className);
+    } catch (IOException e) {
+      throw new RuntimeException("Can't read baseline " + file, e);
+    }
+    return baseline;
+  }
+
+  /**
+   * Reads the given test class's rows from a CSV file written by
+   * {@link CsvResultSink}.
+   */
+  void load(File csv, String className) throws IOException {
+    BufferedReader in = new BufferedReader(new FileReader(csv));
+    try {
+      List<String> header = CsvResultSink.split(in.readLine());
+      int classCol = header.indexOf("class");
+      int methodCol = header.indexOf("method");
+      int paramsCol = header.indexOf("parameters");
+      int nanoTimeCol = header.indexOf("nanoTime");
+      int nsPerOpCol = header.indexOf("nsPerOp");
+      int harnessNanosCol = header.indexOf("harnessNanos");
+      int harnessSubtractedCol = header.indexOf("harnessSubtracted");
+      String line;
+      while ((line = in.readLine()) != null) {
+        List<String> row = CsvResultSink.split(line);
+        if (!row.get(classCol).equals(className)) {
+          continue;
+        }
+        String id = pointId(row.get(methodCol), row.get(paramsCol));
+        String nsPerOp = row.get(nsPerOpCol);
+        if (nsPerOp.length() > 0) {
+          add(id, Metric.NANOS_PER_OPERATION, Double.parseDouble(nsPerOp));
+        } else {
+          // nanoTime is as measured, but the time charted (like nsPerOp) has the overhead taken off if it was subtracted
+          long nanoTime = Long.parseLong(row.get(nanoTimeCol));
+          if (harnessNanosCol >= 0 && harnessSubtractedCol >= 0 && row.get(harnessSubtractedCol).equals("true")) {
+            nanoTime = Math.max(0, nanoTime - Long.parseLong(row.get(harnessNanosCol)));
+          }
+          add(id, Metric.TIME, nanoTime / 1000000.0);
+        }
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Adds one baseline trial.
+   */
+  void add(String pointId, Metric metric, double value) {
+    List<Double> values = samples.get(pointId);
+    if (values == null) {
+      values = new ArrayList<Double>();
+      samples.put(pointId, values);
+    }
+    values.add(value);
+    metrics.put(pointId, metric);
+  }
+
+  /**
+   * Returns the ID that identifies the point the given run belongs to, in the
+   * current run and in the baseline.
+   */
+  public static String pointId(PerfRunDescription desc) {
+    return pointId(desc.getMethodName(), desc.getParamString());
+  }
+
+  private static String pointId(String methodName, String paramString) {
+    return methodName + "[" + paramString + "]";
+  }
+
+  /**
+   * Returns true if a regression should fail the test rather than just being
+   * flagged in the report.
+   */
+  public boolean isFailOnRegression() {
+    return failOnRegression;
+  }
+
+  /**
+   * Returns the metric the given point was measured in by the baseline, or
+   * null if the baseline doesn't have the point.
+   */
+  public Metric metricFor(String pointId) {
+    return metrics.get(pointId);
+  }
+
+  /**
+   * Returns the baseline's trials for the given point, or null if it doesn't
+   * have the point.
+   */
+  public SampleSummary summaryFor(String pointId) {
+    List<Double> values = samples.get(pointId);
+    return values == null ? null : new SampleSummary(toArray(values));
+  }
+
+  /**
+   * Compares the current trials of a point with the baseline's, in the metric
+   * the baseline measured the point in.
+   *
+   * @return the comparison, or null if the baseline doesn't have the point or
+   *         the current trials weren't measured in the same metric.
+   */
+  public Comparison compare(String pointId, List<RunStats> trials) {
+    Metric metric = metrics.get(pointId);
+    if (metric == null) {
+      return null;
+    }
+    double[] values = new double[trials.size()];
+    for (int i = 0; i < values.length; i++) {
+      if (!metric.appliesTo(trials.get(i))) {
+        return null;
+      }
+      values[i] = metric.valueOf(trials.get(i));
+    }
+    return compare(pointId, metric, values);
+  }
+
+  /**
+   * Compares the current trials of a point with the baseline's.
+   *
+   * @param pointId
+   *          the point's ID, from {@link #pointId(PerfRunDescription)}
+   * @param metric
+   *          the metric the current trials are measured in
+   * @param current
+   *          the current trials
+   * @return the comparison, or null if the baseline doesn't have the point in
+   *         the given metric.
+   */
+  public Comparison compare(String pointId, Metric metric, double[] current) {
+    if (metric != metrics.get(pointId)) {
+      return null;
+    }
+    double[] base = toArray(samples.get(pointId));
+    double p = pValueGreater(current, base);
+    return new Comparison(new SampleSummary(base), new SampleSummary(current), p, p < alpha);
+  }
+
+  /**
+   * Returns the one-sided Mann-Whitney U test p-value for the hypothesis that
+   * values drawn like {@code a} tend to be greater than values drawn like
+   * {@code b}. The p-value is exact for small samples without ties, and uses
+   * the normal approximation (with tie and continuity corrections) otherwise.
+   */
+  static double pValueGreater(double[] a, double[] b) {
+    int n = a.length;
+    int m = b.length;
+    int total = n + m;
+
+    // rank the combined samples, giving tied values their average rank
+    double[] all = new double[total];
+    System.arraycopy(a, 0, all, 0, n);
+    System.arraycopy(b, 0, all, n, m);
+    double[] sorted = all.clone();
+    Arrays.sort(sorted);
+    double tieCorrection = 0;
+    Map<Double, Double> ranks = new HashMap<Double, Double>();
+    for (int i = 0; i < total; ) {
+      int j = i;
+      while (j < total && sorted[j] == sorted[i]) {
+        j++;
+      }
+      int t = j - i;
+      tieCorrection += (double) t * t * t - t;
+      ranks.put(sorted[i], (i + 1 + j) / 2.0);
+      i = j;
+    }
+    double rankSum = 0;
+    for (double v : a) {
+      rankSum += ranks.get(v);
+    }
+    double u = rankSum - n * (n + 1) / 2.0;
+
+    if (tieCorrection == 0 && n <= MAX_EXACT_SAMPLES && m <= MAX_EXACT_SAMPLES) {
+      return exactPValueGreater(n, m, (int) Math.round(u));
+    }
+
+    double mean = n * (double) m / 2.0;
+    double variance = n * (double) m / 12.0 * ((total + 1) - tieCorrection / (total * (double) (total - 1)));
+    if (variance == 0) {
+      return 1.0;
+    }
+    double z = (u - mean - 0.5) / Math.sqrt(variance);
+    return 1.0 - normalCdf(z);
+  }
+
+  /**
+   * Returns the probability that U is at least {@code u} for samples of size
+   * {@code n} and {@code m} with no real difference between them, by counting
+   * the orderings that produce each value of U.
+   */
+  private static double exactPValueGreater(int n, int m, int u) {
+    // counts[j][k] = the orderings of i values from a and j from b with U = k,
+    // for the current i; previous holds the same for i - 1
+    double[][] previous = null;
+    double[][] counts = null;
+    for (int i = 0; i <= n; i++) {
+      counts = new double[m + 1][];
+      for (int j = 0; j <= m; j++) {
+        counts[j] = new double[i * j + 1];
+        if (i == 0 || j == 0) {
+          counts[j][0] = 1;
+          continue;
+        }
+        for (int k = 0; k <= i * j; k++) {
+          // the largest value is from a (beating all j from b), or from b
+          double fromA = k >= j && k - j < previous[j].length ? previous[j][k - j] : 0;
+          double fromB = k < counts[j - 1].length ? counts[j - 1][k] : 0;
+          counts[j][k] = fromA + fromB;
+        }
+      }
+      previous = counts;
+    }
+    double atLeast = 0;
+    double all = 0;
+    for (int k = 0; k <= n * m; k++) {
+      all += counts[m][k];
+      if (k >= u) {
+        atLeast += counts[m][k];
+      }
+    }
+    return atLeast / all;
+  }
+
+  /**
+   * Returns the standard normal cumulative distribution function at
+   * {@code z}, using the Abramowitz and Stegun approximation 7.1.26 of the
+   * error function.
+   */
+  private static double normalCdf(double z) {
+    double x = Math.abs(z) / Math.sqrt(2);
+    double t = 1 / (1 + 0.3275911 * x);
+    double erf = 1 - t * (0.254829592 + t * (-0.284496736 + t * (1.421413741 + t * (-1.453152027 + t * 1.061405429))))
+        * Math.exp(-x * x);
+    return z >= 0 ? (1 + erf) / 2 : (1 - erf) / 2;
+  }
+
+  private static double[] toArray(List<Double> values) {
+    double[] array = new double[values.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = values.get(i);
+    }
+    return array;
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+/**
+ * Keeps the JIT compiler from optimizing away work whose result a test method
+ * doesn't otherwise use. Declare a parameter of this type (without a
+ * {@link Varying} annotation) and PerfRunner will pass one in, then hand it
+ * every result:
+ *
+ * <pre>
+ * &#64;Test
+ * public void sum(&#64;Varying(name="Length", axis=Axis.X, from=0, to=1000000, step=100000) int length, Blackhole bh) {
+ *   BigInteger sum = BigInteger.ZERO;
+ *   ...
+ *   bh.consume(sum);
+ * }
+ * </pre>
+ *
+ * Consuming a value costs a couple of nanoseconds and doesn't lock, allocate
+ * or do I/O, so it can be called in tight {@link Throughput} loops and from
+ * {@link Concurrent} threads.
+ * <p>
+ * A test method can also simply return its result, which is consumed by the
+ * method's blackhole.
+ */
+public final class Blackhole {
+
+  /*
+   * Each consume method compares its value with fields that are read from
+   * memory every time and never both match, so the JIT can't know the outcome
+   * and has to compute the value. Objects are kept, now and then, in a field
+   * that the JIT has to assume someone reads.
+   */
+
+  private volatile int int1 = 1;
+  private volatile int int2 = 2;
+  private volatile long long1 = 1;
+  private volatile long long2 = 2;
+  private volatile double double1 = 1;
+  private volatile double double2 = 2;
+  private volatile boolean boolean1 = false;
+  private volatile boolean boolean2 = true;
+
+  /**
+   * Decides when an object is kept: the mask gets a bit longer each time, so
+   * stores become rarer and the kept objects don't add measurable garbage
+   * collection work. Races between threads only change which objects are kept.
+   */
+  private int seed = (int) System.nanoTime();
+  private volatile int keepMask = 1;
+  private volatile Object kept;
+
+  Blackhole() {
+  }
+
+  public void consume(Object value) {
+    int mask = keepMask;
+    int next = seed * 1664525 + 1013904223;
+    seed = next;
+    if ((next & mask) == 0) {
+      kept = value;
+      keepMask = (mask << 1) + 1;
+    }
+  }
+
+  public void consume(int value) {
+    if (value == int1 & value == int2) {
+      throw new IllegalStateException("Blackhole fields were changed");
+    }
+  }
+
+  public void consume(long value) {
+    if (value == long1 & value == long2) {
+      throw new IllegalStateException("Blackhole fields were changed");
+    }
+  }
+
+  public void consume(double value) {
+    if (value == double1 & value == double2) {
+      throw new IllegalStateException("Blackhole fields were changed");
+    }
+  }
+
+  public void consume(boolean value) {
+    if (value == boolean1 & value == boolean2) {
+      throw new IllegalStateException("Blackhole fields were changed");
+    }
+  }
+}
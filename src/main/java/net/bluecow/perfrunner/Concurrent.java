@@ -0,0 +1,73 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Calls the test method on several threads at once, to see how the code under
+ * test scales. The threads are all started and lined up at a barrier before
+ * any of them calls the test method, so they really do run at the same time.
+ * Each thread's latency is recorded, and the chart shows the aggregate
+ * throughput: the calls made by all threads per second of wall-clock time.
+ * Combined with {@link Throughput}, each thread calls the test method over
+ * and over for the given time rather than just once.
+ * <p>
+ * All threads call the test method on the same test class instance, and the
+ * {@code @Before} and {@code @After} methods run only once around them, so the
+ * test method has to be thread safe.
+ * <p>
+ * Give either a fixed number of {@link #threads()}, or name a {@link Varying}
+ * parameter in {@link #threadsFrom()} to chart a scaling curve:
+ *
+ * <pre>
+ * &#64;Test
+ * &#64;Concurrent(threadsFrom="Threads")
+ * public void lookup(&#64;Varying(name="Threads", axis=X, from=1, to=16) int threads) { ... }
+ * </pre>
+ *
+ * Can be placed on a test method or on the test class. An annotation on the
+ * method takes precedence over one on the class.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface Concurrent {
+
+  /**
+   * The number of threads to call the test method on. Leave this out when
+   * using {@link #threadsFrom()}.
+   */
+  public int threads() default 0;
+
+  /**
+   * The name of the test method's {@link Varying} parameter whose value is the
+   * number of threads to use.
+   */
+  public String threadsFrom() default "";
+
+  /**
+   * Use virtual threads rather than platform threads. Virtual threads need
+   * Java 21 or later.
+   */
+  public boolean virtualThreads() default false;
+}
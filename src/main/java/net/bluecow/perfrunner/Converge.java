@@ -0,0 +1,65 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Keeps running trials of each parameter combination until its median is
+ * known precisely: until the 95% confidence interval of the median lies
+ * within {@link #percent()} of the median, or {@link #maxTrials()} trials or
+ * {@link #time()} have been spent on it. Stable points stop after a few
+ * trials, and noisy ones get the trials they need. The combination's
+ * remaining trials are reported as ignored.
+ * <p>
+ * The median is of the metric the chart shows by default (time, or
+ * operations per second in throughput mode). A {@link Trials} annotation
+ * gives the minimum number of trials, but at least 6 are needed before a 95%
+ * confidence interval can be had without assuming a distribution. The trials
+ * of a combination always run one after another, whatever the
+ * {@link RunOrder}. Mousing over a point shows how many trials it took.
+ * <p>
+ * Can be placed on a test method or on the test class. An annotation on the
+ * method takes precedence over one on the class.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface Converge {
+
+  /**
+   * How close to the median both ends of its confidence interval have to
+   * be, as a percentage of the median.
+   */
+  public double percent() default 2;
+
+  /**
+   * The most trials to run of each combination.
+   */
+  public int maxTrials() default 30;
+
+  /**
+   * How long to keep starting new trials of each combination, in
+   * milliseconds, or 0 for no limit.
+   */
+  public long time() default 0;
+}
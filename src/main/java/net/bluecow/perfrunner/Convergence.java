@@ -0,0 +1,93 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Follows the trials of one parameter combination of a {@link Converge}
+ * method, to tell when the median of their default metric is known
+ * precisely enough to stop.
+ */
+class Convergence {
+
+  /**
+   * The confidence level of the interval that has to be narrow enough.
+   */
+  static final double CONFIDENCE = 0.95;
+
+  private final Converge converge;
+  private final int minTrials;
+  private final long startNanos = System.nanoTime();
+  private final List<Double> values = new ArrayList<Double>();
+  private Metric metric;
+
+  /**
+   * Starts following a combination's trials.
+   *
+   * @param converge
+   *          the method's (or class's) settings
+   * @param minTrials
+   *          the number of trials to run before stopping, whatever their
+   *          confidence interval
+   */
+  Convergence(Converge converge, int minTrials) {
+    this.converge = converge;
+    this.minTrials = minTrials;
+  }
+
+  /**
+   * Adds a trial's statistics, or does nothing if the trial wasn't measured.
+   */
+  void add(RunStats rs) {
+    if (rs == null) {
+      return;
+    }
+    if (metric == null) {
+      metric = Metric.defaultFor(rs);
+    }
+    values.add(metric.valueOf(rs));
+  }
+
+  /**
+   * Returns true if no more trials should be started: the combination's time
+   * is up, or there have been enough trials and the confidence interval of
+   * their median is within the target percentage of it.
+   */
+  boolean isDone() {
+    if (converge.time() > 0 && System.nanoTime() - startNanos >= converge.time() * 1000000L) {
+      return true;
+    }
+    if (values.size() < minTrials || values.isEmpty()) {
+      return false;
+    }
+    double[] samples = new double[values.size()];
+    for (int i = 0; i < samples.length; i++) {
+      samples[i] = values.get(i);
+    }
+    SampleSummary summary = new SampleSummary(samples);
+    double[] interval = summary.medianConfidenceInterval(CONFIDENCE);
+    if (interval == null) {
+      return false;
+    }
+    double median = summary.median();
+    double allowed = Math.abs(median) * converge.percent() / 100;
+    return median - interval[0] <= allowed && interval[1] - median <= allowed;
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.runner.Description;
+
+/**
+ * Writes a test class's results to a CSV file named
+ * <code>perfrunner-<i>fully-qualified-class-name</i>.csv</code> in the current
+ * directory, one row per measured run. Because different test methods vary
+ * different parameters, the parameter names and values share one column,
+ * formatted as <code>name=value;name=value</code>, as do the measurements the
+ * test method reported itself (see {@link Measurements}). Measurements that weren't
+ * taken (for example, the operation count of a single-shot run) are left
+ * empty. Per-operation latencies are written as the lowest value (in
+ * nanoseconds) and count of each non-empty histogram bucket, formatted as
+ * <code>value:count;value:count</code>. Hardware counts (see
+ * {@link HardwareCounters}) are totals for the run. The nanoTime column is the
+ * time as measured, even when the {@link HarnessOverhead harness overhead} in
+ * the harnessNanos column is subtracted from the time charted; the nsPerOp and
+ * opsPerSecond columns have it subtracted.
+ */
+class CsvResultSink implements ResultSink {
+
+  private static final String HEADER =
+      "class,method,parameters,trial,nanoTime,heapInUse,allocatedBytes,compilationMillis," +
+      "warmupIterations,warmupCompilationMillis,operations,operationNanos,opsPerSecond,nsPerOp,bytesPerOp," +
+      "gcCount,gcMillis,gcPauseMillis,promotedBytes,threads,meanThreadLatencyMillis,maxThreadLatencyMillis," +
+      "cycles,instructions,cacheMisses,branchMisses,contextSwitches,harnessNanos,harnessSubtracted," +
+      "latencyHistogram,measurements";
+
+  private PrintWriter out;
+
+  @Override
+  public void runStarted(Description description) throws IOException {
+    out = new PrintWriter("perfrunner-" + description.getClassName() + ".csv");
+    out.println(HEADER);
+  }
+
+  @Override
+  public void runRecorded(RunRecord run) throws IOException {
+    PerfRunDescription desc = run.description();
+    RunStats runStats = run.runStats();
+    int warmupIterations = run.getWarmupIterations();
+    long warmupCompilationMillis = run.getWarmupCompilationMillis();
+    StringBuilder row = new StringBuilder();
+    row.append(quote(desc.getClassName())).append(',')
+        .append(quote(desc.getMethodName())).append(',')
+        .append(quote(desc.getParamString())).append(',')
+        .append(desc.getTrial()).append(',')
+        .append(runStats.nanoTime()).append(',')
+        .append(runStats.heapInUse()).append(',')
+        .append(runStats.allocatedBytes()).append(',')
+        .append(runStats.compilationMillis()).append(',')
+        .append(warmupIterations).append(',')
+        .append(warmupCompilationMillis).append(',');
+    if (runStats.hasOperations()) {
+      row.append(runStats.operations()).append(',')
+          .append(runStats.operationNanos()).append(',')
+          .append(runStats.operationsPerSecond()).append(',')
+          .append(runStats.nanosPerOperation()).append(',')
+          .append(runStats.allocatedBytesPerOperation()).append(',');
+    } else {
+      row.append(",,,,,");
+    }
+    GcStats gc = runStats.gc();
+    row.append(gc.totalCount()).append(',').append(gc.totalTimeMillis()).append(',');
+    if (gc.hasPauseDetails()) {
+      row.append(gc.pauseMillis()).append(',').append(gc.promotedBytes()).append(',');
+    } else {
+      row.append(",,");
+    }
+    if (runStats.threadCount() > 0) {
+      row.append(runStats.threadCount()).append(',')
+          .append(runStats.meanThreadLatencyMillis()).append(',')
+          .append(runStats.maxThreadLatencyMillis()).append(',');
+    } else {
+      row.append(",,,");
+    }
+    for (int event = 0; event < HardwareCounters.EVENTS.size(); event++) {
+      if (runStats.hardwareCount(event) >= 0) {
+        row.append(runStats.hardwareCount(event));
+      }
+      row.append(',');
+    }
+    if (runStats.harnessNanos() >= 0) {
+      row.append(runStats.harnessNanos()).append(',').append(runStats.isHarnessSubtracted()).append(',');
+    } else {
+      row.append(",,");
+    }
+    if (runStats.latencies() != null) {
+      row.append(quote(runStats.latencies().toCompactString()));
+    }
+    row.append(',');
+    StringBuilder measurements = new StringBuilder();
+    for (Map.Entry<String, Double> e : runStats.measurements().entrySet()) {
+      if (measurements.length() > 0) {
+        measurements.append(';');
+      }
+      measurements.append(e.getKey()).append('=').append(e.getValue());
+    }
+    row.append(quote(measurements.toString()));
+    out.println(row);
+  }
+
+  @Override
+  public void runFinished() throws IOException {
+    out.close();
+  }
+
+  /**
+   * Quotes a CSV field if it contains a comma, quote or line break.
+   */
+  static String quote(String field) {
+    if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0 && field.indexOf('\r') < 0) {
+      return field;
+    }
+    return "\"" + field.replace("\"", "\"\"") + "\"";
+  }
+
+  /**
+   * Splits one line of CSV into its fields, undoing {@link #quote(String)}.
+   */
+  static List<String> split(String line) {
+    List<String> fields = new ArrayList<String>();
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (quoted) {
+        if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+          field.append('"');
+          i++;
+        } else if (c == '"') {
+          quoted = false;
+        } else {
+          field.append(c);
+        }
+      } else if (c == '"') {
+        quoted = true;
+      } else if (c == ',') {
+        fields.add(field.toString());
+        field.setLength(0);
+      } else {
+        field.append(c);
+      }
+    }
+    fields.add(field.toString());
+    return fields;
+  }
+}
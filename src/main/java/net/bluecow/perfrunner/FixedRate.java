@@ -0,0 +1,78 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Puts a test method in open-loop mode: rather than starting each call as soon
+ * as the previous one finishes, PerfRunner schedules calls at a fixed rate and
+ * measures each call's latency from the moment it was <em>scheduled</em> to
+ * start. When the code under test stalls, the calls that should have started
+ * during the stall wait in line, and their latency includes the wait, just as
+ * it would for real clients. A closed-loop benchmark quietly leaves those
+ * calls out (the "coordinated omission" problem) and reports latencies that
+ * are far too good.
+ * <p>
+ * The latencies are recorded in the method's latency histogram (see
+ * {@link Measurements#recordLatency(long)}), so the chart's Y axis can show
+ * p99 latency against the offered load. Use {@link #perSecondFrom()} to put
+ * the rate on the X axis, and the knee where latency takes off is the capacity
+ * of the code under test:
+ *
+ * <pre>
+ * &#64;Test
+ * &#64;FixedRate(perSecondFrom="Requests/sec")
+ * public void handle(&#64;Varying(name="Requests/sec", axis=X, from=1000, to=20000, step=1000) int rate) { ... }
+ * </pre>
+ *
+ * The calls are made on one thread, or shared out among the threads given by
+ * {@link Concurrent}, each taking the next scheduled call when it is free.
+ * The chart's operations per second is the achieved rate, which falls short
+ * of the scheduled rate once the code under test can't keep up.
+ * <p>
+ * Can be placed on a test method or on the test class. An annotation on the
+ * method takes precedence over one on the class. It can't be combined with
+ * {@link Throughput}.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface FixedRate {
+
+  /**
+   * The number of calls to schedule per second. Leave this out when using
+   * {@link #perSecondFrom()}.
+   */
+  public int perSecond() default 0;
+
+  /**
+   * The name of the test method's {@link Varying} parameter whose value is the
+   * number of calls to schedule per second.
+   */
+  public String perSecondFrom() default "";
+
+  /**
+   * How long to keep scheduling calls in each trial, in milliseconds.
+   */
+  public long time() default 1000;
+}
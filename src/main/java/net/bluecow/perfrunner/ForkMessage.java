@@ -0,0 +1,138 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import java.io.Serializable;
+
+/**
+ * A message sent from a forked test JVM back to the {@link ForkedRunCoordinator}
+ * that launched it. Tests are identified by their description's display name,
+ * which the coordinator maps back to its own {@code Description} objects.
+ */
+class ForkMessage implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  enum Kind {
+    /** A test was measured. Carries the run statistics and warmup info. */
+    RESULT,
+
+    /** A test failed. Carries the failure. */
+    FAILURE,
+
+    /** A test's assumptions didn't hold. Carries the failure. */
+    ASSUMPTION_FAILURE,
+
+    /** A test was ignored. */
+    IGNORED,
+
+    /** A test finished, whether or not it failed. */
+    FINISHED,
+
+    /**
+     * A test was the last trial of its parameter combination, so the
+     * combination can be compared with the baseline. Sent after the test's
+     * result and before it finishes.
+     */
+    LAST_TRIAL,
+
+    /**
+     * Not sent by forks: the coordinator uses this internally to note that a
+     * fork's connection has closed.
+     */
+    DISCONNECTED
+  }
+
+  private final Kind kind;
+  private final String testName;
+  private final RunStats runStats;
+  private final int warmupIterations;
+  private final long warmupCompilationMillis;
+  private final RemoteFailure failure;
+
+  private ForkMessage(Kind kind, String testName, RunStats runStats,
+      int warmupIterations, long warmupCompilationMillis, RemoteFailure failure) {
+    this.kind = kind;
+    this.testName = testName;
+    this.runStats = runStats;
+    this.warmupIterations = warmupIterations;
+    this.warmupCompilationMillis = warmupCompilationMillis;
+    this.failure = failure;
+  }
+
+  public static ForkMessage result(String testName, RunStats runStats,
+      int warmupIterations, long warmupCompilationMillis) {
+    return new ForkMessage(Kind.RESULT, testName, runStats, warmupIterations, warmupCompilationMillis, null);
+  }
+
+  public static ForkMessage failure(Kind kind, String testName, Throwable t) {
+    return new ForkMessage(kind, testName, null, 0, -1, new RemoteFailure(t));
+  }
+
+  public static ForkMessage event(Kind kind, String testName) {
+    return new ForkMessage(kind, testName, null, 0, -1, null);
+  }
+
+  public Kind getKind() {
+    return kind;
+  }
+
+  public String getTestName() {
+    return testName;
+  }
+
+  public RunStats getRunStats() {
+    return runStats;
+  }
+
+  public int getWarmupIterations() {
+    return warmupIterations;
+  }
+
+  public long getWarmupCompilationMillis() {
+    return warmupCompilationMillis;
+  }
+
+  public Throwable getFailure() {
+    return failure;
+  }
+
+  /**
+   * Stands in for an exception thrown by a test in a forked JVM. The original
+   * exception might not be serializable (or its class might not be something
+   * the parent JVM can load), so this carries just its class name, message and
+   * stack trace.
+   */
+  static class RemoteFailure extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String originalClassName;
+
+    RemoteFailure(Throwable original) {
+      super(original.getMessage());
+      this.originalClassName = original.getClass().getName();
+      setStackTrace(original.getStackTrace());
+    }
+
+    @Override
+    public String toString() {
+      String message = getLocalizedMessage();
+      return message == null ? originalClassName : originalClassName + ": " + message;
+    }
+  }
+}
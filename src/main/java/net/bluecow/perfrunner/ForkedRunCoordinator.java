@@ -0,0 +1,469 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunNotifier;
+
+/**
+ * Runs a test class's parameter combinations in several forked JVMs at once,
+ * then merges their results into a single report.
+ * <p>
+ * Forking is controlled with system properties:
+ * <dl>
+ * <dt>{@value #FORKS_PROPERTY}
+ * <dd>The number of JVMs to fork. Forking is off unless this is at least 2.
+ * <dt>{@value #PREFIX_PROPERTY}
+ * <dd>A command to put in front of each forked JVM's command line, for example
+ * {@code taskset -c {cpus}}. The text <code>{cpus}</code> is replaced with the
+ * range of CPUs set aside for the fork: the available processors are split
+ * evenly between the forks, starting at CPU 0.
+ * <dt>{@value #JVM_ARGS_PROPERTY}
+ * <dd>Extra space-separated arguments for each forked JVM, such as heap size.
+ * </dl>
+ * Each fork runs every N<sup>th</sup> parameter combination of each test
+ * method (all trials of a combination go to the same fork) and streams its
+ * results back over a loopback socket as each test finishes. Test outcomes are
+ * passed along to the JUnit notifier as they arrive; the measurements are
+ * added to the report in the original test order once all forks are done.
+ * <p>
+ * Any local process can connect to the socket, so a connection is only
+ * accepted if it starts with a random token that the coordinator hands its
+ * forks in their environment, and only the classes that make up a
+ * {@link ForkMessage} can be read from it.
+ */
+class ForkedRunCoordinator {
+
+  static final String FORKS_PROPERTY = "perfrunner.forks";
+  static final String PREFIX_PROPERTY = "perfrunner.forkPrefix";
+  static final String JVM_ARGS_PROPERTY = "perfrunner.forkJvmArgs";
+
+  static final String FORK_INDEX_PROPERTY = "perfrunner.fork.index";
+  static final String FORK_COUNT_PROPERTY = "perfrunner.fork.count";
+  static final String FORK_PORT_PROPERTY = "perfrunner.fork.port";
+
+  /**
+   * The environment variable that gives a fork the token it must send first.
+   * It isn't a system property, because other users can see command lines.
+   */
+  static final String FORK_TOKEN_VARIABLE = "PERFRUNNER_FORK_TOKEN";
+
+  /**
+   * How long an incoming connection has to send its token.
+   */
+  private static final int TOKEN_TIMEOUT_MILLIS = 5000;
+
+  /**
+   * The classes a {@link ForkMessage} is made of, which are all that a fork
+   * connection may contain, apart from arrays of primitives.
+   */
+  private static final Set<String> MESSAGE_CLASSES = new HashSet<String>(Arrays.asList(
+      ForkMessage.class.getName(), ForkMessage.Kind.class.getName(), ForkMessage.RemoteFailure.class.getName(),
+      RunStats.class.getName(), GcStats.class.getName(), GcStats.CollectorStats.class.getName(),
+      GcStats.Pause.class.getName(), LatencyHistogram.Snapshot.class.getName(),
+      Enum.class.getName(), Throwable.class.getName(), Exception.class.getName(),
+      StackTraceElement.class.getName(), "[L" + StackTraceElement.class.getName() + ";",
+      String.class.getName(), Number.class.getName(), Long.class.getName(), Integer.class.getName(),
+      Double.class.getName(), Boolean.class.getName(), "[L" + String.class.getName() + ";",
+      "java.util.ArrayList", "java.util.HashMap", "java.util.LinkedHashMap", "java.util.TreeMap",
+      "java.util.Collections$EmptyList", "java.util.Collections$EmptyMap",
+      "java.util.Collections$UnmodifiableCollection", "java.util.Collections$UnmodifiableList",
+      "java.util.Collections$UnmodifiableRandomAccessList", "java.util.Collections$UnmodifiableMap"));
+
+  /**
+   * The settings that decide which runs a fork makes, in what order, and what
+   * it measures, so they're passed on to each fork.
+   */
+  private static final String[] FORWARDED_PROPERTIES = {
+    ParameterFilter.FILTER_PROPERTY, RunOrder.ORDER_PROPERTY, RunOrder.SEED_PROPERTY,
+    HardwareCounters.COUNTERS_PROPERTY, HarnessOverhead.SUBTRACT_PROPERTY
+  };
+
+  /**
+   * Returns the number of forked JVMs requested by the system properties, or 0
+   * if this JVM is itself a fork (forks never fork again).
+   */
+  public static int forkCount() {
+    if (isForkedChild()) {
+      return 0;
+    }
+    return Integer.getInteger(FORKS_PROPERTY, 0);
+  }
+
+  /**
+   * Returns true if this JVM was launched by a coordinator.
+   */
+  public static boolean isForkedChild() {
+    return System.getProperty(FORK_PORT_PROPERTY) != null;
+  }
+
+  /**
+   * Returns the port this forked JVM should send its results to. Only valid
+   * when {@link #isForkedChild()} is true.
+   */
+  public static int parentPort() {
+    return Integer.getInteger(FORK_PORT_PROPERTY);
+  }
+
+  /**
+   * Returns true if the given parameter combination should run in this JVM.
+   * That's always the case when this JVM is not a fork.
+   *
+   * @param combination
+   *          the position of the parameter combination among its test
+   *          method's combinations, plus the method's position among the
+   *          class's test methods, starting at 0.
+   */
+  public static boolean isRunHere(int combination) {
+    if (!isForkedChild()) {
+      return true;
+    }
+    int index = Integer.getInteger(FORK_INDEX_PROPERTY);
+    int count = Integer.getInteger(FORK_COUNT_PROPERTY);
+    return combination % count == index;
+  }
+
+  /**
+   * Returns how far apart the parameter combinations that run in this JVM
+   * are, as counted by {@link #isRunHere(int)}: the number of forks if this
+   * JVM is one of them, and 1 otherwise.
+   */
+  static int runHereStride() {
+    return isForkedChild() ? Integer.getInteger(FORK_COUNT_PROPERTY) : 1;
+  }
+
+  /**
+   * Returns the CPU list (in taskset syntax) that the given fork should be
+   * pinned to. When there are more forks than CPUs, forks share CPUs.
+   */
+  static String cpuListFor(int fork, int forks, int cores) {
+    int perFork = Math.max(1, cores / forks);
+    int first = (fork * perFork) % cores;
+    int last = Math.min(first + perFork, cores) - 1;
+    return first == last ? String.valueOf(first) : first + "-" + last;
+  }
+
+  private final Class<?> testClass;
+  private final int forks;
+
+  public ForkedRunCoordinator(Class<?> testClass, int forks) {
+    this.testClass = testClass;
+    this.forks = forks;
+  }
+
+  /**
+   * Runs the given tests in forked JVMs, reporting their outcomes to
+   * {@code notifier} and their measurements to {@code reportBuilder}.
+   *
+   * @param tests
+   *          the descriptions of all the tests the forks are expected to run,
+   *          in the order their results should appear in the report.
+   */
+  public void run(List<Description> tests, RunNotifier notifier, PerformanceReportBuilder reportBuilder)
+      throws IOException, InterruptedException {
+    Map<String, Description> testsByName = new LinkedHashMap<String, Description>();
+    for (Description d : tests) {
+      testsByName.put(d.getDisplayName(), d);
+    }
+
+    BlockingQueue<ForkMessage> messages = new LinkedBlockingQueue<ForkMessage>();
+    List<Process> processes = new ArrayList<Process>();
+    boolean[] connected = new boolean[forks];
+    int connections = 0;
+    String token = newToken();
+
+    ServerSocket server = new ServerSocket(0, forks, InetAddress.getByName(null));
+    try {
+      for (int i = 0; i < forks; i++) {
+        ProcessBuilder builder = new ProcessBuilder(commandFor(i, server.getLocalPort())).inheritIO();
+        builder.environment().put(FORK_TOKEN_VARIABLE, token);
+        processes.add(builder.start());
+      }
+
+      // stop waiting for a fork once it has connected or died
+      server.setSoTimeout(1000);
+      while (anyAwaited(processes, connected)) {
+        Socket socket;
+        try {
+          socket = server.accept();
+        } catch (SocketTimeoutException e) {
+          continue;
+        }
+        int fork = authenticate(socket, token);
+        if (fork < 0 || fork >= forks || connected[fork]) {
+          socket.close();
+          continue;
+        }
+        connected[fork] = true;
+        connections++;
+        startReader(socket, messages);
+      }
+    } finally {
+      server.close();
+    }
+
+    Set<String> started = new HashSet<String>();
+    Set<String> finished = new HashSet<String>();
+    Map<String, ForkMessage> results = new HashMap<String, ForkMessage>();
+    while (connections > 0) {
+      ForkMessage m = messages.take();
+      if (m.getKind() == ForkMessage.Kind.DISCONNECTED) {
+        connections--;
+        continue;
+      }
+
+      // the fork doesn't know about filters applied in this JVM, so it may run extra tests
+      Description d = testsByName.get(m.getTestName());
+      if (d == null) {
+        continue;
+      }
+
+      if (m.getKind() != ForkMessage.Kind.IGNORED && started.add(m.getTestName())) {
+        notifier.fireTestStarted(d);
+      }
+      switch (m.getKind()) {
+      case RESULT:
+        results.put(m.getTestName(), m);
+        reportBuilder.addBaselineTrial(d, m.getRunStats());
+        break;
+      case LAST_TRIAL:
+        try {
+          reportBuilder.checkBaseline(d);
+        } catch (AssertionError e) {
+          notifier.fireTestFailure(new Failure(d, e));
+        }
+        break;
+      case FAILURE:
+        notifier.fireTestFailure(new Failure(d, m.getFailure()));
+        break;
+      case ASSUMPTION_FAILURE:
+        notifier.fireTestAssumptionFailed(new Failure(d, m.getFailure()));
+        break;
+      case IGNORED:
+        notifier.fireTestIgnored(d);
+        finished.add(m.getTestName());
+        break;
+      case FINISHED:
+        // the run is only recorded once every fork is done, but listeners can look it up now
+        ForkMessage result = results.get(m.getTestName());
+        if (result != null) {
+          RunRecord.recorded(d, new RunRecord(new PerfRunDescription(d), result.getRunStats(),
+              result.getWarmupIterations(), result.getWarmupCompilationMillis()));
+        }
+        notifier.fireTestFinished(d);
+        finished.add(m.getTestName());
+        break;
+      default:
+        throw new AssertionError("Unexpected message kind " + m.getKind());
+      }
+    }
+
+    for (Process p : processes) {
+      p.waitFor();
+    }
+
+    // anything a fork didn't finish was lost to a crash (or the fork never started)
+    for (Description d : tests) {
+      if (!finished.contains(d.getDisplayName())) {
+        if (!started.contains(d.getDisplayName())) {
+          notifier.fireTestStarted(d);
+        }
+        notifier.fireTestFailure(new Failure(d,
+            new IllegalStateException("The forked JVM running this test exited before the test finished")));
+        notifier.fireTestFinished(d);
+      }
+    }
+
+    for (Description d : tests) {
+      ForkMessage r = results.get(d.getDisplayName());
+      if (r != null) {
+        reportBuilder.recordForkedRun(d, r.getRunStats(), r.getWarmupIterations(), r.getWarmupCompilationMillis());
+      }
+    }
+  }
+
+  /**
+   * Returns a new random token for forks to identify themselves with.
+   */
+  private static String newToken() {
+    byte[] bytes = new byte[16];
+    new SecureRandom().nextBytes(bytes);
+    StringBuilder token = new StringBuilder();
+    for (byte b : bytes) {
+      token.append(String.format("%02x", b & 0xff));
+    }
+    return token.toString();
+  }
+
+  /**
+   * Reads the token and fork index a new connection has to start with.
+   *
+   * @return the index of the fork that connected, or -1 if the connection
+   *         didn't send the right token in time.
+   */
+  private static int authenticate(Socket socket, String token) {
+    try {
+      socket.setSoTimeout(TOKEN_TIMEOUT_MILLIS);
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      Charset utf8 = Charset.forName("UTF-8");
+      boolean tokenMatches = MessageDigest.isEqual(in.readUTF().getBytes(utf8), token.getBytes(utf8));
+      int fork = in.readInt();
+      socket.setSoTimeout(0);
+      return tokenMatches ? fork : -1;
+    } catch (IOException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Returns true if any of the forks hasn't connected yet but is still
+   * running, so it may yet connect.
+   */
+  private static boolean anyAwaited(List<Process> processes, boolean[] connected) {
+    for (int i = 0; i < processes.size(); i++) {
+      if (!connected[i] && processes.get(i).isAlive()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Builds the command line for launching the given fork.
+   */
+  private List<String> commandFor(int fork, int port) {
+    List<String> command = new ArrayList<String>();
+    String prefix = System.getProperty(PREFIX_PROPERTY, "").trim();
+    if (prefix.length() > 0) {
+      String cpus = cpuListFor(fork, forks, Runtime.getRuntime().availableProcessors());
+      for (String token : prefix.split("\\s+")) {
+        command.add(token.replace("{cpus}", cpus));
+      }
+    }
+
+    command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+
+    String jvmArgs = System.getProperty(JVM_ARGS_PROPERTY, "").trim();
+    if (jvmArgs.length() > 0) {
+      for (String arg : jvmArgs.split("\\s+")) {
+        command.add(arg);
+      }
+    }
+
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    for (String property : FORWARDED_PROPERTIES) {
+      if (System.getProperty(property) != null) {
+        command.add("-D" + property + "=" + System.getProperty(property));
+      }
+    }
+    command.add("-D" + FORK_INDEX_PROPERTY + "=" + fork);
+    command.add("-D" + FORK_COUNT_PROPERTY + "=" + forks);
+    command.add("-D" + FORK_PORT_PROPERTY + "=" + port);
+    command.add(ForkedWorker.class.getName());
+    command.add(testClass.getName());
+    return command;
+  }
+
+  /**
+   * Starts a daemon thread that reads messages from the given fork connection
+   * into the queue, followed by a DISCONNECTED message when the connection
+   * closes. If the connection is lost in the middle of a test, the test fails
+   * with the reason, and it's finished.
+   */
+  private static void startReader(final Socket socket, final BlockingQueue<ForkMessage> messages) {
+    Thread reader = new Thread("PerfRunner fork reader " + socket.getPort()) {
+      @Override
+      public void run() {
+        String running = null;
+        try {
+          ObjectInputStream in = new MessageInputStream(socket.getInputStream());
+          for (;;) {
+            ForkMessage m = (ForkMessage) in.readObject();
+            boolean over = m.getKind() == ForkMessage.Kind.FINISHED || m.getKind() == ForkMessage.Kind.IGNORED;
+            running = over ? null : m.getTestName();
+            messages.add(m);
+          }
+        } catch (EOFException e) {
+          // normal end of stream; a test that was running is failed once every fork is done
+        } catch (Exception e) {
+          if (running != null) {
+            messages.add(ForkMessage.failure(ForkMessage.Kind.FAILURE, running,
+                new IOException("Lost the connection to the forked JVM running this test: " + e, e)));
+            messages.add(ForkMessage.event(ForkMessage.Kind.FINISHED, running));
+          }
+        } finally {
+          try {
+            socket.close();
+          } catch (IOException e) {
+            // nothing more will be read from it either way
+          }
+          messages.add(ForkMessage.event(ForkMessage.Kind.DISCONNECTED, null));
+        }
+      }
+    };
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  /**
+   * Reads {@link ForkMessage}s, refusing any class that isn't part of one.
+   */
+  static class MessageInputStream extends ObjectInputStream {
+
+    MessageInputStream(InputStream in) throws IOException {
+      super(in);
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+      String name = desc.getName();
+      boolean primitiveArray = name.length() == 2 && name.charAt(0) == '[';
+      if (!primitiveArray && !MESSAGE_CLASSES.contains(name)) {
+        throw new InvalidClassException(name, "not part of a fork message");
+      }
+      return super.resolveClass(desc);
+    }
+  }
+}
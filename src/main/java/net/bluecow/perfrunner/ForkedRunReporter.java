@@ -0,0 +1,135 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+
+/**
+ * Takes the place of the HTML report builder in a forked test JVM. Rather than
+ * writing a report, it streams each test's run statistics and outcome to the
+ * {@link ForkedRunCoordinator} in the parent JVM as soon as they're known.
+ */
+class ForkedRunReporter extends PerformanceReportBuilder {
+
+  private final int port;
+  private Socket socket;
+  private ObjectOutputStream out;
+
+  /**
+   * Creates a reporter that will connect to the coordinator listening on the
+   * given loopback port when the test run starts.
+   */
+  public ForkedRunReporter(int port) {
+    this.port = port;
+  }
+
+  @Override
+  public void testRunStarted(Description description) throws IOException {
+    socket = new Socket(InetAddress.getByName(null), port);
+    BufferedOutputStream buffered = new BufferedOutputStream(socket.getOutputStream());
+
+    // the coordinator ignores a connection that doesn't say which of its forks this is
+    DataOutputStream handshake = new DataOutputStream(buffered);
+    String token = System.getenv(ForkedRunCoordinator.FORK_TOKEN_VARIABLE);
+    handshake.writeUTF(token == null ? "" : token);
+    handshake.writeInt(Integer.getInteger(ForkedRunCoordinator.FORK_INDEX_PROPERTY));
+    handshake.flush();
+
+    out = new ObjectOutputStream(buffered);
+  }
+
+  @Override
+  public void recordRun(Description description, RunStats runStats,
+      int warmupIterations, long warmupCompilationMillis) {
+    send(ForkMessage.result(description.getDisplayName(), runStats, warmupIterations, warmupCompilationMillis));
+  }
+
+  /**
+   * Tells the parent JVM that the combination is complete rather than
+   * comparing it here. The parent loads the baseline and has the combination's
+   * trials from the results sent so far, and a regression it finds fails the
+   * test before the finished message arrives.
+   */
+  @Override
+  public void checkBaseline(Description description) {
+    send(ForkMessage.event(ForkMessage.Kind.LAST_TRIAL, description.getDisplayName()));
+  }
+
+  @Override
+  public void testRunFinished(Result result) {
+    closeHardwareCounters();
+    try {
+      out.close();
+      socket.close();
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to close connection to the parent JVM", e);
+    }
+  }
+
+  /**
+   * Returns a listener that forwards test outcomes (failures, ignored tests,
+   * and finished tests) to the parent JVM. The runner adds it to its notifier
+   * for the duration of the test run.
+   */
+  public RunListener outcomeForwarder() {
+    return new RunListener() {
+      @Override
+      public void testFailure(Failure failure) {
+        send(ForkMessage.failure(ForkMessage.Kind.FAILURE,
+            failure.getDescription().getDisplayName(), failure.getException()));
+      }
+
+      @Override
+      public void testAssumptionFailure(Failure failure) {
+        send(ForkMessage.failure(ForkMessage.Kind.ASSUMPTION_FAILURE,
+            failure.getDescription().getDisplayName(), failure.getException()));
+      }
+
+      @Override
+      public void testIgnored(Description description) {
+        send(ForkMessage.event(ForkMessage.Kind.IGNORED, description.getDisplayName()));
+      }
+
+      @Override
+      public void testFinished(Description description) {
+        send(ForkMessage.event(ForkMessage.Kind.FINISHED, description.getDisplayName()));
+      }
+    };
+  }
+
+  private synchronized void send(ForkMessage message) {
+    try {
+      out.writeObject(message);
+
+      // forget the objects we've sent so far; we never refer back to them
+      out.reset();
+      out.flush();
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to send test results to the parent JVM", e);
+    }
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import org.junit.runner.JUnitCore;
+
+/**
+ * The main class of a forked test JVM. Runs one test class with JUnit; the
+ * {@link PerfRunner} inside notices the fork system properties and streams its
+ * results back to the {@link ForkedRunCoordinator} that launched it.
+ */
+final class ForkedWorker {
+
+  private ForkedWorker() {
+    // no instances
+  }
+
+  public static void main(String[] args) throws ClassNotFoundException {
+    new JUnitCore().run(Class.forName(args[0]));
+
+    // don't let stray non-daemon threads from the tests keep this JVM around
+    System.exit(0);
+  }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+
+/**
+ * Collects per-collector GC counts and times, and the details of each
+ * collection from GC notifications, between a {@link #mark()} and a call to
+ * {@link #since(Mark)}.
+ * <p>
+ * GC notifications are delivered on a JVM service thread some time after the
+ * collection ends, so {@link #since(Mark)} waits (briefly) until it has
+ * received a notification for every collection the collector MXBeans counted.
+ * Collection details are unavailable on JVMs that don't support
+ * {@code com.sun.management} GC notifications.
+ */
+class GcMonitor {
+
+  /**
+   * The longest {@link #since(Mark)} will wait for late GC notifications.
+   */
+  private static final long NOTIFICATION_WAIT_MILLIS = 200;
+
+  /**
+   * The state of the collectors at the start of a measurement.
+   */
+  static class Mark {
+    private final long[] counts;
+    private final long[] times;
+    private final long sequence;
+
+    private Mark(long[] counts, long[] times, long sequence) {
+      this.counts = counts;
+      this.times = times;
+      this.sequence = sequence;
+    }
+  }
+
+  private static final List<GarbageCollectorMXBean> COLLECTORS = ManagementFactory.getGarbageCollectorMXBeans();
+
+  /**
+   * True if we're receiving notifications from every collector.
+   */
+  private static final boolean NOTIFICATIONS;
+
+  /**
+   * The collections received while any mark is outstanding, each paired with
+   * its sequence number. Guarded by the GcMonitor class lock.
+   */
+  private static final List<Object[]> events = new ArrayList<Object[]>();
+
+  /**
+   * The number of GC notifications received so far. Guarded by the GcMonitor
+   * class lock.
+   */
+  private static long eventCount;
+
+  /**
+   * The number of marks that haven't been passed to {@link #since(Mark)} yet.
+   * Events are only kept while this is positive. Guarded by the GcMonitor
+   * class lock.
+   */
+  private static int outstandingMarks;
+
+  static {
+    boolean notifications = true;
+    try {
+      NotificationListener listener = new NotificationListener() {
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+          if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            received(GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData()));
+          }
+        }
+      };
+      for (GarbageCollectorMXBean gc : COLLECTORS) {
+        if (gc instanceof NotificationEmitter) {
+          ((NotificationEmitter) gc).addNotificationListener(listener, null, null);
+        } else {
+          notifications = false;
+        }
+      }
+    } catch (Throwable t) {
+      // no com.sun.management in this JVM
+      notifications = false;
+    }
+    NOTIFICATIONS = notifications;
+  }
+
+  private GcMonitor() {
+    // static utility class
+  }
+
+  /**
+   * Records the current state of the collectors, and starts keeping the
+   * details of each collection. Every mark must be passed to
+   * {@link #since(Mark)} eventually.
+   */
+  public static Mark mark() {
+    long[] counts = new long[COLLECTORS.size()];
+    long[] times = new long[COLLECTORS.size()];
+    long sequence;
+    synchronized (GcMonitor.class) {
+      outstandingMarks++;
+      sequence = eventCount;
+    }
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = COLLECTORS.get(i).getCollectionCount();
+      times[i] = COLLECTORS.get(i).getCollectionTime();
+    }
+    return new Mark(counts, times, sequence);
+  }
+
+  /**
+   * Returns the GC activity since the given mark.
+   */
+  public static GcStats since(Mark mark) {
+    List<GcStats.CollectorStats> collectors = new ArrayList<GcStats.CollectorStats>();
+    long collections = 0;
+    for (int i = 0; i < COLLECTORS.size(); i++) {
+      GarbageCollectorMXBean gc = COLLECTORS.get(i);
+      long count = gc.getCollectionCount() - mark.counts[i];
+      collectors.add(new GcStats.CollectorStats(gc.getName(), count, gc.getCollectionTime() - mark.times[i]));
+      collections += count;
+    }
+
+    List<GcStats.Pause> pauses = null;
+    synchronized (GcMonitor.class) {
+      try {
+        if (NOTIFICATIONS) {
+          long deadline = System.currentTimeMillis() + NOTIFICATION_WAIT_MILLIS;
+          long remaining;
+          while (eventCount - mark.sequence < collections
+              && (remaining = deadline - System.currentTimeMillis()) > 0) {
+            try {
+              GcMonitor.class.wait(remaining);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              break;
+            }
+          }
+          pauses = new ArrayList<GcStats.Pause>();
+          for (Object[] event : events) {
+            if ((Long) event[0] > mark.sequence) {
+              pauses.add((GcStats.Pause) event[1]);
+            }
+          }
+        }
+      } finally {
+        outstandingMarks--;
+        if (outstandingMarks == 0) {
+          events.clear();
+        }
+      }
+    }
+    return new GcStats(collectors, pauses);
+  }
+
+  private static void received(GarbageCollectionNotificationInfo info) {
+    GcStats.Pause pause = toPause(info);
+    synchronized (GcMonitor.class) {
+      eventCount++;
+      if (outstandingMarks > 0) {
+        events.add(new Object[] { eventCount, pause });
+      }
+      GcMonitor.class.notifyAll();
+    }
+  }
+
+  private static GcStats.Pause toPause(GarbageCollectionNotificationInfo info) {
+    GcInfo gcInfo = info.getGcInfo();
+    Map<String, Long> before = usedBytes(gcInfo.getMemoryUsageBeforeGc());
+    Map<String, Long> after = usedBytes(gcInfo.getMemoryUsageAfterGc());
+
+    // a young collection's growth in the old generation is what it promoted
+    long promoted = 0;
+    if (info.getGcAction().contains("minor")) {
+      for (String pool : after.keySet()) {
+        if (isOldGeneration(pool) && before.containsKey(pool)) {
+          promoted += after.get(pool) - before.get(pool);
+        }
+      }
+    }
+
+    String name = info.getGcName();
+    boolean concurrent = name.contains("Cycles") || name.contains("Concurrent");
+    return new GcStats.Pause(name, info.getGcAction(), info.getGcCause(), gcInfo.getDuration(),
+        concurrent, before, after, Math.max(0, promoted));
+  }
+
+  private static Map<String, Long> usedBytes(Map<String, MemoryUsage> usage) {
+    Map<String, Long> used = new LinkedHashMap<String, Long>();
+    for (Map.Entry<String, MemoryUsage> e : usage.entrySet()) {
+      used.put(e.getKey(), e.getValue().getUsed());
+    }
+    return used;
+  }
+
+  private static boolean isOldGeneration(String poolName) {
+    return poolName.contains("Old Gen") || poolName.contains("Tenured");
+  }
+}
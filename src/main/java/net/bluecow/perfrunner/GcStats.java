@@ -0,0 +1,335 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Garbage collection activity during one test run: how many collections each
+ * collector did and how long they took, plus the details of each collection
+ * (when the JVM provides GC notifications). Instances are immutable.
+ */
+class GcStats implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The activity of one garbage collector, as reported by its
+   * {@code GarbageCollectorMXBean}.
+   */
+  static class CollectorStats implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+    private final long count;
+    private final long timeMillis;
+
+    public CollectorStats(String name, long count, long timeMillis) {
+      this.name = name;
+      this.count = count;
+      this.timeMillis = timeMillis;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getTimeMillis() {
+      return timeMillis;
+    }
+  }
+
+  /**
+   * One garbage collection, as reported by a GC notification.
+   */
+  static class Pause implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String collector;
+    private final String action;
+    private final String cause;
+    private final long durationMillis;
+    private final boolean concurrent;
+    private final Map<String, Long> usedBefore;
+    private final Map<String, Long> usedAfter;
+    private final long promotedBytes;
+
+    /**
+     * @param collector
+     *          the name of the collector that did the collection
+     * @param action
+     *          the GC action, for example "end of minor GC"
+     * @param cause
+     *          the reason for the collection, for example "Allocation Failure"
+     * @param durationMillis
+     *          how long the collection took
+     * @param concurrent
+     *          true if the collection ran alongside the application rather than
+     *          stopping it
+     * @param usedBefore
+     *          the bytes in use in each memory pool before the collection
+     * @param usedAfter
+     *          the bytes in use in each memory pool after the collection
+     * @param promotedBytes
+     *          the bytes moved into the old generation by a young collection
+     */
+    public Pause(String collector, String action, String cause, long durationMillis, boolean concurrent,
+        Map<String, Long> usedBefore, Map<String, Long> usedAfter, long promotedBytes) {
+      this.collector = collector;
+      this.action = action;
+      this.cause = cause;
+      this.durationMillis = durationMillis;
+      this.concurrent = concurrent;
+      this.usedBefore = Collections.unmodifiableMap(usedBefore);
+      this.usedAfter = Collections.unmodifiableMap(usedAfter);
+      this.promotedBytes = promotedBytes;
+    }
+
+    public String getCollector() {
+      return collector;
+    }
+
+    public String getAction() {
+      return action;
+    }
+
+    public String getCause() {
+      return cause;
+    }
+
+    public long getDurationMillis() {
+      return durationMillis;
+    }
+
+    public boolean isConcurrent() {
+      return concurrent;
+    }
+
+    public Map<String, Long> getUsedBefore() {
+      return usedBefore;
+    }
+
+    public Map<String, Long> getUsedAfter() {
+      return usedAfter;
+    }
+
+    public long getPromotedBytes() {
+      return promotedBytes;
+    }
+
+    @Override
+    public String toString() {
+      return collector + " " + durationMillis + "ms (" + cause + ")";
+    }
+  }
+
+  private final List<CollectorStats> collectors;
+  private final List<Pause> pauses;
+
+  /**
+   * @param collectors
+   *          the activity of each collector during the run
+   * @param pauses
+   *          the details of each collection, or null if this JVM doesn't
+   *          provide GC notifications
+   */
+  public GcStats(List<CollectorStats> collectors, List<Pause> pauses) {
+    this.collectors = Collections.unmodifiableList(collectors);
+    this.pauses = pauses == null ? null : Collections.unmodifiableList(pauses);
+  }
+
+  public List<CollectorStats> getCollectors() {
+    return collectors;
+  }
+
+  /**
+   * Returns the details of each collection, or null if they aren't available.
+   */
+  public List<Pause> getPauses() {
+    return pauses;
+  }
+
+  /**
+   * Returns true if the details of each collection are available.
+   */
+  public boolean hasPauseDetails() {
+    return pauses != null;
+  }
+
+  /**
+   * Returns the number of collections done by all collectors.
+   */
+  public long totalCount() {
+    long total = 0;
+    for (CollectorStats c : collectors) {
+      total += c.count;
+    }
+    return total;
+  }
+
+  /**
+   * Returns the accumulated collection time of all collectors, as reported by
+   * their MXBeans. For concurrent collectors, this includes time spent
+   * running alongside the application.
+   */
+  public long totalTimeMillis() {
+    long total = 0;
+    for (CollectorStats c : collectors) {
+      total += c.timeMillis;
+    }
+    return total;
+  }
+
+  /**
+   * Returns the total duration of the collections that stopped the
+   * application, or -1 if collection details aren't available.
+   */
+  public long pauseMillis() {
+    if (pauses == null) {
+      return -1;
+    }
+    long total = 0;
+    for (Pause p : pauses) {
+      if (!p.concurrent) {
+        total += p.durationMillis;
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Returns the total bytes promoted to the old generation by young
+   * collections, or -1 if collection details aren't available.
+   */
+  public long promotedBytes() {
+    if (pauses == null) {
+      return -1;
+    }
+    long total = 0;
+    for (Pause p : pauses) {
+      total += p.promotedBytes;
+    }
+    return total;
+  }
+
+  /**
+   * Appends the GC statistics to {@code sb} as comma-separated properties of a
+   * JavaScript object literal, without the surrounding braces.
+   *
+   * @param sb target for the generated JavaScript
+   */
+  public void appendFieldsTo(Appendable sb) throws IOException {
+    sb.append("gcCount: " + totalCount() + ", gcMillis: " + totalTimeMillis());
+    if (pauses != null) {
+      sb.append(", gcPauseMillis: " + pauseMillis() + ", promotedBytes: " + promotedBytes());
+    }
+
+    StringBuilder perCollector = new StringBuilder();
+    for (CollectorStats c : collectors) {
+      if (c.count > 0) {
+        if (perCollector.length() > 0) {
+          perCollector.append(", ");
+        }
+        perCollector.append(c.name + " x" + c.count + " " + c.timeMillis + "ms");
+      }
+    }
+    if (perCollector.length() > 0) {
+      sb.append(", collectors: ").append(PerformanceReportBuilder.javascriptString(perCollector.toString()));
+    }
+    if (pauses != null && !pauses.isEmpty()) {
+      sb.append(", collections: ").append(PerformanceReportBuilder.javascriptString(pauses.toString()));
+    }
+  }
+
+  /**
+   * Writes these statistics to {@code out} in a compact binary form that
+   * {@link #readFrom(DataInput)} can read back.
+   */
+  public void writeTo(DataOutput out) throws IOException {
+    out.writeInt(collectors.size());
+    for (CollectorStats c : collectors) {
+      out.writeUTF(c.name);
+      out.writeLong(c.count);
+      out.writeLong(c.timeMillis);
+    }
+    out.writeInt(pauses == null ? -1 : pauses.size());
+    if (pauses != null) {
+      for (Pause p : pauses) {
+        out.writeUTF(p.collector);
+        out.writeUTF(p.action);
+        out.writeUTF(p.cause);
+        out.writeLong(p.durationMillis);
+        out.writeBoolean(p.concurrent);
+        writeUsage(out, p.usedBefore);
+        writeUsage(out, p.usedAfter);
+        out.writeLong(p.promotedBytes);
+      }
+    }
+  }
+
+  /**
+   * Reads statistics written by {@link #writeTo(DataOutput)}.
+   */
+  public static GcStats readFrom(DataInput in) throws IOException {
+    int collectorCount = in.readInt();
+    List<CollectorStats> collectors = new ArrayList<CollectorStats>(collectorCount);
+    for (int i = 0; i < collectorCount; i++) {
+      collectors.add(new CollectorStats(in.readUTF(), in.readLong(), in.readLong()));
+    }
+    int pauseCount = in.readInt();
+    List<Pause> pauses = null;
+    if (pauseCount >= 0) {
+      pauses = new ArrayList<Pause>(pauseCount);
+      for (int i = 0; i < pauseCount; i++) {
+        pauses.add(new Pause(in.readUTF(), in.readUTF(), in.readUTF(), in.readLong(), in.readBoolean(),
+            readUsage(in), readUsage(in), in.readLong()));
+      }
+    }
+    return new GcStats(collectors, pauses);
+  }
+
+  private static void writeUsage(DataOutput out, Map<String, Long> usage) throws IOException {
+    out.writeInt(usage.size());
+    for (Map.Entry<String, Long> e : usage.entrySet()) {
+      out.writeUTF(e.getKey());
+      out.writeLong(e.getValue());
+    }
+  }
+
+  private static Map<String, Long> readUsage(DataInput in) throws IOException {
+    int size = in.readInt();
+    Map<String, Long> usage = new LinkedHashMap<String, Long>();
+    for (int i = 0; i < size; i++) {
+      usage.put(in.readUTF(), in.readLong());
+    }
+    return usage;
+  }
+}
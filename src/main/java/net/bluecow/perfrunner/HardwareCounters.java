@@ -0,0 +1,486 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts CPU cycles, instructions, cache misses, branch misses and context
+ * switches during each run, using the Linux {@code perf stat} tool. Counting
+ * is off unless the {@value #COUNTERS_PROPERTY} system property is
+ * {@code true} (which runs {@code perf} from the path) or the path of a perf
+ * executable.
+ * <p>
+ * A {@link Session} attaches one {@code perf stat} process to this JVM for
+ * the whole test run, with its counters disabled. Each run switches them on
+ * and off through a control FIFO, waiting for perf to acknowledge each switch.
+ * perf runs in interval mode, so every switch also makes it print the counts
+ * since the previous one, and the block printed when counting is switched off
+ * holds the run's counts. Attaching only happens once, so it doesn't land
+ * between the runs. Unlike {@link AllocationMeter}, this counts every thread in
+ * the JVM, including the JIT compiler and garbage collector threads.
+ * <p>
+ * If counting fails for any reason (perf isn't installed, the kernel's
+ * {@code perf_event_paranoid} setting doesn't allow it, or a container hides
+ * the hardware counters), the reason is printed once and the rest of the runs
+ * go without counters.
+ */
+class HardwareCounters {
+
+  /**
+   * The system property that turns on hardware counters.
+   */
+  public static final String COUNTERS_PROPERTY = "perfrunner.hardwareCounters";
+
+  /**
+   * The perf events counted, in the order of the indexes below.
+   */
+  static final List<String> EVENTS = Arrays.asList(
+      "cycles", "instructions", "cache-misses", "branch-misses", "context-switches");
+
+  /**
+   * The names the events have in reports and exports.
+   */
+  static final List<String> KEYS = Arrays.asList(
+      "cycles", "instructions", "cacheMisses", "branchMisses", "contextSwitches");
+
+  static final int CYCLES = 0;
+  static final int INSTRUCTIONS = 1;
+  static final int CACHE_MISSES = 2;
+  static final int BRANCH_MISSES = 3;
+  static final int CONTEXT_SWITCHES = 4;
+
+  /**
+   * How long to wait for perf to acknowledge a command or exit.
+   */
+  private static final long RESPONSE_TIMEOUT_MILLIS = 5000;
+
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+
+  /**
+   * Set when counting fails, so the remaining runs don't keep trying.
+   */
+  static volatile boolean unavailable;
+
+  /**
+   * One {@code perf stat} process, attached to this JVM until the session is
+   * closed.
+   */
+  static class Session {
+    private final File dir;
+    private final File output;
+    private final File log;
+    private final RandomAccessFile control;
+    private final RandomAccessFile ack;
+    private final Process perf;
+
+    /**
+     * One entry for each acknowledgement perf has written to the ack FIFO.
+     */
+    private final BlockingQueue<Boolean> acks = new LinkedBlockingQueue<Boolean>();
+
+    /**
+     * perf's output file, once it has created it.
+     */
+    private RandomAccessFile outputReader;
+
+    /**
+     * Set once counting has failed or the session has been closed.
+     */
+    private volatile boolean closed;
+
+    private Session(String command) throws IOException, InterruptedException {
+      dir = Files.createTempDirectory("perfrunner-counters").toFile();
+      File controlFifo = new File(dir, "control");
+      File ackFifo = new File(dir, "ack");
+      output = new File(dir, "counts.csv");
+      log = new File(dir, "perf.log");
+      Process mkfifo = new ProcessBuilder("mkfifo", controlFifo.getPath(), ackFifo.getPath())
+          .redirectErrorStream(true).redirectOutput(log).start();
+      if (mkfifo.waitFor() != 0) {
+        delete();
+        throw new IOException("mkfifo failed: " + readLog());
+      }
+
+      // opening a FIFO for both reading and writing doesn't wait for the other end
+      control = new RandomAccessFile(controlFifo, "rw");
+      ack = new RandomAccessFile(ackFifo, "rw");
+
+      // perf stops counting when the command after "--" exits, which cat does when its input is closed.
+      // The interval is too long to ever elapse; the counts are printed when counting is switched.
+      try {
+        perf = new ProcessBuilder(command, "stat", "-x", ",", "-o", output.getPath(),
+            "-e", join(EVENTS), "-p", String.valueOf(pid()),
+            "-D", "-1", "-I", String.valueOf(Integer.MAX_VALUE),
+            "--control", "fifo:" + controlFifo.getPath() + "," + ackFifo.getPath(),
+            "--", "cat")
+            .redirectErrorStream(true).redirectOutput(log).start();
+      } catch (IOException e) {
+        control.close();
+        ack.close();
+        delete();
+        throw e;
+      }
+
+      Thread reader = new Thread("perfrunner-counters-ack") {
+        @Override
+        public void run() {
+          byte[] buf = new byte[16];
+          try {
+            while (!closed) {
+              int n = ack.read(buf);
+              if (n < 0) {
+                return;
+              }
+              for (int i = 0; i < n; i++) {
+                if (buf[i] == '\n') {
+                  acks.add(Boolean.TRUE);
+                }
+              }
+            }
+          } catch (IOException e) {
+            // the session was closed while waiting
+          }
+        }
+      };
+      reader.setDaemon(true);
+      reader.start();
+    }
+
+    /**
+     * Starts counting. Returns false if counting failed, in which case the
+     * session is closed.
+     */
+    public boolean start() {
+      if (closed) {
+        return false;
+      }
+      try {
+        send("enable");
+        return true;
+      } catch (Exception e) {
+        giveUp(e);
+        close();
+        return false;
+      }
+    }
+
+    /**
+     * Stops counting and returns the count of each of the {@link #EVENTS}
+     * since {@link #start()}, with -1 for events the CPU or kernel couldn't
+     * count. Returns null if counting failed, in which case the session is
+     * closed.
+     */
+    public long[] stop() {
+      if (closed) {
+        return null;
+      }
+      try {
+        send("disable");
+        long[] counts = parse(readCounts());
+        for (long count : counts) {
+          if (count >= 0) {
+            return counts;
+          }
+        }
+        throw new IOException("none of the events could be counted: " + readLog());
+      } catch (Exception e) {
+        giveUp(e);
+        close();
+        return null;
+      }
+    }
+
+    /**
+     * Writes a command to perf's control FIFO and waits for perf to
+     * acknowledge it.
+     */
+    private void send(String command) throws IOException, InterruptedException {
+      control.write((command + "\n").getBytes(ASCII));
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RESPONSE_TIMEOUT_MILLIS);
+      while (acks.poll(10, TimeUnit.MILLISECONDS) == null) {
+        if (!perf.isAlive()) {
+          throw new IOException("perf stat exited: " + readLog());
+        }
+        if (System.nanoTime() > deadline) {
+          throw new IOException("perf stat didn't acknowledge \"" + command + "\": " + readLog());
+        }
+      }
+    }
+
+    /**
+     * Reads what perf has printed since the last call, and returns the lines
+     * of the newest block: the counts printed when counting was last switched
+     * off. perf acknowledges a switch before it prints, so this waits until
+     * the block has a line for every event and the output stops growing.
+     */
+    private List<String> readCounts() throws IOException, InterruptedException {
+      List<String> lines = new ArrayList<String>();
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RESPONSE_TIMEOUT_MILLIS);
+      while (true) {
+        int before = lines.size();
+        readNewLines(lines);
+        List<String> block = lastBlock(lines);
+        if (lines.size() == before && hasEveryEvent(block)) {
+          return block;
+        }
+        if (!perf.isAlive()) {
+          throw new IOException("perf stat exited: " + readLog());
+        }
+        if (System.nanoTime() > deadline) {
+          throw new IOException("perf stat didn't print the counts: " + readLog());
+        }
+        Thread.sleep(1);
+      }
+    }
+
+    /**
+     * Adds the complete lines perf has written since the last read to
+     * {@code lines}.
+     */
+    private void readNewLines(List<String> lines) throws IOException {
+      if (outputReader == null) {
+        if (!output.exists()) {
+          return;
+        }
+        outputReader = new RandomAccessFile(output, "r");
+      }
+      long start = outputReader.getFilePointer();
+      byte[] bytes = new byte[(int) (outputReader.length() - start)];
+      outputReader.readFully(bytes);
+      int end = bytes.length;
+      while (end > 0 && bytes[end - 1] != '\n') {
+        end--;
+      }
+
+      // leave a line that's still being written for next time
+      outputReader.seek(start + end);
+      for (String line : new String(bytes, 0, end, ASCII).split("\n")) {
+        if (line.length() > 0 && !line.startsWith("#")) {
+          lines.add(line);
+        }
+      }
+    }
+
+    private String readLog() {
+      try {
+        return new String(Files.readAllBytes(log.toPath()), ASCII).trim();
+      } catch (IOException e) {
+        return "(no output)";
+      }
+    }
+
+    /**
+     * Detaches perf and deletes its files. Counting can't be started again.
+     */
+    public void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        perf.getOutputStream().close();
+        perf.waitFor(RESPONSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+      } catch (IOException e) {
+        // perf has exited already
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      perf.destroy();
+      try {
+        // wake the ack reader up; nothing else is listening on this FIFO
+        ack.write('\n');
+        control.close();
+        ack.close();
+        if (outputReader != null) {
+          outputReader.close();
+        }
+      } catch (IOException e) {
+        // nothing more goes through them
+      }
+      delete();
+    }
+
+    private void delete() {
+      for (File f : dir.listFiles()) {
+        f.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  /**
+   * Attaches perf to this JVM with counting switched off, or returns null if
+   * hardware counters are turned off or unavailable.
+   */
+  public static Session open() {
+    String command = perfCommand();
+    if (command == null || unavailable) {
+      return null;
+    }
+    try {
+      return new Session(command);
+    } catch (Exception e) {
+      giveUp(e);
+      return null;
+    }
+  }
+
+  /**
+   * Returns the perf executable to run, or null if hardware counters are
+   * turned off.
+   */
+  static String perfCommand() {
+    String value = System.getProperty(COUNTERS_PROPERTY);
+    if (value == null || value.isEmpty() || value.equalsIgnoreCase("false")) {
+      return null;
+    }
+    return value.equalsIgnoreCase("true") ? "perf" : value;
+  }
+
+  /**
+   * Returns true if counting was turned on but failed, so runs are going
+   * without counters.
+   */
+  static boolean isUnavailable() {
+    return unavailable;
+  }
+
+  private static void giveUp(Exception reason) {
+    if (!unavailable) {
+      unavailable = true;
+      System.err.println("Hardware counters are unavailable, so the remaining runs won't include them: " +
+          reason.getMessage());
+    }
+  }
+
+  /**
+   * Returns the lines of the last block perf printed: the lines with the
+   * same timestamp as the last line.
+   */
+  static List<String> lastBlock(List<String> lines) {
+    if (lines.isEmpty()) {
+      return lines;
+    }
+    String time = timestamp(lines.get(lines.size() - 1));
+    int first = lines.size() - 1;
+    while (first > 0 && timestamp(lines.get(first - 1)).equals(time)) {
+      first--;
+    }
+    return lines.subList(first, lines.size());
+  }
+
+  private static String timestamp(String line) {
+    int comma = line.indexOf(',');
+    return comma < 0 ? line : line.substring(0, comma).trim();
+  }
+
+  /**
+   * Returns true if the given lines have a count (or a reason there isn't
+   * one) for each of the {@link #EVENTS}.
+   */
+  static boolean hasEveryEvent(List<String> lines) {
+    boolean[] seen = new boolean[EVENTS.size()];
+    int count = 0;
+    for (String line : lines) {
+      String[] fields = line.split(",");
+      int index = fields.length < 4 ? -1 : eventIndex(fields[3]);
+      if (index >= 0 && !seen[index]) {
+        seen[index] = true;
+        count++;
+      }
+    }
+    return count == seen.length;
+  }
+
+  /**
+   * Reads the counts from the CSV output of {@code perf stat -x , -I}. Each
+   * line is a timestamp, a value, a unit, and an event name, followed by
+   * fields we don't use. On hybrid CPUs, an event is counted separately for
+   * each kind of core (as in {@code cpu_core/cycles/} and
+   * {@code cpu_atom/cycles/}), and the counts are added up.
+   *
+   * @return the count of each of the {@link #EVENTS}, or -1 for events that
+   *         weren't counted
+   */
+  static long[] parse(List<String> lines) {
+    long[] counts = new long[EVENTS.size()];
+    Arrays.fill(counts, -1);
+    for (String line : lines) {
+      String[] fields = line.split(",");
+      if (line.startsWith("#") || fields.length < 4) {
+        continue;
+      }
+      int index = eventIndex(fields[3]);
+      if (index < 0) {
+        continue;
+      }
+      try {
+        // "<not supported>" and "<not counted>" are left at -1
+        long count = Long.parseLong(fields[1]);
+        counts[index] = Math.max(counts[index], 0) + count;
+      } catch (NumberFormatException e) {
+        continue;
+      }
+    }
+    return counts;
+  }
+
+  /**
+   * Returns the index in {@link #EVENTS} of the event perf printed, or -1 if
+   * it isn't one of them.
+   */
+  private static int eventIndex(String event) {
+    if (event.indexOf(':') > 0) {
+      // a modifier, such as ":u" when the kernel only allows counting user space
+      event = event.substring(0, event.indexOf(':'));
+    }
+    if (event.endsWith("/")) {
+      event = event.substring(event.lastIndexOf('/', event.length() - 2) + 1, event.length() - 1);
+    }
+    return EVENTS.indexOf(event);
+  }
+
+  private static String join(List<String> events) {
+    StringBuilder sb = new StringBuilder();
+    for (String event : events) {
+      sb.append(sb.length() == 0 ? "" : ",").append(event);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns this JVM's process ID, which the runtime MXBean's name starts with
+   * on HotSpot.
+   */
+  private static long pid() {
+    String name = ManagementFactory.getRuntimeMXBean().getName();
+    return Long.parseLong(name.substring(0, name.indexOf('@')));
+  }
+}
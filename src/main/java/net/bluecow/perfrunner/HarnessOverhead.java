@@ -0,0 +1,197 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.junit.internal.runners.statements.InvokeMethod;
+
+/**
+ * The time PerfRunner itself adds to a measurement: the cost of reading the
+ * clock, the allocation counters and the other JVM statistics at both ends of
+ * a run, and of calling the test method. It's measured once per JVM for each
+ * number of test method parameters, by running an empty test method through
+ * the same code a real run goes through.
+ * <p>
+ * The overhead is always reported. If the {@value #SUBTRACT_PROPERTY} system
+ * property is {@code true}, it's also subtracted from the time of each
+ * single-shot run, and from the time of each {@link Throughput} run's calls.
+ * Runs on several threads ({@link Concurrent} and {@link FixedRate}) are
+ * never adjusted, because their calls overlap.
+ * <p>
+ * The empty test methods take {@code int} parameters, whatever the types of
+ * the real test method's parameters, so the overhead of a test method whose
+ * parameters are of other types (longs, doubles, strings, enums) is an
+ * approximation.
+ * <p>
+ * The overhead is measured once the harness code has been compiled and is in
+ * the CPU's caches. A single-shot run that follows the report's bookkeeping
+ * usually sees more than that, so subtracting it errs on the side of leaving
+ * some overhead in.
+ */
+class HarnessOverhead {
+
+  /**
+   * The system property that turns on subtracting the overhead. The overhead
+   * subtracted is that of an empty test method with the same number of
+   * {@code int} parameters, not the same parameter types.
+   */
+  static final String SUBTRACT_PROPERTY = "perfrunner.subtractOverhead";
+
+  /**
+   * The most parameters an empty test method has. Test methods with more
+   * parameters are assumed to cost the same as this.
+   */
+  static final int MAX_PARAMS = 8;
+
+  private static final int WARMUP_RUNS = 2000;
+  private static final int SAMPLE_RUNS = 501;
+  private static final int CALL_BATCH = 10000;
+  private static final int CALL_BATCHES = 21;
+
+  private static final ConcurrentMap<Integer, HarnessOverhead> CALIBRATIONS =
+      new ConcurrentHashMap<Integer, HarnessOverhead>();
+
+  /**
+   * The empty test methods that are measured, one for each number of
+   * parameters.
+   */
+  static class EmptyTest {
+    public void empty0() {}
+    public void empty1(int a) {}
+    public void empty2(int a, int b) {}
+    public void empty3(int a, int b, int c) {}
+    public void empty4(int a, int b, int c, int d) {}
+    public void empty5(int a, int b, int c, int d, int e) {}
+    public void empty6(int a, int b, int c, int d, int e, int f) {}
+    public void empty7(int a, int b, int c, int d, int e, int f, int g) {}
+    public void empty8(int a, int b, int c, int d, int e, int f, int g, int h) {}
+  }
+
+  private final long runNanos;
+  private final double callNanos;
+
+  private HarnessOverhead(long runNanos, double callNanos) {
+    this.runNanos = runNanos;
+    this.callNanos = callNanos;
+  }
+
+  /**
+   * Returns the overhead for the given test method, measuring it if this is
+   * the first test method with its number of parameters. Measuring takes a
+   * few tens of milliseconds, so it has to happen outside any measurement.
+   */
+  static HarnessOverhead of(Method testMethod) {
+    int params = Math.min(testMethod.getParameterTypes().length, MAX_PARAMS);
+    HarnessOverhead overhead = CALIBRATIONS.get(params);
+    if (overhead == null) {
+      try {
+        overhead = calibrate(params);
+      } catch (Throwable e) {
+        throw new RuntimeException("Failed to measure the harness overhead", e);
+      }
+      CALIBRATIONS.putIfAbsent(params, overhead);
+    }
+    return overhead;
+  }
+
+  /**
+   * Returns true if the overhead is subtracted from measurements. It's
+   * calibrated by parameter count only; see {@link #SUBTRACT_PROPERTY}.
+   */
+  static boolean isSubtracted() {
+    return Boolean.getBoolean(SUBTRACT_PROPERTY);
+  }
+
+  private static HarnessOverhead calibrate(int params) throws Throwable {
+    Class<?>[] types = new Class<?>[params];
+    Arrays.fill(types, Integer.TYPE);
+    Object[][] values = new Object[params][];
+    Arrays.fill(values, new Object[] { 0 });
+    Method empty = EmptyTest.class.getMethod("empty" + params, types);
+    ParameterizedFrameworkMethod method = new ParameterizedFrameworkMethod(new ParameterSpace(empty, values), 0, 1);
+    EmptyTest target = new EmptyTest();
+    method.bind(target);
+    try {
+      // a single-shot run is measured the way PerformanceReportBuilder does it
+      long[] runs = new long[SAMPLE_RUNS];
+      for (int i = -WARMUP_RUNS; i < SAMPLE_RUNS; i++) {
+        RunStats start = RunStats.create();
+        new InvokeMethod(method, target).evaluate();
+        long nanos = start.relativeToNow().nanoTime();
+        if (i >= 0) {
+          runs[i] = nanos;
+        }
+      }
+
+      // and calls the way InvokeForDuration makes them
+      double[] calls = new double[CALL_BATCHES];
+      for (int batch = -CALL_BATCHES; batch < CALL_BATCHES; batch++) {
+        long start = System.nanoTime();
+        for (int i = 0; i < CALL_BATCH; i++) {
+          method.invokeAndConsume(target);
+        }
+        if (batch >= 0) {
+          calls[batch] = (System.nanoTime() - start) / (double) CALL_BATCH;
+        }
+      }
+
+      Arrays.sort(runs);
+      Arrays.sort(calls);
+      return new HarnessOverhead(runs[SAMPLE_RUNS / 2], calls[CALL_BATCHES / 2]);
+    } finally {
+      method.unbind();
+    }
+  }
+
+  /**
+   * Returns the median time a single-shot run of an empty test method
+   * measures, in nanoseconds.
+   */
+  public long runNanos() {
+    return runNanos;
+  }
+
+  /**
+   * Returns the median time an empty test method call takes in a
+   * {@link Throughput} loop, in nanoseconds.
+   */
+  public double callNanos() {
+    return callNanos;
+  }
+
+  /**
+   * Returns the overhead included in a run's measurement: the overhead of a
+   * single-shot run, or the overhead of each call times the number of calls.
+   *
+   * @param operations
+   *          the number of calls in throughput mode, or 0 for a single-shot
+   *          run
+   */
+  public long nanosFor(long operations) {
+    return operations > 0 ? Math.round(callNanos * operations) : runNanos;
+  }
+
+  @Override
+  public String toString() {
+    return runNanos + "ns per run, " + String.format("%.2f", callNanos) + "ns per call";
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A statement that calls a test method on a fixed schedule, and records the
+ * latency of each call from the time it was scheduled to start rather than
+ * the time it actually started. The threads share one schedule: each one
+ * takes the next scheduled call as soon as it's free, waiting for its start
+ * time if it's early and starting it at once if it's late.
+ *
+ * @see FixedRate
+ */
+class InvokeAtFixedRate extends InvokeConcurrently {
+
+  /**
+   * How long before a call's scheduled start a waiting thread stops sleeping
+   * and spins, since sleeps can overshoot by about this much.
+   */
+  private static final long SPIN_NANOS = 50000L;
+
+  private final double intervalNanos;
+  private final long scheduledCalls;
+  private final boolean concurrent;
+  private final Measurements measurements;
+  private final AtomicLong nextCall = new AtomicLong();
+
+  /**
+   * @param perSecond
+   *          The number of calls to schedule per second.
+   * @param durationMillis
+   *          How long to keep scheduling calls.
+   * @param threadCount
+   *          The number of threads to make the calls on.
+   * @param concurrent
+   *          True if the threads were asked for with {@link Concurrent}, in
+   *          which case each thread's call count and time are reported too.
+   * @param measurements
+   *          Where the latencies are recorded.
+   */
+  public InvokeAtFixedRate(ParameterizedFrameworkMethod method, Object target, int perSecond, long durationMillis,
+      int threadCount, boolean virtualThreads, boolean concurrent, Measurements measurements,
+      PerformanceReportBuilder reportBuilder) {
+    super(method, target, threadCount, virtualThreads, durationMillis, reportBuilder);
+    if (perSecond < 1) {
+      throw new IllegalArgumentException(
+          "Method " + method.getName() + " needs a rate of at least 1 call per second, but was given " + perSecond);
+    }
+    this.intervalNanos = 1000000000.0 / perSecond;
+    this.scheduledCalls = Math.max(1, perSecond * durationMillis / 1000);
+    this.concurrent = concurrent;
+    this.measurements = measurements;
+  }
+
+  @Override
+  protected void prepare() {
+    nextCall.set(0);
+  }
+
+  @Override
+  protected long callOnThread(long begin) throws Throwable {
+    long operations = 0;
+    for (long call = nextCall.getAndIncrement(); call < scheduledCalls; call = nextCall.getAndIncrement()) {
+      long scheduled = begin + (long) (call * intervalNanos);
+      long wait;
+      while ((wait = scheduled - System.nanoTime()) > 0) {
+        if (wait > SPIN_NANOS) {
+          LockSupport.parkNanos(wait - SPIN_NANOS);
+        }
+      }
+      method.invokeAndConsume(target);
+      measurements.recordLatency(System.nanoTime() - scheduled);
+      operations++;
+    }
+    return operations;
+  }
+
+  @Override
+  protected boolean isReportingThreads() {
+    return concurrent;
+  }
+}
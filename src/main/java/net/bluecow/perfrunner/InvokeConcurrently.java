@@ -0,0 +1,218 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.runners.model.Statement;
+
+/**
+ * A statement that calls a test method on several threads at the same time,
+ * then reports each thread's call count and time, and the aggregate count and
+ * wall-clock time, to the report builder.
+ * <p>
+ * The threads are created and started first, and wait at a start barrier until
+ * all of them are ready, so thread startup isn't part of the measurement and
+ * no thread gets a head start. The wall-clock time runs from the moment the
+ * barrier opens until the last thread has finished.
+ *
+ * @see Concurrent
+ */
+class InvokeConcurrently extends Statement {
+
+  /**
+   * Creates virtual threads, or null if this JVM doesn't have them. Looked up
+   * reflectively because virtual threads need Java 21, and PerfRunner doesn't.
+   */
+  private static final ThreadFactory VIRTUAL_THREADS;
+
+  static {
+    ThreadFactory factory = null;
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      factory = (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+    } catch (Exception e) {
+      // older JVM, or virtual threads are a preview feature that isn't enabled
+      factory = null;
+    }
+    VIRTUAL_THREADS = factory;
+  }
+
+  protected final ParameterizedFrameworkMethod method;
+  protected final Object target;
+  private final int threadCount;
+  private final boolean virtualThreads;
+
+  /**
+   * How long each thread keeps calling the test method, or 0 to call it just
+   * once per thread.
+   */
+  protected final long durationNanos;
+
+  private final PerformanceReportBuilder reportBuilder;
+
+  /**
+   * The number of calls each thread makes between readings of the clock in
+   * throughput mode.
+   */
+  private int batchSize = 1;
+
+  public InvokeConcurrently(ParameterizedFrameworkMethod method, Object target, int threadCount, boolean virtualThreads,
+      long durationMillis, PerformanceReportBuilder reportBuilder) {
+    if (threadCount < 1) {
+      throw new IllegalArgumentException(
+          "Method " + method.getName() + " needs at least 1 thread, but was given " + threadCount);
+    }
+    this.method = method;
+    this.target = target;
+    this.threadCount = threadCount;
+    this.virtualThreads = virtualThreads;
+    this.durationNanos = durationMillis * 1000000L;
+    this.reportBuilder = reportBuilder;
+  }
+
+  /**
+   * Returns true if this JVM can run tests on virtual threads.
+   */
+  public static boolean isVirtualThreadSupported() {
+    return VIRTUAL_THREADS != null;
+  }
+
+  /**
+   * Does whatever has to be done before the threads are started. This
+   * implementation calibrates the batch size in throughput mode.
+   */
+  protected void prepare() throws Throwable {
+    if (durationNanos > 0) {
+      batchSize = InvokeForDuration.calibrateBatchSize(method, target, durationNanos);
+    }
+  }
+
+  /**
+   * Makes one thread's calls to the test method, and returns how many there
+   * were. This implementation calls it once, or in batches for
+   * {@link #durationNanos} in throughput mode.
+   *
+   * @param begin
+   *          The {@link System#nanoTime()} at which the start barrier opened.
+   */
+  protected long callOnThread(long begin) throws Throwable {
+    long operations = 0;
+    do {
+      for (int b = 0; b < batchSize; b++) {
+        method.invokeAndConsume(target);
+      }
+      operations += batchSize;
+    } while (System.nanoTime() - begin < durationNanos);
+    return operations;
+  }
+
+  /**
+   * Returns true if each thread's calls should be recorded with the run, as
+   * well as the totals for all threads.
+   */
+  protected boolean isReportingThreads() {
+    return true;
+  }
+
+  @Override
+  public void evaluate() throws Throwable {
+    prepare();
+
+    final long[] threadOperations = new long[threadCount];
+    final long[] threadNanos = new long[threadCount];
+    final CountDownLatch ready = new CountDownLatch(threadCount);
+    final CountDownLatch start = new CountDownLatch(1);
+    final long[] begin = new long[1];
+    final AtomicLong helperAllocation = AllocationMeter.helperAllocation();
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    ThreadFactory threadFactory = virtualThreads ? VIRTUAL_THREADS : new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r);
+        t.setDaemon(true);
+        return t;
+      }
+    };
+    if (threadFactory == null) {
+      throw new IllegalStateException("Virtual threads are not supported by this JVM");
+    }
+
+    List<Thread> threads = new ArrayList<Thread>(threadCount);
+    try {
+      for (int i = 0; i < threadCount; i++) {
+        final int threadNum = i;
+        Thread t = threadFactory.newThread(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              ready.countDown();
+              start.await();
+              long bytesAtStart = AllocationMeter.currentThreadAllocatedBytes();
+              long threadBegin = System.nanoTime();
+              try {
+                threadOperations[threadNum] = callOnThread(begin[0]);
+                threadNanos[threadNum] = System.nanoTime() - threadBegin;
+              } finally {
+                helperAllocation.addAndGet(AllocationMeter.currentThreadAllocatedBytes() - bytesAtStart);
+              }
+            } catch (Throwable e) {
+              failure.compareAndSet(null, e);
+            }
+          }
+        });
+        t.setName("perfrunner-" + method.getName() + "-" + i);
+        threads.add(t);
+        t.start();
+      }
+    } catch (Throwable e) {
+      // let the threads that did start run to the end rather than wait forever
+      start.countDown();
+      throw e;
+    }
+
+    ready.await();
+    AllocationMeter.Snapshot allocationAtStart = AllocationMeter.snapshot();
+    begin[0] = System.nanoTime();
+    start.countDown();
+    for (Thread t : threads) {
+      t.join();
+    }
+    long elapsed = System.nanoTime() - begin[0];
+    long allocated = AllocationMeter.allocatedSince(allocationAtStart);
+
+    if (failure.get() != null) {
+      throw failure.get();
+    }
+
+    long operations = 0;
+    for (long ops : threadOperations) {
+      operations += ops;
+    }
+    reportBuilder.operationsFinished(operations, elapsed, allocated);
+    if (isReportingThreads()) {
+      reportBuilder.threadsFinished(threadOperations, threadNanos);
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import org.junit.runners.model.Statement;
+
+/**
+ * A statement that calls a test method repeatedly for a fixed amount of time,
+ * then reports the number of calls, the time they took, and the memory they
+ * allocated to the report builder.
+ * <p>
+ * To keep the cost of reading the clock out of the measurement, the calls are
+ * made in batches, and the clock is only read between batches. The batch size
+ * is calibrated before measuring starts so that each batch takes at least
+ * {@link #MIN_BATCH_NANOS}.
+ */
+class InvokeForDuration extends Statement {
+
+  /**
+   * The shortest time a batch of calls should take. Reading the clock costs
+   * tens of nanoseconds, so this keeps its share of the measurement well under
+   * a tenth of a percent.
+   */
+  static final long MIN_BATCH_NANOS = 100000L;
+
+  private final ParameterizedFrameworkMethod method;
+  private final Object target;
+  private final long durationNanos;
+  private final PerformanceReportBuilder reportBuilder;
+
+  public InvokeForDuration(ParameterizedFrameworkMethod method, Object target, long durationMillis,
+      PerformanceReportBuilder reportBuilder) {
+    this.method = method;
+    this.target = target;
+    this.durationNanos = durationMillis * 1000000L;
+    this.reportBuilder = reportBuilder;
+  }
+
+  @Override
+  public void evaluate() throws Throwable {
+    int batchSize = calibrateBatchSize(method, target, durationNanos);
+
+    long operations = 0;
+    AllocationMeter.Snapshot allocationAtStart = AllocationMeter.snapshot();
+    long start = System.nanoTime();
+    long elapsed;
+    do {
+      for (int i = 0; i < batchSize; i++) {
+        method.invokeAndConsume(target);
+      }
+      operations += batchSize;
+      elapsed = System.nanoTime() - start;
+    } while (elapsed < durationNanos);
+
+    reportBuilder.operationsFinished(operations, elapsed, AllocationMeter.allocatedSince(allocationAtStart));
+  }
+
+  /**
+   * Finds the smallest power of two such that a batch of that many calls takes
+   * at least {@link #MIN_BATCH_NANOS}, giving up on doubling once calibration
+   * has used up a tenth of the measurement time. The calls made during
+   * calibration are not counted.
+   */
+  static int calibrateBatchSize(ParameterizedFrameworkMethod method, Object target, long durationNanos) throws Throwable {
+    long calibrationStart = System.nanoTime();
+    int batchSize = 1;
+    for (;;) {
+      long start = System.nanoTime();
+      for (int i = 0; i < batchSize; i++) {
+        method.invokeAndConsume(target);
+      }
+      long now = System.nanoTime();
+      if (now - start >= MIN_BATCH_NANOS
+          || now - calibrationStart >= durationNanos / 10
+          || batchSize >= (1 << 30)) {
+        return batchSize;
+      }
+      batchSize *= 2;
+    }
+  }
+}
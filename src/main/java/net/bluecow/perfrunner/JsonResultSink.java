@@ -0,0 +1,239 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.runner.Description;
+
+/**
+ * Writes a test class's results to a JSON document named
+ * <code>perfrunner-<i>fully-qualified-class-name</i>.json</code> in the current
+ * directory. The document describes the test environment, then lists every
+ * measured run with its parameter values and raw measurements:
+ *
+ * <pre>
+ * { "class": "...", "generatedOn": "...", "environment": { ... },
+ *   "runs": [
+ *     { "method": "...", "parameters": { "size": 10.0 }, "trial": 1, "nanoTime": ..., "gc": { ... }, ... },
+ *     ...
+ *   ] }
+ * </pre>
+ */
+class JsonResultSink implements ResultSink {
+
+  private PrintWriter out;
+  private boolean firstRun;
+
+  @Override
+  public void runStarted(Description description) throws IOException {
+    out = new PrintWriter("perfrunner-" + description.getClassName() + ".json");
+    out.println("{");
+    out.println(" \"class\": " + quote(description.getClassName()) + ",");
+    out.println(" \"generatedOn\": " + quote(new Date().toString()) + ",");
+    out.print(" \"environment\": {");
+    boolean first = true;
+    for (Map.Entry<String, String> e : RunEnvironment.describe().entrySet()) {
+      out.print((first ? " " : ", ") + quote(e.getKey()) + ": " + quote(e.getValue()));
+      first = false;
+    }
+    out.println(" },");
+    out.print(" \"runs\": [");
+    firstRun = true;
+  }
+
+  @Override
+  public void runRecorded(RunRecord run) throws IOException {
+    PerfRunDescription desc = run.description();
+    RunStats runStats = run.runStats();
+    int warmupIterations = run.getWarmupIterations();
+    long warmupCompilationMillis = run.getWarmupCompilationMillis();
+    out.println(firstRun ? "" : ",");
+    firstRun = false;
+
+    out.print("  { \"class\": " + quote(desc.getClassName()) +
+        ", \"method\": " + quote(desc.getMethodName()) +
+        ", \"parameters\": {");
+    List<Varying> params = desc.getParamAnnotations();
+    for (int i = 0; i < params.size(); i++) {
+      double value = desc.getParamValues().get(i);
+      String label = desc.getParamLabels().get(i);
+      // a long too big for a double is written with the exact digits of its label
+      out.print((i == 0 ? " " : ", ") + quote(params.get(i).name()) + ": " +
+          (Double.isNaN(value) ? quote(label) : label.equals(String.valueOf(value)) ? number(value) : label));
+    }
+    out.print(" }, \"trial\": " + desc.getTrial() +
+        ", \"nanoTime\": " + runStats.nanoTime() +
+        ", \"heapInUse\": " + runStats.heapInUse() +
+        ", \"allocatedBytes\": " + runStats.allocatedBytes() +
+        ", \"compilationMillis\": " + runStats.compilationMillis() +
+        ", \"warmupIterations\": " + warmupIterations +
+        ", \"warmupCompilationMillis\": " + warmupCompilationMillis);
+    if (runStats.hasOperations()) {
+      out.print(", \"operations\": " + runStats.operations() +
+          ", \"operationNanos\": " + runStats.operationNanos() +
+          ", \"opsPerSecond\": " + number(runStats.operationsPerSecond()) +
+          ", \"nsPerOp\": " + number(runStats.nanosPerOperation()) +
+          ", \"bytesPerOp\": " + number(runStats.allocatedBytesPerOperation()));
+    }
+    if (runStats.threadCount() > 0) {
+      out.print(", \"threadLatencyNanos\": [");
+      for (int i = 0; i < runStats.threadCount(); i++) {
+        out.print((i == 0 ? " " : ", ") + number(runStats.threadLatencyNanos(i)));
+      }
+      out.print(" ]");
+    }
+    if (runStats.latencies() != null) {
+      LatencyHistogram.Snapshot latencies = runStats.latencies();
+      out.print(", \"latencies\": { \"count\": " + latencies.totalCount());
+      for (double p : PerformanceReportBuilder.DISTRIBUTION_PERCENTILES) {
+        out.print(", " + quote("p" + LatencyHistogram.percentileLabel(p)) + ": " + latencies.percentile(p));
+      }
+      out.print(", \"histogram\": " + quote(latencies.toCompactString()) + " }");
+    }
+    if (runStats.hasHardwareCounts()) {
+      out.print(", \"hardwareCounts\": {");
+      boolean first = true;
+      for (int event = 0; event < HardwareCounters.EVENTS.size(); event++) {
+        if (runStats.hardwareCount(event) >= 0) {
+          out.print((first ? " " : ", ") + quote(HardwareCounters.KEYS.get(event)) + ": " + runStats.hardwareCount(event));
+          first = false;
+        }
+      }
+      out.print(" }");
+    }
+    if (runStats.harnessNanos() >= 0) {
+      out.print(", \"harnessNanos\": " + runStats.harnessNanos() +
+          ", \"harnessSubtracted\": " + runStats.isHarnessSubtracted());
+    }
+    appendGcTo(runStats.gc());
+    if (!runStats.measurements().isEmpty()) {
+      out.print(", \"measurements\": {");
+      boolean first = true;
+      for (Map.Entry<String, Double> e : runStats.measurements().entrySet()) {
+        out.print((first ? " " : ", ") + quote(e.getKey()) + ": " + number(e.getValue()));
+        first = false;
+      }
+      out.print(" }");
+    }
+    out.print(" }");
+  }
+
+  private void appendGcTo(GcStats gc) {
+    out.print(", \"gc\": { \"count\": " + gc.totalCount() + ", \"millis\": " + gc.totalTimeMillis());
+    if (gc.hasPauseDetails()) {
+      out.print(", \"pauseMillis\": " + gc.pauseMillis() + ", \"promotedBytes\": " + gc.promotedBytes());
+    }
+
+    out.print(", \"collectors\": [");
+    boolean first = true;
+    for (GcStats.CollectorStats c : gc.getCollectors()) {
+      out.print((first ? " " : ", ") + "{ \"name\": " + quote(c.getName()) +
+          ", \"count\": " + c.getCount() + ", \"millis\": " + c.getTimeMillis() + " }");
+      first = false;
+    }
+    out.print(" ]");
+
+    if (gc.hasPauseDetails()) {
+      out.print(", \"collections\": [");
+      first = true;
+      for (GcStats.Pause p : gc.getPauses()) {
+        out.print((first ? " " : ", ") + "{ \"collector\": " + quote(p.getCollector()) +
+            ", \"action\": " + quote(p.getAction()) +
+            ", \"cause\": " + quote(p.getCause()) +
+            ", \"durationMillis\": " + p.getDurationMillis() +
+            ", \"concurrent\": " + p.isConcurrent() +
+            ", \"promotedBytes\": " + p.getPromotedBytes() +
+            ", \"usedBefore\": " + object(p.getUsedBefore()) +
+            ", \"usedAfter\": " + object(p.getUsedAfter()) + " }");
+        first = false;
+      }
+      out.print(" ]");
+    }
+    out.print(" }");
+  }
+
+  @Override
+  public void runFinished() throws IOException {
+    out.println();
+    out.println(" ]");
+    out.println("}");
+    out.close();
+  }
+
+  private static String object(Map<String, Long> values) {
+    StringBuilder sb = new StringBuilder("{");
+    boolean first = true;
+    for (Map.Entry<String, Long> e : values.entrySet()) {
+      sb.append(first ? " " : ", ").append(quote(e.getKey())).append(": ").append(e.getValue());
+      first = false;
+    }
+    return sb.append(" }").toString();
+  }
+
+  /**
+   * Returns the given number as a JSON value. JSON has no representation for
+   * NaN or infinity, so those become null.
+   */
+  private static String number(double d) {
+    if (Double.isNaN(d) || Double.isInfinite(d)) {
+      return "null";
+    }
+    return String.valueOf(d);
+  }
+
+  /**
+   * Returns the given text as a JSON string, or null if it is null.
+   */
+  static String quote(String s) {
+    if (s == null) {
+      return "null";
+    }
+    StringBuilder sb = new StringBuilder("\"");
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      switch (c) {
+      case '"':
+        sb.append("\\\"");
+        break;
+      case '\\':
+        sb.append("\\\\");
+        break;
+      case '\n':
+        sb.append("\\n");
+        break;
+      case '\r':
+        sb.append("\\r");
+        break;
+      case '\t':
+        sb.append("\\t");
+        break;
+      default:
+        if (c < 0x20) {
+          sb.append(String.format("\\u%04x", (int) c));
+        } else {
+          sb.append(c);
+        }
+      }
+    }
+    return sb.append('"').toString();
+  }
+}
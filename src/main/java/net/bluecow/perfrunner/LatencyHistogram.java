@@ -0,0 +1,280 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in logarithmic buckets, in the style of HdrHistogram. Values
+ * below {@value #SUB_BUCKETS} nanoseconds are counted exactly; larger values
+ * go in buckets that are never wider than 1/64 of their lower bound, so every
+ * percentile is reported to within about 1.6% of the true value, from
+ * nanoseconds up to centuries.
+ * <p>
+ * Recording is lock-free and allocation-free, so any number of threads can
+ * record into the same histogram while it is being measured. Read the results
+ * through a {@link #snapshot()}, which stores only the non-empty buckets.
+ */
+class LatencyHistogram {
+
+  /**
+   * The number of exactly-counted values, and twice the number of buckets in
+   * each power of two above them.
+   */
+  static final int SUB_BUCKETS = 128;
+
+  private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+  /**
+   * Enough buckets for every non-negative long.
+   */
+  static final int BUCKET_COUNT = SUB_BUCKETS + (63 - 7) * HALF_SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+  /**
+   * Counts one occurrence of the given latency. Negative values are counted
+   * as 0.
+   */
+  public void record(long nanos) {
+    counts.incrementAndGet(bucketOf(Math.max(0, nanos)));
+  }
+
+  /**
+   * Empties the histogram. Must not be called while other threads are
+   * recording.
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts.set(i, 0);
+    }
+  }
+
+  /**
+   * Returns the non-empty buckets of this histogram as they are now, or null
+   * if nothing has been recorded.
+   */
+  public Snapshot snapshot() {
+    int nonEmpty = 0;
+    long[] copy = new long[BUCKET_COUNT];
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      copy[i] = counts.get(i);
+      if (copy[i] > 0) {
+        nonEmpty++;
+      }
+    }
+    if (nonEmpty == 0) {
+      return null;
+    }
+    int[] buckets = new int[nonEmpty];
+    long[] bucketCounts = new long[nonEmpty];
+    for (int i = 0, j = 0; i < BUCKET_COUNT; i++) {
+      if (copy[i] > 0) {
+        buckets[j] = i;
+        bucketCounts[j] = copy[i];
+        j++;
+      }
+    }
+    return new Snapshot(buckets, bucketCounts);
+  }
+
+  /**
+   * Returns the given percentile as it's usually written: without a decimal
+   * point if it's a whole number, so "99" and "99.9".
+   */
+  static String percentileLabel(double percentile) {
+    if (percentile == Math.rint(percentile)) {
+      return String.valueOf((long) percentile);
+    }
+    return String.valueOf(percentile);
+  }
+
+  /**
+   * Returns the index of the bucket that counts the given value.
+   */
+  static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+    return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) (value >>> shift) - HALF_SUB_BUCKETS;
+  }
+
+  /**
+   * Returns the smallest value counted by the given bucket.
+   */
+  static long lowestValueIn(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+    return (long) (HALF_SUB_BUCKETS + (bucket - SUB_BUCKETS) % HALF_SUB_BUCKETS) << shift;
+  }
+
+  /**
+   * Returns the largest value counted by the given bucket.
+   */
+  static long highestValueIn(int bucket) {
+    if (bucket == BUCKET_COUNT - 1) {
+      return Long.MAX_VALUE;
+    }
+    return lowestValueIn(bucket + 1) - 1;
+  }
+
+  /**
+   * The non-empty buckets of a histogram at one moment. Instances are
+   * immutable.
+   */
+  static class Snapshot implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The indexes of the non-empty buckets, in ascending order.
+     */
+    private final int[] buckets;
+
+    /**
+     * The count in each of {@link #buckets}.
+     */
+    private final long[] counts;
+
+    private final long totalCount;
+
+    private Snapshot(int[] buckets, long[] counts) {
+      this.buckets = buckets;
+      this.counts = counts;
+      long total = 0;
+      for (long c : counts) {
+        total += c;
+      }
+      this.totalCount = total;
+    }
+
+    /**
+     * Returns the number of latencies recorded.
+     */
+    public long totalCount() {
+      return totalCount;
+    }
+
+    /**
+     * Returns the latency, in nanoseconds, that the given percentage of the
+     * recorded latencies are less than or equal to. As in HdrHistogram, the
+     * answer is the highest value in the bucket where the percentile falls,
+     * so it never understates the latency. Percentile 100 is the maximum.
+     */
+    public long percentile(double percentile) {
+      long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * totalCount));
+      long seen = 0;
+      for (int i = 0; i < buckets.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return highestValueIn(buckets[i]);
+        }
+      }
+      return highestValueIn(buckets[buckets.length - 1]);
+    }
+
+    /**
+     * Returns the smallest recorded latency (to the histogram's precision),
+     * in nanoseconds.
+     */
+    public long min() {
+      return lowestValueIn(buckets[0]);
+    }
+
+    /**
+     * Returns a snapshot that holds the latencies of both this snapshot and
+     * the given one. Either may be null.
+     */
+    public static Snapshot merge(Snapshot a, Snapshot b) {
+      if (a == null) {
+        return b;
+      }
+      if (b == null) {
+        return a;
+      }
+      long[] sum = new long[BUCKET_COUNT];
+      int nonEmpty = 0;
+      for (Snapshot s : new Snapshot[] { a, b }) {
+        for (int i = 0; i < s.buckets.length; i++) {
+          if (sum[s.buckets[i]] == 0) {
+            nonEmpty++;
+          }
+          sum[s.buckets[i]] += s.counts[i];
+        }
+      }
+      int[] buckets = new int[nonEmpty];
+      long[] counts = new long[nonEmpty];
+      for (int i = 0, j = 0; i < BUCKET_COUNT; i++) {
+        if (sum[i] > 0) {
+          buckets[j] = i;
+          counts[j] = sum[i];
+          j++;
+        }
+      }
+      return new Snapshot(buckets, counts);
+    }
+
+    /**
+     * Returns the buckets as text: the lowest value of each non-empty bucket,
+     * in nanoseconds, and its count, as <code>value:count;value:count</code>.
+     */
+    public String toCompactString() {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < buckets.length; i++) {
+        if (i > 0) {
+          sb.append(';');
+        }
+        sb.append(lowestValueIn(buckets[i])).append(':').append(counts[i]);
+      }
+      return sb.toString();
+    }
+
+    /**
+     * Writes the non-empty buckets to {@code out} in a compact binary form
+     * that {@link #readFrom(DataInput)} can read back.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+      out.writeShort(buckets.length);
+      for (int i = 0; i < buckets.length; i++) {
+        out.writeShort(buckets[i]);
+        out.writeLong(counts[i]);
+      }
+    }
+
+    /**
+     * Reads a snapshot written by {@link #writeTo(DataOutput)}.
+     */
+    public static Snapshot readFrom(DataInput in) throws IOException {
+      int size = in.readUnsignedShort();
+      int[] buckets = new int[size];
+      long[] counts = new long[size];
+      for (int i = 0; i < size; i++) {
+        buckets[i] = in.readUnsignedShort();
+        counts[i] = in.readLong();
+      }
+      return new Snapshot(buckets, counts);
+    }
+  }
+}
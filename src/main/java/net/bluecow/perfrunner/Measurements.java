@@ -0,0 +1,183 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lets a test method report its own measurements, such as the time taken by
+ * its critical section, a queue depth, or a cache hit ratio. Declare a
+ * parameter of this type (without a {@link Varying} annotation) and PerfRunner
+ * will pass in a recorder for each run:
+ *
+ * <pre>
+ * &#64;Test
+ * public void lookups(&#64;Varying(name="size", axis=Axis.X, from=1, to=10) int size, Measurements m) {
+ *   ...
+ *   m.record("Hit ratio", hits / (double) lookups);
+ * }
+ * </pre>
+ *
+ * Each measurement can be chosen as the Y axis of the method's chart. If a
+ * measurement is recorded more than once in a run (for example, in
+ * {@link Throughput} mode), the run's value is the mean of the recorded values.
+ * <p>
+ * What a test method returns isn't recorded, because recording takes time
+ * the test would then be charged for; it's consumed by the method's
+ * {@link Blackhole}. To chart a result, record it.
+ * <p>
+ * To see tail latency, which a single time per run can't show, a test method
+ * that performs many operations can time each one and pass it to
+ * {@link #recordLatency(long)}. The report then charts latency percentiles
+ * (p50 up to p99.99) and the full percentile distribution of each point.
+ * <p>
+ * Measurements and latencies can be recorded from any thread. Each thread
+ * adds its measurements up separately, so threads that record at the same
+ * time (in a {@link Concurrent} run, for example) don't wait for each other.
+ */
+public class Measurements {
+
+  /**
+   * The sum and count of the values one thread recorded for each measurement
+   * since the last {@link #clear()}.
+   */
+  private static class ThreadTotals {
+    final Map<String, double[]> totals = new LinkedHashMap<String, double[]>();
+    final int generation;
+
+    ThreadTotals(int generation) {
+      this.generation = generation;
+    }
+  }
+
+  /**
+   * The totals of the thread that's recording.
+   */
+  private final ThreadLocal<ThreadTotals> threadTotals = new ThreadLocal<ThreadTotals>();
+
+  /**
+   * The totals of every thread that has recorded since the last
+   * {@link #clear()}, in the order they started recording.
+   */
+  private final List<ThreadTotals> allTotals = new ArrayList<ThreadTotals>();
+
+  /**
+   * Counts the calls to {@link #clear()}, so a thread can tell that its
+   * totals have been forgotten.
+   */
+  private volatile int generation;
+
+  private final LatencyHistogram latencies = new LatencyHistogram();
+
+  /**
+   * Records one value of the named measurement.
+   *
+   * @param name
+   *          The name of the measurement, including its units if it has any.
+   *          This is what the chart calls it.
+   * @param value
+   *          The measured value.
+   */
+  public void record(String name, double value) {
+    ThreadTotals totals = threadTotals.get();
+    if (totals == null || totals.generation != generation) {
+      totals = startRecording();
+    }
+    double[] total = totals.totals.get(name);
+    if (total == null) {
+      total = new double[2];
+      totals.totals.put(name, total);
+    }
+    total[0] += value;
+    total[1]++;
+  }
+
+  /**
+   * Gives the current thread its own totals. This is the only time recording
+   * a measurement takes a lock.
+   */
+  private synchronized ThreadTotals startRecording() {
+    ThreadTotals totals = new ThreadTotals(generation);
+    threadTotals.set(totals);
+    allTotals.add(totals);
+    return totals;
+  }
+
+  /**
+   * Records the latency of one operation. This doesn't lock or allocate
+   * memory, so it can be called from many threads at once without disturbing
+   * what they're measuring.
+   *
+   * @param nanos
+   *          How long the operation took, in nanoseconds, as measured with
+   *          {@link System#nanoTime()}.
+   */
+  public void recordLatency(long nanos) {
+    latencies.record(nanos);
+  }
+
+  /**
+   * Forgets everything recorded so far. Must not be called while other
+   * threads are recording.
+   */
+  synchronized void clear() {
+    generation++;
+    allTotals.clear();
+    latencies.reset();
+  }
+
+  /**
+   * Returns the latencies recorded since the last {@link #clear()}, or null if
+   * none were.
+   */
+  LatencyHistogram.Snapshot latencies() {
+    return latencies.snapshot();
+  }
+
+  /**
+   * Returns the mean value of each measurement recorded since the last
+   * {@link #clear()}, in the order they were first recorded (by the first
+   * thread that recorded anything). Must be called after the threads that
+   * recorded them have finished.
+   */
+  synchronized Map<String, Double> means() {
+    Map<String, double[]> merged = new LinkedHashMap<String, double[]>();
+    for (ThreadTotals totals : allTotals) {
+      for (Map.Entry<String, double[]> e : totals.totals.entrySet()) {
+        double[] total = merged.get(e.getKey());
+        if (total == null) {
+          total = new double[2];
+          merged.put(e.getKey(), total);
+        }
+        total[0] += e.getValue()[0];
+        total[1] += e.getValue()[1];
+      }
+    }
+    if (merged.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    Map<String, Double> means = new LinkedHashMap<String, Double>();
+    for (Map.Entry<String, double[]> e : merged.entrySet()) {
+      means.put(e.getKey(), e.getValue()[0] / e.getValue()[1]);
+    }
+    return means;
+  }
+}
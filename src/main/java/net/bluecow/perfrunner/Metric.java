@@ -0,0 +1,323 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A measurement that can be plotted on the Y axis of a performance chart. The
+ * report lets the reader choose among all the metrics that apply to a chart's
+ * data.
+ * <p>
+ * The built-in metrics are constants of this class. Measurements that test
+ * methods report themselves (see {@link Measurements}) get a metric each from
+ * {@link #measurement(String)}.
+ */
+abstract class Metric {
+
+  public static final Metric TIME = new Metric("Time (ms)") {
+    @Override
+    public boolean appliesTo(RunStats rs) {
+      return !rs.hasOperations();
+    }
+
+    @Override
+    public double valueOf(RunStats rs) {
+      return rs.timeMillis();
+    }
+  };
+
+  public static final Metric OPERATIONS_PER_SECOND = new Metric("Operations per second") {
+    @Override
+    public boolean appliesTo(RunStats rs) {
+      return rs.hasOperations();
+    }
+
+    @Override
+    public double valueOf(RunStats rs) {
+      return rs.operationsPerSecond();
+    }
+  };
+
+  public static final Metric NANOS_PER_OPERATION = new Metric("Nanoseconds per operation") {
+    @Override
+    public boolean appliesTo(RunStats rs) {
+      return rs.hasOperations();
+    }
+
+    @Override
+    public double valueOf(RunStats rs) {
+      return rs.nanosPerOperation();
+    }
+  };
+
+  public static final Metric THREAD_LATENCY = new Metric("Mean per-thread latency (ms)") {
+    @Override
+    public boolean appliesTo(RunStats rs) {
+      return rs.threadCount() > 0;
+    }
+
+    @Override
+    public double valueOf(RunStats rs) {
+      return rs.meanThreadLatencyMillis();
+    }
+  };
+
+  public static final Metric MAX_THREAD_LATENCY = new Metric("Slowest thread latency (ms)") {
+    @Override
+    public boolean appliesTo(RunStats rs) {
+      return rs.threadCount() > 0;
+    }
+
+    @Override
+    public double valueOf(RunStats rs) {
+      return rs.maxThreadLatencyMillis();
+    }
+  };
+
+  public static final Metric BYTES_PER_OPERATION = new Metric("Allocated bytes per operation") {
+    @Override
+    public boolean appliesTo(RunStats rs) {
+      return rs.allocatedBytesPerOperation() >= 0;
+    }
+
+    @Override
+    public double valueOf(RunStats rs) {
+      return rs.allocatedBytesPerOperation();
+    }
+  };
+
+  public static final Metric GC_TIME = new Metric("Garbage collector time (ms)") {
+    @Override
+    public boolean appliesTo(RunStats rs) {
+      return true;
+    }
+
+    @Override
+    public double valueOf(RunStats rs) {
+      return rs.gc().totalTimeMillis();
+    }
+  };
+
+  public static final Metric GC_PAUSE = new Metric("GC pause (ms)") {
+    @Override
+    public boolean appliesTo(RunStats rs) {
+      return rs.gc().hasPauseDetails();
+    }
+
+    @Override
+    public double valueOf(RunStats rs) {
+      return rs.gc().pauseMillis();
+    }
+  };
+
+  public static final Metric PROMOTED_BYTES = new Metric("Bytes promoted to old generation") {
+    @Override
+    public boolean appliesTo(RunStats rs) {
+      return rs.gc().hasPauseDetails();
+    }
+
+    @Override
+    public double valueOf(RunStats rs) {
+      return rs.gc().promotedBytes();
+    }
+  };
+
+  public static final Metric CYCLES_PER_OPERATION =
+      hardwareCountPerOperation("CPU cycles per operation", HardwareCounters.CYCLES);
+  public static final Metric INSTRUCTIONS_PER_OPERATION =
+      hardwareCountPerOperation("Instructions per operation", HardwareCounters.INSTRUCTIONS);
+  public static final Metric CACHE_MISSES_PER_OPERATION =
+      hardwareCountPerOperation("Cache misses per operation", HardwareCounters.CACHE_MISSES);
+  public static final Metric BRANCH_MISSES_PER_OPERATION =
+      hardwareCountPerOperation("Branch misses per operation", HardwareCounters.BRANCH_MISSES);
+  public static final Metric CONTEXT_SWITCHES_PER_OPERATION =
+      hardwareCountPerOperation("Context switches per operation", HardwareCounters.CONTEXT_SWITCHES);
+
+  public static final Metric INSTRUCTIONS_PER_CYCLE = new Metric("Instructions per cycle") {
+    @Override
+    public boolean appliesTo(RunStats rs) {
+      return rs.instructionsPerCycle() >= 0;
+    }
+
+    @Override
+    public double valueOf(RunStats rs) {
+      return rs.instructionsPerCycle();
+    }
+  };
+
+  /**
+   * The per-operation metric of each of the {@link HardwareCounters#EVENTS},
+   * in the same order.
+   */
+  static final List<Metric> HARDWARE_COUNTS_PER_OPERATION = Collections.unmodifiableList(Arrays.asList(
+      CYCLES_PER_OPERATION, INSTRUCTIONS_PER_OPERATION, CACHE_MISSES_PER_OPERATION,
+      BRANCH_MISSES_PER_OPERATION, CONTEXT_SWITCHES_PER_OPERATION));
+
+  public static final Metric LATENCY_P50 = latencyPercentile(50);
+  public static final Metric LATENCY_P90 = latencyPercentile(90);
+  public static final Metric LATENCY_P99 = latencyPercentile(99);
+  public static final Metric LATENCY_P999 = latencyPercentile(99.9);
+  public static final Metric LATENCY_P9999 = latencyPercentile(99.99);
+
+  /**
+   * When a test records per-operation latencies, p99 comes first, because
+   * that's what latency targets are usually written in. An open-loop
+   * ({@link FixedRate}) chart then shows latency against offered load
+   * without the reader having to choose it.
+   */
+  private static final List<Metric> BUILT_IN = Collections.unmodifiableList(Arrays.asList(
+      TIME, LATENCY_P99, OPERATIONS_PER_SECOND, NANOS_PER_OPERATION, THREAD_LATENCY, MAX_THREAD_LATENCY,
+      LATENCY_P50, LATENCY_P90, LATENCY_P999, LATENCY_P9999,
+      BYTES_PER_OPERATION, GC_TIME, GC_PAUSE, PROMOTED_BYTES,
+      CYCLES_PER_OPERATION, INSTRUCTIONS_PER_OPERATION, INSTRUCTIONS_PER_CYCLE,
+      CACHE_MISSES_PER_OPERATION, BRANCH_MISSES_PER_OPERATION, CONTEXT_SWITCHES_PER_OPERATION));
+
+  /**
+   * Returns the built-in metrics, in the order they should be offered. The
+   * first one that applies is a chart's default.
+   */
+  public static List<Metric> values() {
+    return BUILT_IN;
+  }
+
+  /**
+   * Returns an unmodifiable map of the values of the built-in metrics that
+   * apply to the given run, by label, followed by the measurements the test
+   * method recorded itself.
+   */
+  static Map<String, Double> valuesOf(RunStats rs) {
+    Map<String, Double> values = new LinkedHashMap<String, Double>();
+    for (Metric m : BUILT_IN) {
+      if (m.appliesTo(rs)) {
+        values.put(m.getLabel(), m.valueOf(rs));
+      }
+    }
+    values.putAll(rs.measurements());
+    return Collections.unmodifiableMap(values);
+  }
+
+  /**
+   * Returns the metric a chart of the given run shows by default: the first
+   * of the {@link #values()} that applies to it.
+   */
+  public static Metric defaultFor(RunStats rs) {
+    for (Metric m : BUILT_IN) {
+      if (m.appliesTo(rs)) {
+        return m;
+      }
+    }
+    throw new AssertionError("No metric applies to " + rs);
+  }
+
+  /**
+   * Returns a metric for the given percentile of the per-operation latencies
+   * a test recorded.
+   */
+  private static Metric latencyPercentile(final double percentile) {
+    return new Metric("Latency p" + LatencyHistogram.percentileLabel(percentile) + " (ms)") {
+      @Override
+      public boolean appliesTo(RunStats rs) {
+        return rs.latencies() != null;
+      }
+
+      @Override
+      public double valueOf(RunStats rs) {
+        return rs.latencies().percentile(percentile) / 1000000.0;
+      }
+    };
+  }
+
+  /**
+   * Returns a metric for the count of one of the {@link HardwareCounters}
+   * events per operation.
+   */
+  private static Metric hardwareCountPerOperation(String label, final int event) {
+    return new Metric(label) {
+      @Override
+      public boolean appliesTo(RunStats rs) {
+        return rs.hardwareCount(event) >= 0;
+      }
+
+      @Override
+      public double valueOf(RunStats rs) {
+        return rs.hardwareCountPerOperation(event);
+      }
+    };
+  }
+
+  /**
+   * Returns the metric for a measurement with the given name, as recorded by
+   * the test method itself. Metrics for the same name are equal.
+   */
+  public static Metric measurement(final String name) {
+    return new Metric(name) {
+      @Override
+      public boolean appliesTo(RunStats rs) {
+        return rs.measurements().containsKey(name);
+      }
+
+      @Override
+      public double valueOf(RunStats rs) {
+        return rs.measurements().get(name);
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+        return obj != null && obj.getClass() == getClass() && ((Metric) obj).getLabel().equals(name);
+      }
+
+      @Override
+      public int hashCode() {
+        return name.hashCode();
+      }
+    };
+  }
+
+  private final String label;
+
+  private Metric(String label) {
+    this.label = label;
+  }
+
+  /**
+   * Returns the human-readable name of this metric, including its units.
+   */
+  public String getLabel() {
+    return label;
+  }
+
+  /**
+   * Returns true if this metric can be computed from the given run statistics.
+   */
+  public abstract boolean appliesTo(RunStats rs);
+
+  /**
+   * Returns this metric's value for the given run statistics. Only meaningful
+   * if {@link #appliesTo(RunStats)} is true.
+   */
+  public abstract double valueOf(RunStats rs);
+
+  @Override
+  public String toString() {
+    return label;
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.runner.Description;
+import org.junit.runner.manipulation.Filter;
+
+/**
+ * Selects the test runs whose parameters have particular values, as given by
+ * the {@value #FILTER_PROPERTY} system property. The property is a
+ * comma-separated list of conditions, each naming a {@link Varying} parameter
+ * and the values it may have, separated by {@code |}:
+ *
+ * <pre>
+ * -Dperfrunner.filter="Threads=8|16,Implementation=HASH"
+ * </pre>
+ *
+ * A run matches when every condition does, so test methods that lack one of
+ * the named parameters don't run at all. Numeric values match numerically, so
+ * {@code 8} matches a {@code double} parameter's {@code 8.0}.
+ */
+class ParameterFilter extends Filter {
+
+  static final String FILTER_PROPERTY = "perfrunner.filter";
+
+  /**
+   * The values each named parameter may have.
+   */
+  private final Map<String, List<String>> conditions;
+
+  private final String spec;
+
+  /**
+   * Returns the filter given by the system properties, or null if there
+   * isn't one.
+   *
+   * @throws IllegalArgumentException
+   *           if the property isn't a list of conditions.
+   */
+  static ParameterFilter fromSystemProperties() {
+    String spec = System.getProperty(FILTER_PROPERTY, "").trim();
+    return spec.isEmpty() ? null : new ParameterFilter(spec);
+  }
+
+  ParameterFilter(String spec) {
+    this.spec = spec;
+    conditions = new LinkedHashMap<String, List<String>>();
+    for (String condition : spec.split(",")) {
+      int equals = condition.indexOf('=');
+      if (equals <= 0) {
+        throw new IllegalArgumentException(
+            FILTER_PROPERTY + " condition \"" + condition.trim() + "\" isn't of the form name=value");
+      }
+      List<String> values = new ArrayList<String>();
+      for (String value : condition.substring(equals + 1).split("\\|")) {
+        values.add(value.trim());
+      }
+      conditions.put(condition.substring(0, equals).trim(), values);
+    }
+  }
+
+  @Override
+  public boolean shouldRun(Description description) {
+    if (!description.isTest()) {
+      for (Description child : description.getChildren()) {
+        if (shouldRun(child)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    PerfRunDescription desc = new PerfRunDescription(description);
+    for (Map.Entry<String, List<String>> condition : conditions.entrySet()) {
+      int param = paramNamed(desc, condition.getKey());
+      if (param < 0 || !matchesAny(desc, param, condition.getValue())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int paramNamed(PerfRunDescription desc, String name) {
+    for (int i = 0; i < desc.getParamAnnotations().size(); i++) {
+      if (desc.getParamAnnotations().get(i).name().equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean matchesAny(PerfRunDescription desc, int param, List<String> values) {
+    double number = desc.getParamValues().get(param);
+    String label = desc.getParamLabels().get(param);
+    for (String value : values) {
+      if (value.equals(label)) {
+        return true;
+      }
+      // a long too big for a double only matches its exact digits, which were compared above
+      if (!Double.isNaN(number) && label.equals(String.valueOf(number))) {
+        try {
+          if (Double.parseDouble(value) == number) {
+            return true;
+          }
+        } catch (NumberFormatException e) {
+          // a word can't match a number
+        }
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String describe() {
+    return "parameters " + spec;
+  }
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Chooses which of a test method's parameter combinations to run next, for
+ * one of the {@link SamplingStrategy strategies}. A combination is given by
+ * the indexes of its varying parameters' values, and identified by its
+ * position in the list the sampler was created with.
+ */
+abstract class ParameterSampler {
+
+  /**
+   * Creates a sampler for the given annotation.
+   *
+   * @param sampling
+   *          the strategy and its settings
+   * @param combinations
+   *          the combinations that can be run, each given by the indexes of
+   *          its parameters' values
+   * @param xParam
+   *          the position among the varying parameters of the one on the X
+   *          axis, or -1 if there isn't one
+   */
+  static ParameterSampler create(Sampling sampling, List<int[]> combinations, int xParam) {
+    switch (sampling.value()) {
+    case GRID:
+      List<Integer> all = new ArrayList<Integer>();
+      for (int i = 0; i < combinations.size(); i++) {
+        all.add(i);
+      }
+      return new InOrder(all);
+    case RANDOM:
+      List<Integer> shuffled = new ArrayList<Integer>();
+      for (int i = 0; i < combinations.size(); i++) {
+        shuffled.add(i);
+      }
+      Collections.shuffle(shuffled, new Random(sampling.seed()));
+      return new InOrder(shuffled);
+    case LATIN_HYPERCUBE:
+      return new InOrder(latinHypercube(combinations, sampling.points(), sampling.seed()));
+    case ADAPTIVE:
+      return new Adaptive(combinations, xParam);
+    default:
+      throw new AssertionError("Unknown sampling strategy " + sampling.value());
+    }
+  }
+
+  /**
+   * Returns the position of the next combination to run, or -1 if there are
+   * no more to run.
+   */
+  abstract int next();
+
+  /**
+   * Tells this sampler the statistics of the trials of the given combination
+   * that were measured. There may be none, if they all failed.
+   */
+  void measured(int combination, List<RunStats> trials) {
+    // only the adaptive strategy looks at the results
+  }
+
+  /**
+   * Returns a Latin hypercube design of the given number of points (or, if 0,
+   * as many points as the longest list of parameter values), as the
+   * positions of the combinations it hits. Points that hit the same
+   * combination as an earlier one, or a combination that isn't in the list,
+   * are dropped.
+   */
+  static List<Integer> latinHypercube(List<int[]> combinations, int points, long seed) {
+    int dimensions = combinations.isEmpty() ? 0 : combinations.get(0).length;
+    int[] sizes = new int[dimensions];
+    Map<List<Integer>, Integer> positions = new HashMap<List<Integer>, Integer>();
+    for (int i = 0; i < combinations.size(); i++) {
+      int[] c = combinations.get(i);
+      for (int d = 0; d < dimensions; d++) {
+        sizes[d] = Math.max(sizes[d], c[d] + 1);
+      }
+      positions.put(key(c), i);
+    }
+
+    int n = points;
+    if (n == 0) {
+      n = 1;
+      for (int size : sizes) {
+        n = Math.max(n, size);
+      }
+    }
+
+    Random random = new Random(seed);
+    int[][] design = new int[n][dimensions];
+    for (int d = 0; d < dimensions; d++) {
+      List<Integer> strata = new ArrayList<Integer>();
+      for (int k = 0; k < n; k++) {
+        strata.add(k);
+      }
+      Collections.shuffle(strata, random);
+      for (int k = 0; k < n; k++) {
+        // a random spot within the stratum, scaled to the parameter's values
+        design[k][d] = (int) ((strata.get(k) + random.nextDouble()) * sizes[d] / n);
+      }
+    }
+
+    Set<Integer> hit = new LinkedHashSet<Integer>();
+    for (int[] point : design) {
+      Integer position = positions.get(key(point));
+      if (position != null) {
+        hit.add(position);
+      }
+    }
+    return new ArrayList<Integer>(hit);
+  }
+
+  private static List<Integer> key(int[] combination) {
+    List<Integer> key = new ArrayList<Integer>(combination.length);
+    for (int index : combination) {
+      key.add(index);
+    }
+    return key;
+  }
+
+  /**
+   * Runs the combinations in an order decided up front.
+   */
+  private static class InOrder extends ParameterSampler {
+    private final Iterator<Integer> order;
+
+    InOrder(List<Integer> order) {
+      this.order = order.iterator();
+    }
+
+    @Override
+    int next() {
+      return order.hasNext() ? order.next() : -1;
+    }
+  }
+
+  /**
+   * The {@link SamplingStrategy#ADAPTIVE} strategy. Each chart line is a
+   * curve: the combinations that differ only in their X value, in order of X.
+   * Positions along a curve are treated as evenly spaced, which matches the
+   * chart for both linear and geometric X parameters.
+   * <p>
+   * Once the coarse grid has run, each gap between two measured points of a
+   * curve is scored by how much its slope differs from the slopes on either
+   * side (the bend), plus the relative standard deviation of the trials at
+   * either end (the noise), times its width. Both the Y values and the X
+   * positions are scaled to the curve's range, so curves of different
+   * magnitudes compete fairly. The middle of the highest scoring gap runs
+   * next.
+   */
+  static class Adaptive extends ParameterSampler {
+
+    /**
+     * The coarse grid: the ends of each curve first, then its middle, then
+     * its quarters, so a budget that runs out early still spans every curve.
+     */
+    private static final int[] COARSE_QUARTERS = { 0, 4, 2, 1, 3 };
+
+    /**
+     * The gap score below which a curve is considered straight and quiet
+     * enough that running more points wouldn't change it visibly.
+     */
+    static final double SMOOTH_ENOUGH = 0.01;
+
+    /**
+     * The positions of each curve's combinations, in order of X value.
+     */
+    private final List<int[]> curves = new ArrayList<int[]>();
+
+    /**
+     * The coarse grid points that haven't been handed out yet.
+     */
+    private final Set<Integer> coarse = new LinkedHashSet<Integer>();
+
+    private final boolean[] started;
+
+    /**
+     * The median of each combination's trials, or NaN if it hasn't been
+     * measured.
+     */
+    private final double[] medians;
+
+    /**
+     * The standard deviation of each combination's trials, relative to their
+     * mean.
+     */
+    private final double[] spreads;
+
+    Adaptive(final List<int[]> combinations, final int xParam) {
+      started = new boolean[combinations.size()];
+      medians = new double[combinations.size()];
+      spreads = new double[combinations.size()];
+      Arrays.fill(medians, Double.NaN);
+
+      Map<List<Integer>, List<Integer>> curvesByOtherParams = new LinkedHashMap<List<Integer>, List<Integer>>();
+      for (int i = 0; i < combinations.size(); i++) {
+        List<Integer> otherParams;
+        if (xParam >= 0) {
+          otherParams = key(combinations.get(i));
+          otherParams.remove(xParam);
+        } else {
+          otherParams = Collections.singletonList(i);
+        }
+        List<Integer> curve = curvesByOtherParams.get(otherParams);
+        if (curve == null) {
+          curve = new ArrayList<Integer>();
+          curvesByOtherParams.put(otherParams, curve);
+        }
+        curve.add(i);
+      }
+
+      for (List<Integer> curve : curvesByOtherParams.values()) {
+        if (xParam >= 0) {
+          Collections.sort(curve, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+              return combinations.get(a)[xParam] - combinations.get(b)[xParam];
+            }
+          });
+        }
+        int[] positions = new int[curve.size()];
+        for (int p = 0; p < positions.length; p++) {
+          positions[p] = curve.get(p);
+        }
+        curves.add(positions);
+      }
+
+      for (int quarter : COARSE_QUARTERS) {
+        for (int[] curve : curves) {
+          coarse.add(curve[(int) Math.round(quarter * (curve.length - 1) / 4.0)]);
+        }
+      }
+    }
+
+    @Override
+    int next() {
+      Iterator<Integer> it = coarse.iterator();
+      if (it.hasNext()) {
+        int next = it.next();
+        it.remove();
+        started[next] = true;
+        return next;
+      }
+
+      int best = -1;
+      double bestScore = SMOOTH_ENOUGH;
+      for (int[] curve : curves) {
+        List<Integer> measured = new ArrayList<Integer>();
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int p = 0; p < curve.length; p++) {
+          double median = medians[curve[p]];
+          if (!Double.isNaN(median)) {
+            measured.add(p);
+            min = Math.min(min, median);
+            max = Math.max(max, median);
+          }
+        }
+
+        for (int m = 0; m + 1 < measured.size(); m++) {
+          int candidate = unstartedNear(curve, measured.get(m), measured.get(m + 1));
+          if (candidate >= 0) {
+            double score = score(curve, measured, m, max - min);
+            if (score > bestScore) {
+              bestScore = score;
+              best = curve[candidate];
+            }
+          }
+        }
+      }
+
+      if (best >= 0) {
+        started[best] = true;
+      }
+      return best;
+    }
+
+    /**
+     * Returns the position of the combination between positions {@code a}
+     * and {@code b} of the curve that hasn't been started and is closest to
+     * the middle, or -1 if they've all been started.
+     */
+    private int unstartedNear(int[] curve, int a, int b) {
+      int middle = (a + b) / 2;
+      for (int offset = 0; middle - offset > a || middle + offset < b; offset++) {
+        if (middle - offset > a && !started[curve[middle - offset]]) {
+          return middle - offset;
+        }
+        if (middle + offset < b && !started[curve[middle + offset]]) {
+          return middle + offset;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * Scores the gap between the {@code m}th measured point of the curve and
+     * the next one.
+     */
+    private double score(int[] curve, List<Integer> measured, int m, double range) {
+      int a = measured.get(m);
+      int b = measured.get(m + 1);
+      double bend = 0;
+      if (range > 0) {
+        double slope = slope(curve, a, b, range);
+        if (m > 0) {
+          bend += Math.abs(slope - slope(curve, measured.get(m - 1), a, range));
+        }
+        if (m + 2 < measured.size()) {
+          bend += Math.abs(slope(curve, b, measured.get(m + 2), range) - slope);
+        }
+      }
+      double noise = Math.max(spreads[curve[a]], spreads[curve[b]]);
+      double width = (b - a) / (double) (curve.length - 1);
+      return width * (bend + noise);
+    }
+
+    private double slope(int[] curve, int from, int to, double range) {
+      double rise = (medians[curve[to]] - medians[curve[from]]) / range;
+      return rise / ((to - from) / (double) (curve.length - 1));
+    }
+
+    @Override
+    void measured(int combination, List<RunStats> trials) {
+      if (trials.isEmpty()) {
+        return;
+      }
+      Metric metric = Metric.defaultFor(trials.get(0));
+      double[] values = new double[trials.size()];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = metric.valueOf(trials.get(i));
+      }
+      measured(combination, values);
+    }
+
+    /**
+     * Records the given combination's trials, as values of the metric its
+     * chart shows by default.
+     */
+    void measured(int combination, double[] values) {
+      SampleSummary summary = new SampleSummary(values);
+      medians[combination] = summary.median();
+      spreads[combination] = summary.mean() == 0 ? 0 : Math.abs(summary.stdDev() / summary.mean());
+    }
+  }
+}
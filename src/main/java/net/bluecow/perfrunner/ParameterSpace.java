@@ -0,0 +1,171 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Method;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.junit.runners.model.FrameworkMethod;
+
+/**
+ * The parameter combinations of one test method: the Cartesian product of
+ * the values of its varying parameters. The combinations are numbered like
+ * a mixed-radix counter whose digits are the indexes of the parameters'
+ * values, the first parameter's changing fastest, and a combination's values
+ * are worked out from its number when they're needed. So the space takes the
+ * same memory however many combinations it has.
+ */
+class ParameterSpace {
+
+  private final Method method;
+
+  /**
+   * The values of each varying parameter, in parameter order.
+   */
+  private final Object[][] values;
+
+  private final int size;
+
+  /**
+   * Makes the test method's bound calls; see
+   * {@link ParameterizedFrameworkMethod#bind(Object)}.
+   */
+  private final MethodHandle callFactory;
+
+  /**
+   * Creates the space of combinations of the given values.
+   *
+   * @param method
+   *          the test method
+   * @param values
+   *          the values of each of the method's varying parameters, which
+   *          are not copied
+   * @throws IllegalArgumentException
+   *           if there are more than {@link Integer#MAX_VALUE} combinations
+   */
+  ParameterSpace(Method method, Object[][] values) {
+    long size = sizeOf(values);
+    if (size > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException(
+          "Method " + method.getName() + " has more than " + Integer.MAX_VALUE + " parameter combinations");
+    }
+    this.method = method;
+    this.values = values;
+    this.size = (int) size;
+    this.callFactory = ParameterizedFrameworkMethod.callFactory(method);
+  }
+
+  /**
+   * Returns the number of combinations of the given values, or some number
+   * over {@link Integer#MAX_VALUE} if there are more than that.
+   */
+  static long sizeOf(Object[][] values) {
+    long size = 1;
+    for (Object[] parameterValues : values) {
+      size *= parameterValues.length;
+      if (size > Integer.MAX_VALUE) {
+        break;
+      }
+    }
+    return size;
+  }
+
+  Method getMethod() {
+    return method;
+  }
+
+  MethodHandle getCallFactory() {
+    return callFactory;
+  }
+
+  /**
+   * Returns the number of combinations.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Returns the index of each parameter's value in the given combination.
+   */
+  int[] valueIndexesOf(int combination) {
+    int[] indexes = new int[values.length];
+    int rest = combination;
+    for (int p = 0; p < values.length; p++) {
+      indexes[p] = rest % values[p].length;
+      rest /= values[p].length;
+    }
+    return indexes;
+  }
+
+  /**
+   * Returns the value of each parameter in the given combination.
+   */
+  Object[] parametersOf(int combination) {
+    Object[] params = new Object[values.length];
+    int rest = combination;
+    for (int p = 0; p < values.length; p++) {
+      params[p] = values[p][rest % values[p].length];
+      rest /= values[p].length;
+    }
+    return params;
+  }
+
+  /**
+   * Returns the runs of every {@code stride}th combination, starting with
+   * the given one, with the given number of trials of each. The list is a
+   * view that makes each run when it's asked for, so it's only as big as the
+   * runs the caller keeps.
+   */
+  List<FrameworkMethod> runs(int first, int stride, int trials) {
+    int combinations = first >= size ? 0 : (size - first - 1) / stride + 1;
+    return new Runs(first, stride, trials, combinations);
+  }
+
+  private class Runs extends AbstractList<FrameworkMethod> implements RandomAccess {
+
+    private final int first;
+    private final int stride;
+    private final int trials;
+    private final int combinations;
+
+    Runs(int first, int stride, int trials, int combinations) {
+      this.first = first;
+      this.stride = stride;
+      this.trials = trials;
+      this.combinations = combinations;
+    }
+
+    @Override
+    public FrameworkMethod get(int index) {
+      if (index < 0 || index >= size()) {
+        throw new IndexOutOfBoundsException("Run " + index + " of " + size());
+      }
+      return new ParameterizedFrameworkMethod(ParameterSpace.this,
+          first + index / trials * stride, index % trials + 1);
+    }
+
+    @Override
+    public int size() {
+      return (int) Math.min(Integer.MAX_VALUE, (long) combinations * trials);
+    }
+  }
+}
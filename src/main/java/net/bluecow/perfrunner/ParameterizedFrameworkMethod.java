@@ -16,46 +16,440 @@
 
 package net.bluecow.perfrunner;
 
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.junit.runners.model.FrameworkMethod;
 
+/**
+ * One run of a test method: a trial of one of the combinations in its
+ * {@link ParameterSpace}. A run only holds its combination's number, so a
+ * sweep can have a great many of them; the parameter values are worked out
+ * when they're asked for, and what the test method is called with is made
+ * when the run starts and dropped by {@link #release()} when it's over.
+ */
 class ParameterizedFrameworkMethod extends FrameworkMethod {
 
-  private final Integer[] params;
+  private final ParameterSpace space;
+  private final int combination;
+  private final int trial;
+
+  /**
+   * The run's metadata, for its description, or null until it's first asked
+   * for.
+   */
+  private RunMetadata metadata;
+
+  /**
+   * What the run is called with, or null if it isn't running.
+   */
+  private volatile RunState state;
+
+  /**
+   * The test method bound to the target it's being called on, or null if it
+   * isn't bound (so it's called by reflection).
+   */
+  private Binding binding;
+
+  /**
+   * Makes each test method's {@link Binding} calls, by test method. Methods
+   * that can't be called this way map to {@link #NOT_BINDABLE}.
+   */
+  private static final ConcurrentMap<Method, MethodHandle> CALL_FACTORIES =
+      new ConcurrentHashMap<Method, MethodHandle>();
+
+  private static final MethodHandle NOT_BINDABLE = MethodHandles.constant(Object.class, null);
+
+  /**
+   * The objects a run of the test method is called with.
+   */
+  private static class RunState {
+
+    /**
+     * The recorder for the measurements the test method reports itself.
+     */
+    final Measurements measurements = new Measurements();
+
+    /**
+     * The sink for the test method's results.
+     */
+    final Blackhole blackhole = new Blackhole();
+
+    /**
+     * The arguments the test method is invoked with: the varying parameter
+     * values, with the method's {@link Measurements} and {@link Blackhole}
+     * inserted where it takes them.
+     */
+    final Object[] arguments;
+
+    RunState(Method method, Object[] params) {
+      arguments = new Object[method.getParameterTypes().length];
+      int next = 0;
+      for (int p = 0; p < arguments.length; p++) {
+        Class<?> type = method.getParameterTypes()[p];
+        if (type == Measurements.class) {
+          arguments[p] = measurements;
+        } else if (type == Blackhole.class) {
+          arguments[p] = blackhole;
+        } else {
+          arguments[p] = params[next++];
+        }
+      }
+    }
+  }
+
+  /**
+   * A call of a test method that returns an object, with its target and
+   * arguments bound.
+   */
+  interface BoundCall {
+    Object call() throws Throwable;
+  }
+
+  /**
+   * A call of a void test method, with its target and arguments bound.
+   */
+  interface BoundVoidCall {
+    void call() throws Throwable;
+  }
+
+  /**
+   * A call of a test method that returns an int (or a byte, short or char,
+   * widened), with its target and arguments bound.
+   */
+  interface BoundIntCall {
+    int call() throws Throwable;
+  }
+
+  /**
+   * A call of a test method that returns a long, with its target and
+   * arguments bound.
+   */
+  interface BoundLongCall {
+    long call() throws Throwable;
+  }
+
+  /**
+   * A call of a test method that returns a double (or a float, widened), with
+   * its target and arguments bound.
+   */
+  interface BoundDoubleCall {
+    double call() throws Throwable;
+  }
+
+  /**
+   * A call of a test method that returns a boolean, with its target and
+   * arguments bound.
+   */
+  interface BoundBooleanCall {
+    boolean call() throws Throwable;
+  }
+
+  /**
+   * The test method bound to one target and a run's arguments. Exactly one of
+   * the calls is set, depending on the method's return type.
+   */
+  private static class Binding {
+    final Object target;
+    final RunState state;
+    final BoundCall call;
+    final BoundVoidCall voidCall;
+    final BoundIntCall intCall;
+    final BoundLongCall longCall;
+    final BoundDoubleCall doubleCall;
+    final BoundBooleanCall booleanCall;
+
+    Binding(Object target, RunState state, Object call) {
+      this.target = target;
+      this.state = state;
+      this.call = call instanceof BoundCall ? (BoundCall) call : null;
+      this.voidCall = call instanceof BoundVoidCall ? (BoundVoidCall) call : null;
+      this.intCall = call instanceof BoundIntCall ? (BoundIntCall) call : null;
+      this.longCall = call instanceof BoundLongCall ? (BoundLongCall) call : null;
+      this.doubleCall = call instanceof BoundDoubleCall ? (BoundDoubleCall) call : null;
+      this.booleanCall = call instanceof BoundBooleanCall ? (BoundBooleanCall) call : null;
+    }
+
+    /**
+     * Calls the method and returns its result, boxed if it's primitive.
+     */
+    Object call() throws Throwable {
+      if (call != null) {
+        return call.call();
+      } else if (intCall != null) {
+        return intCall.call();
+      } else if (longCall != null) {
+        return longCall.call();
+      } else if (doubleCall != null) {
+        return doubleCall.call();
+      } else if (booleanCall != null) {
+        return booleanCall.call();
+      }
+      voidCall.call();
+      return null;
+    }
+
+    /**
+     * Calls the method and hands its result to the blackhole, without boxing
+     * a primitive one.
+     */
+    void callAndConsume() throws Throwable {
+      if (call != null) {
+        state.blackhole.consume(call.call());
+      } else if (voidCall != null) {
+        voidCall.call();
+      } else if (intCall != null) {
+        state.blackhole.consume(intCall.call());
+      } else if (longCall != null) {
+        state.blackhole.consume(longCall.call());
+      } else if (doubleCall != null) {
+        state.blackhole.consume(doubleCall.call());
+      } else {
+        state.blackhole.consume(booleanCall.call());
+      }
+    }
+  }
+
+  /**
+   * Creates a run of a test method.
+   *
+   * @param space
+   *          the test method's parameter combinations
+   * @param combination
+   *          the number of this run's combination in the space
+   * @param trial
+   *          which repetition of this combination of argument values this is,
+   *          starting at 1.
+   */
+  ParameterizedFrameworkMethod(ParameterSpace space, int combination, int trial) {
+    super(space.getMethod());
+    this.space = space;
+    this.combination = combination;
+    this.trial = trial;
+  }
 
-  public ParameterizedFrameworkMethod(Method method, int[] params) {
-    super(method);
+  /**
+   * Returns what the run is called with, making it if it isn't running yet.
+   * A {@link Measurements} or {@link Blackhole} parameter is filled in with
+   * the run's own.
+   */
+  private RunState state() {
+    RunState state = this.state;
+    if (state == null) {
+      synchronized (this) {
+        state = this.state;
+        if (state == null) {
+          state = new RunState(getMethod(), getParameters());
+          this.state = state;
+        }
+      }
+    }
+    return state;
+  }
 
-    // Have to copy into a boxed array because that's what Method.invoke will require
-    this.params = new Integer[params.length];
-    for (int i = 0; i < params.length; i++) {
-      this.params[i] = params[i];
+  /**
+   * Drops what the run was called with and what it recorded, once it's over.
+   * The next call of the test method starts afresh.
+   */
+  void release() {
+    state = null;
+  }
+
+  /**
+   * Binds the test method to the given target and this run's arguments,
+   * so {@link #invokeExplosively(Object, Object...)} can call it directly,
+   * until {@link #unbind()} is called.
+   * <p>
+   * The binding is an instance of a class generated (by
+   * {@link LambdaMetafactory}, once per test method) to hold the target and
+   * arguments in fields of their own types and call the method with them,
+   * like a lambda expression would. So unlike
+   * {@link Method#invoke(Object, Object...)}, a call doesn't box, copy, check
+   * or unbox the arguments, and the JIT compiler can inline the test method
+   * into it.
+   */
+  void bind(Object target) {
+    MethodHandle factory = space.getCallFactory();
+    if (factory == null) {
+      binding = null;
+      return;
+    }
+    RunState state = state();
+    Object[] factoryArgs = new Object[state.arguments.length + 1];
+    factoryArgs[0] = target;
+    System.arraycopy(state.arguments, 0, factoryArgs, 1, state.arguments.length);
+    try {
+      binding = new Binding(target, state, factory.invokeWithArguments(factoryArgs));
+    } catch (Throwable e) {
+      // the arguments don't fit the method, which the reflective call will report
+      binding = null;
+    }
+  }
+
+  /**
+   * Forgets the binding, so the target isn't kept after its run.
+   */
+  void unbind() {
+    binding = null;
+  }
+
+  /**
+   * Returns the factory of the given test method's {@link Binding} calls, or
+   * null if it can't be called that way (for example, because it isn't
+   * accessible from here). Generating the factory's class takes a few
+   * milliseconds, so it's done once per test method, when its
+   * {@link ParameterSpace} is made.
+   */
+  static MethodHandle callFactory(Method method) {
+    MethodHandle factory = CALL_FACTORIES.get(method);
+    if (factory == null) {
+      factory = NOT_BINDABLE;
+      try {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle impl = lookup.unreflect(method);
+        Class<?> callInterface = callInterfaceFor(method.getReturnType());
+        MethodType callType = MethodType.methodType(callInterface.getDeclaredMethods()[0].getReturnType());
+        factory = LambdaMetafactory.metafactory(lookup, "call",
+            impl.type().changeReturnType(callInterface),
+            callType, impl, callType).getTarget();
+      } catch (IllegalAccessException e) {
+        // called by reflection instead
+      } catch (LambdaConversionException e) {
+        // called by reflection instead
+      }
+      CALL_FACTORIES.putIfAbsent(method, factory);
+    }
+    return factory == NOT_BINDABLE ? null : factory;
+  }
+
+  /**
+   * Returns the {@link Binding} call interface for a test method with the
+   * given return type: one that returns the same primitive type (or one it
+   * widens to), so the result isn't boxed, or an object.
+   */
+  private static Class<?> callInterfaceFor(Class<?> returnType) {
+    if (returnType == Void.TYPE) {
+      return BoundVoidCall.class;
+    } else if (returnType == Integer.TYPE || returnType == Short.TYPE
+        || returnType == Byte.TYPE || returnType == Character.TYPE) {
+      return BoundIntCall.class;
+    } else if (returnType == Long.TYPE) {
+      return BoundLongCall.class;
+    } else if (returnType == Double.TYPE || returnType == Float.TYPE) {
+      return BoundDoubleCall.class;
+    } else if (returnType == Boolean.TYPE) {
+      return BoundBooleanCall.class;
     }
+    return BoundCall.class;
   }
 
   /**
-   * Invokes the target method with the parameters that were given in the constructor.
+   * Invokes the target method with the parameters that were given in the
+   * constructor, plus this method's {@link Measurements} and
+   * {@link Blackhole} if the test method takes them. Whatever the test method
+   * returns is consumed by the blackhole. The call is direct if this method was
+   * {@link #bind(Object) bound} to the target, and by reflection otherwise.
    *
    * @param target The target instance for the invocation.
    * @param ignored ignored.
    */
   @Override
   public Object invokeExplosively(Object target, Object... ignored) throws Throwable {
-    return super.invokeExplosively(target, (Object[]) params);
+    Binding binding = this.binding;
+    RunState state;
+    Object result;
+    if (binding != null && binding.target == target) {
+      state = binding.state;
+      result = binding.call();
+    } else {
+      state = state();
+      result = super.invokeExplosively(target, state.arguments);
+    }
+    state.blackhole.consume(result);
+    return result;
+  }
+
+  /**
+   * Invokes the target method like
+   * {@link #invokeExplosively(Object, Object...)}, but only hands the result
+   * to the blackhole. When the method is bound, a primitive result isn't
+   * boxed, so this is how the measured loops call it.
+   *
+   * @param target The target instance for the invocation.
+   */
+  void invokeAndConsume(Object target) throws Throwable {
+    Binding binding = this.binding;
+    if (binding != null && binding.target == target) {
+      binding.callAndConsume();
+    } else {
+      RunState state = state();
+      state.blackhole.consume(super.invokeExplosively(target, state.arguments));
+    }
   }
 
   /**
    * Returns the parameters that will be used when invoking the test method.
    */
-  public Integer[] getParameters() {
-    return params;
+  public Object[] getParameters() {
+    return space.parametersOf(combination);
+  }
+
+  /**
+   * Returns the run's metadata, making it with the given annotations of the
+   * test method's varying parameters the first time it's asked for. Every
+   * description of the run carries the same metadata.
+   */
+  synchronized RunMetadata getMetadata(List<Varying> varyingAnnotations) {
+    if (metadata == null) {
+      metadata = new RunMetadata(space, combination, varyingAnnotations, trial);
+    }
+    return metadata;
+  }
+
+  /**
+   * Returns the index of each parameter's value among the values that
+   * parameter varies over, which identifies this method's parameter
+   * combination.
+   */
+  public int[] getValueIndexes() {
+    return space.valueIndexesOf(combination);
+  }
+
+  /**
+   * Returns the number of this method's parameter combination in its
+   * {@link ParameterSpace}.
+   */
+  int getCombination() {
+    return combination;
+  }
+
+  /**
+   * Returns the recorder for the measurements the test method reports
+   * through a {@link Measurements} parameter.
+   */
+  public Measurements getMeasurements() {
+    return state().measurements;
+  }
+
+  /**
+   * Returns which repetition of this parameter combination this method
+   * represents, starting at 1.
+   */
+  public int getTrial() {
+    return trial;
   }
 
   @Override
   public String toString() {
-    return String.format("ParameterizedFrameworkMethod@%8x: %s",
-        System.identityHashCode(this), Arrays.toString(params));
+    return String.format("ParameterizedFrameworkMethod@%8x: %s #%d",
+        System.identityHashCode(this), Arrays.toString(getParameters()), trial);
   }
 }
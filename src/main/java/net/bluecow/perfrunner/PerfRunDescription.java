@@ -26,29 +26,57 @@ import java.util.regex.Pattern;
 import org.junit.runner.Description;
 
 class PerfRunDescription {
-  private static final Pattern methodNameValuesPattern = Pattern.compile("(.*)\\[([0-9, .e+-]*)\\]");
-  private static final Pattern methodValuePattern = Pattern.compile("[0-9.e+-]+");
+  private static final Pattern methodNameValuesPattern = Pattern.compile("(.*?)\\[(.*)\\](?: #([0-9]+))?");
 
   private final String className;
   private final String methodName;
   private final List<Double> paramValues;
+  private final List<String> paramLabels;
   private final List<Varying> varyingAnnotations;
+  private final int trial;
 
+  /**
+   * Creates the description of the given test run. The parameters come from
+   * the run's {@link RunMetadata}; a description without one, such as one
+   * made by hand from a display name, has them parsed out of its method name.
+   */
   public PerfRunDescription(Description d) {
     className = d.getClassName();
+    RunMetadata run = RunMetadata.of(d);
+    if (run != null) {
+      methodName = run.getMethodName();
+      trial = run.getTrial();
+      List<Double> valueList = new ArrayList<Double>();
+      List<String> labelList = new ArrayList<String>();
+      for (Object value : run.getParameters()) {
+        valueList.add(value instanceof Number ? ((Number) value).doubleValue() : Double.NaN);
+        labelList.add(labelOf(value));
+      }
+      this.paramValues = Collections.unmodifiableList(valueList);
+      this.paramLabels = Collections.unmodifiableList(labelList);
+      this.varyingAnnotations = run.getVaryingAnnotations();
+      return;
+    }
+
     Matcher m = methodNameValuesPattern.matcher(d.getMethodName());
     if (!m.matches()) {
       throw new AssertionError("Unrecognized method name+value syntax in test description '" + d.getMethodName() + "'");
     }
     methodName = m.group(1);
     String values = m.group(2);
+    trial = m.group(3) == null ? 1 : Integer.parseInt(m.group(3));
 
-    Matcher vm = methodValuePattern.matcher(values);
     List<Double> valueList = new ArrayList<Double>();
-    while (vm.find()) {
-      valueList.add(Double.valueOf(vm.group()));
+    List<String> labelList = new ArrayList<String>();
+    if (values.length() > 0) {
+      for (String value : values.split(", ")) {
+        double number = parseNumber(value);
+        valueList.add(number);
+        labelList.add(Double.isNaN(number) ? value : String.valueOf(number));
+      }
     }
     this.paramValues = Collections.unmodifiableList(valueList);
+    this.paramLabels = Collections.unmodifiableList(labelList);
 
     List<Varying> varyingAnnotations = new ArrayList<Varying>();
     // this assumes a promise that the @Varying annotations appear in the same order as the values appear in the method name
@@ -60,6 +88,69 @@ class PerfRunDescription {
     this.varyingAnnotations = Collections.unmodifiableList(varyingAnnotations);
   }
 
+  /**
+   * Creates a description of a test run from its parts, for runs read back
+   * from storage.
+   */
+  PerfRunDescription(String className, String methodName, List<Double> paramValues,
+      List<Varying> varyingAnnotations, int trial) {
+    this(className, methodName, paramValues, null, varyingAnnotations, trial);
+  }
+
+  /**
+   * Creates a description of a test run from its parts, for runs read back
+   * from storage.
+   *
+   * @param paramLabels
+   *          the parameter values as text, or null if they're all numbers
+   *          with the usual labels. A null entry stands for the usual label
+   *          of a number; see {@link #labelOf(Object)}.
+   */
+  PerfRunDescription(String className, String methodName, List<Double> paramValues, List<String> paramLabels,
+      List<Varying> varyingAnnotations, int trial) {
+    this.className = className;
+    this.methodName = methodName;
+    this.paramValues = Collections.unmodifiableList(new ArrayList<Double>(paramValues));
+    List<String> labelList = new ArrayList<String>();
+    for (int i = 0; i < paramValues.size(); i++) {
+      double number = paramValues.get(i);
+      String label = paramLabels == null ? null : paramLabels.get(i);
+      labelList.add(label == null ? String.valueOf(number) : label);
+    }
+    this.paramLabels = Collections.unmodifiableList(labelList);
+    this.varyingAnnotations = varyingAnnotations;
+    this.trial = trial;
+  }
+
+  /**
+   * Returns the label of the given parameter value. Numbers are formatted as
+   * doubles, so the same number gets the same label whatever the type of its
+   * parameter, except that a long too big to be a double exactly keeps all
+   * its digits.
+   */
+  static String labelOf(Object value) {
+    if (value instanceof Number) {
+      double number = ((Number) value).doubleValue();
+      if (value instanceof Long && (long) number != (Long) value) {
+        return value.toString();
+      }
+      return String.valueOf(number);
+    }
+    return String.valueOf(value);
+  }
+
+  /**
+   * Returns the given parameter value as a number, or NaN if it's not a
+   * number (an enum constant or a string).
+   */
+  private static double parseNumber(String value) {
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException e) {
+      return Double.NaN;
+    }
+  }
+
   public String getClassName() {
     return className;
   }
@@ -69,12 +160,47 @@ class PerfRunDescription {
   }
 
   /**
-   * Returns an unmodifiable list of the parameter values that were used for this test run.
+   * Returns an unmodifiable list of the parameter values that were used for
+   * this test run. Values that aren't numbers (enum constants and strings)
+   * are NaN; see {@link #getParamLabels()}.
    */
   public List<Double> getParamValues() {
     return paramValues;
   }
 
+  /**
+   * Returns an unmodifiable list of the parameter values that were used for
+   * this test run, as text. Numbers are formatted the same way whatever the
+   * type of their parameter, so 1024 is "1024.0"; see
+   * {@link #labelOf(Object)}.
+   */
+  public List<String> getParamLabels() {
+    return paramLabels;
+  }
+
+  /**
+   * Returns the parameter names and values of this test run, formatted as
+   * <code>name=value;name=value</code>.
+   */
+  public String getParamString() {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < varyingAnnotations.size(); i++) {
+      if (i > 0) {
+        sb.append(';');
+      }
+      sb.append(varyingAnnotations.get(i).name()).append('=').append(paramLabels.get(i));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns which repetition of the parameter combination this test run was,
+   * starting at 1.
+   */
+  public int getTrial() {
+    return trial;
+  }
+
   /**
    * Returns an unmodifiable list of the Varying annotations that apply to each
    * parameter of the test method.
@@ -19,19 +19,34 @@ package net.bluecow.perfrunner;
 import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
 import org.junit.Test;
+import org.junit.internal.runners.rules.RuleFieldValidator;
 import org.junit.runner.Description;
+import org.junit.runner.Result;
 import org.junit.runner.Runner;
+import org.junit.runner.manipulation.Filter;
+import org.junit.runner.manipulation.NoTestsRemainException;
+import org.junit.runner.notification.RunListener;
 import org.junit.runner.notification.RunNotifier;
 import org.junit.runners.BlockJUnit4ClassRunner;
 import org.junit.runners.Suite;
 import org.junit.runners.model.FrameworkMethod;
 import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.Statement;
+import org.junit.runners.model.TestClass;
 
 /**
  * A runner that creates a suite from a test class. Each member of the suite is
@@ -44,63 +59,240 @@ public class PerfRunner extends Suite {
 
   /**
    * Runs a single test method once for each possible combination of its varying
-   * parameter values.
+   * parameter values, or for a sample of them if it's {@link Sampling sampled}.
+   * The test class's class-level fixtures belong to the enclosing
+   * {@link PerfRunner}, which has one of these for each test method.
    *
    * @author Jonathan Fuerth <jfuerth@gmail.com>
    */
   private static class VaryingParametersTestRunner extends BlockJUnit4ClassRunner {
 
-    private final PerformanceReportBuilder performanceReportBuilder = new PerformanceReportBuilder();
+    private final PerformanceReportBuilder performanceReportBuilder;
 
-    VaryingParametersTestRunner(Class<?> type) throws InitializationError {
+    /**
+     * The test method this runner runs. Null while the superclass constructor
+     * is running.
+     */
+    private final FrameworkMethod testMethod;
+
+    /**
+     * The position of {@link #testMethod} among the test class's test
+     * methods. The first runner also checks the class-level setup.
+     */
+    private final int methodIndex;
+
+    /**
+     * The description of the test run whose statement {@link #methodBlock}
+     * is currently building, when only the test method call is to be
+     * measured; null otherwise.
+     */
+    private Description measuredMethodBody;
+
+    /**
+     * The filters applied to this runner, which {@link #runInOrder} has to
+     * apply itself because it doesn't run the children in their usual order.
+     */
+    private final List<Filter> filters = new ArrayList<Filter>();
+
+    /**
+     * Follows the trials of the parameter combination being run when the test
+     * method is in {@link Converge} mode; null otherwise.
+     */
+    private Convergence convergence;
+
+    /**
+     * The annotations every run's description carries; see
+     * {@link #childAnnotations()}.
+     */
+    private Annotation[] childAnnotations;
+
+    /**
+     * The Varying annotations of the test method's varying parameters; see
+     * {@link #varyingAnnotations()}.
+     */
+    private List<Varying> varyingAnnotations;
+
+    /**
+     * The runs of the test method, made by {@link #computeTestMethods()} the
+     * first time they're asked for.
+     */
+    private List<FrameworkMethod> runs;
+
+    VaryingParametersTestRunner(Class<?> type, FrameworkMethod testMethod, int methodIndex,
+        PerformanceReportBuilder performanceReportBuilder) throws InitializationError {
       super(type);
+      this.testMethod = testMethod;
+      this.methodIndex = methodIndex;
+      this.performanceReportBuilder = performanceReportBuilder;
+
+      // the superclass constructor validated nothing, because the test method wasn't known yet
+      List<Throwable> errors = new ArrayList<Throwable>();
+      collectInitializationErrors(errors);
+      if (!errors.isEmpty()) {
+        throw new InitializationError(errors);
+      }
+    }
+
+    /**
+     * Checks this runner's test method and, in the first runner, the test
+     * class's constructor, {@code @Before} and {@code @After} methods and
+     * rules. Unlike the superclass, doesn't insist on there being test runs:
+     * a forked JVM may have been given none of this method's. The class-level
+     * fixtures are checked by the enclosing {@link PerfRunner}.
+     */
+    @Override
+    protected void collectInitializationErrors(List<Throwable> errors) {
+      if (testMethod == null) {
+        return; // called from the superclass constructor; see the constructor above
+      }
+      if (methodIndex == 0) {
+        validateNoNonStaticInnerClass(errors);
+        validateConstructor(errors);
+        validatePublicVoidNoArgMethods(After.class, false, errors);
+        validatePublicVoidNoArgMethods(Before.class, false, errors);
+        RuleFieldValidator.RULE_VALIDATOR.validate(getTestClass(), errors);
+        try {
+          RunOrder.fromSystemProperties();
+        } catch (IllegalArgumentException e) {
+          errors.add(e);
+        }
+      }
+      validateTestMethods(errors);
+    }
+
+    @Override
+    protected String getName() {
+      return testMethod.getName();
+    }
+
+    /**
+     * Just runs the children: the class-level fixtures and rules run once for
+     * the whole class, in the enclosing {@link PerfRunner}.
+     */
+    @Override
+    protected Statement classBlock(RunNotifier notifier) {
+      return childrenInvoker(notifier);
     }
 
+    /**
+     * Returns the runs of the test method: every trial of each of its
+     * parameter combinations that runs in this JVM. The list makes each run
+     * when it's asked for, and the same list (over the same
+     * {@link ParameterSpace}) is returned every time.
+     * <p>
+     * JUnit's {@code ParentRunner} copies the list into its own the first
+     * time the runner is described or filtered, so every run is made then and
+     * kept for the rest of the test run: a sweep still takes memory in
+     * proportion to its number of runs. {@link #runInOrder} works with the
+     * runs' indexes rather than another copy.
+     */
     @Override
     protected List<FrameworkMethod> computeTestMethods() {
-      List<FrameworkMethod> testMethods = new ArrayList<FrameworkMethod>();
-      for (FrameworkMethod targetMethod : getTestClass().getAnnotatedMethods(Test.class)) {
-        Method m = targetMethod.getMethod();
-        int paramCount = m.getParameterTypes().length;
+      if (runs == null) {
+        ParameterSpace space = new ParameterSpace(testMethod.getMethod(), varyingValuesOf(testMethod.getMethod()));
 
-        int[][] values = new int[paramCount][];
-        for (int p = 0; p < paramCount; p++) {
-          Varying varying = getSoleVaryingAnnotation(targetMethod.getMethod(), p);
-          values[p] = valuesOf(varying);
+        // starting each method's count at its index spreads single-combination methods across the forks
+        int stride = ForkedRunCoordinator.runHereStride();
+        int first = 0;
+        while (first < stride && !ForkedRunCoordinator.isRunHere(methodIndex + first)) {
+          first++;
         }
+        runs = space.runs(first, stride, trialsFor(testMethod));
+      }
+      return runs;
+    }
 
-        // the pointers array holds indexes into the values[][] array.
-        // we use this to compute the cartesian product of the sets of ints stored in values[][]
-        int[] pointers = new int[paramCount];
-
-        do {
-          int[] params = new int[paramCount];
-          for (int i = 0; i < paramCount; i++) {
-            params[i] = values[i][pointers[i]];
-          }
-          testMethods.add(new ParameterizedFrameworkMethod(m, params));
-        } while (countUp(pointers, values));
+    /**
+     * Returns the values of each of the given method's varying parameters.
+     */
+    private Object[][] varyingValuesOf(Method m) {
+      List<Integer> varyingParams = varyingParamsOf(m);
+      Object[][] values = new Object[varyingParams.size()][];
+      for (int p = 0; p < values.length; p++) {
+        Varying varying = getSoleVaryingAnnotation(m, varyingParams.get(p));
+        values[p] = valuesOf(varying, m.getParameterTypes()[varyingParams.get(p)]);
       }
-      return testMethods;
+      return values;
     }
 
     @Override
     protected void validateTestMethods(List<Throwable> errors) {
-      List<FrameworkMethod> methods = getTestClass().getAnnotatedMethods(Test.class);
-      for (FrameworkMethod fm : methods) {
-        fm.validatePublicVoid(false, errors);
+      for (FrameworkMethod fm : Collections.singletonList(testMethod)) {
         Method m = fm.getMethod();
+        if (Modifier.isStatic(m.getModifiers())) {
+          errors.add(new InitializationError("Method " + m.getName() + " should not be static"));
+        }
+        if (!Modifier.isPublic(m.getDeclaringClass().getModifiers())) {
+          errors.add(new InitializationError("Class " + m.getDeclaringClass().getName() + " should be public"));
+        }
+        if (!Modifier.isPublic(m.getModifiers())) {
+          errors.add(new InitializationError("Method " + m.getName() + " should be public"));
+        }
+        if (trialsFor(fm) < 1) {
+          errors.add(new InitializationError(
+              "Method " + m.getName() + " has " + trialsFor(fm) + " trials, but at least 1 is required"));
+        }
+        Warmup warmup = methodOrClassAnnotation(fm, Warmup.class);
+        if (warmup != null && (warmup.iterations() < 0 || warmup.time() < 0)) {
+          errors.add(new InitializationError(
+              "Method " + m.getName() + " has a negative warmup iteration count or time"));
+        }
+        Timing timing = fm.getAnnotation(Timing.class);
+        if (timing != null && timing.value() == TimingScope.WITH_CLASS_SETUP) {
+          errors.add(new InitializationError(
+              "Method " + m.getName() + " has timing scope " + timing.value() + ", which can only be used on the test class"));
+        }
+        Throughput throughput = methodOrClassAnnotation(fm, Throughput.class);
+        if (throughput != null && throughput.time() < 1) {
+          errors.add(new InitializationError(
+              "Method " + m.getName() + " has a throughput time of " + throughput.time() + "ms, but at least 1ms is required"));
+        }
+        Concurrent concurrent = methodOrClassAnnotation(fm, Concurrent.class);
+        if (concurrent != null) {
+          validateConcurrent(m, concurrent, errors);
+        }
+        FixedRate fixedRate = methodOrClassAnnotation(fm, FixedRate.class);
+        if (fixedRate != null) {
+          validateFixedRate(m, fixedRate, throughput, errors);
+        }
+        Sampling sampling = methodOrClassAnnotation(fm, Sampling.class);
+        if (sampling != null && (sampling.points() < 0 || sampling.time() < 0)) {
+          errors.add(new InitializationError(
+              "Method " + m.getName() + " has a negative sampling points or time budget"));
+        }
+        Converge converge = methodOrClassAnnotation(fm, Converge.class);
+        if (converge != null && (converge.percent() <= 0 || converge.maxTrials() < 1 || converge.time() < 0)) {
+          errors.add(new InitializationError(
+              "Method " + m.getName() + " needs a positive @Converge percent and maxTrials, and a time of at least 0"));
+        }
+        Set<Class<?>> injectedParams = new HashSet<Class<?>>();
         for (int p = 0; p < m.getParameterTypes().length; p++) {
           try {
             Class<?> ptype = m.getParameterTypes()[p];
 
-            if (ptype != Integer.TYPE) {
+            if (isInjectedType(ptype)) {
+              if (!injectedParams.add(ptype)) {
+                throw new InitializationError(
+                    "Method " + m.getName() + " has more than one " + ptype.getSimpleName() + " parameter");
+              }
+              for (Annotation atn : m.getParameterAnnotations()[p]) {
+                if (atn.annotationType() == Varying.class) {
+                  throw new InitializationError(
+                      "Method " + m.getName() + " parameter " + p + " is a " + ptype.getSimpleName() +
+                      ", which PerfRunner passes in, so it can't be @Varying");
+                }
+              }
+              continue;
+            }
+
+            if (!isVaryingType(ptype)) {
               throw new InitializationError(
-                  "Method " + m.getName() + " parameter " + p + " is of type " + ptype + ", but only int is supported.");
+                  "Method " + m.getName() + " parameter " + p + " is of type " + ptype +
+                  ", but only int, long, double, String, enums, Measurements and Blackhole are supported.");
             }
 
             Varying varying = getSoleVaryingAnnotation(m, p); // if more than one @Varying, this will throw InitializationError
-            int[] values = valuesOf(varying);
+            Object[] values = valuesOf(varying, ptype);
             if (values.length == 0) {
               throw new InitializationError("Method " + m.getName() + " parameter " + p + " has 0 possible variations");
             }
@@ -109,6 +301,53 @@ public class PerfRunner extends Suite {
             errors.add(e);
           }
         }
+        if (errors.isEmpty()
+            && ParameterSpace.sizeOf(varyingValuesOf(m)) * trialsFor(fm) > Integer.MAX_VALUE) {
+          errors.add(new InitializationError(
+              "Method " + m.getName() + " has more than " + Integer.MAX_VALUE + " runs"));
+        }
+      }
+    }
+
+    /**
+     * Checks that the given method's {@link Concurrent} annotation specifies
+     * its number of threads in exactly one way, and can be run in this JVM.
+     */
+    private void validateConcurrent(Method m, Concurrent concurrent, List<Throwable> errors) {
+      if (concurrent.threads() < 0 || (concurrent.threads() == 0) == concurrent.threadsFrom().isEmpty()) {
+        errors.add(new InitializationError(
+            "Method " + m.getName() + " must give either a positive number of @Concurrent threads or threadsFrom"));
+      } else if (!concurrent.threadsFrom().isEmpty() && !isIntParam(m, varyingParamNamed(m, concurrent.threadsFrom()))) {
+        errors.add(new InitializationError(
+            "Method " + m.getName() + " takes its @Concurrent thread count from \"" + concurrent.threadsFrom() +
+            "\", but has no @Varying parameter with that name of type int"));
+      }
+      if (concurrent.virtualThreads() && !InvokeConcurrently.isVirtualThreadSupported()) {
+        errors.add(new InitializationError(
+            "Method " + m.getName() + " uses virtual threads, but this JVM doesn't support them"));
+      }
+    }
+
+    /**
+     * Checks that the given method's {@link FixedRate} annotation specifies
+     * its rate in exactly one way, and isn't combined with throughput mode.
+     */
+    private void validateFixedRate(Method m, FixedRate fixedRate, Throughput throughput, List<Throwable> errors) {
+      if (fixedRate.perSecond() < 0 || (fixedRate.perSecond() == 0) == fixedRate.perSecondFrom().isEmpty()) {
+        errors.add(new InitializationError(
+            "Method " + m.getName() + " must give either a positive @FixedRate perSecond or perSecondFrom"));
+      } else if (!fixedRate.perSecondFrom().isEmpty() && !isIntParam(m, varyingParamNamed(m, fixedRate.perSecondFrom()))) {
+        errors.add(new InitializationError(
+            "Method " + m.getName() + " takes its @FixedRate rate from \"" + fixedRate.perSecondFrom() +
+            "\", but has no @Varying parameter with that name of type int"));
+      }
+      if (fixedRate.time() < 1) {
+        errors.add(new InitializationError(
+            "Method " + m.getName() + " has a fixed rate time of " + fixedRate.time() + "ms, but at least 1ms is required"));
+      }
+      if (throughput != null) {
+        errors.add(new InitializationError(
+            "Method " + m.getName() + " can't be in both @Throughput and @FixedRate mode"));
       }
     }
 
@@ -116,104 +355,650 @@ public class PerfRunner extends Suite {
     protected Description describeChild(FrameworkMethod method) {
       ParameterizedFrameworkMethod pmethod = (ParameterizedFrameworkMethod) method;
 
-      // collect the method and parameter annotations for the benefit of the reporting listener
-      List<Annotation> annotations = new ArrayList<Annotation>();
-      Collections.addAll(annotations, method.getAnnotations());
-      for (Annotation[] paramAnnotation : method.getMethod().getParameterAnnotations()) {
-        Collections.addAll(annotations, paramAnnotation);
+      RunMetadata metadata = pmethod.getMetadata(varyingAnnotations());
+
+      // the trial number is only included when there's more than one, so single-trial names stay the same
+      StringBuilder name = new StringBuilder(testName(method)).append('[');
+      List<Object> params = metadata.getParameters();
+      for (int i = 0; i < params.size(); i++) {
+        if (i > 0) {
+          name.append(", ");
+        }
+        name.append(params.get(i));
       }
+      name.append(']');
+      if (trialsFor(method) > 1) {
+        name.append(" #").append(pmethod.getTrial());
+      }
+
+      // the run's own metadata rides along with the method's annotations, for the listeners
+      Annotation[] annotations = childAnnotations();
+      annotations = Arrays.copyOf(annotations, annotations.length + 1);
+      annotations[annotations.length - 1] = metadata;
+
+      return Description.createTestDescription(getTestClass().getJavaClass(), name.toString(), annotations);
+    }
+
+    /**
+     * Returns the annotations of the test method and its parameters, which
+     * every run's description carries for the benefit of the reporting
+     * listener. They're collected once, because every run has the same ones.
+     */
+    private Annotation[] childAnnotations() {
+      if (childAnnotations == null) {
+        List<Annotation> annotations = new ArrayList<Annotation>();
+        Collections.addAll(annotations, testMethod.getAnnotations());
+        for (Annotation[] paramAnnotation : testMethod.getMethod().getParameterAnnotations()) {
+          // Measurements and Blackhole parameters have no @Varying annotation, so they drop out of the report's parameter list
+          Collections.addAll(annotations, paramAnnotation);
+        }
+        childAnnotations = annotations.toArray(new Annotation[annotations.size()]);
+      }
+      return childAnnotations;
+    }
 
-      return Description.createTestDescription(
-          getTestClass().getJavaClass(),
-          testName(method) + Arrays.toString(pmethod.getParameters()),
-          annotations.toArray(new Annotation[annotations.size()]));
+    /**
+     * Returns the Varying annotations of the test method's varying
+     * parameters, in parameter order.
+     */
+    private List<Varying> varyingAnnotations() {
+      if (varyingAnnotations == null) {
+        List<Varying> annotations = new ArrayList<Varying>();
+        for (int p : varyingParamsOf(testMethod.getMethod())) {
+          annotations.add(getSoleVaryingAnnotation(testMethod.getMethod(), p));
+        }
+        varyingAnnotations = Collections.unmodifiableList(annotations);
+      }
+      return varyingAnnotations;
+    }
+
+    @Override
+    public void filter(Filter filter) throws NoTestsRemainException {
+      super.filter(filter);
+      filters.add(filter);
     }
 
+    /**
+     * Runs the children in the usual way unless the test method is
+     * {@link Sampling sampled} or in {@link Converge} mode, or the runs are to
+     * be made in a different {@link RunOrder}, in which case they're run by
+     * {@link #runInOrder}.
+     */
     @Override
-    public void run(RunNotifier notifier) {
-      Description description = getDescription();
+    protected Statement childrenInvoker(final RunNotifier notifier) {
+      final RunOrder order = RunOrder.fromSystemProperties();
+      if (methodOrClassAnnotation(testMethod, Sampling.class) == null
+          && methodOrClassAnnotation(testMethod, Converge.class) == null
+          && order == RunOrder.DECLARED) {
+        return super.childrenInvoker(notifier);
+      }
+      return new Statement() {
+        @Override
+        public void evaluate() {
+          runInOrder(order, notifier);
+        }
+      };
+    }
+
+    /**
+     * Runs the children in the given order, or, if the test method is
+     * {@link Sampling sampled}, the parameter combinations its strategy
+     * chooses. In {@link Converge} mode, the order only decides the order of
+     * the combinations, and each one's trials run together.
+     */
+    private void runInOrder(RunOrder order, RunNotifier notifier) {
+      List<FrameworkMethod> children = getChildren();
+      int trials = trialsFor(testMethod);
+      int[] runs = new int[children.size()];
+      int count = 0;
+      for (int i = 0; i < runs.length; i++) {
+        if (filters.isEmpty() || shouldRun(children.get(i))) {
+          runs[count++] = i;
+        }
+      }
+      if (count == 0) {
+        return;
+      }
+      if (count < runs.length) {
+        runs = Arrays.copyOf(runs, count);
+      }
+
+      Sampling sampling = methodOrClassAnnotation(testMethod, Sampling.class);
+      if (sampling != null) {
+        runSampled(children, groupByCombination(runs, trials), sampling, notifier);
+      } else if (methodOrClassAnnotation(testMethod, Converge.class) != null) {
+        for (int[] combination : groupByCombination(order.arrange(runs, trials), trials)) {
+          runTrials(children, combination, notifier);
+        }
+      } else {
+        for (int run : order.arrange(runs, trials)) {
+          runChild(children.get(run), notifier);
+        }
+      }
+    }
+
+    /**
+     * Runs the parameter combinations the given sampling strategy chooses
+     * from among the given combinations of one test method's runs, with all
+     * their trials, until the strategy or the budget says to stop. The runs
+     * that weren't chosen are reported as ignored.
+     *
+     * @param children
+     *          the runs of the test method
+     * @param combinations
+     *          the indexes in {@code children} of each combination's trials
+     */
+    private void runSampled(List<FrameworkMethod> children, List<int[]> combinations,
+        Sampling sampling, RunNotifier notifier) {
+      List<int[]> valueIndexes = new ArrayList<int[]>();
+      for (int[] trials : combinations) {
+        valueIndexes.add(((ParameterizedFrameworkMethod) children.get(trials[0])).getValueIndexes());
+      }
+
+      Method m = testMethod.getMethod();
+      ParameterSampler sampler = ParameterSampler.create(sampling, valueIndexes, xParamOf(m));
+      boolean[] ran = new boolean[combinations.size()];
+      long deadline = System.nanoTime() + sampling.time() * 1000000L;
+      int points = 0;
+      int next;
+      while ((sampling.points() == 0 || points < sampling.points())
+          && (sampling.time() == 0 || System.nanoTime() - deadline < 0)
+          && (next = sampler.next()) >= 0) {
+        sampler.measured(next, runTrials(children, combinations.get(next), notifier));
+        ran[next] = true;
+        points++;
+      }
+
+      for (int i = 0; i < combinations.size(); i++) {
+        if (!ran[i]) {
+          for (int trial : combinations.get(i)) {
+            notifier.fireTestIgnored(describeChild(children.get(trial)));
+          }
+        }
+      }
+    }
+
+    /**
+     * Runs the given trials of one parameter combination, in order. In
+     * {@link Converge} mode, the trials after the one where the median
+     * converged are reported as ignored.
+     *
+     * @param children
+     *          the runs of the test method
+     * @param trials
+     *          the indexes in {@code children} of the trials
+     * @return the statistics of the trials that were measured
+     */
+    private List<RunStats> runTrials(List<FrameworkMethod> children, int[] trials, RunNotifier notifier) {
+      Converge converge = methodOrClassAnnotation(testMethod, Converge.class);
+      convergence = converge == null ? null : new Convergence(converge, minTrialsFor(testMethod));
       try {
-        performanceReportBuilder.testRunStarted(description);
-        super.run(notifier);
-      } catch (IOException e) {
-        throw new RuntimeException("PerfRunner report generation failed", e);
+        List<RunStats> measured = new ArrayList<RunStats>();
+        for (int index : trials) {
+          FrameworkMethod trial = children.get(index);
+          if (convergence != null && convergence.isDone()) {
+            notifier.fireTestIgnored(describeChild(trial));
+            continue;
+          }
+          runChild(trial, notifier);
+          RunStats runStats = performanceReportBuilder.lastRun(describeChild(trial));
+          if (runStats != null) {
+            measured.add(runStats);
+          }
+        }
+        return measured;
       } finally {
-        performanceReportBuilder.testRunFinished(null);
+        convergence = null;
       }
     }
 
+    /**
+     * Groups the given run indexes by parameter combination, in order of each
+     * combination's first run. The run at index {@code i} is of combination
+     * {@code i / trials}.
+     */
+    private static List<int[]> groupByCombination(int[] runs, int trials) {
+      // each group starts with the number of trials in it so far
+      Map<Integer, int[]> trialsByCombination = new LinkedHashMap<Integer, int[]>();
+      for (int run : runs) {
+        int[] group = trialsByCombination.get(run / trials);
+        if (group == null) {
+          group = new int[trials + 1];
+          trialsByCombination.put(run / trials, group);
+        }
+        group[++group[0]] = run;
+      }
+      List<int[]> combinations = new ArrayList<int[]>(trialsByCombination.size());
+      for (int[] group : trialsByCombination.values()) {
+        combinations.add(Arrays.copyOfRange(group, 1, group[0] + 1));
+      }
+      return combinations;
+    }
+
+    /**
+     * Returns true if none of the filters applied to this runner exclude the
+     * given child.
+     */
+    private boolean shouldRun(FrameworkMethod child) {
+      for (Filter filter : filters) {
+        if (!filter.shouldRun(describeChild(child))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
     // TODO: this is wedged in here. there must be a better way!
     @Override
     protected void runChild(FrameworkMethod method, RunNotifier notifier) {
-      Description description = describeChild(method);
-      performanceReportBuilder.testStarted(description);
-      super.runChild(method, notifier);
-      performanceReportBuilder.testFinished(description);
+      final Description description = describeChild(method);
+      if (method.getAnnotation(Ignore.class) != null) {
+        notifier.fireTestIgnored(description);
+        return;
+      }
+
+      final ParameterizedFrameworkMethod pmethod = (ParameterizedFrameworkMethod) method;
+      final boolean lastTrial = pmethod.getTrial() == trialsFor(method);
+      final Convergence trialConvergence = convergence;
+      Statement test;
+      switch (timingScopeFor(method)) {
+      case METHOD_BODY:
+        measuredMethodBody = description;
+        try {
+          test = methodBlock(method);
+        } finally {
+          measuredMethodBody = null;
+        }
+        break;
+      case WITH_FIXTURES:
+        test = measure(methodBlock(method), description, pmethod);
+        break;
+      case WITH_CLASS_SETUP:
+        test = measure(super.withAfterClasses(super.withBeforeClasses(methodBlock(method))), description, pmethod);
+        break;
+      default:
+        throw new AssertionError("Unknown timing scope " + timingScopeFor(method));
+      }
+      if (classTimingScope() == TimingScope.WITH_CLASS_SETUP && timingScopeFor(method) != TimingScope.WITH_CLASS_SETUP) {
+        // the class setup doesn't run once for the whole class, so it has to run (unmeasured) here
+        test = super.withAfterClasses(super.withBeforeClasses(test));
+      }
+
+      final Statement measuredTest = test;
+      Statement measured = new Statement() {
+        @Override
+        public void evaluate() throws Throwable {
+          measuredTest.evaluate();
+          if (trialConvergence != null) {
+            trialConvergence.add(performanceReportBuilder.lastRun(description));
+          }
+
+          // the whole parameter combination is in, so it can be compared with the baseline
+          if (lastTrial || (trialConvergence != null && trialConvergence.isDone())) {
+            performanceReportBuilder.checkBaseline(description);
+          }
+        }
+      };
+
+      // only the first trial of each parameter combination gets warmed up
+      Warmup warmup = methodOrClassAnnotation(method, Warmup.class);
+      if (warmup != null && pmethod.getTrial() == 1) {
+        measured = withWarmup(method, warmup, description, measured);
+      }
+
+      try {
+        runLeaf(measured, description, notifier);
+      } finally {
+        pmethod.release();
+      }
+    }
+
+    /**
+     * Calls the test method once, or repeatedly for the configured time when
+     * the method is in {@link Throughput} mode, or on a schedule when it's in
+     * {@link FixedRate} mode, on the configured number of threads when it's in
+     * {@link Concurrent} mode. The call is measured if only the method body is
+     * being timed.
+     */
+    @Override
+    protected Statement methodInvoker(FrameworkMethod method, Object test) {
+      Statement invoker;
+      final ParameterizedFrameworkMethod pmethod = (ParameterizedFrameworkMethod) method;
+      Throughput throughput = methodOrClassAnnotation(method, Throughput.class);
+      Concurrent concurrent = methodOrClassAnnotation(method, Concurrent.class);
+      FixedRate fixedRate = methodOrClassAnnotation(method, FixedRate.class);
+      if (fixedRate != null) {
+        invoker = new InvokeAtFixedRate(pmethod, test, perSecondFor(pmethod, fixedRate), fixedRate.time(),
+            concurrent == null ? 1 : threadCountFor(pmethod, concurrent),
+            concurrent != null && concurrent.virtualThreads(), concurrent != null,
+            pmethod.getMeasurements(), performanceReportBuilder);
+      } else if (concurrent != null) {
+        invoker = new InvokeConcurrently(pmethod, test,
+            threadCountFor(pmethod, concurrent), concurrent.virtualThreads(),
+            throughput == null ? 0 : throughput.time(), performanceReportBuilder);
+      } else if (throughput != null) {
+        invoker = new InvokeForDuration(pmethod, test, throughput.time(), performanceReportBuilder);
+      } else {
+        invoker = super.methodInvoker(method, test);
+      }
+      if (measuredMethodBody != null) {
+        invoker = measure(invoker, measuredMethodBody, pmethod);
+      }
+      return bound(invoker, pmethod, test);
+    }
+
+    /**
+     * Returns PerfRunner's own overhead in a measurement of the given method,
+     * or null if it isn't known because the method's calls are made on
+     * several threads at once.
+     */
+    private HarnessOverhead harnessOverheadFor(FrameworkMethod method) {
+      if (methodOrClassAnnotation(method, Concurrent.class) != null
+          || methodOrClassAnnotation(method, FixedRate.class) != null) {
+        return null;
+      }
+      return HarnessOverhead.of(method.getMethod());
+    }
+
+    /**
+     * Returns a statement that binds the given method to its target while
+     * {@code next} is evaluated, so its calls are direct. The binding is made
+     * when the statement runs, because warmup runs each create their own
+     * target, and it's outside the measurement unless fixtures are measured
+     * too.
+     */
+    private Statement bound(final Statement next, final ParameterizedFrameworkMethod method, final Object test) {
+      return new Statement() {
+        @Override
+        public void evaluate() throws Throwable {
+          method.bind(test);
+          try {
+            next.evaluate();
+          } finally {
+            method.unbind();
+          }
+        }
+      };
+    }
+
+    /**
+     * Returns a statement that records the statistics of evaluating
+     * {@code next} as the given test run.
+     */
+    private Statement measure(final Statement next, final Description description, final ParameterizedFrameworkMethod method) {
+      return new Statement() {
+        @Override
+        public void evaluate() throws Throwable {
+          // anything recorded during warmup doesn't count
+          method.getMeasurements().clear();
+          HarnessOverhead overhead = harnessOverheadFor(method);
+          performanceReportBuilder.testStarted(description);
+          try {
+            next.evaluate();
+          } finally {
+            // collecting what the test reported isn't part of the measurement
+            performanceReportBuilder.measurementStopped();
+            performanceReportBuilder.harnessOverheadFinished(overhead);
+            performanceReportBuilder.measurementsFinished(method.getMeasurements().means());
+            performanceReportBuilder.latenciesFinished(method.getMeasurements().latencies());
+            performanceReportBuilder.testFinished(description);
+          }
+        }
+      };
+    }
+
+    /**
+     * Returns a statement that runs the given method (including its
+     * {@code @Before} and {@code @After} methods) as many times as the warmup
+     * annotation specifies, then evaluates {@code next}. Nothing is recorded
+     * from the warmup runs except how many of them there were and how much
+     * time the JIT compiler spent during them.
+     */
+    private Statement withWarmup(final FrameworkMethod method, final Warmup warmup,
+        final Description description, final Statement next) {
+      return new Statement() {
+        @Override
+        public void evaluate() throws Throwable {
+          long compilationAtStart = RunStats.totalCompilationMillis();
+          long deadline = System.nanoTime() + warmup.time() * 1000000L;
+          int iterations = 0;
+          while (iterations < warmup.iterations() || System.nanoTime() - deadline < 0) {
+            methodBlock(method).evaluate();
+            iterations++;
+          }
+          long compilationMillis = compilationAtStart < 0 ? -1 : RunStats.totalCompilationMillis() - compilationAtStart;
+          performanceReportBuilder.warmupFinished(description, iterations, compilationMillis);
+          next.evaluate();
+        }
+      };
     }
 
     // Utility methods below here.
     // TODO move most of the following into a new ParameterSet class
 
     /**
-     * Increments the first value in pointers, rolling it back to 0 and carrying
-     * the 1 if pointers[0] == values[0].length. And so on down the line.
-     *
-     * @param pointers
-     *          the array to modify by adding one (with carry) in the first slot
-     * @param values
-     *          The length of values[i] determines the value at which
-     *          pointers[i] wraps back to 0
-     * @return true unless the entire pointers array has "rolled over" back to
-     *         0.
-     */
-    private boolean countUp(int[] pointers, int[][] values) {
-      if (pointers.length == 0) return false;
-
-      int pos = 0;
-      boolean carry;
-      do {
-        carry = false;
-        pointers[pos]++;
-        if (pointers[pos] >= values[pos].length) {
-          pointers[pos] = 0;
-          pos++;
-          carry = true;
-        }
-      } while (pos < pointers.length && carry);
-      return !carry;
-    }
-
-    /**
-     * Returns the sequence of values that the given Varying instance specifies. For
-     * example, {@code @Varying(from=1, to=10, step=2)} produces an array of 5 values:
-     * {@code [1, 3, 5, 7, 9]}.
+     * Returns the sequence of values that the given Varying instance specifies
+     * for a parameter of the given type. For example,
+     * {@code @Varying(from=1, to=10, step=2)} produces an array of 5 values:
+     * {@code [1, 3, 5, 7, 9]}, and {@code @Varying(from=1, to=16, step=2, geometric=true)}
+     * produces {@code [1, 2, 4, 8, 16]}.
      *
      * @param varying the varying annotation in question
-     * @return
+     * @param type the type of the parameter
+     * @return the values, boxed as the parameter's type
      */
-    private int[] valuesOf(Varying varying) {
+    private Object[] valuesOf(Varying varying, Class<?> type) {
+      if (varying.values().length > 0) {
+        Object[] values = new Object[varying.values().length];
+        for (int i = 0; i < values.length; i++) {
+          values[i] = parseValue(varying.values()[i], type);
+        }
+        return values;
+      }
+      if (type.isEnum()) {
+        return type.getEnumConstants();
+      }
+      if (type == String.class) {
+        throw new IllegalArgumentException(
+            "Illegal varying parameters: a String parameter needs a list of values");
+      }
+
       if (varying.to() < varying.from()) {
         throw new IllegalArgumentException(
             "Illegal varying parameters: to < from (from=" +
                 varying.from() + ", to=" + varying.to() + ")");
       }
-      if (varying.step() < 1) {
+      if (varying.geometric()) {
+        if (varying.from() < 1 || varying.step() < 2) {
+          throw new IllegalArgumentException(
+              "Illegal varying parameters: a geometric range needs from >= 1 and step >= 2 (from=" +
+                  varying.from() + ", step=" + varying.step() + ")");
+        }
+      } else if (varying.step() < 1) {
         throw new IllegalArgumentException(
             "Illegal varying parameters: step < 1 (step=" + varying.step() + ")");
       }
+      if (type == Integer.TYPE && (varying.from() < Integer.MIN_VALUE || varying.to() > Integer.MAX_VALUE)) {
+        throw new IllegalArgumentException(
+            "Illegal varying parameters: the range doesn't fit in an int (from=" +
+                varying.from() + ", to=" + varying.to() + ")");
+      }
 
-      int valueCount = 0;
-      for (int v = varying.from(); v <= varying.to(); v += varying.step()) {
-        valueCount++;
+      List<Object> values = new ArrayList<Object>();
+      for (long v = varying.from(); v <= varying.to(); ) {
+        values.add(parseValue(String.valueOf(v), type));
+        if (varying.geometric() ? v > Long.MAX_VALUE / varying.step() : v > Long.MAX_VALUE - varying.step()) {
+          break; // the next value would overflow
+        }
+        v = varying.geometric() ? v * varying.step() : v + varying.step();
       }
+      return values.toArray();
+    }
 
-      int vc = valueCount;
-      int[] values = new int[vc];
-      for (int v = varying.from(), i = 0; v <= varying.to(); v += varying.step(), i++) {
-        values[i] = v;
+    /**
+     * Converts the given value, as written in a {@link Varying} annotation, to
+     * the given parameter type.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Object parseValue(String value, Class<?> type) {
+      if (type == Integer.TYPE) {
+        return Integer.valueOf(value);
+      } else if (type == Long.TYPE) {
+        return Long.valueOf(value);
+      } else if (type == Double.TYPE) {
+        return Double.valueOf(value);
+      } else if (type.isEnum()) {
+        return Enum.valueOf((Class<? extends Enum>) type, value);
+      } else if (value.indexOf(',') >= 0 || value.indexOf('[') >= 0 || value.indexOf(']') >= 0) {
+        throw new IllegalArgumentException(
+            "Illegal varying parameters: String value \"" + value + "\" contains a comma or square bracket");
       }
+      return value;
+    }
 
-      return values;
+    /**
+     * Returns true if a varying parameter can be of the given type.
+     */
+    private static boolean isVaryingType(Class<?> type) {
+      return type == Integer.TYPE || type == Long.TYPE || type == Double.TYPE || type == String.class || type.isEnum();
+    }
+
+    /**
+     * Returns true if the given position among the method's varying
+     * parameters is an int parameter.
+     */
+    private boolean isIntParam(Method m, int varyingParam) {
+      return varyingParam >= 0 && m.getParameterTypes()[varyingParamsOf(m).get(varyingParam)] == Integer.TYPE;
+    }
+
+    /**
+     * Returns the number of times each parameter combination of the given test
+     * method should be run. A {@link Trials} annotation on the method takes
+     * precedence over one on the test class; if neither is present, the answer
+     * is 1. In {@link Converge} mode, this is the most trials that may be run.
+     */
+    private int trialsFor(FrameworkMethod method) {
+      Converge converge = methodOrClassAnnotation(method, Converge.class);
+      if (converge != null) {
+        return Math.max(converge.maxTrials(), minTrialsFor(method));
+      }
+      return minTrialsFor(method);
+    }
+
+    /**
+     * Returns the number of trials given by the {@link Trials} annotation, or
+     * 1 if there isn't one.
+     */
+    private int minTrialsFor(FrameworkMethod method) {
+      Trials trials = methodOrClassAnnotation(method, Trials.class);
+      return trials == null ? 1 : trials.value();
+    }
+
+    /**
+     * Returns how much of each run of the given method to measure.
+     */
+    private TimingScope timingScopeFor(FrameworkMethod method) {
+      Timing timing = methodOrClassAnnotation(method, Timing.class);
+      return timing == null ? TimingScope.METHOD_BODY : timing.value();
+    }
+
+    /**
+     * Returns the number of threads the given run of a {@link Concurrent}
+     * method should call it on.
+     */
+    private int threadCountFor(ParameterizedFrameworkMethod method, Concurrent concurrent) {
+      if (concurrent.threadsFrom().isEmpty()) {
+        return concurrent.threads();
+      }
+      return (Integer) method.getParameters()[varyingParamNamed(method.getMethod(), concurrent.threadsFrom())];
+    }
+
+    /**
+     * Returns the number of calls per second to schedule for the given run of
+     * a {@link FixedRate} method.
+     */
+    private int perSecondFor(ParameterizedFrameworkMethod method, FixedRate fixedRate) {
+      if (fixedRate.perSecondFrom().isEmpty()) {
+        return fixedRate.perSecond();
+      }
+      return (Integer) method.getParameters()[varyingParamNamed(method.getMethod(), fixedRate.perSecondFrom())];
+    }
+
+    /**
+     * Returns the position among the given method's varying parameters of the
+     * one with the given name, or -1 if there's no such parameter.
+     */
+    private int varyingParamNamed(Method m, String name) {
+      List<Integer> varyingParams = varyingParamsOf(m);
+      for (int i = 0; i < varyingParams.size(); i++) {
+        for (Annotation atn : m.getParameterAnnotations()[varyingParams.get(i)]) {
+          if (atn instanceof Varying && ((Varying) atn).name().equals(name)) {
+            return i;
+          }
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * Returns the position among the given method's varying parameters of the
+     * one on the X axis, or -1 if there's no such parameter.
+     */
+    private int xParamOf(Method m) {
+      List<Integer> varyingParams = varyingParamsOf(m);
+      for (int i = 0; i < varyingParams.size(); i++) {
+        for (Annotation atn : m.getParameterAnnotations()[varyingParams.get(i)]) {
+          if (atn instanceof Varying && ((Varying) atn).axis() == Axis.X) {
+            return i;
+          }
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * Returns the timing scope given by the test class's {@link Timing}
+     * annotation, or null if it doesn't have one.
+     */
+    private TimingScope classTimingScope() {
+      Timing timing = getTestClass().getJavaClass().getAnnotation(Timing.class);
+      return timing == null ? null : timing.value();
+    }
+
+    /**
+     * Returns the given method's annotation of the given type, falling back to
+     * the test class's annotation of that type if the method doesn't have one.
+     *
+     * @return the annotation, or null if neither the method nor the class has it.
+     */
+    private <T extends Annotation> T methodOrClassAnnotation(FrameworkMethod method, Class<T> annotationType) {
+      T annotation = method.getAnnotation(annotationType);
+      if (annotation == null) {
+        annotation = getTestClass().getJavaClass().getAnnotation(annotationType);
+      }
+      return annotation;
+    }
+
+    /**
+     * Returns the indexes of the given method's varying parameters: all of
+     * them except a {@link Measurements} or {@link Blackhole} parameter.
+     */
+    private List<Integer> varyingParamsOf(Method m) {
+      List<Integer> varyingParams = new ArrayList<Integer>();
+      for (int p = 0; p < m.getParameterTypes().length; p++) {
+        if (!isInjectedType(m.getParameterTypes()[p])) {
+          varyingParams.add(p);
+        }
+      }
+      return varyingParams;
+    }
+
+    /**
+     * Returns true if PerfRunner passes its own object for a test method
+     * parameter of the given type, rather than varying it.
+     */
+    private static boolean isInjectedType(Class<?> type) {
+      return type == Measurements.class || type == Blackhole.class;
     }
 
     /**
@@ -244,17 +1029,143 @@ public class PerfRunner extends Suite {
   }
 
 
+  /**
+   * Collects the measurements of every test method's runs into one report
+   * for the class.
+   */
+  private final PerformanceReportBuilder performanceReportBuilder;
+
+  /**
+   * Streams results to the parent JVM when this JVM is a fork; null otherwise.
+   */
+  private final ForkedRunReporter forkedRunReporter;
+
   public PerfRunner(Class<?> klass) throws Throwable {
-    super(klass, createParameterizedRunners(klass));
+    this(klass, ForkedRunCoordinator.isForkedChild()
+        ? new ForkedRunReporter(ForkedRunCoordinator.parentPort())
+        : new PerformanceReportBuilder());
   }
 
-  private static List<Runner> createParameterizedRunners(Class<?> klass) throws InitializationError {
-    List<Runner> children = new ArrayList<Runner>();
+  private PerfRunner(Class<?> klass, PerformanceReportBuilder performanceReportBuilder) throws Throwable {
+    super(klass, createParameterizedRunners(klass, performanceReportBuilder));
+    this.performanceReportBuilder = performanceReportBuilder;
+    this.forkedRunReporter = performanceReportBuilder instanceof ForkedRunReporter
+        ? (ForkedRunReporter) performanceReportBuilder : null;
+
+    ParameterFilter parameterFilter;
+    try {
+      parameterFilter = ParameterFilter.fromSystemProperties();
+    } catch (IllegalArgumentException e) {
+      throw new InitializationError(Collections.<Throwable>singletonList(e));
+    }
+    if (parameterFilter != null) {
+      try {
+        filter(parameterFilter);
+      } catch (NoTestsRemainException e) {
+        // a fork may have been given none of the matching runs, which is fine
+        if (!ForkedRunCoordinator.isForkedChild()) {
+          throw new InitializationError(
+              "No parameter combinations of " + klass.getName() + " match " + parameterFilter.describe());
+        }
+      }
+    }
+  }
+
+  @Override
+  public void run(RunNotifier notifier) {
+    Description description = getDescription();
 
-    // TODO we want to iterate over the test methods here and add a suite for each method
-    // (to give a nice hierarchical separation of each perf test run)
-    children.add(new VaryingParametersTestRunner(klass));
+    // listeners can look the runs up until they've all heard that the test run finished
+    final String className = getTestClass().getJavaClass().getName();
+    RunRecord.forget(className);
+    notifier.addListener(new RunListener() {
+      @Override
+      public void testRunFinished(Result result) {
+        RunRecord.forget(className);
+      }
+    });
+    try {
+      performanceReportBuilder.testRunStarted(description);
+      int forks = ForkedRunCoordinator.forkCount();
+      if (forks > 1) {
+        List<Description> tests = new ArrayList<Description>();
+        for (Description method : description.getChildren()) {
+          tests.addAll(method.getChildren());
+        }
+        new ForkedRunCoordinator(getTestClass().getJavaClass(), forks)
+            .run(tests, notifier, performanceReportBuilder);
+      } else if (forkedRunReporter != null) {
+        RunListener forwarder = forkedRunReporter.outcomeForwarder();
+        notifier.addListener(forwarder);
+        try {
+          super.run(notifier);
+        } finally {
+          notifier.removeListener(forwarder);
+        }
+      } else {
+        super.run(notifier);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("PerfRunner report generation failed", e);
+    } catch (InterruptedException e) {
+      throw new RuntimeException("Interrupted while waiting for forked JVMs", e);
+    } finally {
+      performanceReportBuilder.testRunFinished(null);
+    }
+  }
 
+  /**
+   * Runs the {@code @BeforeClass} methods once for the whole class, unless
+   * they're measured as part of every test run.
+   */
+  @Override
+  protected Statement withBeforeClasses(Statement statement) {
+    if (isClassSetupMeasured()) {
+      return statement;
+    }
+    return super.withBeforeClasses(statement);
+  }
+
+  /**
+   * Runs the {@code @AfterClass} methods once for the whole class, unless
+   * they're measured as part of every test run.
+   */
+  @Override
+  protected Statement withAfterClasses(Statement statement) {
+    if (isClassSetupMeasured()) {
+      return statement;
+    }
+    return super.withAfterClasses(statement);
+  }
+
+  private boolean isClassSetupMeasured() {
+    Timing timing = getTestClass().getJavaClass().getAnnotation(Timing.class);
+    return timing != null && timing.value() == TimingScope.WITH_CLASS_SETUP;
+  }
+
+  /**
+   * Creates a runner for each test method, so the description tree goes from
+   * the class to its methods to their parameter combinations, and each
+   * method can be filtered or rerun on its own.
+   */
+  private static List<Runner> createParameterizedRunners(Class<?> klass,
+      PerformanceReportBuilder performanceReportBuilder) throws InitializationError {
+    List<Runner> children = new ArrayList<Runner>();
+    List<Throwable> errors = new ArrayList<Throwable>();
+    List<FrameworkMethod> testMethods = new TestClass(klass).getAnnotatedMethods(Test.class);
+    if (testMethods.isEmpty()) {
+      throw new InitializationError("No runnable methods");
+    }
+    for (int i = 0; i < testMethods.size(); i++) {
+      try {
+        children.add(new VaryingParametersTestRunner(klass, testMethods.get(i), i, performanceReportBuilder));
+      } catch (InitializationError e) {
+        errors.addAll(e.getCauses());
+      }
+    }
+    if (!errors.isEmpty()) {
+      throw new InitializationError(errors);
+    }
     return children;
   }
 
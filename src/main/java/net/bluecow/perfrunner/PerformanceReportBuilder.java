@@ -21,13 +21,19 @@ import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import org.junit.runner.Description;
 import org.junit.runner.Result;
@@ -40,6 +46,9 @@ import org.junit.runner.notification.RunListener;
  * The HTML files are created in the current directory, and have names of the form
  * <code>perfrunner-<i>fully-qualified-class-name</i>.html</code>.
  * <p>
+ * Each run is also passed to the {@link ResultSink}s chosen by the
+ * {@value ResultSink#EXPORT_PROPERTY} system property as soon as it finishes.
+ * <p>
  * TODO: use system properties to control where the output file will be created<br>
  * TODO: use system properties to link to css+javascript rather than embed it<br>
  *
@@ -53,9 +62,9 @@ class PerformanceReportBuilder extends RunListener {
    */
   public static class ParamValue {
     private final String paramName;
-    private final double paramValue;
+    private final String paramValue;
 
-    public ParamValue(String paramName, double paramValue) {
+    public ParamValue(String paramName, String paramValue) {
       this.paramName = paramName;
       this.paramValue = paramValue;
     }
@@ -64,7 +73,11 @@ class PerformanceReportBuilder extends RunListener {
       return paramName;
     }
 
-    public double getParamValue() {
+    /**
+     * Returns the parameter's value as text, formatted as by
+     * {@link PerfRunDescription#getParamLabels()}.
+     */
+    public String getParamValue() {
       return paramValue;
     }
 
@@ -74,9 +87,7 @@ class PerformanceReportBuilder extends RunListener {
       int result = 1;
       result = prime * result
           + ((paramName == null) ? 0 : paramName.hashCode());
-      long temp;
-      temp = Double.doubleToLongBits(paramValue);
-      result = prime * result + (int) (temp ^ (temp >>> 32));
+      result = prime * result + paramValue.hashCode();
       return result;
     }
 
@@ -95,8 +106,7 @@ class PerformanceReportBuilder extends RunListener {
       }
       else if (!paramName.equals(other.paramName))
         return false;
-      if (Double.doubleToLongBits(paramValue) != Double
-          .doubleToLongBits(other.paramValue))
+      if (!paramValue.equals(other.paramValue))
         return false;
       return true;
     }
@@ -136,7 +146,7 @@ class PerformanceReportBuilder extends RunListener {
       for (int i : paramIndexes) {
         paramValues.add(new ParamValue(
             desc.getParamAnnotations().get(i).name(),
-            desc.getParamValues().get(i)));
+            desc.getParamLabels().get(i)));
       }
       Key key = new Key(paramValues);
       return key;
@@ -187,24 +197,195 @@ class PerformanceReportBuilder extends RunListener {
   }
 
   /**
-   * A point on the performance chart. Instances of this class are immutable.
+   * A point on the performance chart. Holds the statistics from every trial
+   * that was run with the point's parameter values.
    */
   private static class Point {
     private final double x;
-    private final RunStats runStats;
-    public Point(double x, RunStats runStats) {
+    private final String id;
+    private final List<RunStats> trials = new ArrayList<RunStats>();
+    private int warmupIterations;
+    private long warmupCompilationMillis = -1;
+
+    /**
+     * How this point compares with the baseline run, or null if there's no
+     * baseline for it.
+     */
+    private Baseline.Comparison comparison;
+
+    public Point(double x, String id) {
       this.x = x;
-      this.runStats = runStats;
+      this.id = id;
+    }
+
+    public void addTrial(RunStats runStats) {
+      trials.add(runStats);
+    }
+
+    /**
+     * Records the unmeasured warmup runs that preceded this point's trials.
+     */
+    public void setWarmup(int iterations, long compilationMillis) {
+      this.warmupIterations = iterations;
+      this.warmupCompilationMillis = compilationMillis;
+    }
+
+    /**
+     * Returns true if the JIT compiler did any work while this point's trials
+     * were being measured, which means the code under test may not have
+     * reached a steady state yet.
+     */
+    public boolean isCompilingDuringTrials() {
+      for (RunStats rs : trials) {
+        if (rs.compilationMillis() > 0) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Returns true if the given metric can be computed for every trial of
+     * this point.
+     */
+    public boolean hasMetric(Metric metric) {
+      for (RunStats rs : trials) {
+        if (!metric.appliesTo(rs)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Summarizes the given metric over all trials recorded so far.
+     */
+    public SampleSummary summary(Metric metric) {
+      double[] ys = new double[trials.size()];
+      for (int i = 0; i < ys.length; i++) {
+        ys[i] = metric.valueOf(trials.get(i));
+      }
+      return new SampleSummary(ys);
     }
 
     /**
-     * Appends a JavaScript representation of this point to {@code sb}.
+     * Returns the per-operation latencies recorded in all of this point's
+     * trials together, or null if none were recorded.
+     */
+    public LatencyHistogram.Snapshot latencies() {
+      LatencyHistogram.Snapshot latencies = null;
+      for (RunStats rs : trials) {
+        latencies = LatencyHistogram.Snapshot.merge(latencies, rs.latencies());
+      }
+      return latencies;
+    }
+
+    /**
+     * Compares this point's trials with the baseline's trials of the same
+     * point, in the metric the baseline measured.
+     *
+     * @return the comparison, which is also kept for the report, or null if
+     *         the baseline doesn't have this point.
+     */
+    public Baseline.Comparison compareWith(Baseline baseline) {
+      comparison = baseline.compare(id, trials);
+      return comparison;
+    }
+
+    /**
+     * Appends a JavaScript representation of this point to {@code sb}. The Y
+     * value is the median of the given metric over all trials. When there is
+     * more than one trial, the min and p90 values are appended as the error
+     * bar range.
      *
      * @param sb target for the generated JavaScript
+     * @param metric the measurement to use for the Y value
+     */
+    public void appendTo(Appendable sb, Metric metric) throws IOException {
+      SampleSummary y = summary(metric);
+      sb.append("[").append(String.valueOf(x)).append(",").append(String.valueOf(y.median())).append(",");
+      appendStatsTo(sb, y);
+      if (y.count() > 1) {
+        sb.append(",[").append(String.valueOf(y.min())).append(",").append(String.valueOf(y.percentile(90))).append("]");
+      }
+      sb.append("]");
+    }
+
+    private void appendStatsTo(Appendable sb, SampleSummary y) throws IOException {
+      sb.append("{ ");
+      if (trials.size() == 1) {
+        trials.get(0).appendFieldsTo(sb);
+      }
+      else {
+        long gcCount = 0;
+        long gcMillis = 0;
+        long gcPauseMillis = 0;
+        long promotedBytes = 0;
+        boolean gcDetails = true;
+        double threadLatencyMillis = 0;
+        double maxThreadLatencyMillis = 0;
+        long heapInUse = 0;
+        long compilationMillis = 0;
+        for (RunStats rs : trials) {
+          gcCount += rs.gcCount();
+          gcMillis += rs.gc().totalTimeMillis();
+          gcPauseMillis += rs.gc().pauseMillis();
+          promotedBytes += rs.gc().promotedBytes();
+          gcDetails &= rs.gc().hasPauseDetails();
+          if (rs.threadCount() > 0) {
+            threadLatencyMillis += rs.meanThreadLatencyMillis();
+            maxThreadLatencyMillis = Math.max(maxThreadLatencyMillis, rs.maxThreadLatencyMillis());
+          }
+          heapInUse += rs.heapInUse();
+          compilationMillis += Math.max(0, rs.compilationMillis());
+        }
+        sb.append("trials: " + y.count() +
+            ", min: " + y.min() +
+            ", median: " + y.median() +
+            ", mean: " + y.mean() +
+            ", p90: " + y.percentile(90) +
+            ", p99: " + y.percentile(99) +
+            ", stdDev: " + y.stdDev() +
+            ", gcCount: " + gcCount +
+            ", gcMillis: " + gcMillis +
+            (gcDetails ? ", gcPauseMillis: " + gcPauseMillis + ", promotedBytes: " + promotedBytes : "") +
+            ", meanHeapInUse: " + (heapInUse / trials.size()) +
+            ", compilationMillis: " + compilationMillis);
+        if (trials.get(0).threadCount() > 0) {
+          sb.append(", threads: " + trials.get(0).threadCount() +
+              ", meanThreadLatencyMillis: " + (threadLatencyMillis / trials.size()) +
+              ", maxThreadLatencyMillis: " + maxThreadLatencyMillis);
+        }
+        for (int event = 0; event < HardwareCounters.EVENTS.size(); event++) {
+          Metric perOperation = Metric.HARDWARE_COUNTS_PER_OPERATION.get(event);
+          if (hasMetric(perOperation)) {
+            sb.append(", " + HardwareCounters.KEYS.get(event) + "PerOp: " + summary(perOperation).median());
+          }
+        }
+        if (hasMetric(Metric.INSTRUCTIONS_PER_CYCLE)) {
+          sb.append(", ipc: " + summary(Metric.INSTRUCTIONS_PER_CYCLE).median());
+        }
+      }
+      if (warmupIterations > 0) {
+        sb.append(", warmupIterations: " + warmupIterations + ", warmupCompilationMillis: " + warmupCompilationMillis);
+      }
+      if (comparison != null) {
+        sb.append(", baselineMedian: " + comparison.getBaseline().median() +
+            ", baselineTrials: " + comparison.getBaseline().count() +
+            ", pSlower: " + comparison.getPValue() +
+            ", regression: " + comparison.isRegression());
+      }
+      sb.append("}");
+    }
+
+    /**
+     * Appends a JavaScript representation of the baseline's version of this
+     * point to {@code sb}, in the same form as {@link #appendTo(Appendable, Metric)}.
      */
-    public void appendTo(Appendable sb) throws IOException {
-      sb.append("[").append(String.valueOf(x)).append(",").append(String.valueOf(runStats.timeMillis())).append(",");
-      runStats.appendTo(sb);
+    public void appendBaselineTo(Appendable sb, SampleSummary y) throws IOException {
+      sb.append("[").append(String.valueOf(x)).append(",").append(String.valueOf(y.median())).append(",");
+      sb.append("{ baselineTrials: " + y.count() + ", min: " + y.min() + ", median: " + y.median() +
+          ", p90: " + y.percentile(90) + "}");
       sb.append("]");
     }
   }
@@ -215,40 +396,96 @@ class PerformanceReportBuilder extends RunListener {
    */
   private static class Series {
     private final Key key;
-    private final List<Point> points = new ArrayList<Point>();
+
+    /**
+     * The points in order of X value, which isn't necessarily the order their
+     * trials ran in.
+     */
+    private final Map<Double, Point> points = new TreeMap<Double, Point>();
 
     public Series(Key key) {
       this.key = key;
     }
 
-    public void addPoint(double x, RunStats runStats) {
-      points.add(new Point(x, runStats));
+    /**
+     * Records one trial's statistics at the given X value. Trials that share
+     * an X value are accumulated into the same point.
+     */
+    public void addPoint(double x, String pointId, RunStats runStats) {
+      pointAt(x, pointId).addTrial(runStats);
+    }
+
+    /**
+     * Records the warmup runs that preceded the trials at the given X value.
+     */
+    public void setWarmup(double x, String pointId, int iterations, long compilationMillis) {
+      pointAt(x, pointId).setWarmup(iterations, compilationMillis);
+    }
+
+    private Point pointAt(double x, String pointId) {
+      Point p = points.get(x);
+      if (p == null) {
+        p = new Point(x, pointId);
+        points.put(x, p);
+      }
+      return p;
     }
 
     /**
-     * Appends a JavaScript representation of this series to {@code sb}.
+     * Appends a JavaScript representation of this series to {@code sb}, using
+     * the given metric for the Y values.
      *
      * @param sb target for the generated JavaScript
+     * @param metric the measurement to use for the Y values
+     * @param color the index of the series' color, shared with its baseline
+     * @param hasBaseline true if a baseline series will be charted alongside this one
      */
-    public void appendTo(Appendable sb) throws IOException {
-      sb.append("\n {");
+    public void appendTo(Appendable sb, Metric metric, int color, boolean hasBaseline) throws IOException {
+      sb.append("\n {color: " + color + ", ");
 
       // only label the series if we have something to call it. :)
       if (key.paramValues.size() > 0) {
         sb.append("label: \"").append(key.toString()).append("\", ");
       }
+      else if (hasBaseline) {
+        sb.append("label: \"current\", ");
+      }
 
       sb.append("data: [");
       boolean first = true;
-      for (Point p : points) {
+      for (Point p : points.values()) {
         if (!first) {
           sb.append(",");
         }
-        p.appendTo(sb);
+        p.appendTo(sb, metric);
         first = false;
       }
       sb.append("]}");
     }
+
+    /**
+     * Appends a dashed series of the baseline's medians for the points the
+     * baseline measured in the given metric to {@code sb}, preceded by a
+     * comma. Appends nothing if the baseline has none of this series' points.
+     */
+    public void appendBaselineTo(Appendable sb, Baseline baseline, Metric metric, int color) throws IOException {
+      StringBuilder data = new StringBuilder();
+      for (Point p : points.values()) {
+        SampleSummary y = baseline.summaryFor(p.id);
+        if (y != null && baseline.metricFor(p.id) == metric) {
+          if (data.length() > 0) {
+            data.append(",");
+          }
+          p.appendBaselineTo(data, y);
+        }
+      }
+      if (data.length() == 0) {
+        return;
+      }
+      String label = key.paramValues.size() > 0 ? key.toString() + " (baseline)" : "baseline";
+      sb.append(",\n {color: " + color + ", label: \"" + label + "\", dashes: {show: true}, points: {radius: 2}, ");
+      sb.append("data: [").append(data).append("]}");
+    }
   }
 
   /**
@@ -262,13 +499,33 @@ class PerformanceReportBuilder extends RunListener {
     private final String className;
     private final String methodName;
 
+    /**
+     * The previous run to compare with, or null if there isn't one.
+     */
+    private final Baseline baseline;
+
     private int xAxisParam = -1;
+    private String xAxisName;
+
+    /**
+     * True if the X axis parameter's values are a geometric sequence, which
+     * is charted on a logarithmic scale.
+     */
+    private boolean xAxisGeometric;
+
+    /**
+     * The X axis parameter's values, in the order they were first seen, if
+     * they're enum constants or strings rather than numbers. Each one is
+     * charted at its index in this list.
+     */
+    private final List<String> xAxisCategories = new ArrayList<String>();
     private List<Integer> pageAxisParams;
     private List<Integer> seriesParams;
 
-    public MethodRunData(PerfRunDescription desc) {
+    public MethodRunData(PerfRunDescription desc, Baseline baseline) {
       this.className = desc.getClassName();
       this.methodName = desc.getMethodName();
+      this.baseline = baseline;
 
       List<Integer> pageAxisParams = new ArrayList<Integer>();
       List<Integer> seriesParams = new ArrayList<Integer>();
@@ -281,6 +538,8 @@ class PerformanceReportBuilder extends RunListener {
                 "Found more than one x-axis parameter for test " + desc.getClassName() + "." + desc.getMethodName());
           }
           xAxisParam = i;
+          xAxisName = v.name();
+          xAxisGeometric = v.geometric();
         }
         else if (v.axis() == Axis.SERIES) {
           seriesParams.add(i);
@@ -317,6 +576,82 @@ class PerformanceReportBuilder extends RunListener {
      *          elapsed time and GC activity).
      */
     public void addTestRunData(PerfRunDescription desc, RunStats runStats) {
+      seriesFor(desc).addPoint(xOf(desc), Baseline.pointId(desc), runStats);
+    }
+
+    /**
+     * Records the warmup runs that preceded the first trial of the given method
+     * invocation.
+     *
+     * @param desc
+     *          Description of the method invocation that was warmed up.
+     * @param iterations
+     *          The number of unmeasured runs.
+     * @param compilationMillis
+     *          The time the JIT compiler spent during the warmup runs, or -1 if
+     *          unknown.
+     */
+    public void addWarmupData(PerfRunDescription desc, int iterations, long compilationMillis) {
+      seriesFor(desc).setWarmup(xOf(desc), Baseline.pointId(desc), iterations, compilationMillis);
+    }
+
+    /**
+     * Returns the X value of the given method invocation: the value of its X
+     * axis parameter, or the index of the value among
+     * {@link #xAxisCategories} if it isn't a number.
+     */
+    private double xOf(PerfRunDescription desc) {
+      double x = desc.getParamValues().get(xAxisParam);
+      if (Double.isNaN(x)) {
+        String label = desc.getParamLabels().get(xAxisParam);
+        if (!xAxisCategories.contains(label)) {
+          xAxisCategories.add(label);
+        }
+        x = xAxisCategories.indexOf(label);
+      }
+      return x;
+    }
+
+    /**
+     * Returns the X axis label for the given X value.
+     */
+    private String xLabel(double x) {
+      return xAxisCategories.isEmpty() ? String.valueOf(x) : xAxisCategories.get((int) x);
+    }
+
+    /**
+     * Appends the flot X axis options for a chart of the given series to
+     * {@code sb}, followed by a comma, if the axis needs any: a tick for each
+     * category when the X values aren't numbers, or a logarithmic scale with
+     * a tick at each X value when they're a geometric sequence.
+     */
+    private void appendXAxisOptionsTo(Appendable sb, Collection<Series> series) throws IOException {
+      if (!xAxisCategories.isEmpty()) {
+        sb.append("    xaxis: { ticks: [");
+        for (int i = 0; i < xAxisCategories.size(); i++) {
+          sb.append(i > 0 ? "," : "").append("[" + i + "," + javascriptString(xAxisCategories.get(i)) + "]");
+        }
+        sb.append("] },\n");
+      } else if (xAxisGeometric) {
+        SortedSet<Double> xs = new TreeSet<Double>();
+        for (Series s : series) {
+          xs.addAll(s.points.keySet());
+        }
+        sb.append("    xaxis: { transform: function (v) { return Math.log(v); }, inverseTransform: function (v) { return Math.exp(v); }, ticks: [");
+        boolean first = true;
+        for (double x : xs) {
+          sb.append(first ? "" : ",").append(String.valueOf(x));
+          first = false;
+        }
+        sb.append("] },\n");
+      }
+    }
+
+    /**
+     * Returns the series the given method invocation belongs to, creating it
+     * (and its page) if necessary.
+     */
+    private Series seriesFor(PerfRunDescription desc) {
       if (!isSameChart(desc)) throw new IllegalArgumentException("The given description is for data that doesn't belong on this chart");
 
       Key pageKey = Key.create(desc, pageAxisParams);
@@ -332,8 +667,7 @@ class PerformanceReportBuilder extends RunListener {
         s = new Series(seriesKey);
         seriesMap.put(seriesKey, s);
       }
-
-      s.addPoint(desc.getParamValues().get(xAxisParam), runStats);
+      return s;
     }
 
     /**
@@ -343,45 +677,70 @@ class PerformanceReportBuilder extends RunListener {
      *          The target for the HTML + JavaScript code.
      * @param chartNum
      *          The unique identifier (within the document being appended to by
-     *          {@code sb}) for the chart.
+     *          {@code sb}) for the first chart. Each page gets its own chart, and
+     *          they are numbered consecutively from here.
+     * @return the next unused chart number
      * @throws IOException
      *           if appending to {@code sb} fails.
      */
-    public void appendJavascriptTo(Appendable sb, int chartNum) throws IOException {
+    public int appendJavascriptTo(Appendable sb, int chartNum) throws IOException {
       sb.append("\n<h2><span class=packageName>" + className + ".</span>" + methodName + "</h2>\n");
 
       for (Map.Entry<Key, Map<Key, Series>> e : pageSeriesMap.entrySet()) {
         Key pageKey = e.getKey();
         Map<Key, Series> series = e.getValue();
+        List<Metric> metrics = metricsFor(series.values());
+        if (baseline != null) {
+          for (Series s : series.values()) {
+            for (Point p : s.points.values()) {
+              p.compareWith(baseline);
+            }
+          }
+        }
 
         if (pageKey.paramValues.size() > 0) {
           sb.append("<h3>" + pageKey.toString() + "</h3>");
         }
+        appendChartNotesTo(sb, series.values());
+        appendMetricChooserTo(sb, metrics, chartNum);
         sb.append("<div class=chartStats id=chartStats" + chartNum + ">&nbsp;</div>\n");
         sb.append("<div class=chart id=chart" + chartNum + "></div>\n");
         sb.append("<div class=legend id=legend" + chartNum + "></div>\n");
         sb.append("<script type='text/javascript'>\n");
         sb.append("$(function() {\n");
-        sb.append(" $.plot($('#chart" + chartNum + "'), ");
 
-        // chart data series
-        sb.append("[");
-        boolean first = true;
-        for (Series s : series.values()) {
-          if (!first) {
+        // chart data series: one complete set for each metric
+        sb.append(" var data = [");
+        for (int m = 0; m < metrics.size(); m++) {
+          if (m > 0) {
             sb.append(",");
           }
-          s.appendTo(sb);
-          first = false;
+          sb.append("[");
+          int color = 0;
+          for (Series s : series.values()) {
+            if (color > 0) {
+              sb.append(",");
+            }
+            s.appendTo(sb, metrics.get(m), color, baseline != null);
+            if (baseline != null) {
+              s.appendBaselineTo(sb, baseline, metrics.get(m), color);
+            }
+            color++;
+          }
+          sb.append("\n]");
         }
-        sb.append("\n]\n");
+        sb.append("];\n");
 
         // chart options
-        sb.append(", {\n");
-        sb.append("    series: { points: {show: true}, lines: {show: true} },\n");
+        sb.append(" var options = {\n");
+        sb.append("    series: { points: {show: true}, lines: {show: true}, errorBars: {show: true} },\n");
         sb.append("    legend: { hideable: true, container: '#legend" + chartNum + "', noColumns: 2 },\n");
+        appendXAxisOptionsTo(sb, series.values());
         sb.append("    grid: { hoverable: true }\n");
-        sb.append("  });\n");
+        sb.append("  };\n");
+        sb.append("  function draw() { $.plot($('#chart" + chartNum + "'), data[$('#metric" + chartNum + "').val() || 0], options); }\n");
+        sb.append("  $('#metric" + chartNum + "').change(draw);\n");
+        sb.append("  draw();\n");
         sb.append("  $('#chart" + chartNum + "').bind('plothover', function (event, pos, item) {\n");
         sb.append("    if (item) {\n");
         sb.append("      var runStats = item.series.data[item.dataIndex][2];\n");
@@ -393,8 +752,256 @@ class PerformanceReportBuilder extends RunListener {
         sb.append("  });\n");
         sb.append("});\n");
         sb.append("</script>\n");
+        appendDistributionChartTo(sb, series.values(), chartNum);
         chartNum++;
       }
+      return chartNum;
+    }
+
+    /**
+     * Appends a chart of the latency percentile distribution of the points at
+     * one X value to {@code sb}, with a drop-down to choose the X value. Each
+     * series gets its own line, in the same color as on the main chart. The X
+     * axis is scaled by the "number of nines" in the percentile, so the tail
+     * from p99 to p99.99 gets as much room as p0 to p90. Appends nothing if
+     * none of the points have recorded latencies.
+     */
+    private void appendDistributionChartTo(Appendable sb, Collection<Series> series, int chartNum) throws IOException {
+      List<Double> xs = new ArrayList<Double>();
+      for (Series s : series) {
+        for (Point p : s.points.values()) {
+          if (p.latencies() != null && !xs.contains(p.x)) {
+            xs.add(p.x);
+          }
+        }
+      }
+      if (xs.isEmpty()) {
+        return;
+      }
+      Collections.sort(xs);
+
+      sb.append("<div class=distribution>\n");
+      sb.append("<div class=chartControls>Latency distribution at " + htmlEscape(xAxisName) +
+          " = <select id=distributionX" + chartNum + ">");
+      for (int i = 0; i < xs.size(); i++) {
+        sb.append("<option value=" + i + (i == xs.size() - 1 ? " selected" : "") + ">" + htmlEscape(xLabel(xs.get(i))) + "</option>");
+      }
+      sb.append("</select></div>\n");
+      sb.append("<div class=distributionChart id=distribution" + chartNum + "></div>\n");
+      sb.append("</div>\n");
+
+      sb.append("<script type='text/javascript'>\n");
+      sb.append("$(function() {\n");
+      sb.append(" var data = [");
+      for (int i = 0; i < xs.size(); i++) {
+        sb.append(i > 0 ? "," : "").append("[");
+        int color = 0;
+        boolean first = true;
+        for (Series s : series) {
+          Point p = s.points.get(xs.get(i));
+          if (p != null && p.latencies() != null) {
+            sb.append(first ? "" : ",").append("\n {color: " + color + ", ");
+            if (s.key.paramValues.size() > 0) {
+              sb.append("label: \"").append(s.key.toString()).append("\", ");
+            }
+            sb.append("data: ");
+            appendPercentilesTo(sb, p.latencies());
+            sb.append("}");
+            first = false;
+          }
+          color++;
+        }
+        sb.append("\n]");
+      }
+      sb.append("];\n");
+      sb.append(" var options = {\n");
+      sb.append("    series: { points: {show: true}, lines: {show: true} },\n");
+      sb.append("    legend: { show: false },\n");
+      sb.append("    xaxis: { ticks: [");
+      for (int nines = 0; nines <= 5; nines++) {
+        double percentile = 100 - 100 / Math.pow(10, nines);
+        sb.append(nines > 0 ? "," : "").append("[" + nines + ",'p" + LatencyHistogram.percentileLabel(percentile) + "']");
+      }
+      sb.append("] },\n");
+      sb.append("    grid: { hoverable: true }\n");
+      sb.append("  };\n");
+      sb.append("  function draw() { $.plot($('#distribution" + chartNum + "'), data[$('#distributionX" + chartNum + "').val()], options); }\n");
+      sb.append("  $('#distributionX" + chartNum + "').change(draw);\n");
+      sb.append("  draw();\n");
+      sb.append("  $('#distribution" + chartNum + "').bind('plothover', function (event, pos, item) {\n");
+      sb.append("    if (item) {\n");
+      sb.append("      var stats = item.series.data[item.dataIndex][2];\n");
+      sb.append("      var statsHtml = '';\n");
+      sb.append("      if (item.series.label) { statsHtml += '<span class=seriesName>' + item.series.label + '</span>:'; }\n");
+      sb.append("      for (stat in stats) { statsHtml += ' ' + stat + ': <span class=statValue>' + stats[stat] + '</span>' }\n");
+      sb.append("      $('#chartStats" + chartNum + "').html(statsHtml);\n");
+      sb.append("    }\n");
+      sb.append("  });\n");
+      sb.append("});\n");
+      sb.append("</script>\n");
+    }
+
+    /**
+     * Appends the given latencies to {@code sb} as the data of a percentile
+     * distribution series: the latency in milliseconds at each of the
+     * {@link PerformanceReportBuilder#DISTRIBUTION_PERCENTILES} that the
+     * number of recorded latencies can resolve, then the maximum.
+     */
+    private static void appendPercentilesTo(Appendable sb, LatencyHistogram.Snapshot latencies) throws IOException {
+      sb.append("[");
+      for (double percentile : DISTRIBUTION_PERCENTILES) {
+        // a percentile is only worth plotting if at least one latency is above it
+        boolean last = percentile >= 100 || (1 - percentile / 100) * latencies.totalCount() < 1;
+        double nines = last ? Math.log10(latencies.totalCount()) : Math.log10(1 / (1 - percentile / 100));
+        double millis = latencies.percentile(last ? 100 : percentile) / 1000000.0;
+        sb.append("[" + nines + "," + millis + ",{ percentile: '" + (last ? "max" : "p" + LatencyHistogram.percentileLabel(percentile)) +
+            "', latencyMillis: " + millis + ", count: " + latencies.totalCount() + " }]");
+        if (last) {
+          break;
+        }
+        sb.append(",");
+      }
+      sb.append("]");
+    }
+
+    /**
+     * Returns the metrics that can be charted for every point in the given
+     * series, in the order they're declared in {@link Metric}. The first one is
+     * the chart's default.
+     */
+    private static List<Metric> metricsFor(Collection<Series> series) {
+      List<Metric> candidates = new ArrayList<Metric>(Metric.values());
+      for (Series s : series) {
+        for (Point p : s.points.values()) {
+          for (RunStats rs : p.trials) {
+            for (String name : rs.measurements().keySet()) {
+              Metric metric = Metric.measurement(name);
+              if (!candidates.contains(metric)) {
+                candidates.add(metric);
+              }
+            }
+          }
+        }
+      }
+
+      List<Metric> metrics = new ArrayList<Metric>();
+      for (Metric metric : candidates) {
+        boolean applies = true;
+        for (Series s : series) {
+          for (Point p : s.points.values()) {
+            applies &= p.hasMetric(metric);
+          }
+        }
+        if (applies) {
+          metrics.add(metric);
+        }
+      }
+      if (metrics.isEmpty()) {
+        metrics.add(Metric.TIME);
+      }
+      return metrics;
+    }
+
+    /**
+     * Appends the Y axis label for a chart to {@code sb}. When there's more
+     * than one metric to choose from, the label is a drop-down list that
+     * redraws the chart with the chosen metric.
+     */
+    private static void appendMetricChooserTo(Appendable sb, List<Metric> metrics, int chartNum) throws IOException {
+      sb.append("<div class=chartControls>Y axis: ");
+      if (metrics.size() == 1) {
+        sb.append(htmlEscape(metrics.get(0).getLabel()));
+      }
+      else {
+        sb.append("<select id=metric" + chartNum + ">");
+        for (int m = 0; m < metrics.size(); m++) {
+          sb.append("<option value=" + m + ">" + htmlEscape(metrics.get(m).getLabel()) + "</option>");
+        }
+        sb.append("</select>");
+      }
+      sb.append("</div>\n");
+    }
+
+    /**
+     * Appends a paragraph about the warmup and JIT activity behind the given
+     * series, the range of trial counts if not every point had the same
+     * number, PerfRunner's own overhead, and the points that regressed from
+     * the baseline, to {@code sb}. Appends nothing if there was no warmup, the
+     * JIT compiler was quiet during every measurement, the points all had the
+     * same number of trials, the overhead isn't known, and nothing regressed.
+     */
+    private void appendChartNotesTo(Appendable sb, Collection<Series> series) throws IOException {
+      int maxWarmup = 0;
+      int compilingPoints = 0;
+      int totalPoints = 0;
+      int minTrials = Integer.MAX_VALUE;
+      int maxTrials = 0;
+      List<String> regressions = new ArrayList<String>();
+      RunStats harnessSample = null;
+      for (Series s : series) {
+        for (Point p : s.points.values()) {
+          if (harnessSample == null && p.trials.get(0).harnessNanos() >= 0) {
+            harnessSample = p.trials.get(0);
+          }
+          maxWarmup = Math.max(maxWarmup, p.warmupIterations);
+          minTrials = Math.min(minTrials, p.trials.size());
+          maxTrials = Math.max(maxTrials, p.trials.size());
+          if (p.isCompilingDuringTrials()) {
+            compilingPoints++;
+          }
+          if (p.comparison != null && p.comparison.isRegression()) {
+            regressions.add(p.id + ": " + p.comparison);
+          }
+          totalPoints++;
+        }
+      }
+      boolean trialsVary = minTrials < maxTrials;
+      if (maxWarmup == 0 && compilingPoints == 0 && regressions.isEmpty() && !trialsVary && harnessSample == null) {
+        return;
+      }
+      sb.append("<p class=chartNotes>");
+      if (trialsVary) {
+        // in Converge mode, each point stops when its median is known well enough
+        sb.append("Between " + minTrials + " and " + maxTrials + " trials per point. ");
+      }
+      if (maxWarmup > 0) {
+        sb.append("Up to " + maxWarmup + " warmup iterations per point. ");
+      }
+      if (compilingPoints > 0) {
+        sb.append("The JIT compiler was still active while measuring " + compilingPoints + " of " + totalPoints + " points. ");
+      }
+      if (harnessSample != null) {
+        sb.append("PerfRunner's own overhead of about ");
+        if (harnessSample.hasOperations()) {
+          sb.append(String.format("%.1fns per call", harnessSample.harnessNanos() / (double) harnessSample.operations()));
+        } else {
+          sb.append(harnessSample.harnessNanos() + "ns per run");
+        }
+        sb.append(harnessSample.isHarnessSubtracted() ? " is subtracted from the results." : " is included in the results.");
+      }
+      if (!regressions.isEmpty()) {
+        sb.append(" <span class=regression>Slower than baseline: ");
+        for (int i = 0; i < regressions.size(); i++) {
+          sb.append(i == 0 ? "" : "; ").append(regressions.get(i));
+        }
+        sb.append("</span>");
+      }
+      sb.append("</p>\n");
+    }
+  }
+
+  /**
+   * The outcome of warming up a test, waiting for the test to finish.
+   */
+  private static class PendingWarmup {
+    private final Description description;
+    private final int iterations;
+    private final long compilationMillis;
+
+    public PendingWarmup(Description description, int iterations, long compilationMillis) {
+      this.description = description;
+      this.iterations = iterations;
+      this.compilationMillis = compilationMillis;
     }
   }
 
@@ -403,15 +1010,114 @@ class PerformanceReportBuilder extends RunListener {
    */
   private PrintWriter out;
 
+  /**
+   * The percentiles plotted on latency distribution charts and included in
+   * exported results.
+   */
+  static final double[] DISTRIBUTION_PERCENTILES = {
+    0, 50, 75, 90, 95, 99, 99.5, 99.9, 99.95, 99.99, 99.995, 99.999, 100
+  };
+
   /**
    * System stats as of the time when the most recent test started.
    */
   private RunStats statsAtStart;
 
   /**
-   * Object that is accumulating run data for the current method.
+   * The change in statistics over the current test, taken when its
+   * measurement stopped, or null if it hasn't stopped yet.
+   */
+  private RunStats statsAtStop;
+
+  /**
+   * PerfRunner's own overhead in the current test's measurement, or null if
+   * it isn't known.
+   */
+  private HarnessOverhead pendingHarnessOverhead;
+
+  /**
+   * The perf session that counts each test, attached when the first test
+   * starts and kept until the test run finishes, or null if hardware counters
+   * aren't in use.
+   */
+  private HardwareCounters.Session hardwareCounters;
+
+  /**
+   * True while the hardware counters are counting the current test.
+   */
+  private boolean counting;
+
+  /**
+   * The hardware counts of the current test, once the counters have stopped,
+   * or null if they weren't counting.
+   */
+  private long[] hardwareCounts;
+
+  /**
+   * The warmup that preceded the test that's about to start, or null if it
+   * wasn't warmed up. Held until the test finishes so it can be recorded
+   * alongside the test's own data.
+   */
+  private PendingWarmup pendingWarmup;
+
+  /**
+   * The operation count reported by the current test if it ran in throughput
+   * mode. Reset when each test starts.
+   */
+  private long pendingOperations;
+
+  /**
+   * The time taken by {@link #pendingOperations}.
+   */
+  private long pendingOperationNanos;
+
+  /**
+   * The bytes allocated by {@link #pendingOperations}.
+   */
+  private long pendingOperationAllocatedBytes;
+
+  /**
+   * The measurements reported by the current test method itself. Reset when
+   * each test starts.
+   */
+  private Map<String, Double> pendingMeasurements = Collections.emptyMap();
+
+  /**
+   * The number of calls each thread made in the current test if it ran in
+   * {@link Concurrent} mode, or null. Reset when each test starts.
+   */
+  private long[] pendingThreadOperations;
+
+  /**
+   * The time taken by each thread's {@link #pendingThreadOperations}.
+   */
+  private long[] pendingThreadNanos;
+
+  /**
+   * The per-operation latencies recorded by the current test method, or
+   * null. Reset when each test starts.
+   */
+  private LatencyHistogram.Snapshot pendingLatencies;
+
+  /**
+   * The test that finished most recently in this JVM, and its statistics.
+   */
+  private Description lastRunDescription;
+  private RunStats lastRunStats;
+
+  /**
+   * Holds the runs recorded so far, until the charts are drawn at the end of
+   * the test run.
+   */
+  private RunRecordFile recordFile;
+
+  /**
+   * The trials recorded so far for each parameter combination whose last
+   * trial hasn't been compared with the baseline yet, by point ID. The trials
+   * of different combinations can arrive interleaved, depending on the
+   * {@link RunOrder}.
    */
-  private MethodRunData runData;
+  private final Map<String, List<RunStats>> pointTrials = new HashMap<String, List<RunStats>>();
 
   /**
    * Keeps track of how many charts we've made in the output file. Needed for
@@ -419,8 +1125,58 @@ class PerformanceReportBuilder extends RunListener {
    */
   private int chartNum;
 
+  /**
+   * The other destinations each run is written to, as chosen by the
+   * {@value ResultSink#EXPORT_PROPERTY} system property.
+   */
+  private List<ResultSink> sinks = Collections.emptyList();
+
+  /**
+   * The previous run to compare with, as chosen by the
+   * {@value Baseline#BASELINE_PROPERTY} system property, or null.
+   */
+  private Baseline baseline;
+
+  /**
+   * Creates the result sinks listed in the {@value ResultSink#EXPORT_PROPERTY}
+   * system property.
+   */
+  static List<ResultSink> sinksFromSystemProperties() {
+    List<ResultSink> sinks = new ArrayList<ResultSink>();
+    String export = System.getProperty(ResultSink.EXPORT_PROPERTY, "");
+    for (String name : export.split(",")) {
+      name = name.trim();
+      if (name.length() == 0) {
+        continue;
+      }
+      if (name.equals("json")) {
+        sinks.add(new JsonResultSink());
+      } else if (name.equals("csv")) {
+        sinks.add(new CsvResultSink());
+      } else {
+        try {
+          sinks.add(Class.forName(name).asSubclass(ResultSink.class).getDeclaredConstructor().newInstance());
+        } catch (InvocationTargetException e) {
+          throw new IllegalArgumentException(
+              "Result sink '" + name + "' from " + ResultSink.EXPORT_PROPERTY + " failed to start", e.getCause());
+        } catch (Exception e) {
+          throw new IllegalArgumentException(
+              "Can't create result sink '" + name + "' from " + ResultSink.EXPORT_PROPERTY, e);
+        }
+      }
+    }
+    return sinks;
+  }
+
   @Override
   public void testRunStarted(Description description) throws IOException {
+    recordFile = new RunRecordFile();
+    sinks = sinksFromSystemProperties();
+    baseline = Baseline.fromSystemProperties(description.getClassName());
+    for (ResultSink sink : sinks) {
+      sink.runStarted(description);
+    }
+
     out = new PrintWriter("perfrunner-" + description.getClassName() + ".html");
     out.println("<!DOCTYPE html>");
     out.println("<html>");
@@ -464,6 +1220,30 @@ class PerformanceReportBuilder extends RunListener {
     out.println(" <script type='text/javascript'>");
     printContents(out, getClass().getResource("html/jquery.flot.hiddengraphs.js"));
     out.println(" </script>");
+
+    out.println(" <script type='text/javascript'>");
+    printContents(out, getClass().getResource("html/jquery.flot.errorbars.js"));
+    out.println(" </script>");
+
+    out.println(" <script type='text/javascript'>");
+    printContents(out, getClass().getResource("html/jquery.flot.dashes.js"));
+    out.println(" </script>");
+  }
+
+  /**
+   * Returns the given text as a double-quoted JavaScript string literal that
+   * is safe to embed in an HTML script element.
+   */
+  static String javascriptString(String s) {
+    return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"").replace("<", "\\x3c").replace("\n", "\\n") + "\"";
+  }
+
+  /**
+   * Returns the given text with the characters that are special in HTML
+   * escaped.
+   */
+  static String htmlEscape(String s) {
+    return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
   }
 
   /**
@@ -497,44 +1277,320 @@ class PerformanceReportBuilder extends RunListener {
     }
   }
 
+  /**
+   * Called by {@link PerfRunner} after it has finished the unmeasured warmup
+   * runs for the given test, and before the test itself starts.
+   *
+   * @param description
+   *          The description of the test that was warmed up.
+   * @param iterations
+   *          The number of warmup runs.
+   * @param compilationMillis
+   *          The time the JIT compiler spent during the warmup runs, or -1 if
+   *          unknown.
+   */
+  public void warmupFinished(Description description, int iterations, long compilationMillis) {
+    pendingWarmup = new PendingWarmup(description, iterations, compilationMillis);
+  }
+
+  /**
+   * Called by {@link PerfRunner} when a test in {@link Throughput} mode has
+   * finished calling the test method, before the test itself finishes.
+   *
+   * @param operations
+   *          The number of times the test method was called.
+   * @param nanos
+   *          The time those calls took, in nanoseconds.
+   * @param allocatedBytes
+   *          The bytes allocated during those calls, or -1 if unknown.
+   */
+  public void operationsFinished(long operations, long nanos, long allocatedBytes) {
+    pendingOperations = operations;
+    pendingOperationNanos = nanos;
+    pendingOperationAllocatedBytes = allocatedBytes;
+  }
+
+  /**
+   * Called by {@link PerfRunner} when a test in {@link Concurrent} mode has
+   * finished calling the test method on all its threads, after
+   * {@link #operationsFinished(long, long, long)} has been called with the
+   * totals for all threads.
+   *
+   * @param threadOperations
+   *          The number of times each thread called the test method.
+   * @param threadNanos
+   *          The time each thread's calls took, in nanoseconds.
+   */
+  public void threadsFinished(long[] threadOperations, long[] threadNanos) {
+    pendingThreadOperations = threadOperations;
+    pendingThreadNanos = threadNanos;
+  }
+
+  /**
+   * Called by {@link PerfRunner} just before a test finishes, with the
+   * measurements the test method reported itself.
+   *
+   * @param measurements
+   *          The value of each measurement, by name.
+   */
+  public void measurementsFinished(Map<String, Double> measurements) {
+    pendingMeasurements = measurements;
+  }
+
+  /**
+   * Called by {@link PerfRunner} just before a test finishes, with the
+   * per-operation latencies the test method recorded.
+   *
+   * @param latencies
+   *          The recorded latencies, or null if there were none.
+   */
+  public void latenciesFinished(LatencyHistogram.Snapshot latencies) {
+    pendingLatencies = latencies;
+  }
+
+  /**
+   * Called by {@link PerfRunner} just before a test finishes, with the
+   * harness overhead included in its measurement.
+   *
+   * @param overhead
+   *          the overhead for the test method, or null if it isn't known
+   */
+  public void harnessOverheadFinished(HarnessOverhead overhead) {
+    pendingHarnessOverhead = overhead;
+  }
+
+  /**
+   * Called by {@link PerfRunner} as soon as the measured code finishes, to
+   * stop the clock before the test's own measurements are collected. If this
+   * isn't called, the clock stops when the test finishes.
+   */
+  public void measurementStopped() {
+    statsAtStop = statsAtStart.relativeToNow();
+    stopHardwareCounters();
+  }
+
+  /**
+   * Stops the hardware counters, if they're counting, and keeps their counts
+   * for the current test.
+   */
+  private void stopHardwareCounters() {
+    if (counting) {
+      hardwareCounts = hardwareCounters.stop();
+      counting = false;
+    }
+  }
+
+  /**
+   * Detaches the hardware counters at the end of the test run.
+   */
+  void closeHardwareCounters() {
+    if (hardwareCounters != null) {
+      hardwareCounters.close();
+      hardwareCounters = null;
+    }
+  }
+
   @Override
   public void testStarted(Description description) {
+    statsAtStop = null;
+    pendingHarnessOverhead = null;
+    pendingOperations = 0;
+    pendingOperationNanos = 0;
+    pendingMeasurements = Collections.emptyMap();
+    pendingThreadOperations = null;
+    pendingThreadNanos = null;
+    pendingLatencies = null;
+
+    // counting starts before the timer does, so switching it on isn't measured
+    hardwareCounts = null;
+    if (hardwareCounters == null) {
+      hardwareCounters = HardwareCounters.open();
+    }
+    counting = hardwareCounters != null && hardwareCounters.start();
     statsAtStart = RunStats.create();
   }
 
   @Override
   public void testFinished(Description description) {
-    RunStats runStats = statsAtStart.relativeToNow();
+    RunStats runStats = statsAtStop != null ? statsAtStop : statsAtStart.relativeToNow();
+    statsAtStop = null;
+    if (pendingOperations > 0) {
+      runStats = runStats.withOperations(pendingOperations, pendingOperationNanos, pendingOperationAllocatedBytes);
+    }
+    if (!pendingMeasurements.isEmpty()) {
+      runStats = runStats.withMeasurements(pendingMeasurements);
+    }
+    if (pendingThreadOperations != null) {
+      runStats = runStats.withThreads(pendingThreadOperations, pendingThreadNanos);
+    }
+    if (pendingLatencies != null) {
+      runStats = runStats.withLatencies(pendingLatencies);
+    }
+    if (pendingHarnessOverhead != null) {
+      runStats = runStats.withHarnessOverhead(
+          pendingHarnessOverhead.nanosFor(pendingOperations), HarnessOverhead.isSubtracted());
+    }
+    stopHardwareCounters();
+    if (hardwareCounts != null) {
+      runStats = runStats.withHardwareCounts(hardwareCounts);
+    }
+
+    int warmupIterations = 0;
+    long warmupCompilationMillis = -1;
+    if (pendingWarmup != null && pendingWarmup.description.equals(description)) {
+      warmupIterations = pendingWarmup.iterations;
+      warmupCompilationMillis = pendingWarmup.compilationMillis;
+    }
+    pendingWarmup = null;
+
+    lastRunDescription = description;
+    lastRunStats = runStats;
+    recordRun(description, runStats, warmupIterations, warmupCompilationMillis);
+  }
+
+  /**
+   * Returns the statistics of the given test if it's the one that finished
+   * most recently in this JVM, or null if it isn't (for example, because it
+   * was ignored or failed before it was measured).
+   */
+  public RunStats lastRun(Description description) {
+    return description.equals(lastRunDescription) ? lastRunStats : null;
+  }
 
+  /**
+   * Adds the outcome of one measured test run to the report. This is called
+   * when a test finishes, and also by {@link ForkedRunCoordinator} to merge in
+   * the runs that were measured in forked JVMs. The run is written to a
+   * temporary file rather than kept in memory; the charts are drawn from that
+   * file when the test run finishes. The run's {@link RunRecord} is also
+   * made available to other listeners.
+   *
+   * @param description
+   *          The description of the test that ran.
+   * @param runStats
+   *          The statistics measured during the test.
+   * @param warmupIterations
+   *          The number of warmup runs that preceded the test, or 0 if it
+   *          wasn't warmed up.
+   * @param warmupCompilationMillis
+   *          The time the JIT compiler spent during the warmup runs, or -1 if
+   *          unknown.
+   */
+  public void recordRun(Description description, RunStats runStats,
+      int warmupIterations, long warmupCompilationMillis) {
+    recordForkedRun(description, runStats, warmupIterations, warmupCompilationMillis);
+    addBaselineTrial(description, runStats);
+  }
+
+  /**
+   * Records a run made in a forked JVM, like
+   * {@link #recordRun(Description, RunStats, int, long)}, except that the run
+   * isn't collected for the baseline comparison. The coordinator does that
+   * with {@link #addBaselineTrial(Description, RunStats)} as each result
+   * arrives, because the runs themselves are only recorded once every fork is
+   * done.
+   */
+  void recordForkedRun(Description description, RunStats runStats,
+      int warmupIterations, long warmupCompilationMillis) {
     try {
       PerfRunDescription desc = new PerfRunDescription(description);
+      RunRecord record = new RunRecord(desc, runStats, warmupIterations, warmupCompilationMillis);
+      // listeners hear that the run finished after this, so they can look it up
+      RunRecord.recorded(description, record);
+      recordFile.append(desc, runStats, warmupIterations, warmupCompilationMillis);
 
-      // check if run data needs to be dumped or (re)created
-      if (runData == null) {
-        runData = new MethodRunData(desc);
-      }
-      else if (!runData.isSameChart(desc)) {
-        // done with this one. dump the chart data!
-        runData.appendJavascriptTo(out, chartNum++);
-        runData = new MethodRunData(desc);
+      for (ResultSink sink : sinks) {
+        sink.runRecorded(record);
       }
 
-      // in all cases, we add this observation
-      runData.addTestRunData(desc, runStats);
-
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
   }
 
+  /**
+   * Adds a trial to its parameter combination's trials, to be compared with
+   * the baseline by {@link #checkBaseline(Description)} once the combination
+   * is complete. Does nothing unless the baseline is configured to fail
+   * regressions.
+   */
+  void addBaselineTrial(Description description, RunStats runStats) {
+    if (baseline != null && baseline.isFailOnRegression()) {
+      String pointId = Baseline.pointId(new PerfRunDescription(description));
+      List<RunStats> trials = pointTrials.get(pointId);
+      if (trials == null) {
+        trials = new ArrayList<RunStats>();
+        pointTrials.put(pointId, trials);
+      }
+      trials.add(runStats);
+    }
+  }
+
+  /**
+   * Called by {@link PerfRunner} (or, for forked runs, by the
+   * {@link ForkedRunCoordinator}) after the last trial of a parameter
+   * combination has been recorded. Fails if the combination is significantly
+   * slower than in the baseline, and the baseline is configured to fail
+   * regressions.
+   *
+   * @param description
+   *          The description of the last trial.
+   * @throws AssertionError
+   *           if the combination regressed.
+   */
+  public void checkBaseline(Description description) {
+    if (baseline == null || !baseline.isFailOnRegression()) {
+      return;
+    }
+    String pointId = Baseline.pointId(new PerfRunDescription(description));
+    List<RunStats> trials = pointTrials.remove(pointId);
+    if (trials == null) {
+      return;
+    }
+    Baseline.Comparison comparison = baseline.compare(pointId, trials);
+    if (comparison != null && comparison.isRegression()) {
+      throw new AssertionError("Slower than baseline: " + comparison);
+    }
+  }
+
+  /**
+   * Reads back the recorded runs and appends a chart of each test method's
+   * runs to {@code out}, in the order the methods first ran.
+   */
+  private void appendChartsTo(final Appendable out) throws IOException {
+    final Map<String, MethodRunData> methods = new LinkedHashMap<String, MethodRunData>();
+    recordFile.replay(new RunRecordFile.Visitor() {
+      @Override
+      public void run(PerfRunDescription desc, RunStats runStats, int warmupIterations, long warmupCompilationMillis) {
+        String method = desc.getClassName() + "." + desc.getMethodName();
+        MethodRunData runData = methods.get(method);
+        if (runData == null) {
+          runData = new MethodRunData(desc, baseline);
+          methods.put(method, runData);
+        }
+        runData.addTestRunData(desc, runStats);
+        if (warmupIterations > 0) {
+          runData.addWarmupData(desc, warmupIterations, warmupCompilationMillis);
+        }
+      }
+    });
+    for (MethodRunData runData : methods.values()) {
+      chartNum = runData.appendJavascriptTo(out, chartNum);
+    }
+  }
+
   @Override
   public void testRunFinished(Result result) {
-    if (runData != null) {
-      try {
-        runData.appendJavascriptTo(out, chartNum++);
-      } catch (IOException e) {
-        throw new RuntimeException(e);
+    closeHardwareCounters();
+    try {
+      appendChartsTo(out);
+      for (ResultSink sink : sinks) {
+        sink.runFinished();
       }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      recordFile.delete();
     }
     out.println("</body>");
     out.flush();
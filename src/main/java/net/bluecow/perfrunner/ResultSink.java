@@ -0,0 +1,64 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import java.io.IOException;
+
+import org.junit.runner.Description;
+
+/**
+ * A destination for the measurements of a test class's runs, in addition to
+ * the HTML report. {@link PerformanceReportBuilder} passes each run to its
+ * sinks as soon as the run finishes, so sinks can write it out right away
+ * rather than holding on to the whole test class's results.
+ * <p>
+ * The sinks for a test run are chosen by the {@value #EXPORT_PROPERTY} system
+ * property: a comma-separated list of {@code json}, {@code csv}, or the names
+ * of classes that implement this interface and have a public no-args
+ * constructor. Sinks are called on the thread that runs the tests, one run at
+ * a time.
+ */
+public interface ResultSink {
+
+  /**
+   * The system property that lists the sinks to write to.
+   */
+  static final String EXPORT_PROPERTY = "perfrunner.export";
+
+  /**
+   * Called once, before any runs are recorded.
+   *
+   * @param description
+   *          The description of the test class that's about to run.
+   */
+  void runStarted(Description description) throws IOException;
+
+  /**
+   * Called after each measured test run.
+   *
+   * @param run
+   *          The test method, parameter values and trial number of the run,
+   *          and what was measured.
+   */
+  void runRecorded(RunRecord run) throws IOException;
+
+  /**
+   * Called once, after the last run has been recorded. The sink should finish
+   * and close its output.
+   */
+  void runFinished() throws IOException;
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.RuntimeMXBean;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Describes the JVM and host that a test run happened on, so exported results
+ * from different machines and JVM versions can be told apart.
+ */
+class RunEnvironment {
+
+  private static final String[] SYSTEM_PROPERTIES = {
+    "java.version", "java.vendor", "java.vm.name", "java.vm.version",
+    "os.name", "os.version", "os.arch"
+  };
+
+  private RunEnvironment() {
+    // static utility class
+  }
+
+  /**
+   * Returns the environment as an ordered map of names to values.
+   */
+  public static Map<String, String> describe() {
+    Map<String, String> env = new LinkedHashMap<String, String>();
+    for (String property : SYSTEM_PROPERTIES) {
+      env.put(property, System.getProperty(property));
+    }
+    env.put("hostName", hostName());
+    env.put("availableProcessors", String.valueOf(Runtime.getRuntime().availableProcessors()));
+    env.put("maxHeapBytes", String.valueOf(Runtime.getRuntime().maxMemory()));
+
+    RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+    StringBuilder jvmArgs = new StringBuilder();
+    for (String arg : runtime.getInputArguments()) {
+      if (jvmArgs.length() > 0) {
+        jvmArgs.append(' ');
+      }
+      jvmArgs.append(arg);
+    }
+    env.put("jvmArguments", jvmArgs.toString());
+    env.put("forks", String.valueOf(ForkedRunCoordinator.forkCount()));
+    env.put("runOrder", System.getProperty(RunOrder.ORDER_PROPERTY, "declared"));
+    env.put("seed", String.valueOf(RunOrder.seed()));
+    env.put("hardwareCounters", String.valueOf(HardwareCounters.perfCommand() != null));
+    env.put("subtractOverhead", String.valueOf(HarnessOverhead.isSubtracted()));
+    return env;
+  }
+
+  private static String hostName() {
+    try {
+      return InetAddress.getLocalHost().getHostName();
+    } catch (UnknownHostException e) {
+      return "unknown";
+    }
+  }
+}
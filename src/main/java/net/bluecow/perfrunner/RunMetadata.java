@@ -0,0 +1,215 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+import java.io.Serializable;
+import java.lang.annotation.Annotation;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.RunListener;
+
+/**
+ * What PerfRunner knows about one run of a test method before it runs: its
+ * exact parameter values, the {@link Varying} annotations that name them and
+ * give their axes, and its trial number. Any {@link RunListener} can read it
+ * from the run's description:
+ *
+ * <pre>
+ * &#64;Override
+ * public void testStarted(Description description) {
+ *   RunMetadata run = RunMetadata.of(description);
+ *   if (run != null) {
+ *     Object size = run.getParameters().get(0);
+ *     ...
+ *   }
+ * }
+ * </pre>
+ *
+ * It's carried as one of the description's annotations, next to the test
+ * method's own, so nothing has to be parsed back out of the description's
+ * name. Like any annotation it can't be changed, and two are equal if they
+ * describe the same run. What was measured is in the run's
+ * {@link RunRecord}, once the run has finished.
+ */
+public final class RunMetadata implements Annotation, Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final String methodName;
+
+  /**
+   * The parameter values, if they were given when this was made; null if
+   * they're looked up in {@link #space} when they're asked for, so the
+   * metadata of a run that isn't running is as small as the run.
+   */
+  private final List<Object> parameters;
+
+  /**
+   * The test method's parameter combinations, if {@link #parameters} is null.
+   */
+  private final transient ParameterSpace space;
+
+  /**
+   * The number of the run's combination in {@link #space}.
+   */
+  private final transient int combination;
+
+  private final List<Varying> varyingAnnotations;
+  private final int trial;
+
+  /**
+   * Creates the metadata of a run with the given parameter values.
+   *
+   * @param methodName
+   *          the name of the test method
+   * @param parameters
+   *          the values of its varying parameters
+   * @param varyingAnnotations
+   *          the annotations of those parameters, in the same order
+   * @param trial
+   *          which repetition of the parameter combination the run is,
+   *          starting at 1
+   */
+  RunMetadata(String methodName, Object[] parameters, List<Varying> varyingAnnotations, int trial) {
+    this.methodName = methodName;
+    this.parameters = Collections.unmodifiableList(Arrays.asList(parameters.clone()));
+    this.space = null;
+    this.combination = 0;
+    this.varyingAnnotations = varyingAnnotations;
+    this.trial = trial;
+  }
+
+  /**
+   * Creates the metadata of a run of one of the combinations in the given
+   * space.
+   *
+   * @param space
+   *          the test method's parameter combinations
+   * @param combination
+   *          the number of the run's combination in the space
+   * @param varyingAnnotations
+   *          the annotations of the test method's varying parameters, in
+   *          parameter order
+   * @param trial
+   *          which repetition of the parameter combination the run is,
+   *          starting at 1
+   */
+  RunMetadata(ParameterSpace space, int combination, List<Varying> varyingAnnotations, int trial) {
+    this.methodName = space.getMethod().getName();
+    this.parameters = null;
+    this.space = space;
+    this.combination = combination;
+    this.varyingAnnotations = varyingAnnotations;
+    this.trial = trial;
+  }
+
+  /**
+   * Returns the metadata of the run the given description describes, or null
+   * if it isn't a run of a PerfRunner test method.
+   */
+  public static RunMetadata of(Description description) {
+    return description.getAnnotation(RunMetadata.class);
+  }
+
+  public String getMethodName() {
+    return methodName;
+  }
+
+  /**
+   * Returns an unmodifiable list of the values of the test method's varying
+   * parameters in this run, boxed as the parameters' own types (Integer,
+   * Long, Double, String or an enum).
+   */
+  public List<Object> getParameters() {
+    if (parameters == null) {
+      return Collections.unmodifiableList(Arrays.asList(space.parametersOf(combination)));
+    }
+    return parameters;
+  }
+
+  /**
+   * Returns an unmodifiable list of the Varying annotations of the test
+   * method's varying parameters, in the same order as
+   * {@link #getParameters()}.
+   */
+  public List<Varying> getVaryingAnnotations() {
+    return varyingAnnotations;
+  }
+
+  /**
+   * Returns which repetition of the parameter combination this run is,
+   * starting at 1.
+   */
+  public int getTrial() {
+    return trial;
+  }
+
+  @Override
+  public Class<? extends Annotation> annotationType() {
+    return RunMetadata.class;
+  }
+
+  /**
+   * Returns true if the given object is the metadata of a run of a method
+   * with the same name, parameter values and annotations, in the same trial.
+   */
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == this) {
+      return true;
+    }
+    if (!(obj instanceof RunMetadata)) {
+      return false;
+    }
+    RunMetadata other = (RunMetadata) obj;
+    return methodName.equals(other.methodName) && getParameters().equals(other.getParameters()) &&
+        varyingAnnotations.equals(other.varyingAnnotations) && trial == other.trial;
+  }
+
+  /**
+   * Returns the hash code {@link Annotation#hashCode()} defines, treating the
+   * getters as the annotation's members.
+   */
+  @Override
+  public int hashCode() {
+    return ((127 * "methodName".hashCode()) ^ methodName.hashCode()) +
+        ((127 * "parameters".hashCode()) ^ getParameters().hashCode()) +
+        ((127 * "varyingAnnotations".hashCode()) ^ varyingAnnotations.hashCode()) +
+        ((127 * "trial".hashCode()) ^ trial);
+  }
+
+  @Override
+  public String toString() {
+    return "@" + RunMetadata.class.getName() + "(methodName=" + methodName + ", parameters=" + getParameters() +
+        ", trial=" + trial + ")";
+  }
+
+  /**
+   * Serializes the parameter values themselves, because the space they come
+   * from can't be serialized.
+   */
+  private Object writeReplace() {
+    if (parameters == null) {
+      return new RunMetadata(methodName, space.parametersOf(combination), varyingAnnotations, trial);
+    }
+    return this;
+  }
+}
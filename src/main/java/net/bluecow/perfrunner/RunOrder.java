@@ -0,0 +1,145 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * The order the runs of each test method are made in, as chosen by the
+ * {@value #ORDER_PROPERTY} system property. Running every trial of one
+ * combination after another, with the first parameter changing fastest,
+ * lines slow drifts (thermal throttling, heap growth, the JIT compiler's
+ * profile filling up with the types seen so far) up with the X axis, where
+ * they look like a trend. The other orders spread them across the chart as
+ * noise instead.
+ * <p>
+ * Whatever the order, the trials of each parameter combination run in trial
+ * number order, so the first one is still the one that's warmed up and the
+ * last one is still the one that's compared with the baseline.
+ */
+enum RunOrder {
+
+  /**
+   * Combinations in the order they're declared, each with all its trials in
+   * a row. This is the default.
+   */
+  DECLARED,
+
+  /**
+   * The first trial of every combination of the test method, then the
+   * second trial of each, and so on.
+   */
+  INTERLEAVED,
+
+  /**
+   * A random order of combinations and trials, seeded by the
+   * {@value #SEED_PROPERTY} system property (default 0) so it can be
+   * repeated.
+   */
+  RANDOM;
+
+  static final String ORDER_PROPERTY = "perfrunner.order";
+  static final String SEED_PROPERTY = "perfrunner.seed";
+
+  /**
+   * Returns the order chosen by the system properties.
+   *
+   * @throws IllegalArgumentException
+   *           if the {@value #ORDER_PROPERTY} property isn't the name of an
+   *           order.
+   */
+  static RunOrder fromSystemProperties() {
+    String order = System.getProperty(ORDER_PROPERTY, "").trim();
+    if (order.isEmpty()) {
+      return DECLARED;
+    }
+    try {
+      return valueOf(order.toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException(
+          ORDER_PROPERTY + " is \"" + order + "\", but it must be declared, interleaved or random");
+    }
+  }
+
+  /**
+   * Returns the random seed chosen by the system properties.
+   */
+  static long seed() {
+    return Long.getLong(SEED_PROPERTY, 0);
+  }
+
+  /**
+   * Returns the given runs rearranged into this order.
+   *
+   * @param runs
+   *          the indexes of the runs, in increasing order, in a list of runs
+   *          that puts the trials of each combination together in trial
+   *          number order
+   * @param trials
+   *          the number of trials of each combination in that list, so the
+   *          run at index {@code i} is of combination {@code i / trials}
+   * @return the same indexes in this order, which may be {@code runs} itself
+   */
+  int[] arrange(int[] runs, int trials) {
+    if (this == DECLARED || runs.length == 0) {
+      return runs;
+    }
+
+    // where each combination's runs start, and how many there are
+    int[] starts = new int[runs.length];
+    int[] sizes = new int[runs.length];
+    int combinations = 0;
+    for (int i = 0; i < runs.length; i++) {
+      if (i == 0 || runs[i] / trials != runs[i - 1] / trials) {
+        starts[combinations++] = i;
+      }
+      sizes[combinations - 1]++;
+    }
+
+    // a slot for each trial, naming only its combination: the nth slot for a
+    // combination is filled by its nth trial, whatever order the slots are in
+    int[] slots = new int[runs.length];
+    int filled = 0;
+    for (int round = 0; filled < runs.length; round++) {
+      for (int c = 0; c < combinations; c++) {
+        if (round < sizes[c]) {
+          slots[filled++] = c;
+        }
+      }
+    }
+    if (this == RANDOM) {
+      // the same swaps Collections.shuffle makes, so a seed gives the order it always has
+      Random random = new Random(seed());
+      for (int i = slots.length; i > 1; i--) {
+        int j = random.nextInt(i);
+        int slot = slots[i - 1];
+        slots[i - 1] = slots[j];
+        slots[j] = slot;
+      }
+    }
+
+    int[] arranged = new int[runs.length];
+    int[] trialsArranged = new int[combinations];
+    for (int i = 0; i < slots.length; i++) {
+      int c = slots[i];
+      arranged[i] = runs[starts[c] + trialsArranged[c]++];
+    }
+    return arranged;
+  }
+}
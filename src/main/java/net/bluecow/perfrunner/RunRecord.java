@@ -0,0 +1,249 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.RunListener;
+
+/**
+ * One measured test run: which test method ran with which parameter values,
+ * and what was measured. A run record can't be changed. Each run is given to
+ * the {@link ResultSink}s as it's recorded, and any {@link RunListener} can
+ * look it up by the run's description (the one it hears about, or an equal
+ * one from the runner's description tree) from when the run has finished
+ * until it hears that the whole test run has finished:
+ *
+ * <pre>
+ * &#64;Override
+ * public void testFinished(Description description) {
+ *   RunRecord run = RunRecord.of(description);
+ *   if (run != null) {
+ *     Double nanosPerOp = run.getMetrics().get("Nanoseconds per operation");
+ *     ...
+ *   }
+ * }
+ * </pre>
+ */
+public final class RunRecord {
+
+  /**
+   * The record of each run that's been measured, by its description, until
+   * its test class's records are {@link #forget(String) forgotten}.
+   */
+  private static final Map<Description, RunRecord> RECORDED = new HashMap<Description, RunRecord>();
+
+  private final PerfRunDescription desc;
+  private final RunStats runStats;
+  private final int warmupIterations;
+  private final long warmupCompilationMillis;
+
+  /**
+   * The values of the metrics that apply to the run.
+   */
+  private final Map<String, Double> metrics;
+
+  RunRecord(PerfRunDescription desc, RunStats runStats, int warmupIterations, long warmupCompilationMillis) {
+    this.desc = desc;
+    this.runStats = runStats;
+    this.warmupIterations = warmupIterations;
+    this.warmupCompilationMillis = warmupCompilationMillis;
+    this.metrics = Metric.valuesOf(runStats);
+  }
+
+  /**
+   * Returns the record of the latest measurement of the run the given
+   * description describes, or null if it isn't a run of a PerfRunner test
+   * method or hasn't been measured. Runs are measured by the time listeners
+   * hear they've finished.
+   */
+  public static RunRecord of(Description description) {
+    synchronized (RECORDED) {
+      return RECORDED.get(description);
+    }
+  }
+
+  /**
+   * Makes the given record the one {@link #of(Description)} returns for the
+   * given description.
+   */
+  static void recorded(Description description, RunRecord record) {
+    synchronized (RECORDED) {
+      RECORDED.put(description, record);
+    }
+  }
+
+  /**
+   * Forgets the records of the given test class's runs. {@link PerfRunner}
+   * does this when the class's test run starts, and again once every
+   * listener has heard that it finished.
+   */
+  static void forget(String className) {
+    synchronized (RECORDED) {
+      Iterator<RunRecord> records = RECORDED.values().iterator();
+      while (records.hasNext()) {
+        if (records.next().getClassName().equals(className)) {
+          records.remove();
+        }
+      }
+    }
+  }
+
+  PerfRunDescription description() {
+    return desc;
+  }
+
+  RunStats runStats() {
+    return runStats;
+  }
+
+  public String getClassName() {
+    return desc.getClassName();
+  }
+
+  public String getMethodName() {
+    return desc.getMethodName();
+  }
+
+  /**
+   * Returns an unmodifiable list of the names of the test method's varying
+   * parameters.
+   */
+  public List<String> getParameterNames() {
+    List<String> names = new ArrayList<String>();
+    for (Varying v : desc.getParamAnnotations()) {
+      names.add(v.name());
+    }
+    return Collections.unmodifiableList(names);
+  }
+
+  /**
+   * Returns an unmodifiable list of the values of the test method's varying
+   * parameters in this run, in the same order as {@link #getParameterNames()}.
+   * Values that aren't numbers (enum constants and strings) are NaN; see
+   * {@link #getParameterLabels()}.
+   */
+  public List<Double> getParameterValues() {
+    return desc.getParamValues();
+  }
+
+  /**
+   * Returns an unmodifiable list of the values of the test method's varying
+   * parameters in this run, as text.
+   */
+  public List<String> getParameterLabels() {
+    return desc.getParamLabels();
+  }
+
+  /**
+   * Returns which repetition of the parameter combination this run was,
+   * starting at 1.
+   */
+  public int getTrial() {
+    return desc.getTrial();
+  }
+
+  /**
+   * Returns the run's execution time in nanoseconds.
+   */
+  public long getNanoTime() {
+    return runStats.nanoTime();
+  }
+
+  /**
+   * Returns the number of operations the run performed in throughput mode,
+   * or 0 if it was a single-shot run.
+   */
+  public long getOperations() {
+    return runStats.operations();
+  }
+
+  /**
+   * Returns the time the throughput-mode operations took, in nanoseconds.
+   */
+  public long getOperationNanos() {
+    return runStats.operationNanos();
+  }
+
+  /**
+   * Returns the change in heap usage (in bytes) over the course of the run.
+   */
+  public long getHeapInUse() {
+    return runStats.heapInUse();
+  }
+
+  /**
+   * Returns the number of bytes allocated by all threads during the run, or
+   * -1 if this JVM can't measure allocation.
+   */
+  public long getAllocatedBytes() {
+    return runStats.allocatedBytes();
+  }
+
+  /**
+   * Returns the time the JIT compiler spent during the run, in milliseconds,
+   * or -1 if unknown.
+   */
+  public long getCompilationMillis() {
+    return runStats.compilationMillis();
+  }
+
+  /**
+   * Returns the number of warmup runs that preceded this run, or 0 if it
+   * wasn't warmed up.
+   */
+  public int getWarmupIterations() {
+    return warmupIterations;
+  }
+
+  /**
+   * Returns the time the JIT compiler spent during the warmup runs, in
+   * milliseconds, or -1 if unknown.
+   */
+  public long getWarmupCompilationMillis() {
+    return warmupCompilationMillis;
+  }
+
+  /**
+   * Returns the number of threads that called the test method at once in a
+   * {@link Concurrent} run, or 0 if it was called on the test's own thread.
+   */
+  public int getThreadCount() {
+    return runStats.threadCount();
+  }
+
+  /**
+   * Returns an unmodifiable map of the values the report can chart for this
+   * run, such as "Time (ms)" and "Allocated bytes per operation", followed by
+   * the values the test method recorded itself through {@link Measurements}.
+   */
+  public Map<String, Double> getMetrics() {
+    return metrics;
+  }
+
+  @Override
+  public String toString() {
+    return desc.getClassName() + "." + desc.getMethodName() + "[" + desc.getParamString() + "] #" + desc.getTrial();
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A temporary file that holds the runs recorded during a test run, so the
+ * report doesn't keep them on the heap that's being measured. Runs are
+ * appended in a compact binary form as they finish, and read back once at the
+ * end to draw the charts.
+ * <p>
+ * Each record refers to its test method by an index into a table of methods
+ * that's kept in memory, so a method's name and {@code @Varying} annotations
+ * are only held once no matter how many runs it has.
+ */
+class RunRecordFile {
+
+  /**
+   * Receives the runs read back from the file.
+   */
+  interface Visitor {
+
+    /**
+     * Called once for each recorded run, in the order they were recorded.
+     */
+    void run(PerfRunDescription desc, RunStats runStats, int warmupIterations, long warmupCompilationMillis)
+        throws IOException;
+  }
+
+  private final File file;
+  private final DataOutputStream out;
+
+  /**
+   * A sample description of each method with runs in the file. Records refer
+   * to methods by their index in this list.
+   */
+  private final List<PerfRunDescription> methods = new ArrayList<PerfRunDescription>();
+
+  public RunRecordFile() throws IOException {
+    file = File.createTempFile("perfrunner-", ".runs");
+    file.deleteOnExit();
+    out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+  }
+
+  /**
+   * Appends one run to the file.
+   */
+  public void append(PerfRunDescription desc, RunStats runStats,
+      int warmupIterations, long warmupCompilationMillis) throws IOException {
+    out.writeInt(methodIndex(desc));
+    out.writeInt(desc.getTrial());
+    for (int i = 0; i < desc.getParamValues().size(); i++) {
+      double value = desc.getParamValues().get(i);
+      String label = desc.getParamLabels().get(i);
+      out.writeDouble(value);
+      // an enum constant or string, which only its label can tell apart, or a long too big for a double
+      boolean labelled = Double.isNaN(value) || !label.equals(String.valueOf(value));
+      out.writeBoolean(labelled);
+      if (labelled) {
+        out.writeUTF(label);
+      }
+    }
+    out.writeInt(warmupIterations);
+    out.writeLong(warmupCompilationMillis);
+    runStats.writeTo(out);
+  }
+
+  private int methodIndex(PerfRunDescription desc) {
+    // the most recent method is by far the most likely
+    for (int i = methods.size() - 1; i >= 0; i--) {
+      PerfRunDescription m = methods.get(i);
+      if (m.getMethodName().equals(desc.getMethodName()) && m.getClassName().equals(desc.getClassName())) {
+        return i;
+      }
+    }
+    methods.add(desc);
+    return methods.size() - 1;
+  }
+
+  /**
+   * Finishes writing, then reads back every run in the file.
+   */
+  public void replay(Visitor visitor) throws IOException {
+    out.close();
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      for (;;) {
+        int methodIndex;
+        try {
+          methodIndex = in.readInt();
+        } catch (EOFException e) {
+          break;
+        }
+        PerfRunDescription method = methods.get(methodIndex);
+        int trial = in.readInt();
+        List<Double> paramValues = new ArrayList<Double>();
+        List<String> paramLabels = new ArrayList<String>();
+        for (int i = 0; i < method.getParamValues().size(); i++) {
+          double value = in.readDouble();
+          paramValues.add(value);
+          paramLabels.add(in.readBoolean() ? in.readUTF() : null);
+        }
+        int warmupIterations = in.readInt();
+        long warmupCompilationMillis = in.readLong();
+        RunStats runStats = RunStats.readFrom(in);
+
+        PerfRunDescription desc = new PerfRunDescription(method.getClassName(), method.getMethodName(),
+            paramValues, paramLabels, method.getParamAnnotations(), trial);
+        visitor.run(desc, runStats, warmupIterations, warmupCompilationMillis);
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Deletes the file. Nothing can be appended or replayed afterward.
+   */
+  public void delete() {
+    try {
+      out.close();
+    } catch (IOException e) {
+      // we're throwing the file away anyway
+    }
+    file.delete();
+  }
+}
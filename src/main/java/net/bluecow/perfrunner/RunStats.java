@@ -16,56 +16,627 @@
 
 package net.bluecow.perfrunner;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
-import java.lang.management.GarbageCollectorMXBean;
+import java.io.Serializable;
+import java.lang.management.CompilationMXBean;
 import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
-class RunStats {
+class RunStats implements Serializable {
+
+  private static final long serialVersionUID = 1L;
 
   private final long nanoTime;
-  private final int gcCount;
-  private final int heapInUse;
+  private final long heapInUse;
+  private final long compilationMillis;
+
+  /**
+   * The bytes allocated by all threads, or -1 if this JVM can't measure it.
+   */
+  private final long allocatedBytes;
+
+  /**
+   * The allocation counters at the start of the test. Only present in the
+   * stats returned by {@link #create()}.
+   */
+  private final transient AllocationMeter.Snapshot allocationSnapshot;
+
+  /**
+   * The garbage collection activity during the test. Only present in the
+   * stats returned by {@link #relativeToNow()}.
+   */
+  private final GcStats gc;
+
+  /**
+   * The state of the garbage collectors at the start of the test. Only present
+   * in the stats returned by {@link #create()}.
+   */
+  private final transient GcMonitor.Mark gcMark;
+
+  /**
+   * The number of operations performed in throughput mode, or 0 for a
+   * single-shot run.
+   */
+  private final long operations;
+
+  /**
+   * The time spent performing {@link #operations}. This excludes setup and
+   * teardown, so it's a little less than {@link #nanoTime}.
+   */
+  private final long operationNanos;
+
+  /**
+   * The bytes allocated while performing {@link #operations}, or -1 if this
+   * JVM can't measure it.
+   */
+  private final long operationAllocatedBytes;
+
+  /**
+   * The measurements the test method reported itself, by name.
+   */
+  private final Map<String, Double> measurements;
+
+  /**
+   * The number of times each thread called the test method in a
+   * {@link Concurrent} run; empty for a run on the test's own thread.
+   */
+  private final long[] threadOperations;
 
-  private RunStats(long timeNanos, int gcCount, int heapInUse) {
+  /**
+   * The time each thread spent making its {@link #threadOperations} calls.
+   */
+  private final long[] threadNanos;
+
+  /**
+   * The per-operation latencies the test method recorded, or null if it
+   * didn't record any.
+   */
+  private final LatencyHistogram.Snapshot latencies;
+
+  /**
+   * The count of each of the {@link HardwareCounters#EVENTS} during the test,
+   * with -1 for events that couldn't be counted, or empty if hardware counters
+   * weren't used.
+   */
+  private final long[] hardwareCounts;
+
+  /**
+   * The part of the measured time that was PerfRunner's own overhead (see
+   * {@link HarnessOverhead}), or -1 if it isn't known.
+   */
+  private final long harnessNanos;
+
+  /**
+   * Whether {@link #harnessNanos} is subtracted from the time this run
+   * reports.
+   */
+  private final boolean harnessSubtracted;
+
+  private RunStats(long timeNanos, long heapInUse, long compilationMillis,
+      long allocatedBytes, AllocationMeter.Snapshot allocationSnapshot,
+      GcStats gc, GcMonitor.Mark gcMark,
+      long operations, long operationNanos, long operationAllocatedBytes,
+      Map<String, Double> measurements, long[] threadOperations, long[] threadNanos,
+      LatencyHistogram.Snapshot latencies, long[] hardwareCounts, long harnessNanos, boolean harnessSubtracted) {
     this.nanoTime = timeNanos;
-    this.gcCount = gcCount;
     this.heapInUse = heapInUse;
+    this.compilationMillis = compilationMillis;
+    this.allocatedBytes = allocatedBytes;
+    this.allocationSnapshot = allocationSnapshot;
+    this.gc = gc;
+    this.gcMark = gcMark;
+    this.operations = operations;
+    this.operationNanos = operationNanos;
+    this.operationAllocatedBytes = operationAllocatedBytes;
+    this.measurements = measurements;
+    this.threadOperations = threadOperations;
+    this.threadNanos = threadNanos;
+    this.latencies = latencies;
+    this.hardwareCounts = hardwareCounts;
+    this.harnessNanos = harnessNanos;
+    this.harnessSubtracted = harnessSubtracted;
   }
 
+  /**
+   * Records the state of the JVM at the start of a test. The returned stats
+   * must eventually be passed through {@link #relativeToNow()}, which stops
+   * the GC monitoring this starts.
+   */
   public static RunStats create() {
-    int gcTotal = 0;
-    for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
-      gcTotal += gcBean.getCollectionCount();
-    }
+    GcMonitor.Mark gcMark = GcMonitor.mark();
 
+    // allocation is read last, so the other readings don't count toward it
+    long heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    long compilationMillis = totalCompilationMillis();
     return new RunStats(
         System.nanoTime(),
-        gcTotal,
-        (int) ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+        heapUsed,
+        compilationMillis,
+        -1,
+        AllocationMeter.snapshot(),
+        null,
+        gcMark,
+        0, 0, -1,
+        Collections.<String, Double>emptyMap(),
+        new long[0], new long[0], null, new long[0], -1, false);
   }
 
+  /**
+   * Returns the change in the JVM's state since these stats were created by
+   * {@link #create()}.
+   */
   public RunStats relativeToNow() {
-    RunStats now = RunStats.create();
-    return new RunStats(now.nanoTime - nanoTime,
-        now.gcCount - gcCount,
-        now.heapInUse - heapInUse);
+    long allocatedBytes = AllocationMeter.allocatedSince(allocationSnapshot);
+    long now = System.nanoTime();
+    long heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    long nowCompilationMillis = totalCompilationMillis();
+
+    // this may wait for late GC notifications, so it comes after the timing
+    GcStats gcSinceStart = GcMonitor.since(gcMark);
+    return new RunStats(now - nanoTime,
+        heapUsed - heapInUse,
+        compilationMillis < 0 ? -1 : nowCompilationMillis - compilationMillis,
+        allocatedBytes,
+        null,
+        gcSinceStart,
+        null,
+        0, 0, -1,
+        Collections.<String, Double>emptyMap(),
+        new long[0], new long[0], null, new long[0], -1, false);
+  }
+
+  /**
+   * Returns a copy of these stats that also records the given throughput-mode
+   * operation count.
+   *
+   * @param operations
+   *          the number of times the test method was called
+   * @param operationNanos
+   *          the time those calls took, in nanoseconds
+   * @param operationAllocatedBytes
+   *          the bytes allocated during those calls, or -1 if unknown
+   */
+  public RunStats withOperations(long operations, long operationNanos, long operationAllocatedBytes) {
+    return new RunStats(nanoTime, heapInUse, compilationMillis,
+        allocatedBytes, allocationSnapshot, gc, gcMark, operations, operationNanos, operationAllocatedBytes,
+        measurements, threadOperations, threadNanos, latencies, hardwareCounts, harnessNanos, harnessSubtracted);
+  }
+
+  /**
+   * Returns a copy of these stats that also records the given measurements,
+   * which the test method reported itself.
+   *
+   * @param measurements
+   *          the value of each measurement, by name
+   */
+  public RunStats withMeasurements(Map<String, Double> measurements) {
+    return new RunStats(nanoTime, heapInUse, compilationMillis,
+        allocatedBytes, allocationSnapshot, gc, gcMark, operations, operationNanos, operationAllocatedBytes,
+        Collections.unmodifiableMap(new LinkedHashMap<String, Double>(measurements)),
+        threadOperations, threadNanos, latencies, hardwareCounts, harnessNanos, harnessSubtracted);
+  }
+
+  /**
+   * Returns a copy of these stats that also records what each thread of a
+   * {@link Concurrent} run did.
+   *
+   * @param threadOperations
+   *          the number of times each thread called the test method
+   * @param threadNanos
+   *          the time each thread's calls took, in nanoseconds
+   */
+  public RunStats withThreads(long[] threadOperations, long[] threadNanos) {
+    return new RunStats(nanoTime, heapInUse, compilationMillis,
+        allocatedBytes, allocationSnapshot, gc, gcMark, operations, operationNanos, operationAllocatedBytes,
+        measurements, threadOperations.clone(), threadNanos.clone(), latencies, hardwareCounts, harnessNanos, harnessSubtracted);
+  }
+
+  /**
+   * Returns a copy of these stats that also records the given per-operation
+   * latencies, which the test method reported itself.
+   */
+  public RunStats withLatencies(LatencyHistogram.Snapshot latencies) {
+    return new RunStats(nanoTime, heapInUse, compilationMillis,
+        allocatedBytes, allocationSnapshot, gc, gcMark, operations, operationNanos, operationAllocatedBytes,
+        measurements, threadOperations, threadNanos, latencies, hardwareCounts, harnessNanos, harnessSubtracted);
+  }
+
+  /**
+   * Returns a copy of these stats that also records the given hardware
+   * counts.
+   *
+   * @param hardwareCounts
+   *          the count of each of the {@link HardwareCounters#EVENTS}, or -1
+   *          for events that couldn't be counted
+   */
+  public RunStats withHardwareCounts(long[] hardwareCounts) {
+    return new RunStats(nanoTime, heapInUse, compilationMillis,
+        allocatedBytes, allocationSnapshot, gc, gcMark, operations, operationNanos, operationAllocatedBytes,
+        measurements, threadOperations, threadNanos, latencies, hardwareCounts.clone(), harnessNanos, harnessSubtracted);
+  }
+
+  /**
+   * Returns a copy of these stats that also records how much of the measured
+   * time was PerfRunner's own overhead.
+   *
+   * @param harnessNanos
+   *          the overhead, in nanoseconds
+   * @param subtract
+   *          whether to subtract the overhead from the time these stats
+   *          report
+   */
+  public RunStats withHarnessOverhead(long harnessNanos, boolean subtract) {
+    return new RunStats(nanoTime, heapInUse, compilationMillis,
+        allocatedBytes, allocationSnapshot, gc, gcMark, operations, operationNanos, operationAllocatedBytes,
+        measurements, threadOperations, threadNanos, latencies, hardwareCounts, harnessNanos, subtract);
+  }
+
+  /**
+   * Returns the accumulated time the JIT compiler has spent compiling, or -1
+   * if this JVM doesn't have a JIT compiler or can't monitor its compilation
+   * time.
+   */
+  public static long totalCompilationMillis() {
+    CompilationMXBean compiler = ManagementFactory.getCompilationMXBean();
+    if (compiler == null || !compiler.isCompilationTimeMonitoringSupported()) {
+      return -1;
+    }
+    return compiler.getTotalCompilationTime();
   }
 
   /**
    * Returns the test execution time in milliseconds. The value is likely to
    * include fractional milliseconds, because the number was measured using
-   * System.nanoTime().
+   * System.nanoTime(). If the harness overhead is being subtracted, it's
+   * subtracted from this (but never below zero).
    */
   public double timeMillis() {
+    if (harnessSubtracted && !hasOperations()) {
+      return Math.max(0, nanoTime - harnessNanos) / 1000000.0;
+    }
     return nanoTime / 1000000.0;
   }
 
+  /**
+   * Returns the test execution time in nanoseconds.
+   */
+  public long nanoTime() {
+    return nanoTime;
+  }
+
+  /**
+   * Returns true if these stats came from a throughput-mode run.
+   */
+  public boolean hasOperations() {
+    return operations > 0;
+  }
+
+  /**
+   * Returns the number of operations performed in throughput mode, or 0 for a
+   * single-shot run.
+   */
+  public long operations() {
+    return operations;
+  }
+
+  /**
+   * Returns the time the throughput-mode operations took, in nanoseconds.
+   */
+  public long operationNanos() {
+    return operationNanos;
+  }
+
+  /**
+   * Returns the throughput-mode operation rate, in operations per second.
+   */
+  public double operationsPerSecond() {
+    return operations * 1000000000.0 / measuredOperationNanos();
+  }
+
+  /**
+   * Returns the average throughput-mode time per operation, in nanoseconds.
+   */
+  public double nanosPerOperation() {
+    return measuredOperationNanos() / (double) operations;
+  }
+
+  /**
+   * Returns the time the throughput-mode operations took, less the harness
+   * overhead if it's being subtracted (but never less than a nanosecond).
+   */
+  private long measuredOperationNanos() {
+    if (harnessSubtracted) {
+      return Math.max(1, operationNanos - harnessNanos);
+    }
+    return operationNanos;
+  }
+
+  /**
+   * Returns how much of the measured time was PerfRunner's own overhead, in
+   * nanoseconds, or -1 if it isn't known.
+   */
+  public long harnessNanos() {
+    return harnessNanos;
+  }
+
+  /**
+   * Returns true if the {@link #harnessNanos() harness overhead} is subtracted
+   * from the time these stats report.
+   */
+  public boolean isHarnessSubtracted() {
+    return harnessSubtracted;
+  }
+
+  /**
+   * Returns the number of garbage collections that happened during the test.
+   */
+  public long gcCount() {
+    return gc.totalCount();
+  }
+
+  /**
+   * Returns the per-collector counts and times, and the details of each
+   * collection, for the garbage collections that happened during the test.
+   */
+  public GcStats gc() {
+    return gc;
+  }
+
+  /**
+   * Returns the change in heap usage (in bytes) over the course of the test.
+   */
+  public long heapInUse() {
+    return heapInUse;
+  }
+
+  /**
+   * Returns the number of bytes allocated by all threads during the test, or
+   * -1 if this JVM can't measure allocation.
+   */
+  public long allocatedBytes() {
+    return allocatedBytes;
+  }
+
+  /**
+   * Returns the bytes allocated per operation: the total allocated bytes for
+   * a single-shot run, or the bytes allocated by the measured calls divided by
+   * the operation count in throughput mode. Returns -1 if this JVM can't
+   * measure allocation.
+   */
+  public double allocatedBytesPerOperation() {
+    if (hasOperations()) {
+      return operationAllocatedBytes < 0 ? -1 : operationAllocatedBytes / (double) operations;
+    }
+    return allocatedBytes;
+  }
+
+  /**
+   * Returns the measurements the test method reported itself, by name, in the
+   * order they were first recorded.
+   */
+  public Map<String, Double> measurements() {
+    return measurements;
+  }
+
+  /**
+   * Returns the number of threads that called the test method at once in a
+   * {@link Concurrent} run, or 0 if it was called on the test's own thread.
+   */
+  public int threadCount() {
+    return threadOperations.length;
+  }
+
+  /**
+   * Returns the given thread's average time per call of the test method, in
+   * nanoseconds.
+   */
+  public double threadLatencyNanos(int thread) {
+    return threadNanos[thread] / (double) threadOperations[thread];
+  }
+
+  /**
+   * Returns the average of the threads' {@link #threadLatencyNanos(int)
+   * latencies}, in milliseconds.
+   */
+  public double meanThreadLatencyMillis() {
+    double total = 0;
+    for (int i = 0; i < threadCount(); i++) {
+      total += threadLatencyNanos(i);
+    }
+    return total / threadCount() / 1000000.0;
+  }
+
+  /**
+   * Returns the slowest thread's {@link #threadLatencyNanos(int) latency}, in
+   * milliseconds.
+   */
+  public double maxThreadLatencyMillis() {
+    double max = 0;
+    for (int i = 0; i < threadCount(); i++) {
+      max = Math.max(max, threadLatencyNanos(i));
+    }
+    return max / 1000000.0;
+  }
+
+  /**
+   * Returns the per-operation latencies the test method recorded with
+   * {@link Measurements#recordLatency(long)}, or null if it didn't record any.
+   */
+  public LatencyHistogram.Snapshot latencies() {
+    return latencies;
+  }
+
+  /**
+   * Returns true if hardware counters were used during the test.
+   */
+  public boolean hasHardwareCounts() {
+    return hardwareCounts.length > 0;
+  }
+
+  /**
+   * Returns the count of the given {@link HardwareCounters} event during the
+   * test, or -1 if it wasn't counted.
+   */
+  public long hardwareCount(int event) {
+    return hasHardwareCounts() ? hardwareCounts[event] : -1;
+  }
+
+  /**
+   * Returns the count of the given {@link HardwareCounters} event per
+   * operation: the count for the whole run for a single-shot run, or the count
+   * divided by the operation count in throughput mode. Returns -1 if the event
+   * wasn't counted.
+   */
+  public double hardwareCountPerOperation(int event) {
+    long count = hardwareCount(event);
+    if (count < 0) {
+      return -1;
+    }
+    return hasOperations() ? count / (double) operations : count;
+  }
+
+  /**
+   * Returns the number of instructions executed per CPU cycle, or -1 if
+   * either wasn't counted.
+   */
+  public double instructionsPerCycle() {
+    long cycles = hardwareCount(HardwareCounters.CYCLES);
+    long instructions = hardwareCount(HardwareCounters.INSTRUCTIONS);
+    return cycles <= 0 || instructions < 0 ? -1 : instructions / (double) cycles;
+  }
+
+  /**
+   * Returns the time the JIT compiler spent compiling during the test, or -1
+   * if compilation time isn't available in this JVM.
+   */
+  public long compilationMillis() {
+    return compilationMillis;
+  }
+
+  /**
+   * Writes these statistics to {@code out} in a compact binary form that
+   * {@link #readFrom(DataInput)} can read back. Only stats from
+   * {@link #relativeToNow()} can be written.
+   */
+  public void writeTo(DataOutput out) throws IOException {
+    out.writeLong(nanoTime);
+    out.writeLong(heapInUse);
+    out.writeLong(compilationMillis);
+    out.writeLong(allocatedBytes);
+    out.writeLong(operations);
+    out.writeLong(operationNanos);
+    out.writeLong(operationAllocatedBytes);
+    gc.writeTo(out);
+    out.writeInt(measurements.size());
+    for (Map.Entry<String, Double> e : measurements.entrySet()) {
+      out.writeUTF(e.getKey());
+      out.writeDouble(e.getValue());
+    }
+    out.writeInt(threadOperations.length);
+    for (int i = 0; i < threadOperations.length; i++) {
+      out.writeLong(threadOperations[i]);
+      out.writeLong(threadNanos[i]);
+    }
+    out.writeBoolean(latencies != null);
+    if (latencies != null) {
+      latencies.writeTo(out);
+    }
+    out.writeInt(hardwareCounts.length);
+    for (long count : hardwareCounts) {
+      out.writeLong(count);
+    }
+    out.writeLong(harnessNanos);
+    out.writeBoolean(harnessSubtracted);
+  }
+
+  /**
+   * Reads statistics written by {@link #writeTo(DataOutput)}.
+   */
+  public static RunStats readFrom(DataInput in) throws IOException {
+    long nanoTime = in.readLong();
+    long heapInUse = in.readLong();
+    long compilationMillis = in.readLong();
+    long allocatedBytes = in.readLong();
+    long operations = in.readLong();
+    long operationNanos = in.readLong();
+    long operationAllocatedBytes = in.readLong();
+    GcStats gc = GcStats.readFrom(in);
+    int measurementCount = in.readInt();
+    Map<String, Double> measurements = new LinkedHashMap<String, Double>();
+    for (int i = 0; i < measurementCount; i++) {
+      measurements.put(in.readUTF(), in.readDouble());
+    }
+    int threadCount = in.readInt();
+    long[] threadOperations = new long[threadCount];
+    long[] threadNanos = new long[threadCount];
+    for (int i = 0; i < threadCount; i++) {
+      threadOperations[i] = in.readLong();
+      threadNanos[i] = in.readLong();
+    }
+    LatencyHistogram.Snapshot latencies = in.readBoolean() ? LatencyHistogram.Snapshot.readFrom(in) : null;
+    long[] hardwareCounts = new long[in.readInt()];
+    for (int i = 0; i < hardwareCounts.length; i++) {
+      hardwareCounts[i] = in.readLong();
+    }
+    long harnessNanos = in.readLong();
+    boolean harnessSubtracted = in.readBoolean();
+    return new RunStats(nanoTime, heapInUse, compilationMillis, allocatedBytes, null, gc, null,
+        operations, operationNanos, operationAllocatedBytes, Collections.unmodifiableMap(measurements),
+        threadOperations, threadNanos, latencies, hardwareCounts, harnessNanos, harnessSubtracted);
+  }
+
   /**
    * Appends a JavaScript object literal representation of the run statistics to {@code sb}.
    *
    * @param sb target for the generated JavaScript
    */
   public void appendTo(Appendable sb) throws IOException {
-    sb.append("{ nanoTime: " + nanoTime + ", gcCount: " + gcCount + ", heapInUse: " + heapInUse + "}");
+    sb.append("{ ");
+    appendFieldsTo(sb);
+    sb.append("}");
+  }
+
+  /**
+   * Appends the run statistics to {@code sb} as the comma-separated properties
+   * of a JavaScript object literal, without the surrounding braces.
+   *
+   * @param sb target for the generated JavaScript
+   */
+  public void appendFieldsTo(Appendable sb) throws IOException {
+    sb.append("nanoTime: " + nanoTime + ", heapInUse: " + heapInUse +
+        ", allocatedBytes: " + allocatedBytes + ", compilationMillis: " + compilationMillis + ", ");
+    gc.appendFieldsTo(sb);
+    if (hasOperations()) {
+      sb.append(", operations: " + operations + ", opsPerSecond: " + operationsPerSecond() +
+          ", nsPerOp: " + nanosPerOperation() + ", bytesPerOp: " + allocatedBytesPerOperation());
+    }
+    if (threadCount() > 0) {
+      sb.append(", threads: " + threadCount() + ", meanThreadLatencyMillis: " + meanThreadLatencyMillis() +
+          ", maxThreadLatencyMillis: " + maxThreadLatencyMillis());
+    }
+    if (latencies != null) {
+      sb.append(", latencyCount: " + latencies.totalCount() +
+          ", latencyP50Millis: " + latencies.percentile(50) / 1000000.0 +
+          ", latencyP99Millis: " + latencies.percentile(99) / 1000000.0 +
+          ", latencyMaxMillis: " + latencies.percentile(100) / 1000000.0);
+    }
+    for (int event = 0; event < hardwareCounts.length; event++) {
+      if (hardwareCounts[event] >= 0) {
+        sb.append(", " + HardwareCounters.KEYS.get(event) + ": " + hardwareCounts[event]);
+      }
+    }
+    if (instructionsPerCycle() >= 0) {
+      sb.append(", ipc: " + instructionsPerCycle());
+    }
+    if (harnessNanos >= 0) {
+      sb.append(", harnessNanos: " + harnessNanos + ", harnessSubtracted: " + harnessSubtracted);
+    }
+    for (Map.Entry<String, Double> e : measurements.entrySet()) {
+      sb.append(", " + PerformanceReportBuilder.javascriptString(e.getKey()) + ": " + e.getValue());
+    }
   }
 }
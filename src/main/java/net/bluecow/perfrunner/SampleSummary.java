@@ -0,0 +1,139 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import java.util.Arrays;
+
+/**
+ * Descriptive statistics over a set of repeated measurements. Instances are
+ * immutable.
+ */
+class SampleSummary {
+
+  private final double[] sorted;
+  private final double mean;
+  private final double stdDev;
+
+  /**
+   * Summarizes the given samples. The array is copied, so the caller is free to
+   * modify it afterward.
+   *
+   * @param samples
+   *          the observations to summarize. Must contain at least one value.
+   */
+  public SampleSummary(double[] samples) {
+    if (samples.length == 0) {
+      throw new IllegalArgumentException("Can't summarize an empty sample set");
+    }
+    sorted = samples.clone();
+    Arrays.sort(sorted);
+
+    double sum = 0;
+    for (double s : sorted) {
+      sum += s;
+    }
+    mean = sum / sorted.length;
+
+    double sumOfSquares = 0;
+    for (double s : sorted) {
+      sumOfSquares += (s - mean) * (s - mean);
+    }
+    stdDev = sorted.length > 1 ? Math.sqrt(sumOfSquares / (sorted.length - 1)) : 0.0;
+  }
+
+  public int count() {
+    return sorted.length;
+  }
+
+  public double min() {
+    return sorted[0];
+  }
+
+  public double max() {
+    return sorted[sorted.length - 1];
+  }
+
+  public double mean() {
+    return mean;
+  }
+
+  public double median() {
+    return percentile(50);
+  }
+
+  /**
+   * Returns the sample standard deviation (with Bessel's correction), or 0 if
+   * there is only one sample.
+   */
+  public double stdDev() {
+    return stdDev;
+  }
+
+  /**
+   * Returns the given percentile of the samples, linearly interpolating between
+   * the two closest ranks when it falls between two observations.
+   *
+   * @param p
+   *          the percentile to compute, from 0 to 100 inclusive.
+   */
+  public double percentile(double p) {
+    if (p < 0 || p > 100) {
+      throw new IllegalArgumentException("Percentile out of range: " + p);
+    }
+    double rank = (p / 100.0) * (sorted.length - 1);
+    int lower = (int) Math.floor(rank);
+    int upper = (int) Math.ceil(rank);
+    return sorted[lower] + (rank - lower) * (sorted[upper] - sorted[lower]);
+  }
+
+  /**
+   * Returns a confidence interval for the median of the distribution the
+   * samples came from, without assuming anything about its shape: the pair
+   * of order statistics that the binomial distribution says bracket the
+   * median with at least the given probability.
+   *
+   * @param confidence
+   *          the coverage probability, such as 0.95
+   * @return the lower and upper bounds, or null if there are too few samples
+   *         for an interval with that much confidence.
+   */
+  public double[] medianConfidenceInterval(double confidence) {
+    int n = sorted.length;
+    double tail = (1 - confidence) / 2;
+
+    // k is the largest rank with P(fewer than k samples fall below the median) <= tail.
+    // the binomial terms are stepped in logs, because 0.5^n underflows for large n
+    int k = 0;
+    double logPmf = n * Math.log(0.5);
+    double cumulative = Math.exp(logPmf);
+    while (cumulative <= tail) {
+      k++;
+      logPmf += Math.log((n - k + 1) / (double) k);
+      cumulative += Math.exp(logPmf);
+    }
+    if (k == 0) {
+      return null;
+    }
+    return new double[] { sorted[k - 1], sorted[n - k] };
+  }
+
+  @Override
+  public String toString() {
+    return "n=" + count() + " min=" + min() + " median=" + median() + " mean=" + mean +
+        " p90=" + percentile(90) + " p99=" + percentile(99) + " stdDev=" + stdDev;
+  }
+}
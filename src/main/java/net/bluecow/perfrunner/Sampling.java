@@ -0,0 +1,73 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Runs a sample of a test method's parameter combinations rather than every
+ * one of them, within an optional budget:
+ *
+ * <pre>
+ * &#64;Test
+ * &#64;Sampling(value=SamplingStrategy.ADAPTIVE, time=60000)
+ * public void lookup(&#64;Varying(name="Size", axis=X, from=1, to=1048576, step=2, geometric=true) int size,
+ *                    &#64;Varying(name="Load factor", values={"0.5", "0.75", "1.0"}) double loadFactor)
+ * </pre>
+ *
+ * Every combination still appears as a test, so the combinations that weren't
+ * chosen are reported as ignored. All the trials of a chosen combination are
+ * run. When the runs are split across forked JVMs, each fork samples the
+ * combinations it was given.
+ * <p>
+ * Can be placed on a test method or on the test class. An annotation on the
+ * method takes precedence over one on the class.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface Sampling {
+
+  /**
+   * How to choose the combinations to run.
+   */
+  public SamplingStrategy value() default SamplingStrategy.GRID;
+
+  /**
+   * The most parameter combinations to run, or 0 for no limit.
+   */
+  public int points() default 0;
+
+  /**
+   * How long to keep starting new parameter combinations, in milliseconds,
+   * or 0 for no limit. A combination that has started always runs all its
+   * trials.
+   */
+  public long time() default 0;
+
+  /**
+   * The seed for the random choices of the {@link SamplingStrategy#RANDOM}
+   * and {@link SamplingStrategy#LATIN_HYPERCUBE} strategies, so a sample can
+   * be repeated.
+   */
+  public long seed() default 0;
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+/**
+ * How a test method's parameter combinations are chosen. See {@link Sampling}.
+ */
+public enum SamplingStrategy {
+
+  /**
+   * Every combination of the varying parameters' values is run, in order.
+   * This is the default.
+   */
+  GRID,
+
+  /**
+   * Combinations are run in a random order, so stopping early (when the
+   * {@link Sampling#points()} or {@link Sampling#time()} budget runs out)
+   * leaves a uniform sample of the parameter space rather than the corner of
+   * it that happened to come first.
+   */
+  RANDOM,
+
+  /**
+   * A Latin hypercube design: the range of each varying parameter is divided
+   * into {@link Sampling#points()} strata, and each stratum of each parameter
+   * is used once. Every parameter's range is covered evenly with far fewer
+   * runs than the full grid, which makes this the strategy for methods with
+   * many varying parameters. Without a points budget, the design has as many
+   * points as the longest list of parameter values.
+   */
+  LATIN_HYPERCUBE,
+
+  /**
+   * Each chart line is first run at a coarse grid of five X values. After
+   * that, the X values in between are filled in where the line bends the
+   * most or its trials disagree the most, until the line is straight and
+   * quiet between the points that have been run, or the budget runs out.
+   */
+  ADAPTIVE
+}
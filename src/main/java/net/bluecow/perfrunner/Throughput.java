@@ -0,0 +1,45 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Puts a test method in throughput mode: rather than timing a single call, the
+ * runner calls the test method over and over for the given amount of time, and
+ * the chart shows operations per second (one call is one operation). The
+ * {@code @Before} and {@code @After} methods still run only once per trial, and
+ * their time is not counted.
+ * <p>
+ * This is meant for tight-loop microbenchmarks where a single call is too
+ * quick to time accurately. Can be placed on a test method or on the test
+ * class. An annotation on the method takes precedence over one on the class.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface Throughput {
+
+  /**
+   * How long to keep calling the test method in each trial, in milliseconds.
+   */
+  public long time() default 1000;
+}
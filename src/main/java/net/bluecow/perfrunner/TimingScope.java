@@ -0,0 +1,43 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+/**
+ * How much of each test run is timed (and counted toward its allocation and
+ * GC statistics). See {@link Timing}.
+ */
+public enum TimingScope {
+
+  /**
+   * Only the call to the test method is measured. This is the default.
+   */
+  METHOD_BODY,
+
+  /**
+   * The test method's {@code @Before} and {@code @After} methods and rules are
+   * measured along with the call to the test method.
+   */
+  WITH_FIXTURES,
+
+  /**
+   * The test class's {@code @BeforeClass} and {@code @AfterClass} methods are
+   * measured too. To make that possible, they run before and after every test
+   * run rather than once for the whole class. Can only be used on the test
+   * class.
+   */
+  WITH_CLASS_SETUP
+}
@@ -22,13 +22,45 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+/**
+ * Marks a test method parameter whose value PerfRunner varies. The test method
+ * is run with every combination of its varying parameters' values.
+ * <p>
+ * Parameters can be of type {@code int}, {@code long}, {@code double},
+ * {@code String}, or any enum. Numeric parameters take their values from the
+ * range {@link #from()}..{@link #to()}, either counting up by {@link #step()}
+ * or, if {@link #geometric()}, multiplying by it. Any parameter can take an
+ * explicit list of {@link #values()} instead, which is required for strings.
+ * An enum parameter with neither takes every constant of the enum:
+ *
+ * <pre>
+ * &#64;Varying(name="Size", axis=X, from=1024, to=16777216, step=2, geometric=true) long size,
+ * &#64;Varying(name="Load factor", values={"0.5", "0.75", "1.0"}) double loadFactor,
+ * &#64;Varying(name="Implementation") Impl impl
+ * </pre>
+ */
 @Documented
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.PARAMETER)
 public @interface Varying {
   public String name();
   public Axis axis() default Axis.SERIES;
-  public int from() default 1;
-  public int to() default 1;
-  public int step() default 1;
+  public long from() default 1;
+  public long to() default 1;
+  public long step() default 1;
+
+  /**
+   * Multiply by {@link #step()} to get from one value to the next, rather than
+   * adding it. The chart uses a logarithmic X axis for a geometric X
+   * parameter.
+   */
+  public boolean geometric() default false;
+
+  /**
+   * The values to use, written as they would be in Java source (enum
+   * constants by name). When given, {@link #from()}, {@link #to()} and
+   * {@link #step()} are ignored. String values can't contain commas or square
+   * brackets.
+   */
+  public String[] values() default {};
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Requests that each combination of varying parameter values be run a number of
+ * times without recording anything before its measured trials begin. Warmup
+ * runs go through the same {@code @Before}/{@code @After} path as measured
+ * runs, which gives the JVM a chance to load classes and JIT-compile the code
+ * under test.
+ * <p>
+ * Warming up continues until both the given number of iterations have run and
+ * the given amount of time has passed. Can be placed on a test method or on the
+ * test class. An annotation on the method takes precedence over one on the
+ * class.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface Warmup {
+
+  /**
+   * The minimum number of unrecorded runs.
+   */
+  public int iterations() default 0;
+
+  /**
+   * The minimum time to spend warming up, in milliseconds.
+   */
+  public long time() default 0;
+}
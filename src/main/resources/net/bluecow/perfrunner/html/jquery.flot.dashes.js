@@ -0,0 +1,98 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * Plugin to draw flot line series as dashed lines.
+ *
+ * To activate, set series.dashes.show to true for the series that should be
+ * dashed. The series' points are still drawn (if points.show is true), but
+ * its solid line is replaced by a dashed one. dashes.segments gives the
+ * lengths of the dashes and the gaps between them, in pixels.
+ *
+ * Works with the hiddengraphs plugin: a hidden series (points.show false) is
+ * not drawn.
+ *
+ * Example:
+ *
+ *     var plotdata = [{data: [[1, 5], [2, 6]], label: "baseline", dashes: { show: true }}];
+ *
+ *     plot = $.plot($("#placeholder"), plotdata, {
+ *        series: {
+ *             points: { show: true },
+ *             lines: { show: true }
+ *         }
+ *     });
+ */
+(function ($) {
+    var options = {
+        series: {
+            dashes: {
+                show: false,
+                segments: [6, 4]
+            }
+        }
+    };
+
+    function init(plot) {
+
+        function replaceSolidLine(plot, series, datapoints) {
+            if (series.dashes && series.dashes.show && series.points.show) {
+                series.lines.show = false;
+            }
+        }
+
+        function drawDashes(plot, ctx, series) {
+            if (!series.dashes || !series.dashes.show || !series.points.show || !ctx.setLineDash) {
+                return;
+            }
+
+            var offset = plot.getPlotOffset();
+
+            ctx.save();
+            ctx.translate(offset.left, offset.top);
+            ctx.beginPath();
+            ctx.rect(0, 0, plot.width(), plot.height());
+            ctx.clip();
+
+            ctx.strokeStyle = series.color;
+            ctx.lineWidth = series.lines.lineWidth;
+            ctx.setLineDash(series.dashes.segments);
+            ctx.beginPath();
+            for (var i = 0; i < series.data.length; i++) {
+                var x = series.xaxis.p2c(series.data[i][0]);
+                var y = series.yaxis.p2c(series.data[i][1]);
+                if (i == 0) {
+                    ctx.moveTo(x, y);
+                } else {
+                    ctx.lineTo(x, y);
+                }
+            }
+            ctx.stroke();
+            ctx.restore();
+        }
+
+        plot.hooks.processDatapoints.push(replaceSolidLine);
+        plot.hooks.drawSeries.push(drawDashes);
+    }
+
+    $.plot.plugins.push({
+        init: init,
+        options: options,
+        name: 'dashes',
+        version: '1.0'
+    });
+
+})(jQuery);
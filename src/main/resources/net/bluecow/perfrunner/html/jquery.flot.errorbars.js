@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * Plugin to draw vertical error bars on flot graphs.
+ *
+ * To activate, set series.errorBars.show to true in the flot options object.
+ * Each data point that should have an error bar carries its range as a
+ * fourth element: [x, y, anything, [low, high]]. Points without a fourth
+ * element are drawn normally.
+ *
+ * Error bars are not drawn for series that have been hidden by the
+ * hiddengraphs plugin.
+ *
+ * Example:
+ *
+ *     var plotdata = [{data: [[1, 5, {}, [4, 7]], [2, 6, {}, [5, 9]]], label: "graph 1"}];
+ *
+ *     plot = $.plot($("#placeholder"), plotdata, {
+ *        series: {
+ *             points: { show: true },
+ *             lines: { show: true },
+ *             errorBars: { show: true }
+ *         }
+ *     });
+ */
+(function ($) {
+    var options = {
+        series: {
+            errorBars: {
+                show: false,
+                capWidth: 3
+            }
+        }
+    };
+
+    function init(plot) {
+
+        function drawErrorBars(plot, ctx, series) {
+            if (!series.errorBars || !series.errorBars.show || !series.points.show) {
+                return;
+            }
+
+            var offset = plot.getPlotOffset();
+            var cap = series.errorBars.capWidth;
+
+            ctx.save();
+            ctx.translate(offset.left, offset.top);
+
+            // bars for the highest points can extend past the y axis range
+            ctx.beginPath();
+            ctx.rect(0, 0, plot.width(), plot.height());
+            ctx.clip();
+
+            ctx.strokeStyle = series.color;
+            ctx.lineWidth = 1;
+            ctx.beginPath();
+            for (var i = 0; i < series.data.length; i++) {
+                var d = series.data[i];
+                if (!d || !d[3]) {
+                    continue;
+                }
+                var x = series.xaxis.p2c(d[0]);
+                var low = series.yaxis.p2c(d[3][0]);
+                var high = series.yaxis.p2c(d[3][1]);
+
+                ctx.moveTo(x, low);
+                ctx.lineTo(x, high);
+                ctx.moveTo(x - cap, low);
+                ctx.lineTo(x + cap, low);
+                ctx.moveTo(x - cap, high);
+                ctx.lineTo(x + cap, high);
+            }
+            ctx.stroke();
+            ctx.restore();
+        }
+
+        plot.hooks.drawSeries.push(drawErrorBars);
+    }
+
+    $.plot.plugins.push({
+        init: init,
+        options: options,
+        name: 'errorBars',
+        version: '1.0'
+    });
+
+})(jQuery);
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class AllocationMeterTest {
+
+  private static volatile Object sink;
+
+  @Test
+  public void testCountsTestThread() {
+    if (!AllocationMeter.isSupported()) {
+      return;
+    }
+    AllocationMeter.Snapshot start = AllocationMeter.snapshot();
+    sink = new byte[1 << 20];
+    long allocated = AllocationMeter.allocatedSince(start);
+    assertTrue("Allocated " + allocated, allocated >= (1 << 20));
+  }
+
+  @Test
+  public void testCountsHelperThreads() throws Exception {
+    if (!AllocationMeter.isSupported()) {
+      return;
+    }
+    final AtomicLong helperAllocation = AllocationMeter.helperAllocation();
+    AllocationMeter.Snapshot start = AllocationMeter.snapshot();
+    Thread t = new Thread() {
+      @Override
+      public void run() {
+        long before = AllocationMeter.currentThreadAllocatedBytes();
+        sink = new byte[4 << 20];
+        helperAllocation.addAndGet(AllocationMeter.currentThreadAllocatedBytes() - before);
+      }
+    };
+    t.start();
+    t.join();
+    long allocated = AllocationMeter.allocatedSince(start);
+    assertTrue("Allocated " + allocated, allocated >= (4 << 20));
+  }
+
+  @Test
+  public void testIgnoresOtherThreads() throws Exception {
+    if (!AllocationMeter.isSupported()) {
+      return;
+    }
+    Thread t = new Thread() {
+      @Override
+      public void run() {
+        sink = new byte[4 << 20];
+      }
+    };
+    AllocationMeter.Snapshot start = AllocationMeter.snapshot();
+    t.start();
+    t.join();
+    long allocated = AllocationMeter.allocatedSince(start);
+    assertTrue("Allocated " + allocated, allocated < (4 << 20));
+  }
+
+  @Test
+  public void testReadingAllocatesNothing() {
+    if (!AllocationMeter.isSupported()) {
+      return;
+    }
+    AllocationMeter.Snapshot start = AllocationMeter.snapshot();
+    assertEquals(0, AllocationMeter.allocatedSince(start));
+  }
+
+  @Test
+  public void testUnsupportedSnapshot() {
+    assertEquals(-1, AllocationMeter.allocatedSince(null));
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import org.junit.runner.notification.Failure;
+
+public class BaselineTest {
+
+  @RunWith(PerfRunner.class)
+  public static class ComparedClass {
+
+    @Test
+    @Trials(5)
+    public void sleeps(@Varying(name="x", axis=Axis.X, from=1, to=2) int x) throws InterruptedException {
+      Thread.sleep(1);
+    }
+  }
+
+  private File baselineFile;
+
+  @After
+  public void cleanUp() {
+    System.clearProperty(Baseline.BASELINE_PROPERTY);
+    System.clearProperty(Baseline.FAIL_PROPERTY);
+    System.clearProperty(ForkedRunCoordinator.FORKS_PROPERTY);
+    if (baselineFile != null) {
+      baselineFile.delete();
+    }
+  }
+
+  /**
+   * Writes a baseline in which every trial of {@link ComparedClass} took a
+   * microsecond, which the current run can't match.
+   */
+  private void writeFastBaseline() throws Exception {
+    baselineFile = File.createTempFile("baseline", ".csv");
+    PrintWriter out = new PrintWriter(baselineFile);
+    out.println("class,method,parameters,trial,nanoTime,nsPerOp");
+    for (int x = 1; x <= 2; x++) {
+      for (int trial = 1; trial <= 5; trial++) {
+        out.println(ComparedClass.class.getName() + ",sleeps,x=" + (double) x + "," + trial + "," + (1000 + trial) + ",");
+      }
+    }
+    out.close();
+    System.setProperty(Baseline.BASELINE_PROPERTY, baselineFile.getPath());
+  }
+
+  @Test
+  public void testRegressionsFailLastTrial() throws Exception {
+    writeFastBaseline();
+    System.setProperty(Baseline.FAIL_PROPERTY, "true");
+
+    Result result = JUnitCore.runClasses(ComparedClass.class);
+
+    assertEquals(10, result.getRunCount());
+    assertEquals(2, result.getFailureCount());
+    assertEquals("sleeps[1] #5(" + ComparedClass.class.getName() + ")",
+        result.getFailures().get(0).getDescription().getDisplayName());
+    assertTrue(result.getFailures().get(0).getMessage().startsWith("Slower than baseline"));
+  }
+
+  @Test
+  public void testRegressionsFailLastTrialInForks() throws Exception {
+    writeFastBaseline();
+    System.setProperty(Baseline.FAIL_PROPERTY, "true");
+    System.setProperty(ForkedRunCoordinator.FORKS_PROPERTY, "2");
+
+    Result result = JUnitCore.runClasses(ComparedClass.class);
+
+    assertEquals(10, result.getRunCount());
+    assertEquals(2, result.getFailureCount());
+    Set<String> failed = new HashSet<String>();
+    for (Failure f : result.getFailures()) {
+      failed.add(f.getDescription().getDisplayName());
+      assertTrue(f.getMessage(), f.getMessage().startsWith("Slower than baseline"));
+    }
+    assertEquals(new HashSet<String>(Arrays.asList(
+        "sleeps[1] #5(" + ComparedClass.class.getName() + ")",
+        "sleeps[2] #5(" + ComparedClass.class.getName() + ")")), failed);
+  }
+
+  @Test
+  public void testRegressionsFlaggedInReport() throws Exception {
+    writeFastBaseline();
+
+    Result result = JUnitCore.runClasses(ComparedClass.class);
+
+    assertEquals(0, result.getFailureCount());
+    String html = new String(Files.readAllBytes(
+        new File("perfrunner-" + ComparedClass.class.getName() + ".html").toPath()), "UTF-8");
+    assertTrue(html.contains("Slower than baseline: sleeps[x=1.0]"));
+    assertTrue(html.contains("dashes: {show: true}"));
+  }
+
+  @Test
+  public void testExactPValue() {
+    double[] slow = { 6, 7, 8, 9, 10 };
+    double[] fast = { 1, 2, 3, 4, 5 };
+    assertEquals(1 / 252.0, Baseline.pValueGreater(slow, fast), 1e-12);
+    assertEquals(1.0, Baseline.pValueGreater(fast, slow), 1e-12);
+
+    // one of the 6 orderings of 2 vs 2 puts both a values on top
+    assertEquals(1 / 6.0, Baseline.pValueGreater(new double[] { 3, 4 }, new double[] { 1, 2 }), 1e-12);
+    // U = 2, reached or beaten by 4 of the 6 orderings
+    assertEquals(4 / 6.0, Baseline.pValueGreater(new double[] { 1, 4 }, new double[] { 2, 3 }), 1e-12);
+  }
+
+  @Test
+  public void testApproximatePValueWithTies() {
+    double[] a = new double[60];
+    double[] b = new double[60];
+    for (int i = 0; i < 60; i++) {
+      a[i] = i % 10;
+      b[i] = i % 10;
+    }
+    double p = Baseline.pValueGreater(a, b);
+    assertTrue("p=" + p, p > 0.4 && p < 0.6);
+
+    for (int i = 0; i < 60; i++) {
+      a[i] += 2;
+    }
+    p = Baseline.pValueGreater(a, b);
+    assertTrue("p=" + p, p < 0.01);
+  }
+
+  @Test
+  public void testComparesInBaselineMetric() {
+    Baseline baseline = new Baseline(0.05, false);
+    for (int i = 0; i < 5; i++) {
+      baseline.add("m[x=1.0]", Metric.NANOS_PER_OPERATION, 100 + i);
+    }
+    assertEquals(null, baseline.compare("m[x=1.0]", Metric.TIME, new double[] { 1, 2, 3 }));
+    assertEquals(null, baseline.compare("m[x=2.0]", Metric.NANOS_PER_OPERATION, new double[] { 1, 2, 3 }));
+
+    Baseline.Comparison c = baseline.compare("m[x=1.0]", Metric.NANOS_PER_OPERATION, new double[] { 200, 201, 202, 203, 204 });
+    assertTrue(c.isRegression());
+    assertEquals(102, c.getBaseline().median(), 0);
+    assertEquals(202, c.getCurrent().median(), 0);
+  }
+
+  @Test
+  public void testSubtractedOverheadIsTakenOffBaselineTimes() throws Exception {
+    baselineFile = File.createTempFile("baseline", ".csv");
+    PrintWriter out = new PrintWriter(baselineFile);
+    out.println("class,method,parameters,harnessSubtracted,trial,nanoTime,nsPerOp,harnessNanos");
+    out.println("C,m,x=1.0,true,1,5000,,1000");
+    out.println("C,m,x=2.0,false,1,5000,,1000");
+    out.println("D,m,x=1.0,,1,5000,,1000");
+    out.close();
+
+    Baseline baseline = new Baseline(0.05, false);
+    baseline.load(baselineFile, "C");
+    assertEquals(0.004, baseline.summaryFor("m[x=1.0]").median(), 1e-9);
+    assertEquals(0.005, baseline.summaryFor("m[x=2.0]").median(), 1e-9);
+
+    // a baseline from before the overhead was measured has neither column
+    out = new PrintWriter(baselineFile);
+    out.println("class,method,parameters,trial,nanoTime,nsPerOp");
+    out.println("C,m,x=1.0,1,5000,");
+    out.close();
+    baseline = new Baseline(0.05, false);
+    baseline.load(baselineFile, "C");
+    assertEquals(0.005, baseline.summaryFor("m[x=1.0]").median(), 1e-9);
+  }
+
+  @Test
+  public void testCsvSplit() {
+    assertEquals(Arrays.asList("a", "b,c", "say \"hi\"", ""),
+        CsvResultSink.split("a," + CsvResultSink.quote("b,c") + "," + CsvResultSink.quote("say \"hi\"") + ","));
+  }
+}
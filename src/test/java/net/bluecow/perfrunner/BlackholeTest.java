@@ -0,0 +1,115 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import org.junit.runners.model.InitializationError;
+
+public class BlackholeTest {
+
+  static final List<Blackhole> passedIn = new ArrayList<Blackhole>();
+
+  @RunWith(PerfRunner.class)
+  public static class Sinking {
+
+    @Test
+    public void consumes(@Varying(name="x", axis=Axis.X, from=1, to=3) int x, Blackhole bh, Measurements m) {
+      passedIn.add(bh);
+      bh.consume(x);
+      bh.consume(x * 2L);
+      bh.consume(x / 2.0);
+      bh.consume(x > 1);
+      bh.consume(Integer.toString(x));
+      m.record("x", x);
+    }
+
+    @Test
+    public StringBuilder returnsObject(@Varying(name="x", axis=Axis.X, from=1, to=2) int x) {
+      return new StringBuilder().append(x);
+    }
+  }
+
+  @RunWith(PerfRunner.class)
+  public static class TwoBlackholes {
+
+    @Test
+    public void twice(@Varying(name="x", axis=Axis.X, from=1, to=2) int x, Blackhole bh1, Blackhole bh2) {
+    }
+  }
+
+  @RunWith(PerfRunner.class)
+  public static class VaryingBlackhole {
+
+    @Test
+    public void varying(@Varying(name="bh", axis=Axis.X, from=1, to=2) Blackhole bh) {
+    }
+  }
+
+  @Test
+  public void testBlackholeIsPassedIn() {
+    passedIn.clear();
+    Result result = JUnitCore.runClasses(Sinking.class);
+    assertEquals(0, result.getFailureCount());
+    assertEquals(5, result.getRunCount());
+    assertEquals(3, passedIn.size());
+    assertTrue(passedIn.get(0) != null);
+    assertTrue(passedIn.get(0) != passedIn.get(1));
+  }
+
+  @Test
+  public void testConsumingAcceptsAnyValue() {
+    Blackhole bh = new Blackhole();
+    for (int i = -2; i < 100000; i++) {
+      bh.consume(new Object());
+      bh.consume((Object) null);
+      bh.consume(i);
+      bh.consume((long) i);
+      bh.consume((double) i);
+      bh.consume(i % 2 == 0);
+    }
+  }
+
+  @Test
+  public void testTwoBlackholesAreRejected() {
+    assertRejected(TwoBlackholes.class, "more than one Blackhole parameter");
+  }
+
+  @Test
+  public void testVaryingBlackholeIsRejected() {
+    assertRejected(VaryingBlackhole.class, "so it can't be @Varying");
+  }
+
+  private static void assertRejected(Class<?> testClass, String message) {
+    Result result = JUnitCore.runClasses(testClass);
+    assertEquals(1, result.getFailureCount());
+    Throwable error = result.getFailures().get(0).getException();
+    while (error instanceof InitializationError) {
+      error = ((InitializationError) error).getCauses().get(0);
+    }
+    assertTrue(error.getMessage(), error.getMessage().contains(message));
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import org.junit.runners.model.InitializationError;
+
+public class ConcurrentTest {
+
+  @RunWith(PerfRunner.class)
+  public static class ScalingClass {
+
+    @Test
+    @Concurrent(threadsFrom="Threads")
+    public void allThreadsAtOnce(@Varying(name="Threads", axis=Axis.X, from=1, to=4) int threads) throws Exception {
+      // every thread must reach this point before any of them can pass it
+      barriers.get(threads).await(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    @Concurrent(threads=3)
+    @Throughput(time=20)
+    public void throughput(@Varying(name="x", axis=Axis.X, from=1, to=1) int x) {
+      Math.sqrt(x);
+    }
+  }
+
+  @RunWith(PerfRunner.class)
+  public static class UnknownThreadsParam {
+
+    @Test
+    @Concurrent(threadsFrom="Thread count")
+    public void unknown(@Varying(name="Threads", axis=Axis.X, from=1, to=2) int threads) {
+    }
+  }
+
+  @RunWith(PerfRunner.class)
+  public static class AllocatingClass {
+
+    static volatile Object sink;
+
+    @Test
+    @Concurrent(threads=4)
+    public void allocate(@Varying(name="x", axis=Axis.X, from=1, to=1) int x) {
+      sink = new byte[1 << 20];
+    }
+  }
+
+  static final Map<Integer, CyclicBarrier> barriers = new HashMap<Integer, CyclicBarrier>();
+
+  @After
+  public void cleanUp() {
+    System.clearProperty(ResultSink.EXPORT_PROPERTY);
+    new File("perfrunner-" + ScalingClass.class.getName() + ".csv").delete();
+  }
+
+  @Test
+  public void testThreadsRunTogether() throws Exception {
+    for (int threads = 1; threads <= 4; threads++) {
+      barriers.put(threads, new CyclicBarrier(threads));
+    }
+    System.setProperty(ResultSink.EXPORT_PROPERTY, "csv");
+    Result result = JUnitCore.runClasses(ScalingClass.class);
+    assertEquals(0, result.getFailureCount());
+
+    List<String> lines = Files.readAllLines(
+        new File("perfrunner-" + ScalingClass.class.getName() + ".csv").toPath(), Charset.forName("UTF-8"));
+    List<String> header = CsvResultSink.split(lines.get(0));
+    int methodCol = header.indexOf("method");
+    int operationsCol = header.indexOf("operations");
+    int threadsCol = header.indexOf("threads");
+    int latencyCol = header.indexOf("maxThreadLatencyMillis");
+    for (String line : lines.subList(1, lines.size())) {
+      List<String> row = CsvResultSink.split(line);
+      if (row.get(methodCol).equals("allThreadsAtOnce")) {
+        // one call per thread
+        assertEquals(row.get(threadsCol), row.get(operationsCol));
+      } else {
+        assertEquals("3", row.get(threadsCol));
+        assertTrue(Long.parseLong(row.get(operationsCol)) > 3);
+      }
+      assertTrue(Double.parseDouble(row.get(latencyCol)) > 0);
+    }
+    assertEquals(6, lines.size());
+  }
+
+  @Test
+  public void testEveryThreadsAllocationIsCounted() {
+    if (!AllocationMeter.isSupported()) {
+      return;
+    }
+    List<RunRecord> records = WarmupTest.recordedRuns(AllocatingClass.class);
+    assertEquals(1, records.size());
+    long allocated = records.get(0).getAllocatedBytes();
+    assertTrue("Allocated " + allocated, allocated >= 4 << 20);
+  }
+
+  @Test
+  public void testUnknownThreadsParamIsRejected() {
+    Result result = JUnitCore.runClasses(UnknownThreadsParam.class);
+    assertEquals(1, result.getFailureCount());
+    Throwable error = result.getFailures().get(0).getException();
+    while (error instanceof InitializationError) {
+      error = ((InitializationError) error).getCauses().get(0);
+    }
+    assertTrue(error.getMessage(), error.getMessage().contains("no @Varying parameter with that name"));
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+
+public class ConvergeTest {
+
+  static final AtomicInteger calls = new AtomicInteger();
+
+  @RunWith(PerfRunner.class)
+  public static class SteadyClass {
+
+    @Test
+    @Converge(percent=50, maxTrials=20)
+    public void steady(@Varying(name="x", axis=Axis.X, from=1, to=1) int x) throws Exception {
+      Thread.sleep(5);
+    }
+  }
+
+  @RunWith(PerfRunner.class)
+  public static class ErraticClass {
+
+    @Test
+    @Converge(percent=10, maxTrials=8)
+    public void erratic(@Varying(name="x", axis=Axis.X, from=1, to=1) int x) throws Exception {
+      Thread.sleep(calls.incrementAndGet() % 2 == 0 ? 1 : 30);
+    }
+  }
+
+  @Test
+  public void testStableCombinationStopsEarly() throws Exception {
+    Result result = JUnitCore.runClasses(SteadyClass.class);
+    assertEquals(0, result.getFailureCount());
+    assertTrue("ran " + result.getRunCount(), result.getRunCount() >= 6);
+    assertTrue("ran " + result.getRunCount(), result.getRunCount() < 20);
+    assertEquals(20, result.getRunCount() + result.getIgnoreCount());
+  }
+
+  @Test
+  public void testNoisyCombinationRunsMaxTrials() throws Exception {
+    Result result = JUnitCore.runClasses(ErraticClass.class);
+    assertEquals(0, result.getFailureCount());
+    assertEquals(8, result.getRunCount());
+    assertEquals(0, result.getIgnoreCount());
+  }
+}
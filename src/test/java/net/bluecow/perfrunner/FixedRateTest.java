@@ -0,0 +1,100 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import org.junit.runners.model.InitializationError;
+
+public class FixedRateTest {
+
+  static final AtomicInteger calls = new AtomicInteger();
+
+  @RunWith(PerfRunner.class)
+  public static class StallingClass {
+
+    @Test
+    @FixedRate(perSecondFrom="Rate", time=200)
+    public void stallsOnce(@Varying(name="Rate", axis=Axis.X, from=1000, to=1000) int rate) throws Exception {
+      if (calls.incrementAndGet() == 50) {
+        Thread.sleep(50);
+      }
+    }
+  }
+
+  @RunWith(PerfRunner.class)
+  public static class ThroughputAndFixedRate {
+
+    @Test
+    @Throughput
+    @FixedRate(perSecond=100)
+    public void both(@Varying(name="x", axis=Axis.X, from=1, to=1) int x) {
+    }
+  }
+
+  @After
+  public void cleanUp() {
+    System.clearProperty(ResultSink.EXPORT_PROPERTY);
+    new File("perfrunner-" + StallingClass.class.getName() + ".csv").delete();
+  }
+
+  @Test
+  public void testStallDelaysQueuedCalls() throws Exception {
+    System.setProperty(ResultSink.EXPORT_PROPERTY, "csv");
+    Result result = JUnitCore.runClasses(StallingClass.class);
+    assertEquals(0, result.getFailureCount());
+
+    List<String> lines = Files.readAllLines(
+        new File("perfrunner-" + StallingClass.class.getName() + ".csv").toPath(), Charset.forName("UTF-8"));
+    List<String> header = CsvResultSink.split(lines.get(0));
+    List<String> row = CsvResultSink.split(lines.get(1));
+    assertEquals("200", row.get(header.indexOf("operations")));
+
+    // a closed loop would see one slow call; here every call scheduled during the stall waited for it
+    long delayed = 0;
+    for (String bucket : row.get(header.indexOf("latencyHistogram")).split(";")) {
+      String[] valueAndCount = bucket.split(":");
+      if (Long.parseLong(valueAndCount[0]) >= 10000000L) {
+        delayed += Long.parseLong(valueAndCount[1]);
+      }
+    }
+    assertTrue("only " + delayed + " calls were delayed", delayed >= 30);
+  }
+
+  @Test
+  public void testThroughputIsRejected() {
+    Result result = JUnitCore.runClasses(ThroughputAndFixedRate.class);
+    assertEquals(1, result.getFailureCount());
+    Throwable error = result.getFailures().get(0).getException();
+    while (error instanceof InitializationError) {
+      error = ((InitializationError) error).getCauses().get(0);
+    }
+    assertTrue(error.getMessage(), error.getMessage().contains("both @Throughput and @FixedRate"));
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import org.junit.runner.notification.RunListener;
+
+public class ForkedRunTest {
+
+  /**
+   * The test class that gets run in forks. Records which JVM ran each test by
+   * failing in any JVM but the one that's expected.
+   */
+  @RunWith(PerfRunner.class)
+  public static class ForkedClass {
+
+    private static final String PARENT_PID_PROPERTY = "forkedRunTest.parentPid";
+
+    @Test
+    public void notInParent(@Varying(name="x", axis=Axis.X, from=1, to=4) int x) {
+      String myPid = ManagementFactory.getRuntimeMXBean().getName();
+      assertTrue("Should have run in a forked JVM", !myPid.equals(System.getProperty(PARENT_PID_PROPERTY)));
+    }
+
+    @Test
+    public void failsOnce(@Varying(name="x", axis=Axis.X, from=1, to=4) int x) {
+      assertTrue("x is 3", x != 3);
+    }
+  }
+
+  @After
+  public void clearProperties() {
+    System.clearProperty(ForkedRunCoordinator.FORKS_PROPERTY);
+    System.clearProperty(ForkedRunCoordinator.JVM_ARGS_PROPERTY);
+  }
+
+  @Test
+  public void testResultsComeBackFromForks() throws Exception {
+    System.setProperty(ForkedRunCoordinator.FORKS_PROPERTY, "2");
+    System.setProperty(ForkedRunCoordinator.JVM_ARGS_PROPERTY,
+        "-D" + ForkedClass.PARENT_PID_PROPERTY + "=" + ManagementFactory.getRuntimeMXBean().getName());
+
+    final List<String> measured = Collections.synchronizedList(new ArrayList<String>());
+    JUnitCore core = new JUnitCore();
+    core.addListener(new RunListener() {
+      @Override
+      public void testFinished(Description description) {
+        RunRecord run = RunRecord.of(description);
+        if (run != null && description.getMethodName().startsWith("notInParent")) {
+          measured.add(run.getParameterLabels().toString());
+        }
+      }
+    });
+    Result result = core.run(ForkedClass.class);
+
+    // listeners can look up runs measured in forks by the time they hear they've finished
+    assertEquals(measured.toString(), 4, measured.size());
+    assertEquals(8, result.getRunCount());
+    assertEquals(1, result.getFailureCount());
+    assertEquals("failsOnce[3](" + ForkedClass.class.getName() + ")",
+        result.getFailures().get(0).getDescription().getDisplayName());
+    assertTrue(result.getFailures().get(0).getMessage().contains("x is 3"));
+    assertTrue(new File("perfrunner-" + ForkedClass.class.getName() + ".html").exists());
+  }
+
+  @Test
+  public void testCpuLists() {
+    assertEquals("0-3", ForkedRunCoordinator.cpuListFor(0, 2, 8));
+    assertEquals("4-7", ForkedRunCoordinator.cpuListFor(1, 2, 8));
+    assertEquals("2", ForkedRunCoordinator.cpuListFor(2, 3, 4));
+    assertEquals("1", ForkedRunCoordinator.cpuListFor(5, 4, 2));
+  }
+
+  private static ByteArrayInputStream serialized(Object... objects) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    for (Object o : objects) {
+      out.writeObject(o);
+    }
+    out.close();
+    return new ByteArrayInputStream(bytes.toByteArray());
+  }
+
+  @Test
+  public void testMessagesAreReadButOtherObjectsAreRefused() throws Exception {
+    RunStats runStats = RunStats.create().relativeToNow()
+        .withMeasurements(Collections.singletonMap("x", 1.0))
+        .withLatencies(new LatencyHistogram().snapshot());
+    ForkedRunCoordinator.MessageInputStream in = new ForkedRunCoordinator.MessageInputStream(serialized(
+        ForkMessage.result("a[1]", runStats, 0, -1),
+        ForkMessage.failure(ForkMessage.Kind.FAILURE, "a[2]", new IllegalStateException("boom")),
+        new Date()));
+    assertEquals("a[1]", ((ForkMessage) in.readObject()).getTestName());
+    assertEquals("java.lang.IllegalStateException: boom", ((ForkMessage) in.readObject()).getFailure().toString());
+    try {
+      in.readObject();
+      fail("A Date isn't part of a fork message");
+    } catch (InvalidClassException e) {
+      // expected
+    }
+  }
+}
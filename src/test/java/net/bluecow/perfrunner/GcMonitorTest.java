@@ -0,0 +1,82 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class GcMonitorTest {
+
+  @Test
+  public void testExplicitCollectionIsCounted() throws Exception {
+    GcMonitor.Mark mark = GcMonitor.mark();
+    System.gc();
+    GcStats gc = GcMonitor.since(mark);
+
+    assertTrue(gc.totalCount() >= 1);
+    if (gc.hasPauseDetails()) {
+      boolean found = false;
+      for (GcStats.Pause p : gc.getPauses()) {
+        found |= p.getCause().contains("System.gc");
+      }
+      assertTrue("no System.gc() collection in " + gc.getPauses(), found);
+    }
+  }
+
+  @Test
+  public void testNoCollections() throws Exception {
+    GcStats gc = GcMonitor.since(GcMonitor.mark());
+    // nothing in the test allocates, but the JVM could still collect
+    assertTrue(gc.totalCount() >= 0);
+    if (gc.hasPauseDetails()) {
+      assertEquals(gc.totalCount(), gc.getPauses().size());
+    }
+  }
+
+  @Test
+  public void testTotals() throws Exception {
+    Map<String, Long> none = Collections.emptyMap();
+    GcStats gc = new GcStats(
+        Arrays.asList(
+            new GcStats.CollectorStats("Young", 2, 7),
+            new GcStats.CollectorStats("Cycles", 1, 40)),
+        Arrays.asList(
+            new GcStats.Pause("Young", "end of minor GC", "Allocation Failure", 3, false, none, none, 100),
+            new GcStats.Pause("Young", "end of minor GC", "Allocation Failure", 4, false, none, none, 20),
+            new GcStats.Pause("Cycles", "end of GC cycle", "Timer", 40, true, none, none, 0)));
+
+    assertEquals(3, gc.totalCount());
+    assertEquals(47, gc.totalTimeMillis());
+    assertEquals(7, gc.pauseMillis());
+    assertEquals(120, gc.promotedBytes());
+  }
+
+  @Test
+  public void testTotalsWithoutDetails() throws Exception {
+    GcStats gc = new GcStats(Arrays.asList(new GcStats.CollectorStats("Young", 2, 7)), null);
+    assertFalse(gc.hasPauseDetails());
+    assertEquals(-1, gc.pauseMillis());
+    assertEquals(-1, gc.promotedBytes());
+  }
+}
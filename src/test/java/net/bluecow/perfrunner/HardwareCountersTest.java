@@ -0,0 +1,171 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+
+public class HardwareCountersTest {
+
+  /**
+   * Stands in for perf in interval mode: notes that it started in the
+   * {@code STARTS_FILE}, then
+   * acknowledges each command and prints a block of counts after it (canned
+   * ones when counting is switched off) until its input closes like cat's.
+   */
+  private static final String FAKE_PERF =
+      "#!/bin/sh\n" +
+      "echo started >> 'STARTS_FILE'\n" +
+      "spec=${15#fifo:}\n" +
+      "exec 3<>\"${spec%,*}\" 4<>\"${spec#*,}\"\n" +
+      "printf '# started on a fake CPU\\n\\n' > \"$5\"\n" +
+      "(t=0; while read command <&3; do\n" +
+      "  t=$((t + 1)); printf 'ack\\n' >&4\n" +
+      "  if [ \"$command\" = disable ]; then\n" +
+      "    printf \"$t.0,1000,,cycles:u,100,100.00,,\\n$t.0,2500,,instructions:u,100,100.00,,\\n\" >> \"$5\"\n" +
+      "    printf \"$t.0,<not supported>,,cache-misses,0,100.00,,\\n\" >> \"$5\"\n" +
+      "    printf \"$t.0,3,,branch-misses,100,100.00,,\\n$t.0,0,,context-switches,100,100.00,,\\n\" >> \"$5\"\n" +
+      "  else\n" +
+      "    for e in cycles instructions cache-misses branch-misses context-switches; do\n" +
+      "      echo \"$t.0,<not counted>,,$e,0,0.00,,\" >> \"$5\"\n" +
+      "    done\n" +
+      "  fi\n" +
+      "done) &\n" +
+      "cat > /dev/null\n" +
+      "kill $!\n";
+
+  @RunWith(PerfRunner.class)
+  public static class CountedClass {
+
+    @Test
+    public void counted(@Varying(name="x", axis=Axis.X, from=1, to=3) int x) {
+    }
+  }
+
+  private File fakePerf;
+  private File fakePerfStarts;
+
+  @After
+  public void cleanUp() {
+    System.clearProperty(HardwareCounters.COUNTERS_PROPERTY);
+    System.clearProperty(ResultSink.EXPORT_PROPERTY);
+    HardwareCounters.unavailable = false;
+    new File("perfrunner-" + CountedClass.class.getName() + ".csv").delete();
+    if (fakePerf != null) {
+      fakePerf.delete();
+      fakePerfStarts.delete();
+    }
+  }
+
+  @Test
+  public void testParse() {
+    List<String> lines = Arrays.asList(
+        "     1.000123456,<not counted>,,cpu_core/cycles/,0,0.00,,",
+        "     2.000123456,123456,,cpu_core/cycles/,1000,100.00,,",
+        "     2.000123456,1000,,cpu_atom/cycles/,1000,100.00,,",
+        "     2.000123456,<not counted>,,instructions,0,0.00,,",
+        "     2.000123456,<not supported>,,cache-misses,0,100.00,,",
+        "     2.000123456,42,,branch-misses:u,1000,100.00,,",
+        "     2.000123456,7,,context-switches,1000,100.00,0.007,K/sec",
+        "     2.000123456,5.00,msec,task-clock,5000000,100.00,,");
+    List<String> block = HardwareCounters.lastBlock(lines);
+    assertEquals(7, block.size());
+    assertTrue(HardwareCounters.hasEveryEvent(block));
+    assertFalse(HardwareCounters.hasEveryEvent(block.subList(0, 4)));
+    long[] counts = HardwareCounters.parse(block);
+    assertEquals(124456, counts[HardwareCounters.CYCLES]);
+    assertEquals(-1, counts[HardwareCounters.INSTRUCTIONS]);
+    assertEquals(-1, counts[HardwareCounters.CACHE_MISSES]);
+    assertEquals(42, counts[HardwareCounters.BRANCH_MISSES]);
+    assertEquals(7, counts[HardwareCounters.CONTEXT_SWITCHES]);
+  }
+
+  @Test
+  public void testOffByDefault() {
+    assertNull(HardwareCounters.perfCommand());
+    assertNull(HardwareCounters.open());
+    assertFalse(HardwareCounters.isUnavailable());
+  }
+
+  @Test
+  public void testMissingPerfFallsBack() {
+    System.setProperty(HardwareCounters.COUNTERS_PROPERTY, "/nonexistent/perf");
+    Result result = JUnitCore.runClasses(CountedClass.class);
+    assertEquals(0, result.getFailureCount());
+    assertTrue(HardwareCounters.isUnavailable());
+    assertNull(HardwareCounters.open());
+  }
+
+  @Test
+  public void testCountsAreRecorded() throws Exception {
+    Assume.assumeTrue(new File("/bin/sh").canExecute());
+    fakePerf = File.createTempFile("fake-perf", ".sh");
+    fakePerfStarts = File.createTempFile("fake-perf", ".starts");
+    Files.write(fakePerf.toPath(), FAKE_PERF.replace("STARTS_FILE", fakePerfStarts.getPath()).getBytes("US-ASCII"));
+    Assume.assumeTrue(fakePerf.setExecutable(true));
+    System.setProperty(HardwareCounters.COUNTERS_PROPERTY, fakePerf.getPath());
+    System.setProperty(ResultSink.EXPORT_PROPERTY, "csv");
+
+    Result result = JUnitCore.runClasses(CountedClass.class);
+    assertEquals(0, result.getFailureCount());
+    assertFalse(HardwareCounters.isUnavailable());
+
+    List<String> lines = Files.readAllLines(
+        new File("perfrunner-" + CountedClass.class.getName() + ".csv").toPath(), Charset.forName("UTF-8"));
+    List<String> header = CsvResultSink.split(lines.get(0));
+    assertEquals(4, lines.size());
+    for (String line : lines.subList(1, lines.size())) {
+      List<String> row = CsvResultSink.split(line);
+      assertEquals("1000", row.get(header.indexOf("cycles")));
+      assertEquals("2500", row.get(header.indexOf("instructions")));
+      assertEquals("", row.get(header.indexOf("cacheMisses")));
+      assertEquals("3", row.get(header.indexOf("branchMisses")));
+      assertEquals("0", row.get(header.indexOf("contextSwitches")));
+    }
+
+    // one perf process counted all three runs
+    assertEquals(1, Files.readAllLines(fakePerfStarts.toPath(), Charset.forName("US-ASCII")).size());
+  }
+
+  @Test
+  public void testMetrics() {
+    RunStats rs = RunStats.create().relativeToNow()
+        .withOperations(100, 1000, -1)
+        .withHardwareCounts(new long[] { 1000, 2500, -1, 3, 0 });
+    assertEquals(10.0, Metric.CYCLES_PER_OPERATION.valueOf(rs), 0);
+    assertEquals(2.5, Metric.INSTRUCTIONS_PER_CYCLE.valueOf(rs), 0);
+    assertFalse(Metric.CACHE_MISSES_PER_OPERATION.appliesTo(rs));
+    assertTrue(Metric.CONTEXT_SWITCHES_PER_OPERATION.appliesTo(rs));
+    assertFalse(Metric.CYCLES_PER_OPERATION.appliesTo(RunStats.create().relativeToNow()));
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+
+public class HarnessOverheadTest {
+
+  @RunWith(PerfRunner.class)
+  public static class EmptyClass {
+
+    @Test
+    @Trials(5)
+    public void empty(@Varying(name="x", axis=Axis.X, from=1, to=1) int x) {
+    }
+
+    @Test
+    @Concurrent(threads=2)
+    public void concurrent(@Varying(name="x", axis=Axis.X, from=1, to=1) int x) {
+    }
+  }
+
+  @After
+  public void cleanUp() {
+    System.clearProperty(HarnessOverhead.SUBTRACT_PROPERTY);
+    System.clearProperty(ResultSink.EXPORT_PROPERTY);
+    new File("perfrunner-" + EmptyClass.class.getName() + ".csv").delete();
+  }
+
+  /**
+   * A guard against the harness getting much slower. The limits are far
+   * above what it costs on any reasonable machine, so this only catches a
+   * change that adds (for example) a blocking call or a reflective lookup to
+   * every run.
+   */
+  @Test
+  public void testOverheadIsSmall() throws Exception {
+    HarnessOverhead overhead = HarnessOverhead.of(EmptyClass.class.getMethod("empty", int.class));
+    assertTrue(overhead.toString(), overhead.runNanos() > 0);
+    assertTrue(overhead.toString(), overhead.runNanos() < 1000000);
+    assertTrue(overhead.toString(), overhead.callNanos() < 1000);
+    assertSame(overhead, HarnessOverhead.of(EmptyClass.class.getMethod("concurrent", int.class)));
+  }
+
+  @Test
+  public void testSubtraction() {
+    RunStats measured = RunStats.create().relativeToNow();
+    RunStats included = measured.withHarnessOverhead(measured.nanoTime() / 2, false);
+    RunStats subtracted = measured.withHarnessOverhead(measured.nanoTime() / 2, true);
+    assertEquals(measured.timeMillis(), included.timeMillis(), 0);
+    assertEquals((measured.nanoTime() - measured.nanoTime() / 2) / 1000000.0, subtracted.timeMillis(), 0);
+    assertEquals(0, measured.withHarnessOverhead(measured.nanoTime() * 2, true).timeMillis(), 0);
+
+    RunStats throughput = measured.withOperations(1000, 10000, -1).withHarnessOverhead(4000, true);
+    assertEquals(6.0, throughput.nanosPerOperation(), 0);
+  }
+
+  @Test
+  public void testOverheadIsRecorded() throws Exception {
+    System.setProperty(HarnessOverhead.SUBTRACT_PROPERTY, "true");
+    System.setProperty(ResultSink.EXPORT_PROPERTY, "csv");
+    Result result = JUnitCore.runClasses(EmptyClass.class);
+    assertEquals(0, result.getFailureCount());
+
+    List<String> lines = Files.readAllLines(
+        new File("perfrunner-" + EmptyClass.class.getName() + ".csv").toPath(), Charset.forName("UTF-8"));
+    List<String> header = CsvResultSink.split(lines.get(0));
+    int checked = 0;
+    for (String line : lines.subList(1, lines.size())) {
+      List<String> row = CsvResultSink.split(line);
+      String harnessNanos = row.get(header.indexOf("harnessNanos"));
+      if (row.get(header.indexOf("method")).equals("empty")) {
+        assertTrue(Long.parseLong(harnessNanos) > 0);
+        assertEquals("true", row.get(header.indexOf("harnessSubtracted")));
+      } else {
+        // calls on several threads overlap, so there's no overhead to take off
+        assertEquals("", harnessNanos);
+      }
+      checked++;
+    }
+    assertEquals(6, checked);
+  }
+}
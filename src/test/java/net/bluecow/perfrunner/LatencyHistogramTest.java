@@ -0,0 +1,118 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void testBucketsCoverEveryValue() {
+    for (int b = 0; b < LatencyHistogram.BUCKET_COUNT; b++) {
+      long low = LatencyHistogram.lowestValueIn(b);
+      long high = LatencyHistogram.highestValueIn(b);
+      assertEquals(b, LatencyHistogram.bucketOf(low));
+      assertEquals(b, LatencyHistogram.bucketOf(high));
+      if (b + 1 < LatencyHistogram.BUCKET_COUNT) {
+        assertEquals(high + 1, LatencyHistogram.lowestValueIn(b + 1));
+      }
+      // within 1/64 of the true value
+      assertTrue("bucket " + b, high - low <= low / 64);
+    }
+    assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValueIn(LatencyHistogram.BUCKET_COUNT - 1));
+  }
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram h = new LatencyHistogram();
+    for (int i = 1; i <= 1000; i++) {
+      h.record(i * 1000L);
+    }
+    LatencyHistogram.Snapshot s = h.snapshot();
+    assertEquals(1000, s.totalCount());
+    assertNear(500000, s.percentile(50));
+    assertNear(990000, s.percentile(99));
+    assertNear(1000000, s.percentile(100));
+    assertNear(1000, s.min());
+    assertTrue(s.percentile(50) >= 500000);
+  }
+
+  @Test
+  public void testResetAndEmptySnapshot() {
+    LatencyHistogram h = new LatencyHistogram();
+    assertNull(h.snapshot());
+    h.record(5);
+    h.reset();
+    assertNull(h.snapshot());
+  }
+
+  @Test
+  public void testConcurrentRecording() throws Exception {
+    final LatencyHistogram h = new LatencyHistogram();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 100000; i++) {
+            h.record(i);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    assertEquals(400000, h.snapshot().totalCount());
+  }
+
+  @Test
+  public void testMergeAndRoundTrip() throws Exception {
+    LatencyHistogram a = new LatencyHistogram();
+    LatencyHistogram b = new LatencyHistogram();
+    a.record(10);
+    a.record(1000000);
+    b.record(10);
+    b.record(Long.MAX_VALUE);
+    LatencyHistogram.Snapshot merged = LatencyHistogram.Snapshot.merge(a.snapshot(), b.snapshot());
+    assertEquals(4, merged.totalCount());
+    assertEquals(10, merged.percentile(50));
+    assertEquals(Long.MAX_VALUE, merged.percentile(100));
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    merged.writeTo(new DataOutputStream(bytes));
+    LatencyHistogram.Snapshot read = LatencyHistogram.Snapshot.readFrom(
+        new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    assertEquals(merged.toCompactString(), read.toCompactString());
+    assertEquals("10:2;" + LatencyHistogram.lowestValueIn(LatencyHistogram.bucketOf(1000000)) + ":1;" +
+        LatencyHistogram.lowestValueIn(LatencyHistogram.BUCKET_COUNT - 1) + ":1", read.toCompactString());
+  }
+
+  private static void assertNear(long expected, long actual) {
+    assertTrue("expected about " + expected + " but was " + actual, Math.abs(expected - actual) <= expected / 64);
+  }
+}
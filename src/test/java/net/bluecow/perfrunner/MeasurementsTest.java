@@ -0,0 +1,167 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+
+public class MeasurementsTest {
+
+  @RunWith(PerfRunner.class)
+  public static class Measuring {
+
+    @Test
+    public long recordsResult(Measurements m, @Varying(name="x", axis=Axis.X, from=1, to=3) int x) {
+      long result = x * 10L;
+      m.record("Result", result);
+      return result;
+    }
+
+    @Test
+    @Warmup(iterations=3)
+    public void recordsValues(
+        Measurements m,
+        @Varying(name="x", axis=Axis.X, from=1, to=2) int x) {
+      m.record("Hit ratio", x / 4.0);
+      m.record("Queue depth", 1);
+      m.record("Queue depth", 3);
+    }
+
+    @Test
+    public void recordsLatencies(
+        Measurements m,
+        @Varying(name="x", axis=Axis.X, from=1, to=2) int x) {
+      for (int i = 1; i <= 100; i++) {
+        m.recordLatency(i * 1000000L * x);
+      }
+    }
+  }
+
+  @RunWith(PerfRunner.class)
+  public static class ReturnsValues {
+
+    @Test
+    public boolean notANumber(@Varying(name="x", axis=Axis.X, from=1, to=2) int x) {
+      return true;
+    }
+
+    @Test
+    public double aNumber(@Varying(name="x", axis=Axis.X, from=1, to=2) int x) {
+      return x;
+    }
+  }
+
+  @After
+  public void cleanUp() {
+    System.clearProperty(ResultSink.EXPORT_PROPERTY);
+    new File("perfrunner-" + Measuring.class.getName() + ".csv").delete();
+    new File("perfrunner-" + ReturnsValues.class.getName() + ".csv").delete();
+  }
+
+  @Test
+  public void testMeasurementsAreRecorded() throws Exception {
+    System.setProperty(ResultSink.EXPORT_PROPERTY, "csv");
+    Result result = JUnitCore.runClasses(Measuring.class);
+    assertEquals(0, result.getFailureCount());
+
+    List<String> measurements = new ArrayList<String>();
+    for (String line : Files.readAllLines(
+        new File("perfrunner-" + Measuring.class.getName() + ".csv").toPath(), Charset.forName("UTF-8"))) {
+      List<String> row = CsvResultSink.split(line);
+      measurements.add(row.get(1) + "[" + row.get(2) + "] " + row.get(row.size() - 1));
+    }
+    assertEquals("method[parameters] measurements", measurements.get(0));
+    assertTrue(measurements.contains("recordsResult[x=2.0] Result=20.0"));
+
+    // the warmup's values are forgotten, and repeated values are averaged
+    assertTrue(measurements.contains("recordsValues[x=2.0] Hit ratio=0.5;Queue depth=2.0"));
+    assertTrue(measurements.contains("recordsLatencies[x=1.0] "));
+
+    String html = new String(Files.readAllBytes(
+        new File("perfrunner-" + Measuring.class.getName() + ".html").toPath()), "UTF-8");
+    assertTrue(html.contains(">Hit ratio</option>"));
+    assertTrue(html.contains(">Result</option>"));
+    assertTrue(html.contains("\"Queue depth\": 2.0"));
+    assertTrue(html.contains(">Latency p99 (ms)</option>"));
+    assertTrue(html.contains("Latency distribution at x = "));
+  }
+
+  @Test
+  public void testReturnValuesAreNotRecorded() throws Exception {
+    System.setProperty(ResultSink.EXPORT_PROPERTY, "csv");
+    Result result = JUnitCore.runClasses(ReturnsValues.class);
+    assertEquals(0, result.getFailureCount());
+    assertEquals(4, result.getRunCount());
+
+    List<String> lines = Files.readAllLines(
+        new File("perfrunner-" + ReturnsValues.class.getName() + ".csv").toPath(), Charset.forName("UTF-8"));
+    for (String line : lines.subList(1, lines.size())) {
+      List<String> row = CsvResultSink.split(line);
+      assertEquals(line, "", row.get(row.size() - 1));
+    }
+  }
+
+  @Test
+  public void testThreadsRecordSeparatelyAndAreMerged() throws Exception {
+    final Measurements m = new Measurements();
+    m.record("Stale", 1);
+    m.clear();
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      final int value = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 1000; j++) {
+            m.record("Value", value);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    m.record("Main", 5);
+
+    assertEquals(2, m.means().size());
+    assertEquals(1.5, m.means().get("Value"), 0.0);
+    assertEquals(5.0, m.means().get("Main"), 0.0);
+
+    m.clear();
+    assertTrue(m.means().isEmpty());
+  }
+
+  @Test
+  public void testMetricsForSameMeasurementAreEqual() {
+    assertEquals(Metric.measurement("a"), Metric.measurement("a"));
+    assertTrue(!Metric.measurement("a").equals(Metric.measurement("b")));
+    assertTrue(!Metric.measurement("Time (ms)").equals(Metric.TIME));
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Request;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import org.junit.runners.model.InitializationError;
+
+public class ParameterFilterTest {
+
+  static final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+
+  public enum Impl { ARRAY, LINKED }
+
+  @RunWith(PerfRunner.class)
+  public static class TwoMethods {
+
+    @Test
+    public void first(@Varying(name="Threads", axis=Axis.X, from=1, to=16, step=2, geometric=true) int threads,
+                      @Varying(name="Impl") Impl impl) {
+      calls.add("first " + threads + " " + impl);
+    }
+
+    @Test
+    public void second(@Varying(name="Size", axis=Axis.X, from=1, to=3) int size) {
+      calls.add("second " + size);
+    }
+  }
+
+  @RunWith(PerfRunner.class)
+  public static class BadSetup {
+
+    @Before
+    public void setUp(int notAllowed) {
+    }
+
+    @Test
+    public void first(@Varying(name="Size", axis=Axis.X, from=1, to=3) int size) {
+    }
+
+    @Test
+    public void second(@Varying(name="Size", axis=Axis.X, from=1, to=3) int size) {
+    }
+  }
+
+  @After
+  public void cleanUp() {
+    System.clearProperty(ParameterFilter.FILTER_PROPERTY);
+    calls.clear();
+  }
+
+  @Test
+  public void testEachMethodIsASuite() throws Exception {
+    Description description = Request.aClass(TwoMethods.class).getRunner().getDescription();
+    assertEquals(2, description.getChildren().size());
+    Description first = description.getChildren().get(0);
+    assertEquals("first", first.getDisplayName());
+    assertEquals(10, first.getChildren().size());
+    assertEquals("second", description.getChildren().get(1).getDisplayName());
+    assertEquals(3, description.getChildren().get(1).getChildren().size());
+  }
+
+  @Test
+  public void testFilterSelectsSlice() throws Exception {
+    System.setProperty(ParameterFilter.FILTER_PROPERTY, "Threads=8|16, Impl=LINKED");
+    Result result = JUnitCore.runClasses(TwoMethods.class);
+    assertEquals(0, result.getFailureCount());
+    assertEquals(2, result.getRunCount());
+    assertTrue(calls.toString(), calls.contains("first 8 LINKED"));
+    assertTrue(calls.toString(), calls.contains("first 16 LINKED"));
+  }
+
+  @Test
+  public void testFilterMatchingNothingIsAnError() throws Exception {
+    System.setProperty(ParameterFilter.FILTER_PROPERTY, "Threads=3");
+    Result result = JUnitCore.runClasses(TwoMethods.class);
+    assertEquals(1, result.getFailureCount());
+    assertTrue(calls.isEmpty());
+  }
+
+  @Test
+  public void testBadSetupIsReportedOnce() throws Exception {
+    Result result = JUnitCore.runClasses(BadSetup.class);
+    assertEquals(1, result.getFailureCount());
+    Throwable error = result.getFailures().get(0).getException();
+    List<Throwable> causes = Collections.singletonList(error);
+    while (error instanceof InitializationError) {
+      causes = ((InitializationError) error).getCauses();
+      error = causes.get(0);
+    }
+    assertEquals(causes.toString(), 1, causes.size());
+    assertTrue(error.getMessage(), error.getMessage().contains("setUp should have no parameters"));
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import org.junit.runners.model.FrameworkMethod;
+import org.junit.runners.model.InitializationError;
+
+public class ParameterSpaceTest {
+
+  public static class Target {
+
+    public void sweep(int a, int b, int c, int d) {
+      // only its signature matters
+    }
+  }
+
+  @RunWith(PerfRunner.class)
+  public static class TooManyRuns {
+
+    @Test
+    @Trials(1000)
+    public void sweep(
+        @Varying(name="a", from=1, to=10000) int a,
+        @Varying(name="b", from=1, to=1000) int b) {
+      // never runs
+    }
+  }
+
+  private static ParameterSpace space() throws Exception {
+    return new ParameterSpace(Target.class.getMethod("sweep", int.class, int.class, int.class, int.class),
+        new Object[][] { { 1, 2 }, { "x", "y", "z" }, { 10L }, { 0.5, 1.5 } });
+  }
+
+  @Test
+  public void testFirstParameterChangesFastest() throws Exception {
+    ParameterSpace space = space();
+    assertEquals(12, space.size());
+    assertArrayEquals(new Object[] { 1, "x", 10L, 0.5 }, space.parametersOf(0));
+    assertArrayEquals(new Object[] { 2, "x", 10L, 0.5 }, space.parametersOf(1));
+    assertArrayEquals(new Object[] { 1, "y", 10L, 0.5 }, space.parametersOf(2));
+    assertArrayEquals(new Object[] { 2, "z", 10L, 1.5 }, space.parametersOf(11));
+    assertArrayEquals(new int[] { 1, 2, 0, 1 }, space.valueIndexesOf(11));
+  }
+
+  @Test
+  public void testRunsOfEveryStridethCombination() throws Exception {
+    List<FrameworkMethod> runs = space().runs(1, 5, 2);
+    // combinations 1, 6 and 11, with two trials each
+    assertEquals(6, runs.size());
+    int[] combinations = { 1, 1, 6, 6, 11, 11 };
+    for (int i = 0; i < runs.size(); i++) {
+      ParameterizedFrameworkMethod run = (ParameterizedFrameworkMethod) runs.get(i);
+      assertEquals(combinations[i], run.getCombination());
+      assertEquals(i % 2 + 1, run.getTrial());
+    }
+    assertEquals(0, space().runs(12, 1, 3).size());
+  }
+
+  @Test
+  public void testRunsAreMadeWhenAskedFor() throws Exception {
+    ParameterSpace space = new ParameterSpace(Target.class.getMethod("sweep", int.class, int.class, int.class, int.class),
+        new Object[][] { new Object[100], new Object[100], new Object[100], new Object[100] });
+    List<FrameworkMethod> runs = space.runs(0, 1, 1);
+    assertEquals(100000000, runs.size());
+    ParameterizedFrameworkMethod last = (ParameterizedFrameworkMethod) runs.get(runs.size() - 1);
+    assertArrayEquals(new int[] { 99, 99, 99, 99 }, last.getValueIndexes());
+    assertNotSame(last, runs.get(runs.size() - 1));
+  }
+
+  @Test
+  public void testRunStateIsReleased() throws Exception {
+    ParameterizedFrameworkMethod run = (ParameterizedFrameworkMethod) space().runs(0, 1, 1).get(0);
+    Measurements measurements = run.getMeasurements();
+    measurements.record("x", 1);
+    assertEquals(1.0, run.getMeasurements().means().get("x"), 0);
+    run.release();
+    assertNull(run.getMeasurements().means().get("x"));
+  }
+
+  @Test
+  public void testTooManyRunsIsAnInitializationError() {
+    Result result = JUnitCore.runClasses(TooManyRuns.class);
+    assertEquals(1, result.getFailureCount());
+    Throwable error = result.getFailures().get(0).getException();
+    while (error instanceof InitializationError) {
+      error = ((InitializationError) error).getCauses().get(0);
+    }
+    assertEquals("Method sweep has more than 2147483647 runs", error.getMessage());
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+
+public class ParameterizedFrameworkMethodTest {
+
+  public static class Target {
+    long calls;
+
+    public long add(int a, long b, Measurements m) {
+      calls++;
+      return a + b;
+    }
+
+    public int square(int a) {
+      calls++;
+      return a * a + (int) calls;
+    }
+
+    public void fail(String message) {
+      throw new IllegalStateException(message);
+    }
+  }
+
+  private static ParameterizedFrameworkMethod method(String name, Object... params) {
+    for (Method m : Target.class.getMethods()) {
+      if (m.getName().equals(name)) {
+        Object[][] values = new Object[params.length][];
+        for (int p = 0; p < params.length; p++) {
+          values[p] = new Object[] { params[p] };
+        }
+        return new ParameterizedFrameworkMethod(new ParameterSpace(m, values), 0, 1);
+      }
+    }
+    throw new AssertionError("No method " + name);
+  }
+
+  @Test
+  public void testBoundAndReflectiveCallsAgree() throws Throwable {
+    ParameterizedFrameworkMethod add = method("add", 2, 40L);
+    Target target = new Target();
+    assertEquals(42L, add.invokeExplosively(target));
+    add.bind(target);
+    assertEquals(42L, add.invokeExplosively(target));
+    add.unbind();
+    assertEquals(42L, add.invokeExplosively(target));
+    assertEquals(3, target.calls);
+    assertTrue(add.getMeasurements().means().isEmpty());
+  }
+
+  @Test
+  public void testPrimitiveResultsAreConsumedWithoutBoxing() throws Throwable {
+    if (!AllocationMeter.isSupported()) {
+      return;
+    }
+    ParameterizedFrameworkMethod square = method("square", 1000);
+    Target target = new Target();
+    square.bind(target);
+    assertEquals(1000001, square.invokeExplosively(target));
+
+    // results up to 127 would come from Integer's cache, so these would all be boxed
+    for (int i = 0; i < 20000; i++) {
+      square.invokeAndConsume(target);
+    }
+    AllocationMeter.Snapshot start = AllocationMeter.snapshot();
+    for (int i = 0; i < 100000; i++) {
+      square.invokeAndConsume(target);
+    }
+    long allocated = AllocationMeter.allocatedSince(start);
+
+    // less than a byte per call; the JIT compiler itself may allocate a little on this thread
+    assertEquals("Allocated " + allocated, 0, allocated / 100000);
+    assertEquals(120001, target.calls);
+  }
+
+  @Test
+  public void testBindingOnlyAppliesToItsTarget() throws Throwable {
+    ParameterizedFrameworkMethod add = method("add", 2, 40L);
+    Target bound = new Target();
+    Target other = new Target();
+    add.bind(bound);
+    assertEquals(42L, add.invokeExplosively(other));
+    assertEquals(0, bound.calls);
+    assertEquals(1, other.calls);
+  }
+
+  @Test
+  public void testBoundCallThrowsTheOriginalException() throws Throwable {
+    ParameterizedFrameworkMethod failing = method("fail", "boom");
+    Target target = new Target();
+    failing.bind(target);
+    try {
+      failing.invokeExplosively(target);
+      fail("Expected an exception");
+    } catch (IllegalStateException e) {
+      assertEquals("boom", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testArgumentsThatDontFitFallBackToReflection() throws Throwable {
+    ParameterizedFrameworkMethod add = method("add", "not a number", 40L);
+    Target target = new Target();
+    add.bind(target);
+    try {
+      add.invokeExplosively(target);
+      fail("Expected an exception");
+    } catch (IllegalArgumentException e) {
+      // reported by Method.invoke
+    }
+    assertEquals(0, target.calls);
+  }
+}
@@ -17,6 +17,10 @@
 package net.bluecow.perfrunner;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
 import net.bluecow.perfrunner.PerfRunDescription;
 
 import org.junit.Test;
@@ -66,4 +70,41 @@ public class PerfRunDescriptionTest {
     assertEquals(3.0, prd.getParamValues().get(1).doubleValue(), 0.001);
   }
 
+  @Test
+  public void testNoTrialNumber() {
+    Description d = Description.createTestDescription(PerfRunDescriptionTest.class, "methodName[8, 3]");
+    PerfRunDescription prd = new PerfRunDescription(d);
+    assertEquals(1, prd.getTrial());
+  }
+
+  @Test
+  public void testTrialNumber() {
+    Description d = Description.createTestDescription(PerfRunDescriptionTest.class, "methodName[8, 3] #12");
+    PerfRunDescription prd = new PerfRunDescription(d);
+    assertEquals("methodName", prd.getMethodName());
+    assertEquals(2, prd.getParamValues().size());
+    assertEquals(8.0, prd.getParamValues().get(0).doubleValue(), 0.001);
+    assertEquals(3.0, prd.getParamValues().get(1).doubleValue(), 0.001);
+    assertEquals(12, prd.getTrial());
+  }
+
+  @Test
+  public void testNonNumericParams() {
+    Description d = Description.createTestDescription(PerfRunDescriptionTest.class, "methodName[ARRAY_LIST, 0.75, hello world, 1024] #2");
+    PerfRunDescription prd = new PerfRunDescription(d);
+    assertEquals("methodName", prd.getMethodName());
+    assertEquals(4, prd.getParamValues().size());
+    assertTrue(Double.isNaN(prd.getParamValues().get(0)));
+    assertEquals(0.75, prd.getParamValues().get(1).doubleValue(), 0.001);
+    assertEquals(Arrays.asList("ARRAY_LIST", "0.75", "hello world", "1024.0"), prd.getParamLabels());
+    assertEquals(2, prd.getTrial());
+  }
+
+  @Test
+  public void testNoParams() {
+    Description d = Description.createTestDescription(PerfRunDescriptionTest.class, "methodName[]");
+    PerfRunDescription prd = new PerfRunDescription(d);
+    assertEquals(0, prd.getParamValues().size());
+  }
+
 }
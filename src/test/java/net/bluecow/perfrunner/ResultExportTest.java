@@ -0,0 +1,164 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+
+public class ResultExportTest {
+
+  @RunWith(PerfRunner.class)
+  public static class ExportedClass {
+
+    @Test
+    @Trials(2)
+    public void twoParams(
+        @Varying(name="size", axis=Axis.X, from=1, to=3) int size,
+        @Varying(name="threads", from=1, to=2) int threads) {
+      // nothing to measure
+    }
+  }
+
+  public static class CollectingSink implements ResultSink {
+    static final List<RunRecord> runs = new ArrayList<RunRecord>();
+    static boolean finished;
+
+    @Override
+    public void runStarted(Description description) {
+      runs.clear();
+      finished = false;
+    }
+
+    @Override
+    public void runRecorded(RunRecord run) {
+      runs.add(run);
+    }
+
+    @Override
+    public void runFinished() {
+      finished = true;
+    }
+  }
+
+  public static class BrokenSink extends CollectingSink {
+    static final RuntimeException PROBLEM = new IllegalStateException("no place to write to");
+
+    public BrokenSink() {
+      throw PROBLEM;
+    }
+  }
+
+  private final File json = new File("perfrunner-" + ExportedClass.class.getName() + ".json");
+  private final File csv = new File("perfrunner-" + ExportedClass.class.getName() + ".csv");
+
+  @After
+  public void cleanUp() {
+    System.clearProperty(ResultSink.EXPORT_PROPERTY);
+    json.delete();
+    csv.delete();
+  }
+
+  @Test
+  public void testCsvHasOneRowPerRun() throws Exception {
+    System.setProperty(ResultSink.EXPORT_PROPERTY, "csv");
+    Result result = JUnitCore.runClasses(ExportedClass.class);
+    assertEquals(12, result.getRunCount());
+
+    List<String> lines = Files.readAllLines(csv.toPath(), Charset.forName("UTF-8"));
+    assertEquals(13, lines.size());
+    String[] header = lines.get(0).split(",");
+    assertEquals("class", header[0]);
+    for (String row : lines.subList(1, lines.size())) {
+      assertEquals(row, header.length, row.split(",", -1).length);
+    }
+    assertTrue(lines.get(1), lines.get(1).startsWith(ExportedClass.class.getName() + ",twoParams,size=1.0;threads=1.0,1,"));
+    assertTrue(lines.get(2), lines.get(2).startsWith(ExportedClass.class.getName() + ",twoParams,size=1.0;threads=1.0,2,"));
+  }
+
+  @Test
+  public void testJsonListsEveryRun() throws Exception {
+    System.setProperty(ResultSink.EXPORT_PROPERTY, "json");
+    JUnitCore.runClasses(ExportedClass.class);
+
+    String doc = new String(Files.readAllBytes(json.toPath()), "UTF-8");
+    assertTrue(doc.contains("\"java.version\": \"" + System.getProperty("java.version") + "\""));
+    assertTrue(doc.contains("\"parameters\": { \"size\": 3.0, \"threads\": 2.0 }"));
+    assertEquals(12, doc.split("\"trial\": ").length - 1);
+    assertTrue(doc.trim().endsWith("]\n}") || doc.trim().endsWith("]" + System.lineSeparator() + "}"));
+    assertTrue(!csv.exists());
+  }
+
+  @Test
+  public void testUserSinkGetsEveryRun() throws Exception {
+    System.setProperty(ResultSink.EXPORT_PROPERTY, CollectingSink.class.getName());
+    JUnitCore.runClasses(ExportedClass.class);
+
+    assertTrue(CollectingSink.finished);
+    assertEquals(12, CollectingSink.runs.size());
+    RunRecord last = CollectingSink.runs.get(11);
+    assertEquals(ExportedClass.class.getName(), last.getClassName());
+    assertEquals("twoParams", last.getMethodName());
+    assertEquals(Arrays.asList("size", "threads"), last.getParameterNames());
+    assertEquals(Arrays.asList(3.0, 2.0), last.getParameterValues());
+    assertEquals(2, last.getTrial());
+    assertTrue(last.getMetrics().containsKey(Metric.TIME.getLabel()));
+    assertTrue(!json.exists());
+    assertTrue(!csv.exists());
+  }
+
+  @Test
+  public void testUserSinkThatFailsToStartIsReported() throws Exception {
+    System.setProperty(ResultSink.EXPORT_PROPERTY, BrokenSink.class.getName());
+    try {
+      PerformanceReportBuilder.sinksFromSystemProperties();
+      fail("The sink's constructor failed");
+    } catch (IllegalArgumentException e) {
+      assertSame(BrokenSink.PROBLEM, e.getCause());
+    }
+  }
+
+  @Test
+  public void testNoExportByDefault() throws Exception {
+    JUnitCore.runClasses(ExportedClass.class);
+    assertTrue(!json.exists());
+    assertTrue(!csv.exists());
+  }
+
+  @Test
+  public void testQuoting() {
+    assertEquals("plain", CsvResultSink.quote("plain"));
+    assertEquals("\"a,b\"", CsvResultSink.quote("a,b"));
+    assertEquals("\"say \"\"hi\"\"\"", CsvResultSink.quote("say \"hi\""));
+    assertEquals("\"a\\\"b\\\\c\\n\"", JsonResultSink.quote("a\"b\\c\n"));
+  }
+}
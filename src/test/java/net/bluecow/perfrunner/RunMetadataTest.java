@@ -0,0 +1,228 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Request;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import org.junit.runner.Runner;
+import org.junit.runner.notification.RunListener;
+
+public class RunMetadataTest {
+
+  public enum Impl { ARRAY, LINKED }
+
+  @RunWith(PerfRunner.class)
+  public static class DescribedClass {
+
+    @Test
+    @Trials(2)
+    public long described(@Varying(name="Id", values={"9007199254740993"}) long id,
+                          @Varying(name="Impl", axis=Axis.X) Impl impl,
+                          @Varying(name="Note", values={"hello world"}) String note,
+                          Measurements m) {
+      m.record("Things", 3);
+      return id;
+    }
+  }
+
+  private final File csv = new File("perfrunner-" + DescribedClass.class.getName() + ".csv");
+
+  @After
+  public void cleanUp() {
+    System.clearProperty(ResultSink.EXPORT_PROPERTY);
+    System.clearProperty(ParameterFilter.FILTER_PROPERTY);
+    csv.delete();
+  }
+
+  /**
+   * Hears which runs start and finish, and keeps what it can look up about
+   * them.
+   */
+  private static class Listener extends RunListener {
+    final List<RunMetadata> started = Collections.synchronizedList(new ArrayList<RunMetadata>());
+    final List<RunMetadata> finished = Collections.synchronizedList(new ArrayList<RunMetadata>());
+    final List<RunRecord> records = Collections.synchronizedList(new ArrayList<RunRecord>());
+
+    @Override
+    public void testStarted(Description description) {
+      started.add(RunMetadata.of(description));
+    }
+
+    @Override
+    public void testFinished(Description description) {
+      RunMetadata run = RunMetadata.of(description);
+      assertNotNull(description.getDisplayName(), run);
+      finished.add(run);
+      records.add(RunRecord.of(description));
+    }
+  }
+
+  /**
+   * Runs the test class, returning what a listener saw.
+   */
+  private static Listener runAndListen() {
+    Listener listener = new Listener();
+    JUnitCore core = new JUnitCore();
+    core.addListener(listener);
+    Result result = core.run(DescribedClass.class);
+    assertEquals(0, result.getFailureCount());
+    return listener;
+  }
+
+  @Test
+  public void testListenersSeeTypedParametersAndMeasurements() {
+    Listener listener = runAndListen();
+    assertEquals(4, listener.finished.size());
+
+    RunMetadata run = listener.finished.get(3);
+    assertEquals("described", run.getMethodName());
+    assertEquals(Arrays.<Object>asList(9007199254740993L, Impl.LINKED, "hello world"), run.getParameters());
+    assertEquals("Impl", run.getVaryingAnnotations().get(1).name());
+    assertEquals(Axis.X, run.getVaryingAnnotations().get(1).axis());
+    assertEquals(2, run.getTrial());
+
+    RunRecord record = listener.records.get(3);
+    assertEquals(Arrays.asList("9007199254740993", "LINKED", "hello world"), record.getParameterLabels());
+    assertEquals(2, record.getTrial());
+    assertEquals(3.0, record.getMetrics().get("Things"), 0);
+    assertTrue(record.getMetrics().get(Metric.TIME.getLabel()) >= 0);
+  }
+
+  @Test
+  public void testRecordsCanBeLookedUpThroughTheDescriptionTree() {
+    final Runner runner = Request.aClass(DescribedClass.class).getRunner();
+    final List<RunRecord> records = new ArrayList<RunRecord>();
+    JUnitCore core = new JUnitCore();
+    core.addListener(new RunListener() {
+      @Override
+      public void testRunFinished(Result result) {
+        // the descriptions the runs were recorded with are garbage by now
+        System.gc();
+        for (Description method : runner.getDescription().getChildren()) {
+          for (Description run : method.getChildren()) {
+            records.add(RunRecord.of(run));
+          }
+        }
+      }
+    });
+    assertEquals(0, core.run(runner).getFailureCount());
+
+    assertEquals(4, records.size());
+    for (RunRecord record : records) {
+      assertNotNull(record);
+    }
+    assertEquals(2, records.get(3).getTrial());
+
+    // once every listener has heard that the test run finished, the records are let go
+    Description first = runner.getDescription().getChildren().get(0).getChildren().get(0);
+    assertNull(RunRecord.of(first));
+  }
+
+  @Test
+  public void testEachRunHasOneMetadata() {
+    Listener listener = runAndListen();
+    assertEquals(listener.started.size(), listener.finished.size());
+    for (int i = 0; i < listener.started.size(); i++) {
+      assertSame(listener.started.get(i), listener.finished.get(i));
+    }
+  }
+
+  @Test
+  public void testMetadataIsAValue() {
+    List<Varying> varying = runAndListen().finished.get(0).getVaryingAnnotations();
+    Object[] params = { 1L, Impl.ARRAY, "a" };
+    RunMetadata run = new RunMetadata("described", params, varying, 1);
+    params[0] = 2L;
+    assertEquals(Arrays.<Object>asList(1L, Impl.ARRAY, "a"), run.getParameters());
+
+    RunMetadata same = new RunMetadata("described", new Object[] { 1L, Impl.ARRAY, "a" }, varying, 1);
+    assertEquals(run, same);
+    assertEquals(run.hashCode(), same.hashCode());
+    assertFalse(run.equals(new RunMetadata("described", new Object[] { 1L, Impl.ARRAY, "a" }, varying, 2)));
+    assertFalse(run.equals(new RunMetadata("described", new Object[] { 1L, Impl.LINKED, "a" }, varying, 1)));
+    assertEquals("@" + RunMetadata.class.getName() + "(methodName=described, parameters=[1, ARRAY, a], trial=1)",
+        run.toString());
+  }
+
+  @Test
+  public void testMetadataSerializesWithItsValues() throws Exception {
+    RunMetadata run = runAndListen().finished.get(3);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(run);
+    out.close();
+    Object copy = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    assertEquals(run, copy);
+    assertEquals(run.getParameters(), ((RunMetadata) copy).getParameters());
+  }
+
+  @Test
+  public void testPerfRunDescriptionUsesMetadata() {
+    RunMetadata run = new RunMetadata("described", new Object[] { 9007199254740993L, Impl.ARRAY, "hello world" },
+        runAndListen().finished.get(0).getVaryingAnnotations(), 1);
+    Description d = Description.createTestDescription(DescribedClass.class, "whatever", run);
+    PerfRunDescription desc = new PerfRunDescription(d);
+    assertEquals("described", desc.getMethodName());
+    assertEquals(Arrays.asList("9007199254740993", "ARRAY", "hello world"), desc.getParamLabels());
+    assertTrue(Double.isNaN(desc.getParamValues().get(2)));
+    assertEquals("Id=9007199254740993;Impl=ARRAY;Note=hello world", desc.getParamString());
+  }
+
+  @Test
+  public void testOtherDescriptionsHaveNone() {
+    assertNull(RunMetadata.of(Description.createTestDescription(DescribedClass.class, "described[1]")));
+  }
+
+  @Test
+  public void testLongsKeepTheirDigits() throws Exception {
+    assertEquals("1024.0", PerfRunDescription.labelOf(1024L));
+    assertEquals("1024.0", PerfRunDescription.labelOf(1024));
+    assertEquals("9007199254740993", PerfRunDescription.labelOf(9007199254740993L));
+
+    System.setProperty(ResultSink.EXPORT_PROPERTY, "csv");
+    System.setProperty(ParameterFilter.FILTER_PROPERTY, "Id=9007199254740993");
+    runAndListen();
+    List<String> lines = Files.readAllLines(csv.toPath(), Charset.forName("UTF-8"));
+    assertEquals(5, lines.size());
+    assertTrue(lines.get(1), lines.get(1).contains("Id=9007199254740993;Impl=ARRAY;Note=hello world"));
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+
+public class RunOrderTest {
+
+  static final List<Integer> calls = Collections.synchronizedList(new ArrayList<Integer>());
+
+  @RunWith(PerfRunner.class)
+  public static class RecordingClass {
+
+    @Test
+    @Trials(2)
+    public void recordsOrder(@Varying(name="x", axis=Axis.X, from=1, to=20) int x) {
+      calls.add(x);
+    }
+  }
+
+  @After
+  public void cleanUp() {
+    System.clearProperty(RunOrder.ORDER_PROPERTY);
+    calls.clear();
+  }
+
+  private static int[] declaredRuns(int count) {
+    int[] runs = new int[count];
+    for (int i = 0; i < count; i++) {
+      runs[i] = i;
+    }
+    return runs;
+  }
+
+  @Test
+  public void testInterleavedRunsOneTrialOfEachCombinationPerRound() {
+    int[] arranged = RunOrder.INTERLEAVED.arrange(declaredRuns(6), 2);
+    assertEquals(6, arranged.length);
+    for (int i = 0; i < 6; i++) {
+      assertEquals(i % 3, arranged[i] / 2);
+      assertEquals(i / 3, arranged[i] % 2);
+    }
+  }
+
+  @Test
+  public void testInterleavedSkipsFilteredRuns() {
+    // combination 1 was filtered out entirely, and combination 2's first trial
+    int[] arranged = RunOrder.INTERLEAVED.arrange(new int[] { 0, 1, 5 }, 2);
+    assertArrayEquals(new int[] { 0, 5, 1 }, arranged);
+  }
+
+  @Test
+  public void testRandomKeepsTrialsOfEachCombinationInOrder() {
+    int[] arranged = RunOrder.RANDOM.arrange(declaredRuns(30), 3);
+    assertEquals(30, arranged.length);
+
+    List<Integer> combinations = new ArrayList<Integer>();
+    int[] lastTrial = new int[10];
+    for (int run : arranged) {
+      int c = run / 3;
+      assertEquals(lastTrial[c] + 1, run % 3 + 1);
+      lastTrial[c] = run % 3 + 1;
+      combinations.add(c);
+    }
+    for (int c = 0; c < 10; c++) {
+      assertEquals(3, lastTrial[c]);
+    }
+    List<Integer> sorted = new ArrayList<Integer>(combinations);
+    Collections.sort(sorted);
+    assertFalse(combinations.equals(sorted));
+  }
+
+  @Test
+  public void testRandomOrderRunsEverything() throws Exception {
+    System.setProperty(RunOrder.ORDER_PROPERTY, "random");
+    Result result = JUnitCore.runClasses(RecordingClass.class);
+    assertEquals(0, result.getFailureCount());
+    assertEquals(40, result.getRunCount());
+    assertEquals(40, calls.size());
+
+    List<Integer> sorted = new ArrayList<Integer>(calls);
+    Collections.sort(sorted);
+    assertFalse(calls.equals(sorted));
+    for (int x = 1; x <= 20; x++) {
+      assertEquals(2, Collections.frequency(calls, x));
+    }
+  }
+
+  @Test
+  public void testUnknownOrderIsRejected() throws Exception {
+    System.setProperty(RunOrder.ORDER_PROPERTY, "sideways");
+    Result result = JUnitCore.runClasses(RecordingClass.class);
+    assertEquals(1, result.getFailureCount());
+    assertTrue(calls.isEmpty());
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class RunRecordFileTest {
+
+  public void twoParams(
+      @Varying(name="a", axis=Axis.X) int a,
+      @Varying(name="b") int b) {
+    // only here for its annotations
+  }
+
+  private List<Varying> varyingAnnotations() throws Exception {
+    List<Varying> annotations = new ArrayList<Varying>();
+    for (java.lang.annotation.Annotation[] param :
+        getClass().getMethod("twoParams", int.class, int.class).getParameterAnnotations()) {
+      annotations.add((Varying) param[0]);
+    }
+    return annotations;
+  }
+
+  @Test
+  public void testReplayReturnsRunsInOrder() throws Exception {
+    List<Varying> varying = varyingAnnotations();
+    RunRecordFile file = new RunRecordFile();
+    try {
+      file.append(new PerfRunDescription("C", "first", Arrays.asList(1.0, 2.0), varying, 1),
+          RunStats.create().relativeToNow(), 0, -1);
+      file.append(new PerfRunDescription("C", "second", Arrays.asList(3.0, 4.0), varying, 2),
+          RunStats.create().relativeToNow(), 5, 17);
+      file.append(new PerfRunDescription("C", "first", Arrays.asList(5.0, 6.0), varying, 1),
+          RunStats.create().relativeToNow(), 0, -1);
+
+      final List<String> replayed = new ArrayList<String>();
+      file.replay(new RunRecordFile.Visitor() {
+        @Override
+        public void run(PerfRunDescription desc, RunStats runStats, int warmupIterations, long warmupCompilationMillis) {
+          replayed.add(desc.getMethodName() + "[" + desc.getParamString() + "] #" + desc.getTrial() +
+              " warmup " + warmupIterations + "/" + warmupCompilationMillis);
+        }
+      });
+      assertEquals(Arrays.asList(
+          "first[a=1.0;b=2.0] #1 warmup 0/-1",
+          "second[a=3.0;b=4.0] #2 warmup 5/17",
+          "first[a=5.0;b=6.0] #1 warmup 0/-1"), replayed);
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testRunStatsRoundTrip() throws Exception {
+    Map<String, Long> before = new LinkedHashMap<String, Long>();
+    before.put("Eden", 100L);
+    before.put("Old Gen", 10L);
+    Map<String, Long> after = Collections.singletonMap("Old Gen", 30L);
+    GcStats gc = new GcStats(
+        Arrays.asList(new GcStats.CollectorStats("Young", 1, 4)),
+        Arrays.asList(new GcStats.Pause("Young", "end of minor GC", "Allocation Failure", 4, false, before, after, 20)));
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    gc.writeTo(new DataOutputStream(bytes));
+    GcStats read = GcStats.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    assertEquals(1, read.totalCount());
+    assertEquals(4, read.totalTimeMillis());
+    assertEquals(4, read.pauseMillis());
+    assertEquals(20, read.promotedBytes());
+    assertEquals("Allocation Failure", read.getPauses().get(0).getCause());
+    assertEquals(before, read.getPauses().get(0).getUsedBefore());
+    assertEquals(after, read.getPauses().get(0).getUsedAfter());
+
+    RunStats rs = RunStats.create().relativeToNow().withOperations(1000, 50000, 64000);
+    bytes = new ByteArrayOutputStream();
+    rs.writeTo(new DataOutputStream(bytes));
+    RunStats readStats = RunStats.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    assertEquals(rs.nanoTime(), readStats.nanoTime());
+    assertEquals(1000, readStats.operations());
+    assertEquals(50.0, readStats.nanosPerOperation(), 0);
+    assertEquals(64.0, readStats.allocatedBytesPerOperation(), 0);
+    assertEquals(rs.gcCount(), readStats.gcCount());
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class SampleSummaryTest {
+
+  @Test
+  public void testSingleSample() {
+    SampleSummary s = new SampleSummary(new double[] { 42.0 });
+    assertEquals(1, s.count());
+    assertEquals(42.0, s.min(), 0.0);
+    assertEquals(42.0, s.median(), 0.0);
+    assertEquals(42.0, s.mean(), 0.0);
+    assertEquals(42.0, s.percentile(99), 0.0);
+    assertEquals(0.0, s.stdDev(), 0.0);
+  }
+
+  @Test
+  public void testUnsortedSamples() {
+    SampleSummary s = new SampleSummary(new double[] { 5, 1, 4, 2, 3 });
+    assertEquals(1.0, s.min(), 0.0);
+    assertEquals(5.0, s.max(), 0.0);
+    assertEquals(3.0, s.median(), 0.0);
+    assertEquals(3.0, s.mean(), 0.0);
+    assertEquals(Math.sqrt(2.5), s.stdDev(), 0.0001);
+  }
+
+  @Test
+  public void testInterpolatedPercentiles() {
+    SampleSummary s = new SampleSummary(new double[] { 10, 20, 30, 40 });
+    assertEquals(25.0, s.median(), 0.0001);
+    assertEquals(37.0, s.percentile(90), 0.0001);
+    assertEquals(39.7, s.percentile(99), 0.0001);
+  }
+
+  @Test
+  public void testInputIsCopied() {
+    double[] samples = { 3, 2, 1 };
+    SampleSummary s = new SampleSummary(samples);
+    samples[0] = 100;
+    assertEquals(3.0, s.max(), 0.0);
+  }
+
+  @Test
+  public void testMedianConfidenceInterval() {
+    // 5 samples can't give 95% confidence: all of them fall on one side of the median 1 time in 16
+    assertNull(new SampleSummary(new double[] { 1, 2, 3, 4, 5 }).medianConfidenceInterval(0.95));
+    assertArrayEquals(new double[] { 1, 6 },
+        new SampleSummary(new double[] { 6, 5, 4, 3, 2, 1 }).medianConfidenceInterval(0.95), 0.0);
+
+    double[] twenty = new double[20];
+    for (int i = 0; i < twenty.length; i++) {
+      twenty[i] = i + 1;
+    }
+    assertArrayEquals(new double[] { 6, 15 }, new SampleSummary(twenty).medianConfidenceInterval(0.95), 0.0);
+
+    // large enough that the binomial terms would underflow if they weren't computed in logs
+    double[] many = new double[5000];
+    for (int i = 0; i < many.length; i++) {
+      many[i] = i;
+    }
+    double[] interval = new SampleSummary(many).medianConfidenceInterval(0.95);
+    assertEquals(2430, interval[0], 2);
+    assertEquals(2569, interval[1], 2);
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testEmpty() {
+    new SampleSummary(new double[0]);
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+
+public class SamplingTest {
+
+  @RunWith(PerfRunner.class)
+  public static class RandomlySampledClass {
+
+    @Test
+    @Trials(2)
+    @Sampling(value=SamplingStrategy.RANDOM, points=3)
+    public void sampled(@Varying(name="x", axis=Axis.X, from=1, to=10) int x) {
+    }
+  }
+
+  private static List<int[]> grid(int... sizes) {
+    List<int[]> combinations = new ArrayList<int[]>();
+    int[] pointers = new int[sizes.length];
+    while (true) {
+      combinations.add(pointers.clone());
+      int pos = 0;
+      while (pos < sizes.length && ++pointers[pos] == sizes[pos]) {
+        pointers[pos++] = 0;
+      }
+      if (pos == sizes.length) {
+        return combinations;
+      }
+    }
+  }
+
+  @Test
+  public void testUnchosenCombinationsAreIgnored() throws Exception {
+    Result result = JUnitCore.runClasses(RandomlySampledClass.class);
+    assertEquals(0, result.getFailureCount());
+    assertEquals(6, result.getRunCount());
+    assertEquals(14, result.getIgnoreCount());
+  }
+
+  @Test
+  public void testLatinHypercubeUsesEveryValueOnce() throws Exception {
+    List<int[]> combinations = grid(8, 8, 8);
+    List<Integer> design = ParameterSampler.latinHypercube(combinations, 0, 42);
+    assertEquals(8, design.size());
+    for (int d = 0; d < 3; d++) {
+      Set<Integer> values = new HashSet<Integer>();
+      for (int position : design) {
+        values.add(combinations.get(position)[d]);
+      }
+      assertEquals(8, values.size());
+    }
+  }
+
+  @Test
+  public void testAdaptiveRefinesAroundStep() throws Exception {
+    List<int[]> combinations = grid(17);
+    ParameterSampler.Adaptive sampler = new ParameterSampler.Adaptive(combinations, 0);
+    List<Integer> ran = new ArrayList<Integer>();
+    int next;
+    while ((next = sampler.next()) >= 0) {
+      ran.add(next);
+      sampler.measured(next, new double[] { next < 10 ? 1.0 : 5.0 });
+    }
+
+    // the coarse grid, then the points either side of the step, and nothing on the flat parts
+    assertTrue(ran.toString(), ran.containsAll(Arrays.asList(0, 4, 8, 12, 16, 9, 10)));
+    assertTrue(ran.toString(), ran.size() < 10);
+  }
+
+  @Test
+  public void testAdaptiveStopsOnStraightLine() throws Exception {
+    List<int[]> combinations = grid(17, 2);
+    ParameterSampler.Adaptive sampler = new ParameterSampler.Adaptive(combinations, 0);
+    int count = 0;
+    int next;
+    while ((next = sampler.next()) >= 0) {
+      count++;
+      double y = 10 + combinations.get(next)[0] * (combinations.get(next)[1] + 1);
+      sampler.measured(next, new double[] { y, y + 0.001 });
+    }
+
+    // just the coarse grid of each line
+    assertEquals(10, count);
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+public class ThroughputTest {
+
+  static final AtomicLong calls = new AtomicLong();
+
+  @RunWith(PerfRunner.class)
+  public static class ThroughputClass {
+
+    @Test
+    @Throughput(time=50)
+    public void counted(@Varying(name="x", axis=Axis.X, from=1, to=2) int x) {
+      calls.incrementAndGet();
+    }
+  }
+
+  @RunWith(PerfRunner.class)
+  public static class SingleShotClass {
+
+    @Test
+    public void once(@Varying(name="x", axis=Axis.X, from=1, to=2) int x) {
+      calls.incrementAndGet();
+    }
+  }
+
+  @Before
+  public void clearCalls() {
+    calls.set(0);
+  }
+
+  @Test
+  public void testCallsAreCountedForTheGivenTime() {
+    List<RunRecord> runs = WarmupTest.recordedRuns(ThroughputClass.class);
+    assertEquals(2, runs.size());
+
+    long operations = 0;
+    for (RunRecord run : runs) {
+      assertTrue(run.toString(), run.getOperations() > 0);
+      operations += run.getOperations();
+
+      // the calls went on for at least the time asked for
+      assertTrue(run.getOperationNanos() + "ns", run.getOperationNanos() >= 50 * 1000000L);
+
+      // and are charted as a rate rather than as one run's time
+      Double opsPerSecond = run.getMetrics().get(Metric.OPERATIONS_PER_SECOND.getLabel());
+      assertEquals(run.getOperations() * 1e9 / run.getOperationNanos(), opsPerSecond, opsPerSecond * 1e-6);
+      assertFalse(run.getMetrics().containsKey(Metric.TIME.getLabel()));
+    }
+
+    // the calls that calibrate the batch size aren't counted
+    assertTrue(operations + " of " + calls.get(), operations < calls.get());
+  }
+
+  @Test
+  public void testSingleShotRunsHaveNoOperations() {
+    for (RunRecord run : WarmupTest.recordedRuns(SingleShotClass.class)) {
+      assertEquals(0, run.getOperations());
+      assertTrue(run.getMetrics().containsKey(Metric.TIME.getLabel()));
+      assertFalse(run.getMetrics().containsKey(Metric.OPERATIONS_PER_SECOND.getLabel()));
+    }
+    assertEquals(2, calls.get());
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import org.junit.runners.model.InitializationError;
+
+public class TimingScopeTest {
+
+  private static final long SETUP_MILLIS = 20;
+
+  @RunWith(PerfRunner.class)
+  public static class SlowFixtures {
+
+    @Before
+    public void slowSetUp() throws InterruptedException {
+      Thread.sleep(SETUP_MILLIS);
+    }
+
+    @Test
+    public void bodyOnly(@Varying(name="x", axis=Axis.X, from=1, to=2) int x) {
+      // nothing to measure
+    }
+
+    @Test
+    @Timing(TimingScope.WITH_FIXTURES)
+    public void withFixtures(@Varying(name="x", axis=Axis.X, from=1, to=2) int x) {
+      // nothing to measure
+    }
+  }
+
+  @RunWith(PerfRunner.class)
+  @Timing(TimingScope.WITH_CLASS_SETUP)
+  public static class SlowClassSetup {
+
+    static int setups;
+
+    @BeforeClass
+    public static void slowClassSetUp() throws InterruptedException {
+      setups++;
+      Thread.sleep(SETUP_MILLIS);
+    }
+
+    @Test
+    public void withClassSetup(@Varying(name="x", axis=Axis.X, from=1, to=3) int x) {
+      // nothing to measure
+    }
+
+    @Test
+    @Timing(TimingScope.METHOD_BODY)
+    public void bodyOnly(@Varying(name="x", axis=Axis.X, from=1, to=2) int x) {
+      // nothing to measure
+    }
+  }
+
+  @RunWith(PerfRunner.class)
+  public static class MisplacedClassSetup {
+
+    @Test
+    @Timing(TimingScope.WITH_CLASS_SETUP)
+    public void test(@Varying(name="x", axis=Axis.X, from=1, to=2) int x) {
+      // never runs
+    }
+  }
+
+  @After
+  public void cleanUp() {
+    System.clearProperty(ResultSink.EXPORT_PROPERTY);
+    new File("perfrunner-" + SlowFixtures.class.getName() + ".csv").delete();
+    new File("perfrunner-" + SlowClassSetup.class.getName() + ".csv").delete();
+  }
+
+  /**
+   * Runs the given class with CSV export, and returns the recorded time (in
+   * milliseconds) of each run of the given method.
+   */
+  private List<Double> runTimes(Class<?> testClass, String methodName) throws Exception {
+    System.setProperty(ResultSink.EXPORT_PROPERTY, "csv");
+    Result result = JUnitCore.runClasses(testClass);
+    assertEquals(0, result.getFailureCount());
+
+    List<Double> times = new ArrayList<Double>();
+    File csv = new File("perfrunner-" + testClass.getName() + ".csv");
+    for (String line : Files.readAllLines(csv.toPath(), Charset.forName("UTF-8"))) {
+      List<String> row = CsvResultSink.split(line);
+      if (row.get(1).equals(methodName)) {
+        times.add(Long.parseLong(row.get(4)) / 1000000.0);
+      }
+    }
+    return times;
+  }
+
+  @Test
+  public void testMethodBodyOnlyByDefault() throws Exception {
+    List<Double> times = runTimes(SlowFixtures.class, "bodyOnly");
+    assertEquals(2, times.size());
+    for (double t : times) {
+      assertTrue("Measured " + t + "ms", t < SETUP_MILLIS);
+    }
+  }
+
+  @Test
+  public void testWithFixtures() throws Exception {
+    List<Double> times = runTimes(SlowFixtures.class, "withFixtures");
+    assertEquals(2, times.size());
+    for (double t : times) {
+      assertTrue("Measured " + t + "ms", t >= SETUP_MILLIS);
+    }
+  }
+
+  @Test
+  public void testWithClassSetup() throws Exception {
+    SlowClassSetup.setups = 0;
+    List<Double> times = runTimes(SlowClassSetup.class, "withClassSetup");
+    assertEquals(3, times.size());
+    for (double t : times) {
+      assertTrue("Measured " + t + "ms", t >= SETUP_MILLIS);
+    }
+
+    // once per measured run, and (unmeasured) once per run of the method that doesn't include it
+    assertEquals(5, SlowClassSetup.setups);
+    for (double t : runTimes(SlowClassSetup.class, "bodyOnly")) {
+      assertTrue("Measured " + t + "ms", t < SETUP_MILLIS);
+    }
+  }
+
+  @Test
+  public void testClassSetupScopeOnMethodIsRejected() {
+    Result result = JUnitCore.runClasses(MisplacedClassSetup.class);
+    assertEquals(1, result.getFailureCount());
+    Throwable error = result.getFailures().get(0).getException();
+    while (error instanceof InitializationError) {
+      error = ((InitializationError) error).getCauses().get(0);
+    }
+    assertTrue(error.getMessage(), error.getMessage().contains("can only be used on the test class"));
+  }
+}
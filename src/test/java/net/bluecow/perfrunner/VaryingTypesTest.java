@@ -0,0 +1,94 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bluecow.perfrunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import org.junit.runners.model.InitializationError;
+
+public class VaryingTypesTest {
+
+  public enum Impl { ARRAY_LIST, LINKED_LIST }
+
+  static final List<String> calls = new ArrayList<String>();
+
+  @RunWith(PerfRunner.class)
+  public static class TypedClass {
+
+    @Test
+    public void geometric(
+        @Varying(name="Size", axis=Axis.X, from=1024, to=16384, step=2, geometric=true) long size,
+        @Varying(name="Load factor", values={"0.5", "0.75"}) double loadFactor) {
+      calls.add("geometric " + size + " " + loadFactor);
+    }
+
+    @Test
+    public void categories(
+        @Varying(name="Impl", axis=Axis.X) Impl impl,
+        @Varying(name="Name", values={"a b", "c"}) String name) {
+      calls.add("categories " + impl + " " + name);
+    }
+  }
+
+  @RunWith(PerfRunner.class)
+  public static class StringWithoutValues {
+
+    @Test
+    public void noValues(@Varying(name="Name", axis=Axis.X) String name) {
+    }
+  }
+
+  @Test
+  public void testTypedValues() throws Exception {
+    calls.clear();
+    Result result = JUnitCore.runClasses(TypedClass.class);
+    assertEquals(0, result.getFailureCount());
+    assertTrue(calls.containsAll(Arrays.asList(
+        "geometric 1024 0.5", "geometric 2048 0.75", "geometric 16384 0.5",
+        "categories ARRAY_LIST a b", "categories LINKED_LIST c")));
+    assertEquals(5 * 2 + 2 * 2, calls.size());
+
+    String html = new String(Files.readAllBytes(
+        new File("perfrunner-" + TypedClass.class.getName() + ".html").toPath()), "UTF-8");
+    assertTrue(html.contains("transform: function (v) { return Math.log(v); }"));
+    assertTrue(html.contains("ticks: [[0,\"ARRAY_LIST\"],[1,\"LINKED_LIST\"]]"));
+    assertTrue(html.contains("label: \"[Load factor=0.75]\""));
+    assertTrue(html.contains("label: \"[Name=a b]\""));
+  }
+
+  @Test
+  public void testStringNeedsValues() {
+    Result result = JUnitCore.runClasses(StringWithoutValues.class);
+    assertEquals(1, result.getFailureCount());
+    Throwable error = result.getFailures().get(0).getException();
+    while (error instanceof InitializationError) {
+      error = ((InitializationError) error).getCauses().get(0);
+    }
+    assertTrue(error.getMessage(), error.getMessage().contains("needs a list of values"));
+  }
+}
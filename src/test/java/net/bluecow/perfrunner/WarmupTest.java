@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import org.junit.runner.notification.RunListener;
+
+public class WarmupTest {
+
+  static final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+
+  @RunWith(PerfRunner.class)
+  public static class WarmedUpClass {
+
+    @Test
+    @Warmup(iterations=3)
+    @Trials(2)
+    public void byIterations(@Varying(name="x", axis=Axis.X, from=1, to=2) int x) {
+      calls.add("byIterations " + x);
+    }
+
+    @Test
+    @Warmup(time=30)
+    public void byTime(@Varying(name="x", axis=Axis.X, from=1, to=1) int x) throws InterruptedException {
+      calls.add("byTime " + x);
+      Thread.sleep(5);
+    }
+  }
+
+  @Before
+  public void clearCalls() {
+    calls.clear();
+  }
+
+  /**
+   * Runs the given test class, returning the records of its measured runs.
+   */
+  static List<RunRecord> recordedRuns(Class<?> testClass) {
+    final List<RunRecord> runs = Collections.synchronizedList(new ArrayList<RunRecord>());
+    JUnitCore core = new JUnitCore();
+    core.addListener(new RunListener() {
+      @Override
+      public void testFinished(Description description) {
+        runs.add(RunRecord.of(description));
+      }
+    });
+    Result result = core.run(testClass);
+    assertEquals(0, result.getFailureCount());
+    return runs;
+  }
+
+  @Test
+  public void testWarmupRunsAreNotRecorded() {
+    List<RunRecord> runs = recordedRuns(WarmedUpClass.class);
+
+    // 2 parameter values x 2 trials, plus the single byTime run
+    assertEquals(5, runs.size());
+    for (RunRecord run : runs) {
+      if (run.getMethodName().equals("byIterations")) {
+        // only the first trial of each combination is warmed up
+        assertEquals(run.toString(), run.getTrial() == 1 ? 3 : 0, run.getWarmupIterations());
+      }
+      assertTrue(run.toString(), run.getWarmupCompilationMillis() >= -1);
+    }
+
+    // 3 warmup runs before the first trial of each combination
+    for (int x = 1; x <= 2; x++) {
+      assertEquals(3 + 2, Collections.frequency(calls, "byIterations " + x));
+    }
+  }
+
+  @Test
+  public void testWarmupByTimeRunsUntilTimeIsUp() {
+    RunRecord byTime = null;
+    for (RunRecord run : recordedRuns(WarmedUpClass.class)) {
+      if (run.getMethodName().equals("byTime")) {
+        byTime = run;
+      }
+    }
+
+    // 30ms of 5ms runs can't be done in fewer than 6 (and the clock may be coarse)
+    assertTrue(String.valueOf(byTime.getWarmupIterations()), byTime.getWarmupIterations() >= 5);
+    assertEquals(byTime.getWarmupIterations() + 1, Collections.frequency(calls, "byTime 1"));
+  }
+}
@@ -1,7 +1,5 @@
 package net.bluecow.perfrunner.example;
 
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
@@ -9,7 +7,9 @@ import java.util.Random;
 import java.util.regex.Pattern;
 
 import net.bluecow.perfrunner.Axis;
+import net.bluecow.perfrunner.Blackhole;
 import net.bluecow.perfrunner.PerfRunner;
+import net.bluecow.perfrunner.Throughput;
 import net.bluecow.perfrunner.Varying;
 
 import org.junit.Test;
@@ -21,15 +21,6 @@ public class BigDecimalVsRegex {
   private static final char[] numbers = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9'};
   private static final Random rand = new Random();
   private static final Pattern JSON_NUMBER_PATTERN = Pattern.compile("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?");
-  private static final PrintWriter OUT;
-
-  static {
-    try {
-      OUT = new PrintWriter("/dev/null");
-    } catch (FileNotFoundException e) {
-      throw new RuntimeException(e);
-    }
-  }
 
   private String randomNumber(int digits) {
     StringBuilder sb = new StringBuilder(digits);
@@ -42,19 +33,21 @@ public class BigDecimalVsRegex {
   @Test
   public void bigDecimal(
           @Varying(axis=Axis.X, name="Digits", from=1, to=40) int digits,
-          @Varying(axis=Axis.PAGE, name="Iterations", from=10000, to=10000) int iterations) {
+          @Varying(axis=Axis.PAGE, name="Iterations", from=10000, to=10000) int iterations,
+          Blackhole bh) {
 
     List<BigDecimal> results = new ArrayList<BigDecimal>();
     for (int i = 0; i < iterations; i++) {
       results.add(new BigDecimal(randomNumber(digits)));
     }
-    OUT.println(results);
+    bh.consume(results);
   }
 
   @Test
   public void regularExpression(
           @Varying(axis=Axis.X, name="Digits", from=1, to=40) int digits,
-          @Varying(axis=Axis.PAGE, name="Iterations", from=10000, to=10000) int iterations) {
+          @Varying(axis=Axis.PAGE, name="Iterations", from=10000, to=10000) int iterations,
+          Blackhole bh) {
 
     List<String> results = new ArrayList<String>();
     for (int i = 0; i < iterations; i++) {
@@ -64,7 +57,31 @@ public class BigDecimalVsRegex {
       }
       results.add(randomNumber);
     }
-    OUT.println(results);
+    bh.consume(results);
+  }
+
+  /**
+   * The same comparison as {@link #bigDecimal(int, int, Blackhole)} and
+   * {@link #regularExpression(int, int, Blackhole)}, but using throughput
+   * mode rather than a hand-rolled loop. Returning the result keeps the JIT
+   * from optimizing away the work that produced it.
+   */
+  @Test
+  @Throughput(time=100)
+  public BigDecimal bigDecimalThroughput(
+          @Varying(axis=Axis.X, name="Digits", from=1, to=40) int digits) {
+    return new BigDecimal(randomNumber(digits));
+  }
+
+  @Test
+  @Throughput(time=100)
+  public String regularExpressionThroughput(
+          @Varying(axis=Axis.X, name="Digits", from=1, to=40) int digits) {
+    String randomNumber = randomNumber(digits);
+    if (!JSON_NUMBER_PATTERN.matcher(randomNumber).matches()) {
+      throw new NumberFormatException("Not a JSON number: \"" + digits + "\"");
+    }
+    return randomNumber;
   }
 
 }
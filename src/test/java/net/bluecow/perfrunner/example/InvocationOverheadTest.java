@@ -0,0 +1,115 @@
+/*
+ * Copyright 2012 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.bluecow.perfrunner.example;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+
+import net.bluecow.perfrunner.Axis;
+import net.bluecow.perfrunner.Blackhole;
+import net.bluecow.perfrunner.PerfRunner;
+import net.bluecow.perfrunner.Throughput;
+import net.bluecow.perfrunner.Trials;
+import net.bluecow.perfrunner.Varying;
+import net.bluecow.perfrunner.Warmup;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures what it costs PerfRunner to measure a test method, so changes to
+ * the harness can be checked for added overhead (for example, by running this
+ * with -Dperfrunner.baseline pointing at the CSV export of an earlier run).
+ * {@link #emptyRun} is the harness's own overhead in a single-shot run, and
+ * {@link #emptyBody} its per-call overhead in throughput mode.
+ * {@link #callTarget} compares a plain Java call with the two ways a harness
+ * can make one through reflection: {@link Method#invoke(Object, Object...)}, which PerfRunner used
+ * to use, and an instance of a class generated by {@link LambdaMetafactory}
+ * with the target and arguments bound, which PerfRunner uses now.
+ */
+@RunWith(PerfRunner.class)
+@Warmup(time=200)
+public class InvocationOverheadTest {
+
+  public enum Invocation { DIRECT, GENERATED, REFLECTION }
+
+  public static class Target {
+    public int xor(int a, int b) {
+      return a ^ b;
+    }
+  }
+
+  private static final int CALLS = 1000;
+
+  private static final Target TARGET = new Target();
+  private static final Method XOR;
+  private static final Callable<?> GENERATED_XOR;
+  static {
+    try {
+      XOR = Target.class.getMethod("xor", int.class, int.class);
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+      MethodHandle impl = lookup.unreflect(XOR);
+      MethodType call = MethodType.methodType(Object.class);
+      GENERATED_XOR = (Callable<?>) LambdaMetafactory.metafactory(lookup, "call",
+          impl.type().changeReturnType(Callable.class), call, impl, call).getTarget().invoke(TARGET, 7, 42);
+    } catch (Throwable e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Test
+  @Throughput(time=200)
+  public void callTarget(
+      @Varying(name="Invocation", axis=Axis.X) Invocation invocation,
+      Blackhole bh) throws Exception {
+    switch (invocation) {
+    case DIRECT:
+      for (int i = 0; i < CALLS; i++) {
+        bh.consume(TARGET.xor(7, 42));
+      }
+      break;
+
+    case GENERATED:
+      for (int i = 0; i < CALLS; i++) {
+        bh.consume(GENERATED_XOR.call());
+      }
+      break;
+
+    case REFLECTION:
+      Object[] args = { 7, 42 };
+      for (int i = 0; i < CALLS; i++) {
+        bh.consume(XOR.invoke(TARGET, args));
+      }
+      break;
+    }
+  }
+
+  @Test
+  @Trials(20)
+  public void emptyRun(@Varying(name="x", axis=Axis.X, from=1, to=1) int x) {
+  }
+
+  @Test
+  @Throughput(time=200)
+  public void emptyBody(@Varying(name="x", axis=Axis.X, from=1, to=1) int x) {
+  }
+}
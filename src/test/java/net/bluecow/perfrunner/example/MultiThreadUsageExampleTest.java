@@ -24,11 +24,14 @@ import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
+import net.bluecow.perfrunner.Concurrent;
+import net.bluecow.perfrunner.Measurements;
 import net.bluecow.perfrunner.PerfRunner;
 import net.bluecow.perfrunner.Varying;
 
@@ -40,9 +43,12 @@ import org.junit.runner.RunWith;
 @RunWith(PerfRunner.class)
 public class MultiThreadUsageExampleTest {
 
+  private Collection<Integer> sharedQueue;
+
   @Before
   public void beforeTest() {
     System.out.println("->beforeTest");
+    sharedQueue = new ConcurrentLinkedQueue<Integer>();
   }
 
   @After
@@ -53,7 +59,8 @@ public class MultiThreadUsageExampleTest {
   @Test
   public void fillArrayBlockingQueue(
       @Varying(name="Threads", from=1, to=10) int threadCount,
-      @Varying(name="List Size", axis=X, from=100000, to=1000000, step=100000) int entryCount)
+      @Varying(name="List Size", axis=X, from=100000, to=1000000, step=100000) int entryCount,
+      Measurements measurements)
           throws InterruptedException, ExecutionException {
 
     final Collection<Integer> list = new ArrayBlockingQueue<Integer>(entryCount);
@@ -87,10 +94,27 @@ public class MultiThreadUsageExampleTest {
       }
     }
 
+    // the chart can show just the time spent filling the queue, without creating the threads
+    long fillStart = System.nanoTime();
     exec.invokeAll(tasks);
+    measurements.record("Fill time (ms)", (System.nanoTime() - fillStart) / 1000000.0);
     exec.shutdown();
     exec.awaitTermination(1, TimeUnit.DAYS);
 
     assertEquals(entryCount, list.size());
   }
+
+  /**
+   * The same test as above, but PerfRunner takes care of starting the threads
+   * and timing each of them. The body runs once on each thread.
+   */
+  @Test
+  @Concurrent(threadsFrom="Threads")
+  public void fillQueueConcurrently(
+      @Varying(name="Threads", from=1, to=10) int threadCount,
+      @Varying(name="List Size", axis=X, from=100000, to=1000000, step=100000) int entryCount) {
+    for (int i = 0; i < entryCount / threadCount; i++) {
+      sharedQueue.add(Integer.valueOf(0));
+    }
+  }
 }
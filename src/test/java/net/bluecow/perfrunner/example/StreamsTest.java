@@ -5,7 +5,9 @@ import java.util.ArrayList;
 import java.util.List;
 
 import net.bluecow.perfrunner.Axis;
+import net.bluecow.perfrunner.Blackhole;
 import net.bluecow.perfrunner.PerfRunner;
+import net.bluecow.perfrunner.Trials;
 import net.bluecow.perfrunner.Varying;
 
 import org.junit.Test;
@@ -23,10 +25,11 @@ public class StreamsTest {
   }
 
   @Test
+  @Trials(10)
   public void testDifferentSummingApproaches(
       @Varying(name="Method", axis=Axis.SERIES, from=0, to=2) int method,
       @Varying(name="List Length", axis=Axis.X, from=0, to=1_000_000, step=100_000) int listLength,
-      @Varying(name="Trial", axis=Axis.PAGE, from=1, to=10) int trial) throws Exception {
+      Blackhole bh) throws Exception {
 
     List<BigInteger> input = NUMBERS.subList(0, listLength);
     BigInteger sum;
@@ -49,6 +52,6 @@ public class StreamsTest {
     default:
       throw new IllegalArgumentException("Bad method " + method);
     }
-    //System.out.println("Sum=" + sum);
+    bh.consume(sum);
   }
 }
@@ -20,11 +20,13 @@ import static org.junit.Assert.assertEquals;
 import net.bluecow.perfrunner.Axis;
 import net.bluecow.perfrunner.PerfRunner;
 import net.bluecow.perfrunner.Varying;
+import net.bluecow.perfrunner.Warmup;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
 @RunWith(PerfRunner.class)
+@Warmup(iterations=20)
 public class StringConcatencationTest {
 
   @Test